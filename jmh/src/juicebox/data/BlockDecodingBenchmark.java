@@ -0,0 +1,169 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2020 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.data;
+
+import org.broad.igv.util.CompressionUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Decoding of a single v9 block in each representation: list of rows with short or int bin coordinates
+ * (chosen separately for x and y) and dense, each with short or float counts.
+ * The synthetic block is 300 x 300 bins with about two thirds of the cells occupied.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlockDecodingBenchmark {
+
+    private static final int VERSION = 9;
+    private static final int BLOCK_WIDTH = 300;
+
+    // rows_xy: list of rows with short (s) or int (i) x and y coordinates
+    @Param({"rows_ss", "rows_si", "rows_is", "rows_ii", "dense"})
+    public String layout;
+
+    @Param({"true", "false"})
+    public boolean shortCounts;
+
+    private byte[] buffer;
+    private byte[] compressedBuffer;
+    private final CompressionUtils compressionUtils = new CompressionUtils();
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0);
+        float[][] counts = new float[BLOCK_WIDTH][BLOCK_WIDTH];
+        int nRecords = 0;
+        for (int y = 0; y < BLOCK_WIDTH; y++) {
+            for (int x = 0; x < BLOCK_WIDTH; x++) {
+                if (random.nextInt(3) > 0) {
+                    float value = 1 + random.nextInt(1000);
+                    counts[y][x] = shortCounts ? value : value + random.nextFloat();
+                    nRecords++;
+                }
+            }
+        }
+
+        boolean isDense = layout.equals("dense");
+        boolean shortBinX = isDense || layout.charAt(5) == 's';
+        boolean shortBinY = isDense || layout.charAt(6) == 's';
+        int valueSize = shortCounts ? 2 : 4;
+        ByteBuffer bytes = ByteBuffer.allocate(32 + BLOCK_WIDTH * 8 + BLOCK_WIDTH * BLOCK_WIDTH * (4 + valueSize))
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        bytes.putInt(nRecords);
+        bytes.putInt(20000); // binXOffset
+        bytes.putInt(20000); // binYOffset
+        bytes.put((byte) (shortCounts ? 0 : 1));
+        bytes.put((byte) (shortBinX ? 0 : 1));
+        bytes.put((byte) (shortBinY ? 0 : 1));
+
+        if (isDense) {
+            bytes.put((byte) 2);
+            bytes.putInt(BLOCK_WIDTH * BLOCK_WIDTH);
+            bytes.putShort((short) BLOCK_WIDTH);
+            for (int y = 0; y < BLOCK_WIDTH; y++) {
+                for (int x = 0; x < BLOCK_WIDTH; x++) {
+                    boolean isEmpty = counts[y][x] == 0;
+                    if (shortCounts) {
+                        bytes.putShort(isEmpty ? Short.MIN_VALUE : (short) counts[y][x]);
+                    } else {
+                        bytes.putFloat(isEmpty ? Float.NaN : counts[y][x]);
+                    }
+                }
+            }
+        } else {
+            bytes.put((byte) 1);
+            putShortOrInt(bytes, BLOCK_WIDTH, shortBinY);
+            for (int y = 0; y < BLOCK_WIDTH; y++) {
+                int colCount = 0;
+                for (int x = 0; x < BLOCK_WIDTH; x++) {
+                    if (counts[y][x] > 0) colCount++;
+                }
+                putShortOrInt(bytes, y, shortBinY);
+                putShortOrInt(bytes, colCount, shortBinX);
+                for (int x = 0; x < BLOCK_WIDTH; x++) {
+                    if (counts[y][x] > 0) {
+                        putShortOrInt(bytes, x, shortBinX);
+                        if (shortCounts) {
+                            bytes.putShort((short) counts[y][x]);
+                        } else {
+                            bytes.putFloat(counts[y][x]);
+                        }
+                    }
+                }
+            }
+        }
+
+        buffer = new byte[bytes.position()];
+        bytes.flip();
+        bytes.get(buffer);
+        compressedBuffer = compress(buffer);
+    }
+
+    private static void putShortOrInt(ByteBuffer bytes, int value, boolean useShort) {
+        if (useShort) {
+            bytes.putShort((short) value);
+        } else {
+            bytes.putInt(value);
+        }
+    }
+
+    private static byte[] compress(byte[] data) {
+        Deflater compressor = new Deflater();
+        compressor.setInput(data);
+        compressor.finish();
+        byte[] output = new byte[data.length + 1024];
+        int length = 0;
+        while (!compressor.finished()) {
+            length += compressor.deflate(output, length, output.length - length);
+        }
+        compressor.end();
+        byte[] result = new byte[length];
+        System.arraycopy(output, 0, result, 0, length);
+        return result;
+    }
+
+    @Benchmark
+    public List<ContactRecord> decode() throws IOException {
+        return DatasetReaderV2.readBlockRecords(buffer, VERSION);
+    }
+
+    @Benchmark
+    public List<ContactRecord> inflateAndDecode() throws IOException {
+        return DatasetReaderV2.readBlockRecords(compressionUtils.decompress(compressedBuffer), VERSION);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2020 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.tools.utils.juicer.hiccups;
+
+import juicebox.tools.clt.juicer.HiCCUPS;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU HiCCUPS on one region at the default 5 kb settings (peak width 4, window 7, 512 x 512 region):
+ * the direct loops of GPUController.runCPUVersion against the tiled summed-area table kernel.
+ * The region is synthetic, with distance-decaying counts and a few unmappable (NaN) rows and columns.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HiCCUPSKernelBenchmark {
+
+    private static final int MATRIX_SIZE = 512;
+    private static final int PEAK_WIDTH = 4;
+    private static final int WINDOW = 7;
+
+    @Param({"0", "256"})
+    public int columnOffset;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private double[][] region;
+    private float[] expected;
+    private float[] kr1, kr2;
+    private float[] thresholdBL, thresholdDonut, thresholdH, thresholdV;
+    private int[] rowBounds, columnBounds;
+    private GPUController directController;
+    private CPUPeakCallingKernel kernel;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0);
+        int rowStart = 10000;
+        int columnStart = rowStart + columnOffset;
+        int diff = rowStart - columnStart;
+
+        expected = new float[MATRIX_SIZE * 4];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = (float) (400 / Math.pow(1 + i, 0.9));
+        }
+
+        region = new double[MATRIX_SIZE][MATRIX_SIZE];
+        for (int i = 0; i < MATRIX_SIZE; i++) {
+            for (int j = 0; j < MATRIX_SIZE; j++) {
+                float e = expected[Math.abs(i + diff - j)];
+                region[i][j] = Math.round(e * (0.5 + random.nextDouble()));
+            }
+        }
+        for (int k = 0; k < 4; k++) {
+            int unmappable = 30 + random.nextInt(MATRIX_SIZE - 60);
+            for (int j = 0; j < MATRIX_SIZE; j++) {
+                region[unmappable][j] = Double.NaN;
+                region[j][unmappable] = Double.NaN;
+            }
+        }
+
+        kr1 = new float[MATRIX_SIZE];
+        kr2 = new float[MATRIX_SIZE];
+        for (int i = 0; i < MATRIX_SIZE; i++) {
+            kr1[i] = (float) (0.8 + 0.4 * random.nextDouble());
+            kr2[i] = (float) (0.8 + 0.4 * random.nextDouble());
+        }
+
+        thresholdBL = newThresholds(random);
+        thresholdDonut = newThresholds(random);
+        thresholdH = newThresholds(random);
+        thresholdV = newThresholds(random);
+
+        int margin = HiCCUPS.regionMargin;
+        rowBounds = new int[]{rowStart, rowStart + MATRIX_SIZE, margin, MATRIX_SIZE - margin,
+                rowStart + margin, rowStart + MATRIX_SIZE - margin};
+        columnBounds = new int[]{columnStart, columnStart + MATRIX_SIZE, margin, MATRIX_SIZE - margin,
+                columnStart + margin, columnStart + MATRIX_SIZE - margin};
+
+        pool = new ForkJoinPool(threads);
+        directController = new GPUController(WINDOW, MATRIX_SIZE, PEAK_WIDTH, true, pool);
+        kernel = new CPUPeakCallingKernel(WINDOW, MATRIX_SIZE, PEAK_WIDTH, pool);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    private static float[] newThresholds(Random random) {
+        float[] thresholds = new float[HiCCUPS.w1];
+        for (int i = 0; i < thresholds.length; i++) {
+            thresholds[i] = (float) (i + 10 * random.nextDouble());
+        }
+        return thresholds;
+    }
+
+    @Benchmark
+    public GPUOutputContainer runCPUVersion() {
+        return directController.runCPUVersion(region, expected, kr1, kr2,
+                new float[]{rowBounds[0]}, new float[]{columnBounds[0]},
+                thresholdBL, thresholdDonut, thresholdH, thresholdV, rowBounds, columnBounds);
+    }
+
+    @Benchmark
+    public GPUOutputContainer summedAreaTableKernel() {
+        int x1 = rowBounds[2];
+        int y1 = columnBounds[2];
+        return kernel.run(region, expected, kr1, kr2, rowBounds[0] - columnBounds[0],
+                thresholdBL, thresholdDonut, thresholdH, thresholdV,
+                x1, x1 + rowBounds[5] - rowBounds[4], y1, y1 + columnBounds[5] - columnBounds[4]);
+    }
+}
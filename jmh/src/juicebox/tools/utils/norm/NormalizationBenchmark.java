@@ -0,0 +1,100 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2020 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.tools.utils.norm;
+
+import juicebox.data.ContactRecord;
+import juicebox.data.basics.ListOfFloatArrays;
+import juicebox.tools.utils.norm.final2.FinalScale;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Balancing one intra-chromosomal matrix with KR and with SCALE (FinalScale), run to convergence.
+ * The matrix is synthetic: 5000 bins with distance-decaying counts up to 500 bins off the diagonal,
+ * varying row coverage and a few empty rows, split into lists of records as they come from the blocks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class NormalizationBenchmark {
+
+    private static final int MATRIX_SIZE = 5000;
+    private static final int MAX_DISTANCE = 500;
+    private static final int ROWS_PER_LIST = 250;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private final List<List<ContactRecord>> contactRecords = new ArrayList<>();
+    private ListOfFloatArrays targetVector;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0);
+        float[] coverage = new float[MATRIX_SIZE];
+        for (int i = 0; i < MATRIX_SIZE; i++) {
+            coverage[i] = random.nextInt(100) == 0 ? 0 : (float) (0.5 + random.nextDouble());
+        }
+
+        List<ContactRecord> records = new ArrayList<>();
+        for (int x = 0; x < MATRIX_SIZE; x++) {
+            for (int y = x; y < Math.min(MATRIX_SIZE, x + MAX_DISTANCE); y++) {
+                float counts = (float) Math.floor(coverage[x] * coverage[y] * 1000 / Math.pow(1 + y - x, 1.1)
+                        + random.nextDouble());
+                if (counts > 0) {
+                    records.add(new ContactRecord(x, y, counts));
+                }
+            }
+            if ((x + 1) % ROWS_PER_LIST == 0) {
+                contactRecords.add(records);
+                records = new ArrayList<>();
+            }
+        }
+        if (records.size() > 0) {
+            contactRecords.add(records);
+        }
+
+        targetVector = new ListOfFloatArrays(MATRIX_SIZE, 1);
+    }
+
+    @Benchmark
+    public ListOfFloatArrays kr() {
+        NormalizationCalculations calculations = new NormalizationCalculations(contactRecords, MATRIX_SIZE);
+        calculations.setNumThreads(threads);
+        return calculations.computeKR();
+    }
+
+    @Benchmark
+    public ListOfFloatArrays scale() {
+        return FinalScale.scaleToTargetVector(contactRecords, targetVector, null, null, threads);
+    }
+}
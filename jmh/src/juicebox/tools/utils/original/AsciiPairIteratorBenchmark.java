@@ -0,0 +1,120 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2020 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.tools.utils.original;
+
+import juicebox.data.ChromosomeHandler;
+import juicebox.data.basics.Chromosome;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a merged_nodups style file with AsciiPairIterator, as in the first pass of pre,
+ * for the short, medium and DCIC pairs formats. The file is synthetic and read through the OS page cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AsciiPairIteratorBenchmark {
+
+    private static final int NUM_LINES = 200000;
+    private static final int NUM_CHROMOSOMES = 5;
+    private static final int CHROMOSOME_LENGTH = 100000000;
+
+    @Param({"short", "medium", "dcic"})
+    public String format;
+
+    private File pairsFile;
+    private ChromosomeHandler handler;
+    private final Map<String, Integer> chromosomeOrdinals = new HashMap<>();
+
+    @Setup
+    public void setup() throws IOException {
+        List<Chromosome> chromosomes = new ArrayList<>();
+        chromosomes.add(new Chromosome(0, "All", 0));
+        for (int i = 1; i <= NUM_CHROMOSOMES; i++) {
+            chromosomes.add(new Chromosome(i, "chr" + i, CHROMOSOME_LENGTH));
+        }
+        handler = new ChromosomeHandler(chromosomes, "synthetic", false);
+        for (int i = 0; i < handler.size(); i++) {
+            chromosomeOrdinals.put(handler.getChromosomeFromIndex(i).getName(), i);
+        }
+
+        Random random = new Random(0);
+        pairsFile = File.createTempFile("pairs", ".txt");
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(pairsFile)))) {
+            if (format.equals("dcic")) {
+                writer.println("## pairs format v1.0");
+                writer.println("#columns: readID chr1 pos1 chr2 pos2 strand1 strand2");
+            }
+            for (int i = 0; i < NUM_LINES; i++) {
+                int chr1 = 1 + random.nextInt(NUM_CHROMOSOMES);
+                int chr2 = random.nextInt(4) == 0 ? chr1 + random.nextInt(NUM_CHROMOSOMES - chr1 + 1) : chr1;
+                int pos1 = random.nextInt(CHROMOSOME_LENGTH);
+                int pos2 = chr1 == chr2 ? Math.min(CHROMOSOME_LENGTH - 1, pos1 + random.nextInt(2000000))
+                        : random.nextInt(CHROMOSOME_LENGTH);
+                int str1 = random.nextInt(2), str2 = random.nextInt(2);
+                int frag1 = pos1 / 4000, frag2 = pos2 / 4000;
+                switch (format) {
+                    case "short":
+                        writer.println(str1 + " chr" + chr1 + " " + pos1 + " " + frag1 + " " +
+                                str2 + " chr" + chr2 + " " + pos2 + " " + frag2);
+                        break;
+                    case "medium":
+                        writer.println("read" + i + " " + str1 + " chr" + chr1 + " " + pos1 + " " + frag1 + " " +
+                                str2 + " chr" + chr2 + " " + pos2 + " " + frag2 + " " + (30 + random.nextInt(31)) + " " +
+                                (30 + random.nextInt(31)));
+                        break;
+                    default:
+                        writer.println("read" + i + "\tchr" + chr1 + "\t" + pos1 + "\tchr" + chr2 + "\t" + pos2 + "\t" +
+                                (str1 == 0 ? "+" : "-") + "\t" + (str2 == 0 ? "+" : "-"));
+                        break;
+                }
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        pairsFile.delete();
+    }
+
+    @Benchmark
+    public long parse() throws IOException {
+        AsciiPairIterator iterator = new AsciiPairIterator(pairsFile.getAbsolutePath(), chromosomeOrdinals, handler);
+        long sum = 0;
+        while (iterator.hasNext()) {
+            AlignmentPair pair = iterator.next();
+            sum += pair.getPos1() + pair.getChr2();
+        }
+        iterator.close();
+        return sum;
+    }
+}
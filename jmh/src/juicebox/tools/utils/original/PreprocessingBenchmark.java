@@ -0,0 +1,105 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2020 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.tools.utils.original;
+
+import htsjdk.tribble.util.LittleEndianOutputStream;
+import juicebox.data.basics.Chromosome;
+import org.broad.igv.util.collections.DownsampledDoubleArrayList;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * The per-contact and per-block work of pre: accumulating contacts into a BlockPP and
+ * encoding and compressing a finished block with MatrixZoomDataPP.writeBlock.
+ * Contacts are synthetic, decaying with distance from the diagonal of a 1000 x 1000 bin block.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PreprocessingBenchmark {
+
+    private static final int BLOCK_WIDTH = 1000;
+    private static final int BIN_SIZE = 5000;
+
+    @Param({"100000", "1000000"})
+    public int numContacts;
+
+    private int[] cols, rows;
+    private BlockPP filledBlock;
+    private MatrixZoomDataPP zd;
+    private final Deflater compressor = new Deflater();
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0);
+        cols = new int[numContacts];
+        rows = new int[numContacts];
+        for (int i = 0; i < numContacts; i++) {
+            int col = random.nextInt(BLOCK_WIDTH);
+            int distance = (int) Math.min(BLOCK_WIDTH - 1, Math.abs(random.nextGaussian()) * BLOCK_WIDTH / 8);
+            cols[i] = col;
+            rows[i] = Math.min(BLOCK_WIDTH - 1, col + distance);
+        }
+
+        filledBlock = new BlockPP(0);
+        for (int i = 0; i < numContacts; i++) {
+            filledBlock.incrementCount(cols[i], rows[i], 1);
+        }
+
+        Chromosome chromosome = new Chromosome(1, "chr1", (long) BLOCK_WIDTH * BIN_SIZE);
+        zd = new MatrixZoomDataPP(chromosome, chromosome, BIN_SIZE, 1, 0, false, null, 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        compressor.end();
+    }
+
+    @Benchmark
+    public BlockPP incrementCount() {
+        BlockPP block = new BlockPP(0);
+        for (int i = 0; i < numContacts; i++) {
+            block.incrementCount(cols[i], rows[i], 1);
+        }
+        return block;
+    }
+
+    @Benchmark
+    public int writeBlock() throws IOException {
+        output.reset();
+        LittleEndianOutputStream los = new LittleEndianOutputStream(output);
+        zd.writeBlock(zd, filledBlock, new DownsampledDoubleArrayList(10000, 10000), los, compressor);
+        return output.size();
+    }
+}
@@ -69,7 +69,7 @@ public class HiCGlobals {
     public static Color HIC_MAP_COLOR = Color.RED;
     public static final Color HIGHLIGHT_COLOR = Color.BLACK;
     public static final Color SELECT_FEATURE_COLOR = Color.DARK_GRAY;
-    public static int MAX_PEARSON_ZOOM = 500000;
+    public static int MAX_PEARSON_ZOOM = 100000;
 
     // implement Map scaling with this global variable
     public static double hicMapScale = 1;
@@ -78,6 +78,10 @@ public class HiCGlobals {
     public static boolean useCache = true;
     public static boolean guiIsCurrentlyActive = false;
     public static boolean allowDynamicBlockIndex = true;
+    // read large normalization vectors in pages as they are needed instead of all at once
+    public static boolean usePagedNormalizationVectors = false;
+    // storage for normalization and expected vectors read from file
+    public static VectorStorage vectorStorage = VectorStorage.DOUBLE;
     public static boolean printVerboseComments = false;
     public static boolean slideshowEnabled = false;
     public static boolean splitModeEnabled = false;
@@ -141,4 +145,6 @@ public class HiCGlobals {
     }
 
     public enum menuType {MAP, LOCATION, STATE}
+
+    public enum VectorStorage {DOUBLE, FLOAT, OFF_HEAP}
 }
@@ -75,6 +75,7 @@ public class MainWindow extends JFrame {
     private MainWindow() {
         setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
         HiCGlobals.guiIsCurrentlyActive = true;
+        HiCGlobals.usePagedNormalizationVectors = true;
         hic = new HiC(superAdapter);
         MainViewPanel mainViewPanel = new MainViewPanel();
         superAdapter.setAdapters(this, hic, mainViewPanel);
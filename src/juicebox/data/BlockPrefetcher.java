@@ -0,0 +1,112 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2020 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+
+package juicebox.data;
+
+import juicebox.tools.utils.common.TaskRunner;
+import juicebox.windowui.NormalizationType;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Returns the normalized blocks of a matrix in the given order, while the next blocks are read and inflated
+ * on the shared task pool; the consumer only waits for a block if it is faster than the readers.
+ * With one thread (or when already running on a pool thread) blocks are read on the calling thread.
+ */
+public class BlockPrefetcher {
+
+    private final MatrixZoomData zd;
+    private final NormalizationType norm;
+    private final List<Integer> blockNumbers;
+    private final TaskRunner taskRunner;
+    private final int readAhead;
+    private final Deque<Future<Block>> blocksInFlight = new ArrayDeque<>();
+    private int nextBlockIndex = 0;
+
+    public BlockPrefetcher(MatrixZoomData zd, NormalizationType norm, List<Integer> blockNumbers, int numThreads) {
+        this.zd = zd;
+        this.norm = norm;
+        this.blockNumbers = blockNumbers;
+        if (numThreads > 1 && !TaskRunner.isRunningOnPool()) {
+            taskRunner = TaskRunner.getShared(numThreads);
+            readAhead = 2 * numThreads;
+        } else {
+            taskRunner = null;
+            readAhead = 0;
+        }
+    }
+
+    public boolean hasNext() {
+        return nextBlockIndex < blockNumbers.size() || !blocksInFlight.isEmpty();
+    }
+
+    /**
+     * @return next block, or null if it has no records (as DatasetReader.readNormalizedBlock);
+     * blocks go through the block cache of the matrix when HiCGlobals.useCache is set
+     */
+    public Block next() throws IOException {
+        if (taskRunner == null) {
+            return zd.getNormalizedBlock(blockNumbers.get(nextBlockIndex++), norm);
+        }
+        submitReads();
+        Future<Block> block = blocksInFlight.poll();
+        submitReads();
+        try {
+            return block.get();
+        } catch (ExecutionException e) {
+            close();
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            close();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading blocks");
+        }
+    }
+
+    private void submitReads() {
+        while (blocksInFlight.size() < readAhead && nextBlockIndex < blockNumbers.size()) {
+            final int blockNumber = blockNumbers.get(nextBlockIndex++);
+            blocksInFlight.add(taskRunner.getPool().submit(() -> zd.getNormalizedBlock(blockNumber, norm)));
+        }
+    }
+
+    /**
+     * Cancels the reads still in flight (only needed if the consumer stops early)
+     */
+    public void close() {
+        TaskRunner.cancelAll(blocksInFlight);
+        blocksInFlight.clear();
+        nextBlockIndex = blockNumbers.size();
+    }
+}
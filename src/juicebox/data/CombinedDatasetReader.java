@@ -180,6 +180,19 @@ public class CombinedDatasetReader implements DatasetReader {
         return blockNumbers;
     }
 
+    @Override
+    public int getBlockSizeInBytes(MatrixZoomData matrixZoomData, int blockNumber) {
+        int totalSize = 0;
+        for (DatasetReader r : readers) {
+            if (r.isActive()) {
+                int size = r.getBlockSizeInBytes(matrixZoomData, blockNumber);
+                if (size < 0) return -1;
+                totalSize += size;
+            }
+        }
+        return totalSize;
+    }
+
     @Override
     public double[] readEigenvector(String chr, HiCZoom zoom, int number, String type) {
         // Eigenvectors not supported for combined datasets
@@ -203,6 +216,11 @@ public class CombinedDatasetReader implements DatasetReader {
         return null; //Undefined for combined datasets
     }
 
+    @Override
+    public long getNormalizationVectorLength(NormalizationType type, int chrIdx, HiC.Unit unit, int binSize) {
+        return -1; //Undefined for combined datasets
+    }
+
     @Override
     public BasicMatrix readPearsons(String chr1Name, String chr2Name, HiCZoom zoom, NormalizationType type) {
         // At this time combined datasets do not have precomputed pearsons.
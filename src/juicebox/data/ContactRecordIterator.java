@@ -74,10 +74,8 @@ class ContactRecordIterator implements Iterator<ContactRecord> {
 
                     // Optionally check the cache
                     String key = zd.getBlockKey(blockNumber, NormalizationHandler.NONE);
-                    Block nextBlock;
-                    if (HiCGlobals.useCache && blockCache.containsKey(key)) {
-                        nextBlock = blockCache.get(key);
-                    } else {
+                    Block nextBlock = HiCGlobals.useCache ? blockCache.get(key) : null;
+                    if (nextBlock == null) {
                         nextBlock = reader.readNormalizedBlock(blockNumber, zd, NormalizationHandler.NONE);
                     }
                     currentBlockIterator = nextBlock.getContactRecords().iterator();
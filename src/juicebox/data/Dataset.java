@@ -45,6 +45,7 @@ import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author jrobinso
@@ -52,7 +53,7 @@ import java.util.*;
  */
 public class Dataset {
 
-    private final Map<String, Matrix> matrices = new HashMap<>(625);
+    private final Map<String, Matrix> matrices = new ConcurrentHashMap<>(625);
     private final DatasetReader reader;
     private final LRUCache<String, double[]> eigenvectorCache;
     private final LRUCache<String, NormalizationVector> normalizationVectorCache;
@@ -101,7 +102,9 @@ public class Dataset {
                     m = reader.readMatrix(key);
                 }
 
-                matrices.put(key, m);
+                if (m != null) {
+                    matrices.put(key, m);
+                }
 
             } catch (Exception e) {
                 System.err.println("Error fetching matrix for: " + chr1.getName() + "-" + chr2.getName());
@@ -864,6 +867,15 @@ public class Dataset {
 
 
     public double[] getEigenvector(Chromosome chr, HiCZoom zoom, int number, NormalizationType type) {
+        return getEigenvector(chr, zoom, number, type, Runtime.getRuntime().availableProcessors(), false);
+    }
+
+    /**
+     * @param anyResolution compute the Pearson's even at resolutions finer than HiCGlobals.MAX_PEARSON_ZOOM
+     * @return the eigenvector, empty if it cannot be computed
+     */
+    public double[] getEigenvector(Chromosome chr, HiCZoom zoom, int number, NormalizationType type, int numThreads,
+                                   boolean anyResolution) {
 
         String key = chr.getName() + "_" + zoom.getKey() + "_" + number + "_" + type;
         if (!eigenvectorCache.containsKey(key)) {
@@ -874,8 +886,8 @@ public class Dataset {
             ExpectedValueFunction df = getExpectedValues(zoom, type);
             Matrix m = getMatrix(chr, chr);
             MatrixZoomData mzd = m.getZoomData(zoom);
-            if (df != null && mzd.getPearsons(df) != null) {
-                eigenvector = mzd.computeEigenvector(df, number);
+            if (df != null && mzd.getPearsons(df, numThreads, anyResolution) != null) {
+                eigenvector = mzd.computeEigenvector(df, number, numThreads, anyResolution);
             } else {
                 eigenvector = new double[0];
             }
@@ -887,7 +899,7 @@ public class Dataset {
 
     }
 
-    public NormalizationVector getNormalizationVector(int chrIdx, HiCZoom zoom, NormalizationType type) {
+    public synchronized NormalizationVector getNormalizationVector(int chrIdx, HiCZoom zoom, NormalizationType type) {
 
         String key = NormalizationVector.getKey(type, chrIdx, zoom.getUnit().toString(), zoom.getBinSize());
 
@@ -899,7 +911,16 @@ public class Dataset {
             return null;
         }  else if (!normalizationVectorCache.containsKey(key)) {
             try {
-                NormalizationVector nv = reader.readNormalizationVector(type, chrIdx, zoom.getUnit(), zoom.getBinSize());
+                NormalizationVector nv = null;
+                if (HiCGlobals.usePagedNormalizationVectors) {
+                    long length = reader.getNormalizationVectorLength(type, chrIdx, zoom.getUnit(), zoom.getBinSize());
+                    if (length > 4 * PagedNormalizationVector.PAGE_SIZE) {
+                        nv = new PagedNormalizationVector(type, chrIdx, zoom.getUnit(), zoom.getBinSize(), length, reader);
+                    }
+                }
+                if (nv == null) {
+                    nv = reader.readNormalizationVector(type, chrIdx, zoom.getUnit(), zoom.getBinSize());
+                }
                 normalizationVectorCache.put(key, nv);
             } catch (IOException e) {
                 normalizationVectorCache.put(key, null);
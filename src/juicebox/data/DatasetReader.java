@@ -61,6 +61,13 @@ public interface DatasetReader {
      */
     List<Integer> getBlockNumbers(MatrixZoomData matrixZoomData);
 
+    /**
+     * Look up a block in the block index without reading it.
+     *
+     * @return compressed size of the block in bytes, 0 if the block is not in the file, or -1 if unknown
+     */
+    int getBlockSizeInBytes(MatrixZoomData matrixZoomData, int blockNumber);
+
     double[] readEigenvector(String chrName, HiCZoom zoom, int number, String type);
 
     void close();
@@ -69,6 +76,11 @@ public interface DatasetReader {
 
     NormalizationVector readNormalizationVectorPart(NormalizationType type, int chrIdx, HiC.Unit unit, int binSize, int bound1, int bound2) throws IOException;
 
+    /**
+     * @return number of entries in the stored normalization vector, without reading it; -1 if not available
+     */
+    long getNormalizationVectorLength(NormalizationType type, int chrIdx, HiC.Unit unit, int binSize);
+
     BasicMatrix readPearsons(String chr1Name, String chr2Name, HiCZoom zoom, NormalizationType type) throws IOException;
 
     String getPath();
@@ -30,6 +30,7 @@ import htsjdk.tribble.util.LittleEndianInputStream;
 import juicebox.HiC;
 import juicebox.HiCGlobals;
 import juicebox.data.basics.Chromosome;
+import juicebox.data.basics.FloatBackedListOfDoubleArrays;
 import juicebox.data.basics.ListOfDoubleArrays;
 import juicebox.tools.utils.original.IndexEntry;
 import juicebox.tools.utils.original.LargeIndexEntry;
@@ -49,6 +50,7 @@ import java.awt.event.ActionListener;
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -71,9 +73,12 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
     private final Map<String, BlockIndex> blockIndexMap;
     private long masterIndexPos;
     private long normVectorFilePosition;
+    private long nviHeaderPosition = -1, nviPosition = 0, nviLength = 0;
     private boolean activeStatus = true;
     private final AtomicBoolean useMainStream = new AtomicBoolean();
     public static double[] globalTimeDiffThings = new double[5];
+    private static final AtomicLong totalBlockBytesRead = new AtomicLong();
+    private static final AtomicLong totalBlocksDecompressed = new AtomicLong();
 
     @Override
     public Dataset read() throws IOException {
@@ -106,10 +111,11 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
             position += genomeId.length() + 1;
     
             if (version > 8) {
-                // read NVI todo
-                dis.readLong();
+                // position and length of the normalization vector index; 0 if not set
+                nviHeaderPosition = position;
+                nviPosition = dis.readLong();
                 position += 8;
-                dis.readLong();
+                nviLength = dis.readLong();
                 position += 8;
             }
     
@@ -335,6 +341,9 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
         long nBins2 = chr2.getLength() / binSize;
         double avgCount = (sumCounts / nBins1) / nBins2;   // <= trying to avoid overflows
         zd.setAverageCount(avgCount);
+        if (occupiedCellCount > 0) {
+            zd.setOccupiedCellCount((long) occupiedCellCount);
+        }
 
         return new Pair<>(zd, currentFilePointer);
     }
@@ -415,6 +424,17 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
         return version;
     }
 
+    /**
+     * Compressed bytes of all blocks read so far, by all readers
+     */
+    public static long getTotalBlockBytesRead() {
+        return totalBlockBytesRead.get();
+    }
+
+    public static long getTotalBlocksDecompressed() {
+        return totalBlocksDecompressed.get();
+    }
+
     private void readFooter(long position) throws IOException {
 
         stream.seek(position);
@@ -486,7 +506,7 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
             }
             //System.err.println(nValues);
 
-            ListOfDoubleArrays values = new ListOfDoubleArrays(nValues);
+            ListOfDoubleArrays values = createStoredVector(nValues);
             //System.out.println(binSize + " " + nValues + " " + stream.position());
             for (long j = 0; j < nValues; j++) {
                 if (version > 8) {
@@ -549,7 +569,7 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
                 } else {
                     nValues = dis.readInt();
                 }
-                ListOfDoubleArrays values = new ListOfDoubleArrays(nValues);
+                ListOfDoubleArrays values = createStoredVector(nValues);
                 for (long j = 0; j < nValues; j++) {
                     if (version > 8) {
                         values.set(j, dis.readFloat());
@@ -684,6 +704,14 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
         return blockIndex == null ? null : blockIndex.getBlockNumbers();
     }
 
+    @Override
+    public int getBlockSizeInBytes(MatrixZoomData zd, int blockNumber) {
+        BlockIndex blockIndex = blockIndexMap.get(zd.getKey());
+        if (blockIndex == null) return -1;
+        IndexEntry idx = blockIndex.getBlock(blockNumber);
+        return idx == null ? 0 : idx.size;
+    }
+
     private final CompressionUtils mainCompressionUtils = new CompressionUtils();
     private final CompressionUtils backUpCompressionUtils = new CompressionUtils();
 
@@ -701,6 +729,21 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
         return normVectorIndex;
     }
 
+    /**
+     * @return file position of the NVI position/length fields in the header, or -1 for files before v9
+     */
+    public long getNviHeaderPosition() {
+        return nviHeaderPosition;
+    }
+
+    public long getNviPosition() {
+        return nviPosition;
+    }
+
+    public long getNviLength() {
+        return nviLength;
+    }
+
     public long getNormFilePosition() {
         return version <= 5 ? (new File(this.path)).length() : normVectorFilePosition;
     }
@@ -741,7 +784,7 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
         } else {
             nValues = dis.readInt();
         }
-        ListOfDoubleArrays values = new ListOfDoubleArrays(nValues);
+        ListOfDoubleArrays values = createStoredVector(nValues);
         boolean allNaN = true;
         for (long i = 0; i < nValues; i++) {
             double val = version > 8 ? (double) dis.readFloat() : dis.readDouble();
@@ -783,7 +826,7 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
         LittleEndianInputStream dis = new LittleEndianInputStream(new SequenceInputStream(Collections.enumeration(disList)));
 
         long nValues = bound2-bound1+1;
-        ListOfDoubleArrays values = new ListOfDoubleArrays(nValues);
+        ListOfDoubleArrays values = createStoredVector(nValues);
         boolean allNaN = true;
         for (long i = 0; i < nValues; i++) {
             double val = version > 8 ? (double) dis.readFloat() : dis.readDouble();
@@ -800,6 +843,33 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
         else return new NormalizationVector(type, chrIdx, unit, binSize, values);
     }
 
+    /**
+     * @return container for a vector read from the file, in the storage selected by HiCGlobals.vectorStorage
+     */
+    private static ListOfDoubleArrays createStoredVector(long nValues) {
+        switch (HiCGlobals.vectorStorage) {
+            case FLOAT:
+                return new FloatBackedListOfDoubleArrays(nValues, false);
+            case OFF_HEAP:
+                return new FloatBackedListOfDoubleArrays(nValues, true);
+            default:
+                return new ListOfDoubleArrays(nValues);
+        }
+    }
+
+    @Override
+    public long getNormalizationVectorLength(NormalizationType type, int chrIdx, HiC.Unit unit, int binSize) {
+        if (normVectorIndex == null) return -1;
+        LargeIndexEntry idx = normVectorIndex.get(NormalizationVector.getKey(type, chrIdx, unit.toString(), binSize));
+        if (idx == null && type.equals(NormalizationHandler.VC_SQRT)) {
+            idx = normVectorIndex.get(NormalizationVector.getKey(NormalizationHandler.VC, chrIdx, unit.toString(), binSize));
+        }
+        if (idx == null) return -1;
+
+        // length field, then floats (v9) or doubles
+        return version > 8 ? (idx.size - 8) / 4 : (idx.size - 4) / 8;
+    }
+
     private byte[] seekAndFullyReadCompressedBytes(IndexEntry idx) throws IOException {
 
         boolean currentlyUseMainStream;
@@ -886,8 +956,6 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
                 }
                 return null;
             }
-            ListOfDoubleArrays nv1Data = nv1.getData();
-            ListOfDoubleArrays nv2Data = nv2.getData();
             timeDiffThings[1] = System.currentTimeMillis();
             Block rawBlock = readBlock(blockNumber, zd);
             timeDiffThings[2] = System.currentTimeMillis();
@@ -899,8 +967,8 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
                 int x = rec.getBinX();
                 int y = rec.getBinY();
                 float counts;
-                double valX = nv1Data.get(x);
-                double valY = nv2Data.get(y);
+                double valX = nv1.getValue(x);
+                double valY = nv2.getValue(y);
                 // todo == 0 probably not the best thing to do here
                 if (valX != 0 && valY != 0 && !Double.isNaN(valX) && !Double.isNaN(valY)) {
                     counts = (float) (rec.getCounts() / (valX * valY));
@@ -937,126 +1005,21 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
                 //System.out.println(" blockIndexPosition:" + idx.position);
                 timeDiffThings[1] = System.currentTimeMillis();
                 byte[] compressedBytes = seekAndFullyReadCompressedBytes(idx);
+                totalBlockBytesRead.addAndGet(compressedBytes.length);
                 timeDiffThings[2] = System.currentTimeMillis();
                 byte[] buffer;
 
                 try {
                     buffer = decompress(compressedBytes);
+                    totalBlocksDecompressed.incrementAndGet();
                     timeDiffThings[3] = System.currentTimeMillis();
 
                 } catch (Exception e) {
                     throw new RuntimeException("Block read error: " + e.getMessage());
                 }
 
-                LittleEndianInputStream dis = new LittleEndianInputStream(new ByteArrayInputStream(buffer));
-                int nRecords = dis.readInt();
-                List<ContactRecord> records = new ArrayList<>(nRecords);
                 timeDiffThings[4] = System.currentTimeMillis();
-
-                if (version < 7) {
-                    for (int i = 0; i < nRecords; i++) {
-                        int binX = dis.readInt();
-                        int binY = dis.readInt();
-                        float counts = dis.readFloat();
-                        records.add(new ContactRecord(binX, binY, counts));
-                    }
-                } else {
-
-                    int binXOffset = dis.readInt();
-                    int binYOffset = dis.readInt();
-    
-                    boolean useShort = dis.readByte() == 0;
-                    boolean useShortBinX = true, useShortBinY = true;
-                    if (version > 8) {
-                        useShortBinX = dis.readByte() == 0;
-                        useShortBinY = dis.readByte() == 0;
-                    }
-
-                    byte type = dis.readByte();
-
-                    switch (type) {
-                        case 1:
-                            if (useShortBinX && useShortBinY) {
-                                // List-of-rows representation
-                                int rowCount = dis.readShort();
-                                for (int i = 0; i < rowCount; i++) {
-                                    int binY = binYOffset + dis.readShort();
-                                    int colCount = dis.readShort();
-                                    for (int j = 0; j < colCount; j++) {
-                                        int binX = binXOffset + dis.readShort();
-                                        float counts = useShort ? dis.readShort() : dis.readFloat();
-                                        records.add(new ContactRecord(binX, binY, counts));
-                                    }
-                                }
-                            } else if (useShortBinX && !useShortBinY) {
-                                // List-of-rows representation
-                                int rowCount = dis.readInt();
-                                for (int i = 0; i < rowCount; i++) {
-                                    int binY = binYOffset + dis.readInt();
-                                    int colCount = dis.readShort();
-                                    for (int j = 0; j < colCount; j++) {
-                                        int binX = binXOffset + dis.readShort();
-                                        float counts = useShort ? dis.readShort() : dis.readFloat();
-                                        records.add(new ContactRecord(binX, binY, counts));
-                                    }
-                                }
-            
-                            } else if (!useShortBinX && useShortBinY) {
-                                // List-of-rows representation
-                                int rowCount = dis.readShort();
-                                for (int i = 0; i < rowCount; i++) {
-                                    int binY = binYOffset + dis.readShort();
-                                    int colCount = dis.readInt();
-                                    for (int j = 0; j < colCount; j++) {
-                                        int binX = binXOffset + dis.readInt();
-                                        float counts = useShort ? dis.readShort() : dis.readFloat();
-                                        records.add(new ContactRecord(binX, binY, counts));
-                                    }
-                                }
-                            } else {
-                                // List-of-rows representation
-                                int rowCount = dis.readInt();
-                                for (int i = 0; i < rowCount; i++) {
-                                    int binY = binYOffset + dis.readInt();
-                                    int colCount = dis.readInt();
-                                    for (int j = 0; j < colCount; j++) {
-                                        int binX = binXOffset + dis.readInt();
-                                        float counts = useShort ? dis.readShort() : dis.readFloat();
-                                        records.add(new ContactRecord(binX, binY, counts));
-                                    }
-                                }
-                            }
-                            break;
-                        case 2:
-        
-                            int nPts = dis.readInt();
-                            int w = dis.readShort();
-        
-                            for (int i = 0; i < nPts; i++) {
-                                //int idx = (p.y - binOffset2) * w + (p.x - binOffset1);
-                                int row = i / w;
-                                int col = i - row * w;
-                                int bin1 = binXOffset + col;
-                                int bin2 = binYOffset + row;
-
-                                if (useShort) {
-                                    short counts = dis.readShort();
-                                    if (counts != Short.MIN_VALUE) {
-                                        records.add(new ContactRecord(bin1, bin2, counts));
-                                    }
-                                } else {
-                                    float counts = dis.readFloat();
-                                    if (!Float.isNaN(counts)) {
-                                        records.add(new ContactRecord(bin1, bin2, counts));
-                                    }
-                                }
-                            }
-
-                            break;
-                        default:
-                            throw new RuntimeException("Unknown block type: " + type);
-                    }
-                }
+                List<ContactRecord> records = readBlockRecords(buffer, version);
                 b = new Block(blockNumber, records, zd.getBlockKey(blockNumber, NormalizationHandler.NONE));
                 timeDiffThings[5] = System.currentTimeMillis();
                 for (int ii = 0; ii < timeDiffThings.length - 1; ii++) {
@@ -1072,6 +1035,121 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
         return b;
     }
 
+    /**
+     * Contact records of an uncompressed block, in any of the representations written by the given file version
+     */
+    static List<ContactRecord> readBlockRecords(byte[] buffer, int version) throws IOException {
+        LittleEndianInputStream dis = new LittleEndianInputStream(new ByteArrayInputStream(buffer));
+        int nRecords = dis.readInt();
+        List<ContactRecord> records = new ArrayList<>(nRecords);
+
+        if (version < 7) {
+            for (int i = 0; i < nRecords; i++) {
+                int binX = dis.readInt();
+                int binY = dis.readInt();
+                float counts = dis.readFloat();
+                records.add(new ContactRecord(binX, binY, counts));
+            }
+        } else {
+
+            int binXOffset = dis.readInt();
+            int binYOffset = dis.readInt();
+    
+            boolean useShort = dis.readByte() == 0;
+            boolean useShortBinX = true, useShortBinY = true;
+            if (version > 8) {
+                useShortBinX = dis.readByte() == 0;
+                useShortBinY = dis.readByte() == 0;
+            }
+
+            byte type = dis.readByte();
+
+            switch (type) {
+                case 1:
+                    if (useShortBinX && useShortBinY) {
+                        // List-of-rows representation
+                        int rowCount = dis.readShort();
+                        for (int i = 0; i < rowCount; i++) {
+                            int binY = binYOffset + dis.readShort();
+                            int colCount = dis.readShort();
+                            for (int j = 0; j < colCount; j++) {
+                                int binX = binXOffset + dis.readShort();
+                                float counts = useShort ? dis.readShort() : dis.readFloat();
+                                records.add(new ContactRecord(binX, binY, counts));
+                            }
+                        }
+                    } else if (useShortBinX && !useShortBinY) {
+                        // List-of-rows representation
+                        int rowCount = dis.readInt();
+                        for (int i = 0; i < rowCount; i++) {
+                            int binY = binYOffset + dis.readInt();
+                            int colCount = dis.readShort();
+                            for (int j = 0; j < colCount; j++) {
+                                int binX = binXOffset + dis.readShort();
+                                float counts = useShort ? dis.readShort() : dis.readFloat();
+                                records.add(new ContactRecord(binX, binY, counts));
+                            }
+                        }
+    
+                    } else if (!useShortBinX && useShortBinY) {
+                        // List-of-rows representation
+                        int rowCount = dis.readShort();
+                        for (int i = 0; i < rowCount; i++) {
+                            int binY = binYOffset + dis.readShort();
+                            int colCount = dis.readInt();
+                            for (int j = 0; j < colCount; j++) {
+                                int binX = binXOffset + dis.readInt();
+                                float counts = useShort ? dis.readShort() : dis.readFloat();
+                                records.add(new ContactRecord(binX, binY, counts));
+                            }
+                        }
+                    } else {
+                        // List-of-rows representation
+                        int rowCount = dis.readInt();
+                        for (int i = 0; i < rowCount; i++) {
+                            int binY = binYOffset + dis.readInt();
+                            int colCount = dis.readInt();
+                            for (int j = 0; j < colCount; j++) {
+                                int binX = binXOffset + dis.readInt();
+                                float counts = useShort ? dis.readShort() : dis.readFloat();
+                                records.add(new ContactRecord(binX, binY, counts));
+                            }
+                        }
+                    }
+                    break;
+                case 2:
+
+                    int nPts = dis.readInt();
+                    int w = dis.readShort();
+
+                    for (int i = 0; i < nPts; i++) {
+                        //int idx = (p.y - binOffset2) * w + (p.x - binOffset1);
+                        int row = i / w;
+                        int col = i - row * w;
+                        int bin1 = binXOffset + col;
+                        int bin2 = binYOffset + row;
+
+                        if (useShort) {
+                            short counts = dis.readShort();
+                            if (counts != Short.MIN_VALUE) {
+                                records.add(new ContactRecord(bin1, bin2, counts));
+                            }
+                        } else {
+                            float counts = dis.readFloat();
+                            if (!Float.isNaN(counts)) {
+                                records.add(new ContactRecord(bin1, bin2, counts));
+                            }
+                        }
+                    }
+
+                    break;
+                default:
+                    throw new RuntimeException("Unknown block type: " + type);
+            }
+        }
+        return records;
+    }
+
     private byte[] decompress(byte[] compressedBytes) {
         boolean currentlyUseMainCompression;
 
@@ -34,27 +34,34 @@ import juicebox.assembly.Scaffold;
 import juicebox.data.basics.Chromosome;
 import juicebox.gui.SuperAdapter;
 import juicebox.matrix.BasicMatrix;
+import juicebox.matrix.LanczosEigenSolver;
 import juicebox.matrix.RealMatrixWrapper;
 import juicebox.tools.clt.old.Pearsons;
+import juicebox.tools.utils.common.AsciiNumberWriter;
+import juicebox.tools.utils.common.NpyArrayWriter;
+import juicebox.tools.utils.common.NpyFloatMatrixFile;
+import juicebox.tools.utils.common.TaskRunner;
+import juicebox.tools.utils.common.TiledPearsonsWriter;
 import juicebox.track.HiCFixedGridAxis;
 import juicebox.track.HiCFragmentAxis;
 import juicebox.track.HiCGridAxis;
 import juicebox.windowui.HiCZoom;
 import juicebox.windowui.MatrixType;
+import juicebox.windowui.NormalizationHandler;
 import juicebox.windowui.NormalizationType;
 import org.apache.commons.math.linear.Array2DRowRealMatrix;
-import org.apache.commons.math.linear.EigenDecompositionImpl;
-import org.apache.commons.math.linear.RealMatrix;
-import org.apache.commons.math.linear.RealVector;
 import org.broad.igv.util.collections.LRUCache;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 
 
@@ -82,6 +89,7 @@ public class MatrixZoomData {
     private double averageCount = -1;
     private List<List<ContactRecord>> localCacheOfRecords = null;
     private long numberOfContactRecords = 0;
+    private long occupiedCellCount = -1;
 
     /**
      * Constructor, sets the grid axes.  Called when read from file.
@@ -241,12 +249,11 @@ public class MatrixZoomData {
         return depth * blockColumnCount + positionAlongDiagonal;
     }
     
-    private void populateBlocksToLoadV9(int positionAlongDiagonal, int depth, NormalizationType no, List<Block> blockList, Set<Integer> blocksToLoad) {
-        int blockNumber = getBlockNumberVersion9FromPADAndDepth(positionAlongDiagonal, depth);
+    private void populateBlockToLoad(int blockNumber, NormalizationType no, List<Block> blockList, Set<Integer> blocksToLoad) {
         String key = getBlockKey(blockNumber, no);
-        Block b;
-        if (HiCGlobals.useCache && blockCache.containsKey(key)) {
-            b = blockCache.get(key);
+        // a single get, as the block can be evicted between containsKey and get
+        Block b = HiCGlobals.useCache ? blockCache.get(key) : null;
+        if (b != null) {
             blockList.add(b);
         } else {
             blocksToLoad.add(blockNumber);
@@ -262,6 +269,81 @@ public class MatrixZoomData {
         return getBlockNumberVersion9FromPADAndDepth(positionAlongDiagonal, depth);
     }
 
+    /**
+     * Read a single normalized block on the calling thread (through the block cache when it is on)
+     *
+     * @return the block, or null if it is not in the file
+     */
+    public Block getNormalizedBlock(int blockNumber, NormalizationType no) throws IOException {
+        String key = getBlockKey(blockNumber, no);
+        Block b = HiCGlobals.useCache ? blockCache.get(key) : null;
+        if (b != null) {
+            return b;
+        }
+        b = reader.readNormalizedBlock(blockNumber, this, no);
+        if (b != null && HiCGlobals.useCache) {
+            blockCache.put(key, b);
+        }
+        return b;
+    }
+
+    /**
+     * Block numbers which could hold records of the region [binX1, binX2] x [binY1, binY2] (above the diagonal),
+     * using the same layout as the block loading code
+     */
+    public Set<Integer> getBlockNumbersOverlapping(int binX1, int binY1, int binX2, int binY2) {
+        if (reader.getVersion() > 8 && isIntra) {
+            return getBlockNumbersOverlappingV9(binX1, binY1, binX2, binY2);
+        }
+        Set<Integer> blockNumbers = new HashSet<>();
+        for (int r = binY1 / blockBinCount; r <= binY2 / blockBinCount; r++) {
+            for (int c = binX1 / blockBinCount; c <= binX2 / blockBinCount; c++) {
+                blockNumbers.add(r * getBlockColumnCount() + c);
+            }
+        }
+        return blockNumbers;
+    }
+
+    private Set<Integer> getBlockNumbersOverlappingV9(int binX1, int binY1, int binX2, int binY2) {
+        Set<Integer> blockNumbers = new HashSet<>();
+
+        // PAD = positionAlongDiagonal (~projected)
+        // Depth is axis perpendicular to diagonal; nearer means closer to diagonal
+        int translatedLowerPAD = (binX1 + binY1) / 2 / blockBinCount;
+        int translatedHigherPAD = (binX2 + binY2) / 2 / blockBinCount + 1;
+        int translatedNearerDepth = log2(1 + Math.abs(binX1 - binY2) / Math.sqrt(2) / blockBinCount);
+        int translatedFurtherDepth = log2(1 + Math.abs(binX2 - binY1) / Math.sqrt(2) / blockBinCount);
+
+        // because code above assume above diagonal; but we could be below diagonal
+        int nearerDepth = Math.min(translatedNearerDepth, translatedFurtherDepth);
+        if ((binX1 > binY2 && binX2 < binY1) || (binX2 > binY1 && binX1 < binY2)) {
+            nearerDepth = 0;
+        }
+        int furtherDepth = Math.max(translatedNearerDepth, translatedFurtherDepth) + 1; // +1; integer divide rounds down
+
+        for (int depth = nearerDepth; depth <= furtherDepth; depth++) {
+            for (int pad = translatedLowerPAD; pad <= translatedHigherPAD; pad++) {
+                blockNumbers.add(getBlockNumberVersion9FromPADAndDepth(pad, depth));
+            }
+        }
+        return blockNumbers;
+    }
+
+    /**
+     * Compressed size of the blocks overlapping the region, from the block index (no blocks are read).
+     *
+     * @return size in bytes, 0 if the region has no records, -1 if the index is not available
+     */
+    public long getSizeOfBlocksOverlapping(int binX1, int binY1, int binX2, int binY2) {
+        long totalSize = 0;
+        for (int blockNumber : getBlockNumbersOverlapping(binX1, binY1, binX2, binY2)) {
+            int size = reader.getBlockSizeInBytes(this, blockNumber);
+            if (size < 0) return -1;
+            totalSize += size;
+        }
+        return totalSize;
+    }
+
     public int[] getBlockBoundsFromNumberVersion9Up(int blockNumber) {
         int positionAlongDiagonal = blockNumber % blockColumnCount;
         int depth = blockNumber / blockColumnCount;
@@ -290,26 +372,8 @@ public class MatrixZoomData {
                                                     final NormalizationType norm) {
 
         Set<Integer> blocksToLoad = new HashSet<>();
-
-        // PAD = positionAlongDiagonal (~projected)
-        // Depth is axis perpendicular to diagonal; nearer means closer to diagonal
-        int translatedLowerPAD = (binX1 + binY1) / 2 / blockBinCount;
-        int translatedHigherPAD = (binX2 + binY2) / 2 / blockBinCount + 1;
-        int translatedNearerDepth = log2(1 + Math.abs(binX1 - binY2) / Math.sqrt(2) / blockBinCount);
-        int translatedFurtherDepth = log2(1 + Math.abs(binX2 - binY1) / Math.sqrt(2) / blockBinCount);
-
-        // because code above assume above diagonal; but we could be below diagonal
-        int nearerDepth = Math.min(translatedNearerDepth, translatedFurtherDepth);
-        if ((binX1 > binY2 && binX2 < binY1) || (binX2 > binY1 && binX1 < binY2)) {
-            nearerDepth = 0;
-        }
-        int furtherDepth = Math.max(translatedNearerDepth, translatedFurtherDepth) + 1; // +1; integer divide rounds down
-
-
-        for (int depth = nearerDepth; depth <= furtherDepth; depth++) {
-            for (int pad = translatedLowerPAD; pad <= translatedHigherPAD; pad++) {
-                populateBlocksToLoadV9(pad, depth, norm, blockList, blocksToLoad);
-            }
+        for (int blockNumber : getBlockNumbersOverlappingV9(binX1, binY1, binX2, binY2)) {
+            populateBlockToLoad(blockNumber, norm, blockList, blocksToLoad);
         }
 
         actuallyLoadGivenBlocks(blockList, blocksToLoad, norm);
@@ -318,15 +382,7 @@ public class MatrixZoomData {
     }
     
     private void populateBlocksToLoad(int r, int c, NormalizationType no, List<Block> blockList, Set<Integer> blocksToLoad) {
-        int blockNumber = r * getBlockColumnCount() + c;
-        String key = getBlockKey(blockNumber, no);
-        Block b;
-        if (HiCGlobals.useCache && blockCache.containsKey(key)) {
-            b = blockCache.get(key);
-            blockList.add(b);
-        } else {
-            blocksToLoad.add(blockNumber);
-        }
+        populateBlockToLoad(r * getBlockColumnCount() + c, no, blockList, blocksToLoad);
     }
 
     /**
@@ -463,10 +519,9 @@ public class MatrixZoomData {
                 for (int blockNumber : tempBlockNumbers) {
                     if (!blocksToLoad.contains(blockNumber)) {
                         String key = getBlockKey(blockNumber, no);
-                        Block b;
                         //temp fix for AllByAll. TODO: trace this!
-                        if (HiCGlobals.useCache && blockCache.containsKey(key)) {
-                            b = blockCache.get(key);
+                        Block b = HiCGlobals.useCache ? blockCache.get(key) : null;
+                        if (b != null) {
                             blockList.add(b);
                         } else {
                             blocksToLoad.add(blockNumber);
@@ -503,7 +558,8 @@ public class MatrixZoomData {
                                          final NormalizationType no) {
         final AtomicInteger errorCounter = new AtomicInteger();
 
-        ExecutorService service = Executors.newFixedThreadPool(200);
+        // on a task pool thread (tools), read on the calling thread rather than starting another pool
+        ExecutorService service = TaskRunner.isRunningOnPool() ? null : Executors.newFixedThreadPool(200);
 
         final int binSize = getBinSize();
         final int chr1Index = chr1.getIndex();
@@ -533,19 +589,25 @@ public class MatrixZoomData {
                 }
             };
 
-            service.submit(loader);
+            if (service == null) {
+                loader.run();
+            } else {
+                service.submit(loader);
+            }
         }
 
-        // done submitting all jobs
-        service.shutdown();
+        if (service != null) {
+            // done submitting all jobs
+            service.shutdown();
 
-        // wait for all to finish
-        try {
-            service.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException e) {
-            System.err.println("Error loading mzd data " + e.getLocalizedMessage());
-            if (HiCGlobals.printVerboseComments) {
-                e.printStackTrace();
+            // wait for all to finish
+            try {
+                service.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                System.err.println("Error loading mzd data " + e.getLocalizedMessage());
+                if (HiCGlobals.printVerboseComments) {
+                    e.printStackTrace();
+                }
             }
         }
 
@@ -559,7 +621,8 @@ public class MatrixZoomData {
                                          final NormalizationType no, final int chr1Id, final int chr2Id) {
         final AtomicInteger errorCounter = new AtomicInteger();
 
-        ExecutorService service = Executors.newFixedThreadPool(200);
+        // on a task pool thread (tools), read on the calling thread rather than starting another pool
+        ExecutorService service = TaskRunner.isRunningOnPool() ? null : Executors.newFixedThreadPool(200);
 
         final int binSize = getBinSize();
 
@@ -587,19 +650,25 @@ public class MatrixZoomData {
                 }
             };
 
-            service.submit(loader);
+            if (service == null) {
+                loader.run();
+            } else {
+                service.submit(loader);
+            }
         }
 
-        // done submitting all jobs
-        service.shutdown();
+        if (service != null) {
+            // done submitting all jobs
+            service.shutdown();
 
-        // wait for all to finish
-        try {
-            service.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException e) {
-            System.err.println("Error loading mzd data " + e.getLocalizedMessage());
-            if (HiCGlobals.printVerboseComments) {
-                e.printStackTrace();
+            // wait for all to finish
+            try {
+                service.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                System.err.println("Error loading mzd data " + e.getLocalizedMessage());
+                if (HiCGlobals.printVerboseComments) {
+                    e.printStackTrace();
+                }
             }
         }
 
@@ -674,27 +743,38 @@ public class MatrixZoomData {
 //    }
 
     /**
-     * Computes eigenvector from Pearson's.
+     * Computes eigenvector from Pearson's, by Lanczos iteration on the non-centromere rows and columns
+     * (NaN entries within them count as 0).
      *
      * @param df    Expected values, needed to get Pearson's
      * @param which Which eigenvector; 0 is principal.
-     * @return Eigenvector
+     * @return Eigenvector, empty if it cannot be computed
      */
     public double[] computeEigenvector(ExpectedValueFunction df, int which) {
-        BasicMatrix pearsons = getPearsons(df);
+        return computeEigenvector(df, which, Runtime.getRuntime().availableProcessors(), false);
+    }
+
+    /**
+     * @param df            Expected values, needed to get Pearson's
+     * @param which         Which eigenvector; 0 is principal.
+     * @param numThreads    number of threads for the Pearson's and the Lanczos iteration
+     * @param anyResolution compute the Pearson's even above HiCGlobals.MAX_PEARSON_ZOOM
+     * @return Eigenvector, empty if it cannot be computed
+     */
+    public double[] computeEigenvector(ExpectedValueFunction df, int which, int numThreads, boolean anyResolution) {
+        BasicMatrix pearsons = getPearsons(df, numThreads, anyResolution);
         if (pearsons == null) {
-            return null;
+            return new double[0];
         }
 
         int dim = pearsons.getRowDimension();
-        double[][] data = new double[dim][dim];
         BitSet bitSet = new BitSet(dim);
         for (int i = 0; i < dim; i++) {
             for (int j = 0; j < dim; j++) {
                 float tmp = pearsons.getEntry(i, j);
-                data[i][j] = tmp;
-                if (data[i][j] != 0 && !Float.isNaN(tmp)) {
+                if (tmp != 0 && !Float.isNaN(tmp)) {
                     bitSet.set(i);
+                    break;
                 }
             }
         }
@@ -705,10 +785,17 @@ public class MatrixZoomData {
             if (bitSet.get(i)) nonCentromereColumns[count++] = i;
         }
 
-        RealMatrix subMatrix = new Array2DRowRealMatrix(data).getSubMatrix(nonCentromereColumns, nonCentromereColumns);
-        RealVector rv = (new EigenDecompositionImpl(subMatrix, 0)).getEigenvector(which);
-
-        double[] ev = rv.toArray();
+        float[][] subMatrix = new float[nonCentromereColumns.length][nonCentromereColumns.length];
+        for (int i = 0; i < nonCentromereColumns.length; i++) {
+            for (int j = 0; j < nonCentromereColumns.length; j++) {
+                subMatrix[i][j] = pearsons.getEntry(nonCentromereColumns[i], nonCentromereColumns[j]);
+            }
+        }
+        double[][] eigenvectors = new LanczosEigenSolver(subMatrix, numThreads).getTopEigenvectors(which + 1);
+        if (eigenvectors.length <= which) {
+            return new double[0];
+        }
+        double[] ev = eigenvectors[which];
 
         int size = pearsons.getColumnDimension();
         double[] eigenvector = new double[size];
@@ -761,6 +848,16 @@ public class MatrixZoomData {
      * @return Pearson's matrix or null if not able to calculate or read
      */
     public BasicMatrix getPearsons(ExpectedValueFunction df) {
+        return getPearsons(df, Runtime.getRuntime().availableProcessors(), false);
+    }
+
+    /**
+     * @param df            Expected values
+     * @param numThreads    number of threads used if the Pearson's has to be calculated
+     * @param anyResolution calculate the Pearson's even at resolutions finer than HiCGlobals.MAX_PEARSON_ZOOM
+     * @return Pearson's matrix or null if not able to calculate or read
+     */
+    public BasicMatrix getPearsons(ExpectedValueFunction df, int numThreads, boolean anyResolution) {
         boolean readPearsons = false; // check if were able to read in
         // try to get from local cache
         BasicMatrix pearsons = pearsonsMap.get(df.getNormalizationType());
@@ -784,9 +881,10 @@ public class MatrixZoomData {
             }
         }
         // we weren't able to read in the Pearsons. check that the resolution is low enough to calculate
-        if (!readPearsons && (zoom.getUnit() == HiC.Unit.BP && zoom.getBinSize() >= HiCGlobals.MAX_PEARSON_ZOOM) ||
-                (zoom.getUnit() == HiC.Unit.FRAG && zoom.getBinSize() >= HiCGlobals.MAX_PEARSON_ZOOM/1000)) {
-            pearsons = computePearsons(df);
+        if (!readPearsons && (anyResolution ||
+                (zoom.getUnit() == HiC.Unit.BP && zoom.getBinSize() >= HiCGlobals.MAX_PEARSON_ZOOM) ||
+                (zoom.getUnit() == HiC.Unit.FRAG && zoom.getBinSize() >= HiCGlobals.MAX_PEARSON_ZOOM/1000))) {
+            pearsons = computePearsons(df, numThreads);
             pearsonsMap.put(df.getNormalizationType(), pearsons);
         }
 
@@ -814,22 +912,17 @@ public class MatrixZoomData {
      * Compute the Pearson's.  Read in the observed, calculate O/E from the expected value function, subtract the row
      * means, compute the Pearson's correlation on that matrix
      *
-     * @param df Expected value
+     * @param df         Expected value
+     * @param numThreads number of threads
      * @return Pearson's correlation matrix
      */
-    private BasicMatrix computePearsons(ExpectedValueFunction df) {
+    private BasicMatrix computePearsons(ExpectedValueFunction df, int numThreads) {
         if (chr1 != chr2) {
             throw new RuntimeException("Cannot compute pearsons for non-diagonal matrices");
         }
 
         // # of columns.  We could let the data itself define this
-        int dim;
-        if (zoom.getUnit() == HiC.Unit.BP) {
-            //todo currently - pearson only done for resolutions where lossy conversion doesn't matter
-            dim = (int) (chr1.getLength() / zoom.getBinSize()) + 1;
-        } else {
-            dim = ((DatasetReaderV2) reader).getFragCount(chr1) / zoom.getBinSize() + 1;
-        }
+        int dim = getPearsonsDimension();
 
         // Compute O/E column vectors
         double[][] vectors = new double[dim][];
@@ -878,7 +971,7 @@ public class MatrixZoomData {
             }
         }
 
-        BasicMatrix pearsons = Pearsons.computePearsons(vectors, dim);
+        BasicMatrix pearsons = Pearsons.computePearsons(vectors, dim, numThreads);
         pearsonsMap.put(df.getNormalizationType(), pearsons);
 
         return pearsons;
@@ -902,6 +995,66 @@ public class MatrixZoomData {
         return count == 0 ? 0 : sum / count;
     }
 
+    /**
+     * @return number of rows and columns of the Pearson's matrix
+     */
+    public int getPearsonsDimension() {
+        if (zoom.getUnit() == HiC.Unit.BP) {
+            //todo currently - pearson only done for resolutions where lossy conversion doesn't matter
+            return (int) (chr1.getLength() / zoom.getBinSize()) + 1;
+        } else {
+            return ((DatasetReaderV2) reader).getFragCount(chr1) / zoom.getBinSize() + 1;
+        }
+    }
+
+    /**
+     * Writes the blocks of the Pearson's matrix with the given writer, from the same O/E values as computePearsons,
+     * without loading the matrix. The blocks are read again for each pass of the writer,
+     * so callers should turn off HiCGlobals.useCache at fine resolutions.
+     *
+     * @param writer     tiled writer, sized with getPearsonsDimension()
+     * @param df         expected value function
+     * @param les        output, positioned after the header
+     * @param numThreads threads for reading blocks
+     */
+    public void writePearsons(TiledPearsonsWriter writer, ExpectedValueFunction df, LittleEndianOutputStream les,
+                              int numThreads) throws IOException {
+        if (chr1 != chr2) {
+            throw new RuntimeException("Cannot compute pearsons for non-diagonal matrices");
+        }
+        writer.write(consumer -> processContactRecords(NormalizationHandler.NONE, numThreads, record -> {
+            float counts = record.getCounts();
+            if (Float.isNaN(counts)) return;
+            int i = record.getBinX();
+            int j = record.getBinY();
+            double expected = df.getExpectedValue(chr1.getIndex(), Math.abs(i - j));
+            consumer.accept(i, j, (float) (counts / expected));
+        }), les);
+    }
+
+    /**
+     * Passes every record of the matrix to the consumer, block by block in block order;
+     * blocks are read ahead on numThreads threads (see BlockPrefetcher)
+     */
+    public void processContactRecords(NormalizationType norm, int numThreads, Consumer<ContactRecord> consumer)
+            throws IOException {
+        List<Integer> blockNumbers = reader.getBlockNumbers(this);
+        Collections.sort(blockNumbers);
+        BlockPrefetcher blocks = new BlockPrefetcher(this, norm, blockNumbers, numThreads);
+        try {
+            while (blocks.hasNext()) {
+                Block b = blocks.next();
+                if (b != null) {
+                    for (ContactRecord rec : b.getContactRecords()) {
+                        consumer.accept(rec);
+                    }
+                }
+            }
+        } finally {
+            blocks.close();
+        }
+    }
+
     /**
      * Utility for printing description of this matrix.
      */
@@ -970,16 +1123,32 @@ public class MatrixZoomData {
     }
     
     
-    public void dump(PrintWriter printWriter, LittleEndianOutputStream les, NormalizationType norm, MatrixType matrixType,
+    public void dump(OutputStream textOutput, LittleEndianOutputStream les, NormalizationType norm, MatrixType matrixType,
                      boolean useRegionIndices, long[] regionIndices, ExpectedValueFunction df, boolean dense) throws IOException {
-        
+        dump(textOutput, les, norm, matrixType, useRegionIndices, regionIndices, df, dense,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Blocks are read and inflated ahead on numThreads threads (see BlockPrefetcher) while
+     * the calling thread writes the records.
+     */
+    public void dump(OutputStream textOutput, LittleEndianOutputStream les, NormalizationType norm, MatrixType matrixType,
+                     boolean useRegionIndices, long[] regionIndices, ExpectedValueFunction df, boolean dense,
+                     int numThreads) throws IOException {
+
         // determine which output will be used
-        if (printWriter == null && les == null) {
-            printWriter = new PrintWriter(System.out);
+        if (textOutput == null && les == null) {
+            textOutput = System.out;
         }
-        boolean usePrintWriter = printWriter != null && les == null;
+        boolean useTextOutput = textOutput != null && les == null;
+        AsciiNumberWriter writer = useTextOutput ? new AsciiNumberWriter(textOutput) : null;
         boolean isIntraChromosomal = chr1.getIndex() == chr2.getIndex();
-        
+        boolean isOE = matrixType == MatrixType.OE;
+        // other matrix types are not dumped; the output is left empty (sparse) or zero (dense)
+        boolean hasValues = matrixType == MatrixType.OBSERVED || isOE;
+        int binSize = zoom.getBinSize();
+
         // Get the block index keys, and sort
         List<Integer> blocksToIterateOver;
         if (useRegionIndices) {
@@ -990,73 +1159,39 @@ public class MatrixZoomData {
         }
 
         if (!dense) {
-            for (Integer blockNumber : blocksToIterateOver) {
-                Block b = reader.readNormalizedBlock(blockNumber, MatrixZoomData.this, norm);
+            BlockPrefetcher blocks = new BlockPrefetcher(this, norm,
+                    hasValues ? blocksToIterateOver : new ArrayList<>(), numThreads);
+            while (blocks.hasNext()) {
+                Block b = blocks.next();
                 if (b != null) {
                     for (ContactRecord rec : b.getContactRecords()) {
-                        float counts = rec.getCounts();
                         int x = rec.getBinX();
                         int y = rec.getBinY();
-                        int xActual = x * zoom.getBinSize();
-                        int yActual = y * zoom.getBinSize();
-                        float oeVal = 0f;
-                        if (matrixType == MatrixType.OE) {
-                            double expected = 0;
-                            if (chr1 == chr2) {
-                                if (df != null) {
-                                    int dist = Math.abs(x - y);
-                                    expected = df.getExpectedValue(chr1.getIndex(), dist);
-                                }
-                            } else {
-                                expected = (averageCount > 0 ? averageCount : 1);
-                            }
-
-                            double observed = rec.getCounts(); // Observed is already normalized
-                            oeVal = (float) (observed / expected);
+                        int xActual = x * binSize;
+                        int yActual = y * binSize;
+                        if (useRegionIndices && !isInDumpRegion(xActual, yActual, regionIndices, isIntraChromosomal)) {
+                            continue;
                         }
-                        if (!useRegionIndices || // i.e. use full matrix
-                                // or check regions that overlap with upper left
-                                (xActual >= regionIndices[0] && xActual <= regionIndices[1] &&
-                                        yActual >= regionIndices[2] && yActual <= regionIndices[3]) ||
-                                // or check regions that overlap with lower left
-                                (isIntraChromosomal && yActual >= regionIndices[0] && yActual <= regionIndices[1] &&
-                                        xActual >= regionIndices[2] && xActual <= regionIndices[3])) {
-                            // but leave in upper right triangle coordinates
-                            if (usePrintWriter) {
-                                if (matrixType == MatrixType.OBSERVED) {
-                                    printWriter.println(xActual + "\t" + yActual + "\t" + counts);
-                                } else if (matrixType == MatrixType.OE) {
-                                    printWriter.println(xActual + "\t" + yActual + "\t" + oeVal);
-                                }
-                            } else {
-                                // TODO I suspect this is wrong - should be writing xActual - but this is for binary dumping and we never use it
-                                if (matrixType == MatrixType.OBSERVED) {
-                                    les.writeInt(x);
-                                    les.writeInt(y);
-                                    les.writeFloat(counts);
-                                } else if (matrixType == MatrixType.OE) {
-                                    les.writeInt(x);
-                                    les.writeInt(y);
-                                    les.writeFloat(oeVal);
-                                }
-                            }
+                        float value = isOE ? getOEValue(rec, df) : rec.getCounts();
+                        // but leave in upper right triangle coordinates
+                        if (useTextOutput) {
+                            writer.print(xActual).tab().print(yActual).tab().print(value).newLine();
+                        } else {
+                            // TODO I suspect this is wrong - should be writing xActual - but this is for binary dumping and we never use it
+                            les.writeInt(x);
+                            les.writeInt(y);
+                            les.writeFloat(value);
                         }
                     }
                 }
             }
-
-            if (usePrintWriter) {
-                printWriter.close();
-            }
-            else {
-                les.close();
-            }
         }
         else {
             int maxX = 0;
             int maxY = 0;
-            for (Integer blockNumber : blocksToIterateOver) {
-                Block b = reader.readNormalizedBlock(blockNumber, MatrixZoomData.this, norm);
+            BlockPrefetcher blocks = new BlockPrefetcher(this, norm, blocksToIterateOver, numThreads);
+            while (blocks.hasNext()) {
+                Block b = blocks.next();
                 if (b != null) {
                     for (ContactRecord rec : b.getContactRecords()) {
                         int x = rec.getBinX();
@@ -1078,78 +1213,159 @@ public class MatrixZoomData {
             maxY++;
             float[][] matrix = new float[maxX][maxY];  // auto initialized to 0
 
-            for (Integer blockNumber : blocksToIterateOver) {
-                Block b = reader.readNormalizedBlock(blockNumber, MatrixZoomData.this, norm);
+            blocks = new BlockPrefetcher(this, norm,
+                    hasValues ? blocksToIterateOver : new ArrayList<>(), numThreads);
+            while (blocks.hasNext()) {
+                Block b = blocks.next();
                 if (b != null) {
                     for (ContactRecord rec : b.getContactRecords()) {
-                        float counts = rec.getCounts();
                         int x = rec.getBinX();
                         int y = rec.getBinY();
-
-                        int xActual = x * zoom.getBinSize();
-                        int yActual = y * zoom.getBinSize();
-                        float oeVal = 0f;
-                        if (matrixType == MatrixType.OE) {
-                            int dist = Math.abs(x - y);
+                        if (useRegionIndices && !isInDumpRegion(x * binSize, y * binSize, regionIndices, isIntraChromosomal)) {
+                            continue;
+                        }
+                        float value;
+                        if (isOE) {
                             double expected = 0;
                             try {
-                                expected = df.getExpectedValue(chr1.getIndex(), dist);
+                                expected = df.getExpectedValue(chr1.getIndex(), Math.abs(x - y));
                             } catch (Exception e) {
                                 e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
                             }
-                            double observed = rec.getCounts(); // Observed is already normalized
-                            oeVal = (float) (observed / expected);
+                            value = (float) (rec.getCounts() / expected); // Observed is already normalized
+                        } else {
+                            value = rec.getCounts();
                         }
-                        if (!useRegionIndices || // i.e. use full matrix
-                                // or check regions that overlap with upper left
-                                (xActual >= regionIndices[0] && xActual <= regionIndices[1] &&
-                                        yActual >= regionIndices[2] && yActual <= regionIndices[3]) ||
-                                // or check regions that overlap with lower left
-                                (isIntraChromosomal && yActual >= regionIndices[0] && yActual <= regionIndices[1] &&
-                                        xActual >= regionIndices[2] && xActual <= regionIndices[3])) {
-
-                            if (matrixType == MatrixType.OBSERVED) {
-                                matrix[x][y] = counts;
-                                if (isIntraChromosomal) {
-                                    matrix[y][x] = counts;
-                                }
-                                // printWriter.println(xActual + "\t" + yActual + "\t" + counts);
-                            } else if (matrixType == MatrixType.OE) {
-                                matrix[x][y] = oeVal;
-                                if (isIntraChromosomal) {
-                                    matrix[y][x] = oeVal;
-                                }
-                                // printWriter.println(xActual + "\t" + yActual + "\t" + oeVal);
-                            }
+                        matrix[x][y] = value;
+                        if (isIntraChromosomal) {
+                            matrix[y][x] = value;
                         }
                     }
                 }
             }
-            if (usePrintWriter) {
+            if (useTextOutput) {
                 for (int i = 0; i < maxX; i++) {
                     for (int j = 0; j < maxY; j++) {
-                        printWriter.print(matrix[i][j] + "\t");
+                        writer.print(matrix[i][j]).tab();
                     }
-                    printWriter.println();
+                    writer.newLine();
                 }
             } else {
                 for (int i = 0; i < maxX; i++) {
                     for (int j = 0; j < maxY; j++) {
                         les.writeFloat(matrix[i][j]);
+                    }
+                }
+            }
+        }
+
+        if (useTextOutput) {
+            writer.close();
+        } else {
+            les.close();
+        }
+    }
 
+    /**
+     * Writes the region as a dense float32 .npy matrix, rows being the bins of the first region and columns
+     * the bins of the second. The matrix is filled through a memory-mapped file, so it is never held on the heap.
+     */
+    public void dumpDenseNumpy(File file, NormalizationType norm, MatrixType matrixType, long[] regionIndices,
+                               ExpectedValueFunction df, int numThreads) throws IOException {
+        int binSize = zoom.getBinSize();
+        boolean isIntraChromosomal = chr1.getIndex() == chr2.getIndex();
+        boolean isOE = matrixType == MatrixType.OE;
+        // bins whose start position is within the region, as for the text dump
+        int rowStart = (int) ((regionIndices[0] + binSize - 1) / binSize);
+        int rowEnd = (int) (regionIndices[1] / binSize);
+        int colStart = (int) ((regionIndices[2] + binSize - 1) / binSize);
+        int colEnd = (int) (regionIndices[3] / binSize);
+
+        try (NpyFloatMatrixFile matrix = new NpyFloatMatrixFile(file, Math.max(0, rowEnd - rowStart + 1),
+                Math.max(0, colEnd - colStart + 1))) {
+            BlockPrefetcher blocks = new BlockPrefetcher(this, norm,
+                    getBlockNumbersForRegionFromGenomePosition(regionIndices), numThreads);
+            while (blocks.hasNext()) {
+                Block b = blocks.next();
+                if (b == null) continue;
+                for (ContactRecord rec : b.getContactRecords()) {
+                    int x = rec.getBinX();
+                    int y = rec.getBinY();
+                    boolean inRegion = x >= rowStart && x <= rowEnd && y >= colStart && y <= colEnd;
+                    boolean inTranspose = isIntraChromosomal && y >= rowStart && y <= rowEnd && x >= colStart && x <= colEnd;
+                    if (inRegion || inTranspose) {
+                        float value = isOE ? getOEValue(rec, df) : rec.getCounts();
+                        if (inRegion) matrix.set(x - rowStart, y - colStart, value);
+                        if (inTranspose) matrix.set(y - rowStart, x - colStart, value);
                     }
-    
                 }
             }
-    
-            if (usePrintWriter) {
-                printWriter.close();
-            } else {
-                les.close();
+        }
+    }
+
+    /**
+     * Writes the records of the matrix (or region) as a columnar COO bundle in the given directory:
+     * row.npy and col.npy hold the int32 bin indices (upper triangle), data.npy the float32 values.
+     * Records are streamed in block order.
+     */
+    public void dumpSparseCOO(File directory, NormalizationType norm, MatrixType matrixType, boolean useRegionIndices,
+                              long[] regionIndices, ExpectedValueFunction df, int numThreads) throws IOException {
+        int binSize = zoom.getBinSize();
+        boolean isIntraChromosomal = chr1.getIndex() == chr2.getIndex();
+        boolean isOE = matrixType == MatrixType.OE;
+
+        List<Integer> blocksToIterateOver;
+        if (useRegionIndices) {
+            blocksToIterateOver = getBlockNumbersForRegionFromGenomePosition(regionIndices);
+        } else {
+            blocksToIterateOver = reader.getBlockNumbers(this);
+            Collections.sort(blocksToIterateOver);
+        }
+
+        try (NpyArrayWriter rows = new NpyArrayWriter(new File(directory, "row.npy"), NpyArrayWriter.INT32);
+             NpyArrayWriter cols = new NpyArrayWriter(new File(directory, "col.npy"), NpyArrayWriter.INT32);
+             NpyArrayWriter values = new NpyArrayWriter(new File(directory, "data.npy"), NpyArrayWriter.FLOAT32)) {
+            BlockPrefetcher blocks = new BlockPrefetcher(this, norm, blocksToIterateOver, numThreads);
+            while (blocks.hasNext()) {
+                Block b = blocks.next();
+                if (b == null) continue;
+                for (ContactRecord rec : b.getContactRecords()) {
+                    int x = rec.getBinX();
+                    int y = rec.getBinY();
+                    if (useRegionIndices && !isInDumpRegion(x * binSize, y * binSize, regionIndices, isIntraChromosomal)) {
+                        continue;
+                    }
+                    rows.writeInt(x);
+                    cols.writeInt(y);
+                    values.writeFloat(isOE ? getOEValue(rec, df) : rec.getCounts());
+                }
             }
         }
     }
-    
+
+    /**
+     * Records in the region (upper left), or in its transpose for intra-chromosomal matrices
+     */
+    private static boolean isInDumpRegion(int xActual, int yActual, long[] regionIndices, boolean isIntraChromosomal) {
+        return (xActual >= regionIndices[0] && xActual <= regionIndices[1] &&
+                yActual >= regionIndices[2] && yActual <= regionIndices[3]) ||
+                (isIntraChromosomal && yActual >= regionIndices[0] && yActual <= regionIndices[1] &&
+                        xActual >= regionIndices[2] && xActual <= regionIndices[3]);
+    }
+
+    private float getOEValue(ContactRecord rec, ExpectedValueFunction df) {
+        double expected = 0;
+        if (chr1 == chr2) {
+            if (df != null) {
+                int dist = Math.abs(rec.getBinX() - rec.getBinY());
+                expected = df.getExpectedValue(chr1.getIndex(), dist);
+            }
+        } else {
+            expected = (averageCount > 0 ? averageCount : 1);
+        }
+        return (float) (rec.getCounts() / expected); // Observed is already normalized
+    }
+
     public void dump1DTrackFromCrossHairAsWig(PrintWriter printWriter, long binStartPosition,
                                               boolean isIntraChromosomal, long[] regionBinIndices,
                                               NormalizationType norm, MatrixType matrixType) {
@@ -1229,6 +1445,18 @@ public class MatrixZoomData {
         this.averageCount = averageCount;
     }
 
+    /**
+     * @return number of non-zero records stored in the file for this matrix, as recorded in the zoom header;
+     * -1 if unknown. Unlike getNumberOfContactRecords(), this does not read the blocks.
+     */
+    public long getOccupiedCellCount() {
+        return occupiedCellCount;
+    }
+
+    public void setOccupiedCellCount(long occupiedCellCount) {
+        this.occupiedCellCount = occupiedCellCount;
+    }
+
     public List<List<ContactRecord>> getContactRecordList() {
         if (localCacheOfRecords == null || localCacheOfRecords.size() < 1) {
             numberOfContactRecords = 0;
@@ -1260,6 +1488,11 @@ public class MatrixZoomData {
         blockCache.clear();
     }
 
+    public void clearContactRecordCache() {
+        localCacheOfRecords = null;
+        numberOfContactRecords = 0;
+    }
+
     public long getNumberOfContactRecords() {
         if (numberOfContactRecords == 0) {
             getContactRecordList();
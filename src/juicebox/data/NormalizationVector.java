@@ -67,6 +67,14 @@ public class NormalizationVector {
         return type + "_" + chrIdx + "_" + unit + "_" + resolution;
     }
 
+    public NormalizationType getType() {
+        return type;
+    }
+
+    public HiC.Unit getUnit() {
+        return unit;
+    }
+
     public int getChrIdx() {
         return chrIdx;
     }
@@ -83,6 +91,17 @@ public class NormalizationVector {
         return data;
     }
 
+    /**
+     * Single entry of the vector; prefer this over getData() when only part of the vector is needed
+     */
+    public double getValue(long index) {
+        return data.get(index);
+    }
+
+    public long getLength() {
+        return data.getLength();
+    }
+
     public boolean doesItNeedToBeScaledTo() {
         return needsToBeScaledTo;
     }
@@ -98,7 +117,7 @@ public class NormalizationVector {
 
         List<List<ContactRecord>> listOfLists = new ArrayList<>();
         listOfLists.addAll(zd.getContactRecordList());
-        ListOfFloatArrays newNormVector = ZeroScale.scale(listOfLists, data.convertToFloats(), getKey());
+        ListOfFloatArrays newNormVector = ZeroScale.scale(listOfLists, getData().convertToFloats(), getKey());
         if (newNormVector != null) {
             newNormVector = ZeroScale.normalizeVectorByScaleFactor(newNormVector, listOfLists);
         }
@@ -0,0 +1,156 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2020 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.data;
+
+import juicebox.HiC;
+import juicebox.HiCGlobals;
+import juicebox.data.basics.ListOfDoubleArrays;
+import juicebox.windowui.NormalizationType;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Normalization vector which is read from the file in fixed-size pages as entries are requested
+ * (via the NVI entry, see DatasetReader.readNormalizationVectorPart), so a viewport only loads the part of
+ * the vector it covers. Recently used pages are kept in a small LRU cache.
+ * <p/>
+ * getData() still returns the full vector; it is read on first use.
+ * Unlike a fully read vector, a paged vector whose values are all NaN is not reported as missing.
+ */
+public class PagedNormalizationVector extends NormalizationVector {
+
+    public static final int PAGE_SIZE = 16384;
+    private static final int MAX_CACHED_PAGES = 32;
+
+    private final DatasetReader reader;
+    private final long length;
+    private final Map<Integer, double[]> pageCache = new LinkedHashMap<Integer, double[]>(MAX_CACHED_PAGES, .75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, double[]> eldest) {
+            return size() > MAX_CACHED_PAGES;
+        }
+    };
+    private volatile CachedPage lastPage = null;
+    private ListOfDoubleArrays fullData = null;
+
+    public PagedNormalizationVector(NormalizationType type, int chrIdx, HiC.Unit unit, int resolution,
+                                    long length, DatasetReader reader) {
+        super(type, chrIdx, unit, resolution, null);
+        this.length = length;
+        this.reader = reader;
+    }
+
+    @Override
+    public double getValue(long index) {
+        int pageIndex = (int) (index / PAGE_SIZE);
+        CachedPage page = lastPage;
+        if (page == null || page.index != pageIndex) {
+            page = new CachedPage(pageIndex, getPage(pageIndex));
+            lastPage = page;
+        }
+        return page.values[(int) (index % PAGE_SIZE)];
+    }
+
+    @Override
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public synchronized ListOfDoubleArrays getData() {
+        if (fullData == null) {
+            try {
+                NormalizationVector nv = reader.readNormalizationVector(getType(), getChrIdx(), getUnit(), getResolution());
+                fullData = nv == null ? new ListOfDoubleArrays(length, Double.NaN) : nv.getData();
+            } catch (IOException e) {
+                System.err.println("Unable to read normalization vector " + getKey() + ": " + e.getMessage());
+                fullData = new ListOfDoubleArrays(length, Double.NaN);
+            }
+            pageCache.clear();
+        }
+        return fullData;
+    }
+
+    private double[] getPage(int pageIndex) {
+        synchronized (this) {
+            if (fullData != null) {
+                return copyPageFromFullData(pageIndex);
+            }
+            double[] page = pageCache.get(pageIndex);
+            if (page != null) return page;
+        }
+
+        double[] page = readPage(pageIndex);
+        synchronized (this) {
+            pageCache.put(pageIndex, page);
+        }
+        return page;
+    }
+
+    private double[] readPage(int pageIndex) {
+        int bound1 = pageIndex * PAGE_SIZE;
+        int bound2 = (int) Math.min(length - 1, (long) bound1 + PAGE_SIZE - 1);
+        double[] page = new double[PAGE_SIZE];
+        Arrays.fill(page, Double.NaN);
+        try {
+            NormalizationVector part = reader.readNormalizationVectorPart(getType(), getChrIdx(), getUnit(), getResolution(), bound1, bound2);
+            if (part != null) { // null when the entire page is NaN
+                ListOfDoubleArrays values = part.getData();
+                for (int i = 0; i < values.getLength(); i++) {
+                    page[i] = values.get(i);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to read part of normalization vector " + getKey() + ": " + e.getMessage());
+        }
+        if (HiCGlobals.printVerboseComments) {
+            System.out.println("Read page " + pageIndex + " of normalization vector " + getKey());
+        }
+        return page;
+    }
+
+    private double[] copyPageFromFullData(int pageIndex) {
+        double[] page = new double[PAGE_SIZE];
+        Arrays.fill(page, Double.NaN);
+        long start = (long) pageIndex * PAGE_SIZE;
+        for (int i = 0; i < PAGE_SIZE && start + i < length; i++) {
+            page[i] = fullData.get(start + i);
+        }
+        return page;
+    }
+
+    private static class CachedPage {
+        private final int index;
+        private final double[] values;
+
+        CachedPage(int index, double[] values) {
+            this.index = index;
+            this.values = values;
+        }
+    }
+}
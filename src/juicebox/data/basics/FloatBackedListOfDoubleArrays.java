@@ -0,0 +1,178 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2020 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.data.basics;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ListOfDoubleArrays which stores its values at float precision (as in v9 files),
+ * either on the heap or off-heap in direct buffers, which don't count against the java heap.
+ * <p/>
+ * getValues() returns a copy at double precision; changes to it are not written back.
+ */
+public class FloatBackedListOfDoubleArrays extends ListOfDoubleArrays {
+
+	private static final int CHUNK_LENGTH = 1 << 28;
+	private final boolean offHeap;
+	private final List<FloatBuffer> chunks = new ArrayList<>();
+
+	public FloatBackedListOfDoubleArrays(long length, boolean offHeap) {
+		super(length, false);
+		this.offHeap = offHeap;
+		long tempLength = length;
+		while (tempLength > 0) {
+			int chunkLength = (int) Math.min(tempLength, CHUNK_LENGTH);
+			if (offHeap) {
+				chunks.add(ByteBuffer.allocateDirect(4 * chunkLength).order(ByteOrder.nativeOrder()).asFloatBuffer());
+			} else {
+				chunks.add(FloatBuffer.allocate(chunkLength));
+			}
+			tempLength -= chunkLength;
+		}
+	}
+
+	public FloatBackedListOfDoubleArrays(long totSize, double defaultValue, boolean offHeap) {
+		this(totSize, offHeap);
+		float value = (float) defaultValue;
+		for (FloatBuffer chunk : chunks) {
+			for (int k = 0; k < chunk.capacity(); k++) {
+				chunk.put(k, value);
+			}
+		}
+	}
+
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+
+	@Override
+	public void clear() {
+		chunks.clear();
+	}
+
+	@Override
+	public double get(long index) {
+		if (index < getLength()) {
+			return chunks.get((int) (index / CHUNK_LENGTH)).get((int) (index % CHUNK_LENGTH));
+		} else {
+			System.err.println("long index exceeds max size of list of arrays while getting: " + index + " " + getLength());
+			return Double.NaN;
+		}
+	}
+
+	@Override
+	public void set(long index, double value) {
+		if (index < getLength()) {
+			chunks.get((int) (index / CHUNK_LENGTH)).put((int) (index % CHUNK_LENGTH), (float) value);
+		} else {
+			System.err.println("long index exceeds max size of list of arrays while setting");
+		}
+	}
+
+	@Override
+	public ListOfDoubleArrays deepClone() {
+		FloatBackedListOfDoubleArrays clone = new FloatBackedListOfDoubleArrays(getLength(), offHeap);
+		for (int k = 0; k < chunks.size(); k++) {
+			FloatBuffer source = chunks.get(k).duplicate();
+			source.rewind();
+			FloatBuffer destination = clone.chunks.get(k).duplicate();
+			destination.rewind();
+			destination.put(source);
+		}
+		return clone;
+	}
+
+	@Override
+	public void divideBy(long index, double value) {
+		set(index, get(index) / value);
+	}
+
+	@Override
+	public void multiplyBy(long index, double value) {
+		set(index, get(index) * value);
+	}
+
+	@Override
+	public void addTo(long index, double value) {
+		set(index, get(index) + value);
+	}
+
+	@Override
+	public void addValuesFrom(ListOfDoubleArrays other) {
+		if (getLength() == other.getLength()) {
+			for (long i = 0; i < getLength(); i++) {
+				addTo(i, other.get(i));
+			}
+		} else {
+			System.err.println("Adding objects of different sizes!");
+		}
+	}
+
+	@Override
+	public double getFirstValue() {
+		return chunks.get(0).get(0);
+	}
+
+	@Override
+	public double getLastValue() {
+		FloatBuffer temp = chunks.get(chunks.size() - 1);
+		return temp.get(temp.capacity() - 1);
+	}
+
+	@Override
+	public List<double[]> getValues() {
+		List<double[]> values = new ArrayList<>();
+		for (FloatBuffer chunk : chunks) {
+			double[] array = new double[chunk.capacity()];
+			for (int k = 0; k < array.length; k++) {
+				array[k] = chunk.get(k);
+			}
+			values.add(array);
+		}
+		return values;
+	}
+
+	@Override
+	public void multiplyEverythingBy(double val) {
+		for (FloatBuffer chunk : chunks) {
+			for (int k = 0; k < chunk.capacity(); k++) {
+				chunk.put(k, (float) (chunk.get(k) * val));
+			}
+		}
+	}
+
+	@Override
+	public ListOfFloatArrays convertToFloats() {
+		ListOfFloatArrays newList = new ListOfFloatArrays(getLength());
+		for (long i = 0; i < getLength(); i++) {
+			newList.set(i, (float) get(i));
+		}
+		return newList;
+	}
+}
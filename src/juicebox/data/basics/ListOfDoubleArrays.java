@@ -38,7 +38,15 @@ public class ListOfDoubleArrays {
 	private final List<double[]> internalList = new ArrayList<>();
 	
 	public ListOfDoubleArrays(long length) {
+		this(length, true);
+	}
+	
+	/**
+	 * @param allocate false for subclasses which keep the values in a different storage
+	 */
+	protected ListOfDoubleArrays(long length, boolean allocate) {
 		this.overallLength = length;
+		if (!allocate) return;
 		long tempLength = length;
 		while (tempLength > 0) {
 			if (tempLength < DEFAULT_LENGTH) {
@@ -138,6 +146,12 @@ public class ListOfDoubleArrays {
 	
 	public void addValuesFrom(ListOfDoubleArrays other) {
 		if (overallLength == other.overallLength) {
+			if (other.getClass() != ListOfDoubleArrays.class) {
+				for (long i = 0; i < overallLength; i++) {
+					addTo(i, other.get(i));
+				}
+				return;
+			}
 			for (int i = 0; i < internalList.size(); i++) {
 				for (int j = 0; j < internalList.get(i).length; j++) {
 					internalList.get(i)[j] += other.internalList.get(i)[j];
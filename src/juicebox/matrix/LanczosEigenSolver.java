@@ -0,0 +1,198 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2020 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.matrix;
+
+import juicebox.tools.utils.common.TaskRunner;
+import org.apache.commons.math3.linear.EigenDecomposition;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Eigenvectors of the largest eigenvalues of a dense symmetric matrix, by Lanczos iteration with full
+ * reorthogonalization. Only matrix-vector products (run in parallel over rows, on the task runner) are needed, so the top few
+ * eigenvectors of an n x n matrix cost O(m n^2) for m Lanczos steps instead of the O(n^3) of a full decomposition.
+ * <p/>
+ * The number of steps is doubled until the requested Ritz vectors have converged, up to n
+ * (where the Krylov space is complete and the result is exact).
+ */
+public class LanczosEigenSolver {
+
+    private static final double TOLERANCE = 1e-10;
+    private static final int MIN_STEPS = 40;
+    private static final int ROWS_PER_TASK = 64;
+
+    private final float[][] matrix;
+    private final int n;
+    private final TaskRunner taskRunner;
+    private final List<Integer> rowStarts = new ArrayList<>();
+
+    /**
+     * @param matrix     symmetric matrix, by rows; NaN entries are treated as 0
+     * @param numThreads number of threads for the matrix-vector products
+     */
+    public LanczosEigenSolver(float[][] matrix, int numThreads) {
+        this.matrix = matrix;
+        this.n = matrix.length;
+        this.taskRunner = TaskRunner.getShared(numThreads);
+        for (int start = 0; start < n; start += ROWS_PER_TASK) {
+            rowStarts.add(start);
+        }
+    }
+
+    /**
+     * @param numVectors number of eigenvectors wanted
+     * @return unit eigenvectors of the numVectors largest eigenvalues, in decreasing order of eigenvalue
+     */
+    public double[][] getTopEigenvectors(int numVectors) {
+        numVectors = Math.min(numVectors, n);
+        if (numVectors < 1) {
+            return new double[0][];
+        }
+        int numSteps = Math.min(n, Math.max(MIN_STEPS, 2 * numVectors + 20));
+        while (true) {
+            double[][] eigenvectors = runLanczos(numSteps, numVectors);
+            if (eigenvectors != null) {
+                return eigenvectors;
+            }
+            numSteps = Math.min(n, 2 * numSteps);
+        }
+    }
+
+    /**
+     * @return the Ritz vectors, or null if they have not converged within numSteps steps
+     */
+    private double[][] runLanczos(int numSteps, int numVectors) {
+        double[][] basis = new double[numSteps][];
+        double[] alpha = new double[numSteps];
+        double[] beta = new double[numSteps];
+
+        // fixed seed so results are reproducible
+        Random random = new Random(0);
+        double[] q = new double[n];
+        for (int i = 0; i < n; i++) {
+            q[i] = random.nextDouble() - 0.5;
+        }
+        scale(q, 1 / norm(q));
+
+        int m = 0;
+        double matrixScale = 0;
+        while (m < numSteps) {
+            basis[m] = q;
+            double[] w = multiply(q);
+            alpha[m] = dot(w, q);
+            // full reorthogonalization against all previous vectors, twice for numerical stability
+            for (int pass = 0; pass < 2; pass++) {
+                for (int k = 0; k <= m; k++) {
+                    addScaled(w, basis[k], -dot(w, basis[k]));
+                }
+            }
+            beta[m] = norm(w);
+            matrixScale = Math.max(matrixScale, Math.abs(alpha[m]) + beta[m]);
+            m++;
+            if (beta[m - 1] <= TOLERANCE * matrixScale || m == n) {
+                // invariant subspace found, the Ritz values are exact
+                beta[m - 1] = 0;
+                break;
+            }
+            q = w;
+            scale(q, 1 / beta[m - 1]);
+        }
+
+        double[] main = new double[m];
+        double[] secondary = new double[m - 1];
+        System.arraycopy(alpha, 0, main, 0, m);
+        System.arraycopy(beta, 0, secondary, 0, m - 1);
+        EigenDecomposition tridiagonal = new EigenDecomposition(main, secondary);
+        double[] ritzValues = tridiagonal.getRealEigenvalues(); // sorted in decreasing order
+
+        numVectors = Math.min(numVectors, m);
+        double largest = Math.max(Math.abs(ritzValues[0]), Math.abs(ritzValues[m - 1]));
+        double[][] eigenvectors = new double[numVectors][];
+        for (int v = 0; v < numVectors; v++) {
+            double[] s = tridiagonal.getEigenvector(v).toArray();
+            double residual = Math.abs(beta[m - 1] * s[m - 1]);
+            if (m < n && residual > Math.sqrt(TOLERANCE) * largest) {
+                return null;
+            }
+            double[] eigenvector = new double[n];
+            for (int k = 0; k < m; k++) {
+                addScaled(eigenvector, basis[k], s[k]);
+            }
+            eigenvectors[v] = eigenvector;
+        }
+        return eigenvectors;
+    }
+
+    private double[] multiply(final double[] x) {
+        List<double[]> products = taskRunner.map(rowStarts, start -> multiplyRows(start, x));
+        double[] result = new double[n];
+        for (int t = 0; t < products.size(); t++) {
+            System.arraycopy(products.get(t), 0, result, rowStarts.get(t), products.get(t).length);
+        }
+        return result;
+    }
+
+    private double[] multiplyRows(int start, double[] x) {
+        double[] result = new double[Math.min(n, start + ROWS_PER_TASK) - start];
+        for (int r = 0; r < result.length; r++) {
+            float[] row = matrix[start + r];
+            double sum = 0;
+            for (int j = 0; j < n; j++) {
+                float value = row[j];
+                if (!Float.isNaN(value)) {
+                    sum += value * x[j];
+                }
+            }
+            result[r] = sum;
+        }
+        return result;
+    }
+
+    private static double dot(double[] a, double[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    private static double norm(double[] a) {
+        return Math.sqrt(dot(a, a));
+    }
+
+    private static void scale(double[] a, double factor) {
+        for (int i = 0; i < a.length; i++) {
+            a[i] *= factor;
+        }
+    }
+
+    private static void addScaled(double[] a, double[] b, double factor) {
+        for (int i = 0; i < a.length; i++) {
+            a[i] += factor * b[i];
+        }
+    }
+}
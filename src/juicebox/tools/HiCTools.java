@@ -71,6 +71,7 @@ public class HiCTools {
         help = parser.getHelpOption();
         version = parser.getVersionOption();
         HiCGlobals.printVerboseComments = parser.getVerboseOption();
+        HiCGlobals.vectorStorage = parser.getVectorStorageOption();
 
         String[] args = parser.getRemainingArgs();
 
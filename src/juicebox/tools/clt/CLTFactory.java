@@ -61,7 +61,9 @@ public class CLTFactory {
             Arrowhead.getBasicUsage(),
             HiCCUPS.getBasicUsage(),
             HiCCUPSDiff.getBasicUsage(),
-            ValidateFile.getUsage()
+            ValidateFile.getUsage(),
+            CompactPairs.getUsage(),
+            Serve.getUsage()
     };
 
     public static void generalUsage() {
@@ -73,6 +75,7 @@ public class CLTFactory {
         System.out.println("\t" + "-h, --help print help");
         System.out.println("\t" + "-v, --verbose verbose mode");
         System.out.println("\t" + "-V, --version print version");
+        System.out.println("\t" + "--vector-storage <double|float|offheap> storage for normalization and expected vectors read from file");
         System.out.println("Type juicer_tools <commandName> for more detailed usage instructions");
     }
 
@@ -117,6 +120,8 @@ public class CLTFactory {
             return new MotifFinder();
         } else if (cmd.equals("pairsToBin".toLowerCase())) {
             return new PairsToBin();
+        } else if (cmd.equals("compactPairs".toLowerCase())) {
+            return new CompactPairs();
         } else if (cmd.equals("db")) {
             return new SQLDatabase();
         } else if (cmd.equals("hiccupsdiff")) {
@@ -137,6 +142,8 @@ public class CLTFactory {
             return new APAvsDistance();
         } else if (cmd.equals("statistics")) {
             return new Statistics();
+        } else if (cmd.equals("serve")) {
+            return new Serve();
         }
 
 
@@ -25,6 +25,7 @@
 package juicebox.tools.clt;
 
 import jargs.gnu.CmdLineParser;
+import juicebox.HiCGlobals;
 import juicebox.windowui.NormalizationHandler;
 import juicebox.windowui.NormalizationType;
 
@@ -53,6 +54,9 @@ public class CommandLineParser extends CmdLineParser {
     private final Option noFragNormOption = addBooleanOption('F', "no_fragment-normalization");
     private final Option randomizePositionOption = addBooleanOption("randomize_position");
     private final Option throwIntraFragOption = addBooleanOption("skip-intra-frag");
+    private final Option scaleWarmStartOption = addBooleanOption("scale-warm-start");
+    private final Option incrementalNormOption = addBooleanOption("incremental");
+    private final Option computeStatisticsOption = addBooleanOption("compute-statistics");
 
     // String
     private final Option fragmentOption = addStringOption('f', "restriction-fragment-site-file");
@@ -64,6 +68,7 @@ public class CommandLineParser extends CmdLineParser {
     protected final Option normalizationTypeOption = addStringOption('k', "normalization");
     private final Option mndIndexOption = addStringOption('i', "mndindex");
     private final Option ligationOption = addStringOption("ligation");
+    private final Option vectorStorageOption = addStringOption("vector-storage");
 
     // ints
     private final Option countThresholdOption = addIntegerOption('m', "min-count");
@@ -133,6 +138,18 @@ public class CommandLineParser extends CmdLineParser {
         return optionToBoolean(throwIntraFragOption);
     }
 
+    public boolean getScaleWarmStartOption() {
+        return optionToBoolean(scaleWarmStartOption);
+    }
+
+    public boolean getIncrementalNormOption() {
+        return optionToBoolean(incrementalNormOption);
+    }
+
+    public boolean getComputeStatisticsOption() {
+        return optionToBoolean(computeStatisticsOption);
+    }
+
     /**
      * String flags
      */
@@ -149,6 +166,23 @@ public class CommandLineParser extends CmdLineParser {
         return optionToString(statsOption);
     }
 
+    public HiCGlobals.VectorStorage getVectorStorageOption() {
+        String storage = optionToString(vectorStorageOption);
+        if (storage == null) return HiCGlobals.VectorStorage.DOUBLE;
+        switch (storage.toLowerCase()) {
+            case "float":
+                return HiCGlobals.VectorStorage.FLOAT;
+            case "offheap":
+            case "off-heap":
+                return HiCGlobals.VectorStorage.OFF_HEAP;
+            case "double":
+                return HiCGlobals.VectorStorage.DOUBLE;
+            default:
+                System.err.println("Unknown vector storage " + storage + "; using double");
+                return HiCGlobals.VectorStorage.DOUBLE;
+        }
+    }
+
     public String getGraphOption() {
         return optionToString(graphOption);
     }
@@ -213,6 +247,10 @@ public class CommandLineParser extends CmdLineParser {
         return optionToLong(randomSeedOption);
     }
 
+    public boolean hasRandomSeedOption() {
+        return getOptionValue(randomSeedOption) != null;
+    }
+
     public enum Alignment {INNER, OUTER, LL, RR, TANDEM}
 
     public int getNumThreads() {
@@ -34,7 +34,9 @@ import juicebox.data.MatrixZoomData;
 import juicebox.data.basics.Chromosome;
 import juicebox.tools.clt.CommandLineParserForJuicer;
 import juicebox.tools.clt.JuicerCLT;
+import juicebox.tools.utils.common.TaskRunner;
 import juicebox.tools.utils.juicer.apa.APADataStack;
+import juicebox.tools.utils.juicer.apa.APALoopExtractor;
 import juicebox.tools.utils.juicer.apa.APARegionStatistics;
 import juicebox.tools.utils.juicer.apa.APAUtils;
 import juicebox.track.feature.Feature2D;
@@ -43,13 +45,9 @@ import juicebox.track.feature.Feature2DParser;
 import juicebox.track.feature.FeatureFilter;
 import juicebox.windowui.HiCZoom;
 import juicebox.windowui.NormalizationType;
-import org.apache.commons.math.linear.RealMatrix;
 
 import java.io.File;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -279,104 +277,93 @@ public class APA extends JuicerCLT {
 
             if (loopList.getNumTotalFeatures() > 0) {
 
-                double maxProgressStatus = handler.size();
                 final AtomicInteger currentProgressStatus = new AtomicInteger(0);
-                Map<Integer,Chromosome[]> chromosomePairs = new ConcurrentHashMap<>();
-                int pairCounter = 1;
-                for (Chromosome chr1 : handler.getChromosomeArrayWithoutAllByAll()) {
-                    for (Chromosome chr2 : handler.getChromosomeArrayWithoutAllByAll()) {
-                        Chromosome[] chromosomePair = {chr1,chr2};
-                        chromosomePairs.put(pairCounter, chromosomePair);
-                        pairCounter++;
+
+                // queue only the chromosome pairs which have loops, largest first
+                final Map<Integer, Chromosome> chromosomesByIndex = new HashMap<>();
+                for (Chromosome chr : handler.getChromosomeArrayWithoutAllByAll()) {
+                    chromosomesByIndex.put(chr.getIndex(), chr);
+                }
+                final List<Chromosome[]> chromosomePairs = new ArrayList<>();
+                final Map<Chromosome[], Integer> numLoopsForPair = new HashMap<>();
+                loopList.processLists((key, loops) -> {
+                    if (loops == null || loops.isEmpty()) return;
+                    String[] indices = key.split("_");
+                    Chromosome chr1 = chromosomesByIndex.get(Integer.parseInt(indices[0]));
+                    Chromosome chr2 = chromosomesByIndex.get(Integer.parseInt(indices[1]));
+                    if (chr1 == null || chr2 == null) return;
+                    if (chr1.getIndex() == chr2.getIndex() || includeInterChr) {
+                        Chromosome[] chromosomePair = {chr1, chr2};
+                        chromosomePairs.add(chromosomePair);
+                        numLoopsForPair.put(chromosomePair, loops.size());
                     }
+                });
+                chromosomePairs.sort((p1, p2) -> numLoopsForPair.get(p2) - numLoopsForPair.get(p1));
+                final int chromosomePairCounter = chromosomePairs.size();
+                int numIntraPairs = 0;
+                for (Chromosome[] pair : chromosomePairs) {
+                    if (pair[0].getIndex() == pair[1].getIndex()) numIntraPairs++;
                 }
-                final int chromosomePairCounter = pairCounter;
+                final double maxProgressStatus = numIntraPairs;
 
-                final AtomicInteger chromosomePair = new AtomicInteger(1);
+                final AtomicInteger chromosomePair = new AtomicInteger(0);
 
-                ExecutorService executor = Executors.newFixedThreadPool(numCPUThreads);
                 APADataStack.initializeDataSaveFolder(outputDirectory,"" + resolution);
 
-                for (int l = 0; l < numCPUThreads; l++) {
-                    final int threadNum = l;
+                Runnable worker = new Runnable() {
+                    @Override
+                    public void run() {
+                        int threadPair = chromosomePair.getAndIncrement();
+                        while (threadPair < chromosomePairCounter) {
+                            Chromosome chr1 = chromosomePairs.get(threadPair)[0];
+                            Chromosome chr2 = chromosomePairs.get(threadPair)[1];
+                            APADataStack apaDataStack = new APADataStack(L, outputDirectory, "" + resolution);
 
-                    Runnable worker = new Runnable() {
-                        @Override
-                        public void run() {
-                            int threadPair = chromosomePair.getAndIncrement();
-                            while (threadPair < chromosomePairCounter) {
-                                Chromosome chr1 = chromosomePairs.get(threadPair)[0];
-                                Chromosome chr2 = chromosomePairs.get(threadPair)[1];
-                                if ((chr2.getIndex() > chr1.getIndex() && includeInterChr) || (chr2.getIndex() == chr1.getIndex())) {
-                                    APADataStack apaDataStack = new APADataStack(L, outputDirectory, "" + resolution);
-
-                                    MatrixZoomData zd;
-
-                                    synchronized(ds) {
-                                        zd = HiCFileTools.getMatrixZoomData(ds, chr1, chr2, zoom);
-                                    }
-
-                                    if (zd == null) {
-                                        threadPair = chromosomePair.getAndIncrement();
-                                        continue;
-                                    }
-
-                                    if (HiCGlobals.printVerboseComments) {
-                                        System.out.println("CHR " + chr1.getName() + " " + chr1.getIndex() + " CHR " + chr2.getName() + " " + chr2.getIndex());
-                                    }
-
-                                    List<Feature2D> loops = loopList.get(chr1.getIndex(), chr2.getIndex());
-                                    if (loops == null || loops.size() == 0) {
-                                        if (HiCGlobals.printVerboseComments) {
-                                            System.out.println("CHR " + chr1.getName() + " CHR " + chr2.getName() + " - no loops, check loop filtering constraints");
-                                        }
-                                        threadPair = chromosomePair.getAndIncrement();
-                                        continue;
-                                    }
-
-                                    Integer[] peakNumbers = filterMetrics.get(Feature2DList.getKey(chr1, chr2));
-
-                                    if (loops.size() != peakNumbers[0])
-                                        System.err.println("Error reading statistics from " + chr1 + chr2);
-
-                                    for (int i = 0; i < peakNumbers.length; i++) {
-                                        gwPeakNumbers[i].addAndGet(peakNumbers[i]);
-                                    }
-
-                                    for (Feature2D loop : loops) {
-                                        try {
-                                            RealMatrix newData;
-                                            synchronized(ds) {
-                                                newData = APAUtils.extractLocalizedData(zd, loop, L, resolution, window, norm);
-                                            }
-                                            apaDataStack.addData(newData);
-                                            //apaDataStack.addData(APAUtils.extractLocalizedData(zd, loop, L, resolution, window, norm));
-                                        } catch (Exception e) {
-                                            System.err.println(e);
-                                            System.err.println("Unable to find data for loop: " + loop);
-                                        }
-                                    }
-
-                                    apaDataStack.updateGenomeWideData();
-                                    if (saveAllData) {
-                                        apaDataStack.exportDataSet(chr1.getName() + 'v' + chr2.getName(), peakNumbers, finalCurrentRegionWidth, saveAllData, dontIncludePlots);
-                                    }
-                                    if (chr2.getIndex() == chr1.getIndex()) {
-                                        System.out.print(((int) Math.floor((100.0 * currentProgressStatus.incrementAndGet()) / maxProgressStatus)) + "% ");
-                                    }
+                            MatrixZoomData zd = HiCFileTools.getMatrixZoomData(ds, chr1, chr2, zoom);
+
+                            if (zd == null) {
+                                threadPair = chromosomePair.getAndIncrement();
+                                continue;
+                            }
+
+                            if (HiCGlobals.printVerboseComments) {
+                                System.out.println("CHR " + chr1.getName() + " " + chr1.getIndex() + " CHR " + chr2.getName() + " " + chr2.getIndex());
+                            }
+
+                            List<Feature2D> loops = loopList.get(chr1.getIndex(), chr2.getIndex());
+                            if (loops == null || loops.size() == 0) {
+                                if (HiCGlobals.printVerboseComments) {
+                                    System.out.println("CHR " + chr1.getName() + " CHR " + chr2.getName() + " - no loops, check loop filtering constraints");
                                 }
                                 threadPair = chromosomePair.getAndIncrement();
+                                continue;
                             }
-                        }
-                    };
-                    executor.execute(worker);
-                }
 
-                executor.shutdown();
+                            Integer[] peakNumbers = filterMetrics.get(Feature2DList.getKey(chr1, chr2));
 
-                // Wait until all threads finish
-                while (!executor.isTerminated()) {
-                }
+                            if (loops.size() != peakNumbers[0])
+                                System.err.println("Error reading statistics from " + chr1 + chr2);
+
+                            for (int i = 0; i < peakNumbers.length; i++) {
+                                gwPeakNumbers[i].addAndGet(peakNumbers[i]);
+                            }
+
+                            // a loop which fails is reported and skipped by the extractor
+                            new APALoopExtractor(zd, norm, window, resolution).extract(loops,
+                                    (loop, data) -> apaDataStack.addData(data));
+
+                            apaDataStack.updateGenomeWideData();
+                            if (saveAllData) {
+                                apaDataStack.exportDataSet(chr1.getName() + 'v' + chr2.getName(), peakNumbers, finalCurrentRegionWidth, saveAllData, dontIncludePlots);
+                            }
+                            if (chr2.getIndex() == chr1.getIndex()) {
+                                System.out.print(((int) Math.floor((100.0 * currentProgressStatus.incrementAndGet()) / maxProgressStatus)) + "% ");
+                            }
+                            threadPair = chromosomePair.getAndIncrement();
+                        }
+                    }
+                };
+                TaskRunner.getShared(numCPUThreads).runWorkers("APA", numCPUThreads, worker);
 
                 System.out.println("Exporting APA results...");
                 //save data as int array
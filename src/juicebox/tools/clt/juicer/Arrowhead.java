@@ -30,7 +30,9 @@ import juicebox.data.*;
 import juicebox.data.basics.Chromosome;
 import juicebox.tools.clt.CommandLineParserForJuicer;
 import juicebox.tools.clt.JuicerCLT;
+import juicebox.tools.utils.common.TaskRunner;
 import juicebox.tools.utils.juicer.arrowhead.ArrowheadScoreList;
+import juicebox.tools.utils.juicer.arrowhead.ArrowheadWindowPool;
 import juicebox.tools.utils.juicer.arrowhead.BlockBuster;
 import juicebox.tools.utils.juicer.hiccups.HiCCUPSUtils;
 import juicebox.track.feature.Feature2DList;
@@ -40,10 +42,10 @@ import juicebox.windowui.NormalizationHandler;
 import juicebox.windowui.NormalizationType;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -253,13 +255,16 @@ public class Arrowhead extends JuicerCLT {
         final AtomicInteger currentProgressStatus = new AtomicInteger(0);
         System.out.println("max " + maxProgressStatus);
 
-        ExecutorService executor = Executors.newFixedThreadPool(numCPUThreads);
+        final TaskRunner taskRunner = TaskRunner.getShared(numCPUThreads);
+        // windows within each chromosome are also scored in parallel, on the same pool
+        final ArrowheadWindowPool windowPool = new ArrowheadWindowPool(taskRunner);
 
+        List<Callable<Void>> chromosomeTasks = new ArrayList<>();
         for (final Chromosome chr : chromosomeHandler.getChromosomeArrayWithoutAllByAll()) {
 
-            Runnable worker = new Runnable() {
+            Callable<Void> worker = new Callable<Void>() {
                 @Override
-                public void run() {
+                public Void call() {
                     MatrixZoomData zd = HiCFileTools.getMatrixZoomData(ds, chr, chr, zoom);
                     if (zd != null) {
 
@@ -272,21 +277,18 @@ public class Arrowhead extends JuicerCLT {
 
                         // actual Arrowhead algorithm
                         BlockBuster.run(chr, resolution, matrixSize, zd, norm, list, control, contactDomainsGenomeWide,
-                                contactDomainListScoresGenomeWide, contactDomainControlScoresGenomeWide);
+                                contactDomainListScoresGenomeWide, contactDomainControlScoresGenomeWide, windowPool);
 
                         //todo should this be inside if? But the wouldn't increment for skipped chr;s?
                         int currProg = currentProgressStatus.incrementAndGet();
                         System.out.println(((int) Math.floor((100.0 * currProg) / maxProgressStatus)) + "% ");
                     }
+                    return null;
                 }
             };
-            executor.execute(worker);
-        }
-
-        executor.shutdown();
-        // Wait until all threads finish
-        while (!executor.isTerminated()) {
+            chromosomeTasks.add(worker);
         }
+        taskRunner.invokeAll("Arrowhead", chromosomeTasks, false);
 
         // save the data on local machine
         contactDomainsGenomeWide.exportFeatureList(outputBlockFile, true, Feature2DList.ListFormat.ARROWHEAD);
@@ -37,6 +37,7 @@ import juicebox.mapcolorui.Feature2DHandler;
 import juicebox.tools.clt.CommandLineParserForJuicer;
 import juicebox.tools.clt.JuicerCLT;
 import juicebox.tools.utils.common.ArrayTools;
+import juicebox.tools.utils.common.TaskRunner;
 import juicebox.tools.utils.juicer.hiccups.*;
 import juicebox.track.feature.Feature2D;
 import juicebox.track.feature.Feature2DList;
@@ -55,8 +56,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -201,6 +201,7 @@ public class HiCCUPS extends JuicerCLT {
     private List<HiCCUPSConfiguration> configurations;
     private Dataset ds;
     private boolean useCPUVersionHiCCUPS = false, restrictSearchRegions = false;
+    private ForkJoinPool cpuKernelPool = null;
 
     public HiCCUPS() {
         super("hiccups [-m matrixSize] [-k normalization (NONE/VC/VC_SQRT/KR)] [-c chromosome(s)] [-r resolution(s)] " +
@@ -419,34 +420,47 @@ public class HiCCUPS extends JuicerCLT {
         // two runs, 1st to build histograms, 2nd to identify loops
 
         final HiCCUPSRegionHandler regionHandler = new HiCCUPSRegionHandler(ds, chromosomeHandler, zoom, norm, conf, regionWidth,
-                regionMargin, restrictSearchRegions);
+                regionMargin, restrictSearchRegions, !listGiven);
+
+        // outputs of the first pass, so the second pass only applies the thresholds
+        final HiCCUPSRegionOutputCache regionOutputCache = new HiCCUPSRegionOutputCache(
+                HiCCUPSRegionOutputCache.getDefaultMemoryBudget(), null);
+
+        final TaskRunner taskRunner = TaskRunner.getShared(numCPUThreads);
+        if (useCPUVersionHiCCUPS) {
+            // regions run in parallel on the shared pool; each region is further split into strips on the same pool
+            cpuKernelPool = taskRunner.getPool();
+        }
 
         for (final int runNum : new int[]{0, 1}) {
 
             final AtomicInteger currentProgressStatus = new AtomicInteger(0);
             final AtomicInteger indexOfHiCCUPSRegion = new AtomicInteger(0);
 
-            ExecutorService executor = Executors.newFixedThreadPool(numCPUThreads);
-            for (int l = 0; l < numCPUThreads; l++) {
-                Runnable worker = new Runnable() {
-                    @Override
-                    public void run() {
-                        runCoreCodeForHiCCUPS(conf, indexOfHiCCUPSRegion, currentProgressStatus, regionHandler, matrixSize,
-                                thresholdBL, thresholdDonut, thresholdH, thresholdV, norm, zoom,
-                                histBL, histDonut, histH, histV, runNum, fdrLogBL, fdrLogDonut, fdrLogH, fdrLogV,
-                                inputListFeature2DHandler, requestedList, globalList);
-                    }
-                };
-                executor.execute(worker);
-            }
-            executor.shutdown();
-
-            // Wait until all threads finish
-            while (!executor.isTerminated()) {
-            }
+            Runnable worker = new Runnable() {
+                @Override
+                public void run() {
+                    runCoreCodeForHiCCUPS(conf, indexOfHiCCUPSRegion, currentProgressStatus, regionHandler, matrixSize,
+                            thresholdBL, thresholdDonut, thresholdH, thresholdV, norm, zoom,
+                            histBL, histDonut, histH, histV, runNum, fdrLogBL, fdrLogDonut, fdrLogH, fdrLogV,
+                            inputListFeature2DHandler, requestedList, globalList, regionOutputCache);
+                }
+            };
+            taskRunner.runWorkers("HiCCUPS pass " + (runNum + 1), numCPUThreads, worker);
 
             if (runNum == 0) {
 
+                // empty regions were not run; they only add zero count pixels to the first bin
+                for (HiCCUPSRegionContainer emptyRegion : regionHandler.getEmptyRegions()) {
+                    long numPixels = HiCCUPSRegionPlanner.countHistogramPixelsOfEmptyRegion(emptyRegion.getRowBounds(),
+                            emptyRegion.getColumnBounds(), regionHandler.getNormalizationVector(emptyRegion, zoom),
+                            conf.getPeakWidth());
+                    histBL[0][0] += numPixels;
+                    histDonut[0][0] += numPixels;
+                    histH[0][0] += numPixels;
+                    histV[0][0] += numPixels;
+                }
+
                 long thresh_time0 = System.currentTimeMillis();
 
                 long[][] rcsHistBL = ArrayTools.makeReverse2DCumulativeArray(histBL);
@@ -469,6 +483,9 @@ public class HiCCUPS extends JuicerCLT {
             }
         }
 
+        regionOutputCache.close();
+        cpuKernelPool = null;
+
         globalList.exportFeatureList(new File(outputDirectory, HiCCUPSUtils.getEnrichedPixelFileName(conf.getResolution())),
                 true, Feature2DList.ListFormat.ENRICHED);
         if (listGiven) {
@@ -497,7 +514,8 @@ public class HiCCUPS extends JuicerCLT {
                                        NormalizationType norm, HiCZoom zoom,
                                        long[][] histBL, long[][] histDonut, long[][] histH, long[][] histV, int runNum,
                                        float[][] fdrLogBL, float[][] fdrLogDonut, float[][] fdrLogH, float[][] fdrLogV,
-                                       Feature2DHandler inputListFeature2DHandler, Feature2DList requestedList, Feature2DList globalList) {
+                                       Feature2DHandler inputListFeature2DHandler, Feature2DList requestedList, Feature2DList globalList,
+                                       HiCCUPSRegionOutputCache regionOutputCache) {
 
 
         int indexOfRegionForThread = indexOfHiCCUPSRegion.getAndIncrement();
@@ -518,12 +536,19 @@ public class HiCCUPS extends JuicerCLT {
                 int[] rowBounds = regionContainer.getRowBounds();
                 int[] columnBounds = regionContainer.getColumnBounds();
 
-                GPUOutputContainer gpuOutputs = gpuController.process(regionHandler, regionContainer, matrixSize,
-                        thresholdBL, thresholdDonut, thresholdH, thresholdV, norm, zoom);
+                GPUOutputContainer gpuOutputs = null;
+                if (runNum == 1) {
+                    gpuOutputs = regionOutputCache.get(indexOfRegionForThread, thresholdBL, thresholdDonut, thresholdH, thresholdV);
+                }
+                if (gpuOutputs == null) {
+                    gpuOutputs = gpuController.process(regionHandler, regionContainer, matrixSize,
+                            thresholdBL, thresholdDonut, thresholdH, thresholdV, norm, zoom);
+                }
 
                 int diagonalCorrection = (rowBounds[4] - columnBounds[4]) + conf.getPeakWidth() + 2;
 
                 if (runNum == 0) {
+                    regionOutputCache.put(indexOfRegionForThread, gpuOutputs);
                     gpuOutputs.cleanUpBinNans();
                     gpuOutputs.cleanUpBinDiagonal(diagonalCorrection);
                     gpuOutputs.updateHistograms(histBL, histDonut, histH, histV, w1, w2);
@@ -574,8 +599,12 @@ public class HiCCUPS extends JuicerCLT {
 
     private GPUController buildGPUController(HiCCUPSConfiguration conf) {
         try {
+            if (useCPUVersionHiCCUPS) {
+                return new GPUController(conf.getWindowWidth(), matrixSize,
+                        conf.getPeakWidth(), true, cpuKernelPool);
+            }
             return new GPUController(conf.getWindowWidth(), matrixSize,
-                    conf.getPeakWidth(), useCPUVersionHiCCUPS);
+                    conf.getPeakWidth(), false);
         } catch (Exception e) {
             e.printStackTrace();
             System.err.println("GPU/CUDA Installation Not Detected");
@@ -41,12 +41,19 @@ import java.util.Map;
 public class HiCCUPSRegionHandler {
 
     final List<HiCCUPSRegionContainer> allRegionContainers = new ArrayList<>();
+    final List<HiCCUPSRegionContainer> emptyRegionContainers = new ArrayList<>();
     final Map<Pair<Integer, HiCZoom>, MatrixZoomData> zoomDataMap = new HashMap<>();
     final Map<Pair<Integer, HiCZoom>, double[]> normVectorMap = new HashMap<>();
     final Map<Pair<Integer, HiCZoom>, double[]> expectedVectorMap = new HashMap<>();
 
+    /**
+     * @param skipEmptyRegions regions without any blocks are not processed, see HiCCUPSRegionPlanner
+     */
     public HiCCUPSRegionHandler(Dataset ds, ChromosomeHandler chromosomeHandler, HiCZoom zoom, NormalizationType norm,
-                                HiCCUPSConfiguration conf, int regionWidth, int regionMargin, boolean restrictSearchRegions) {
+                                HiCCUPSConfiguration conf, int regionWidth, int regionMargin, boolean restrictSearchRegions,
+                                boolean skipEmptyRegions) {
+
+        int numSkippedRegions = 0;
 
         for (final Chromosome chromosome : chromosomeHandler.getChromosomeArrayWithoutAllByAll()) {
 
@@ -70,6 +77,7 @@ public class HiCCUPSRegionHandler {
                 final double[] expectedVector = HiCFileTools.extractChromosomeExpectedVector(ds, chromosome.getIndex(),
                         zoom, norm).getValues().get(0);
                 expectedVectorMap.put(pairKey, expectedVector);
+                HiCCUPSRegionPlanner planner = new HiCCUPSRegionPlanner(zd, normalizationVector, expectedVector, skipEmptyRegions);
 
                 // need overall bounds for the chromosome
                 int chrMatrixWidth = (int) Math.ceil((double) chromosome.getLength() / conf.getResolution());
@@ -94,9 +102,19 @@ public class HiCCUPSRegionHandler {
                             }
 
                             if (columnBounds[4] < chrMatrixWidth - regionMargin) {
-
-                                allRegionContainers.add(new HiCCUPSRegionContainer(chromosome,
-                                        rowBounds, columnBounds));
+                                switch (planner.plan(rowBounds, columnBounds)) {
+                                    case PROCESS:
+                                        allRegionContainers.add(new HiCCUPSRegionContainer(chromosome,
+                                                rowBounds, columnBounds));
+                                        break;
+                                    case EMPTY:
+                                        emptyRegionContainers.add(new HiCCUPSRegionContainer(chromosome,
+                                                rowBounds, columnBounds));
+                                        break;
+                                    default:
+                                        numSkippedRegions++;
+                                        break;
+                                }
                             }
                         }
                     }
@@ -105,6 +123,11 @@ public class HiCCUPSRegionHandler {
                 System.err.println("Data not available for " + chromosome + " at " + conf.getResolution() + " resolution");
             }
         }
+
+        if (HiCGlobals.printVerboseComments) {
+            System.out.println(allRegionContainers.size() + " regions to process, " + emptyRegionContainers.size() +
+                    " empty and " + numSkippedRegions + " unmappable regions skipped");
+        }
     }
 
     private int[] calculateRegionBounds(int index, int regionWidth, int chrMatrixWidth, int regionMargin) {
@@ -124,6 +147,13 @@ public class HiCCUPSRegionHandler {
         return allRegionContainers.size();
     }
 
+    /**
+     * @return regions with no records, which were not added to the regions to process
+     */
+    public List<HiCCUPSRegionContainer> getEmptyRegions() {
+        return emptyRegionContainers;
+    }
+
     public synchronized HiCCUPSRegionContainer getRegionFromIndex(int indexOfRegionForThread) {
         return allRegionContainers.get(indexOfRegionForThread);
     }
@@ -0,0 +1,126 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2020 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+
+package juicebox.tools.clt.juicer;
+
+import juicebox.data.MatrixZoomData;
+
+/**
+ * Decides which HiCCUPS regions need to be extracted and run, using only the block index and the
+ * normalization and expected vectors (no blocks are read).
+ * <p/>
+ * Regions where every row or every column of the core is unmappable can't produce any output, so they are skipped.
+ * Regions off the diagonal which have no blocks in the file are empty; the only thing they contribute is the
+ * zero count pixels they add to the first bin of the histograms, which HiCCUPS adds without extracting them
+ * (see countHistogramPixelsOfEmptyRegion).
+ */
+class HiCCUPSRegionPlanner {
+
+    enum Decision {PROCESS, SKIP, EMPTY}
+
+    private final MatrixZoomData zd;
+    private final double[] normalizationVector;
+    private final double[] expectedVector;
+    private final boolean skipEmptyRegions;
+
+    /**
+     * @param skipEmptyRegions false when every pixel of a region may be needed (e.g. to report a given loop list)
+     */
+    HiCCUPSRegionPlanner(MatrixZoomData zd, double[] normalizationVector, double[] expectedVector, boolean skipEmptyRegions) {
+        this.zd = zd;
+        this.normalizationVector = normalizationVector;
+        this.expectedVector = expectedVector;
+        this.skipEmptyRegions = skipEmptyRegions;
+    }
+
+    Decision plan(int[] rowBounds, int[] columnBounds) {
+        if (!hasMappableBin(rowBounds[4], rowBounds[5]) || !hasMappableBin(columnBounds[4], columnBounds[5])) {
+            return Decision.SKIP;
+        }
+
+        // empty regions are only treated separately when all the expected sums of a zero pixel are well defined,
+        // i.e. the region is entirely above the diagonal and the expected vector is positive over its distances
+        if (skipEmptyRegions && rowBounds[1] <= columnBounds[0]
+                && isExpectedPositive(columnBounds[0] - rowBounds[1] + 1, columnBounds[1] - rowBounds[0] - 1)
+                && zd.getSizeOfBlocksOverlapping(rowBounds[0], columnBounds[0], rowBounds[1], columnBounds[1]) == 0) {
+            return Decision.EMPTY;
+        }
+        return Decision.PROCESS;
+    }
+
+    private boolean hasMappableBin(int start, int end) {
+        for (int i = start; i < end && i < normalizationVector.length; i++) {
+            if (isFiniteFloat(normalizationVector[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isExpectedPositive(int minDistance, int maxDistance) {
+        if (minDistance < 0 || maxDistance >= expectedVector.length) return false;
+        for (int k = minDistance; k <= maxDistance; k++) {
+            if (!isFiniteFloat(expectedVector[k]) || expectedVector[k] <= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * In an empty region, every pixel of the core with a mappable row and column has an observed count of 0
+     * and expected values of 0 (first bin), unless it is cleared as being too close to the diagonal.
+     *
+     * @return number of pixels the region adds to position [0][0] of each histogram
+     */
+    static long countHistogramPixelsOfEmptyRegion(int[] rowBounds, int[] columnBounds, double[] normalizationVector,
+                                                  int peakWidth) {
+        int numRows = rowBounds[5] - rowBounds[4];
+        int numColumns = columnBounds[5] - columnBounds[4];
+        int relativeDiagonal = (rowBounds[4] - columnBounds[4]) + peakWidth + 2;
+        boolean clearDiagonal = relativeDiagonal >= -numRows;
+
+        long count = 0;
+        for (int i = 0; i < numRows; i++) {
+            if (!isMappable(normalizationVector, rowBounds[4] + i)) continue;
+            for (int j = 0; j < numColumns; j++) {
+                if (clearDiagonal && j - i <= relativeDiagonal) continue;
+                if (isMappable(normalizationVector, columnBounds[4] + j)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static boolean isMappable(double[] normalizationVector, int index) {
+        return index < normalizationVector.length && isFiniteFloat(normalizationVector[index]);
+    }
+
+    private static boolean isFiniteFloat(double value) {
+        float val = (float) value;
+        return !Float.isNaN(val) && !Float.isInfinite(val);
+    }
+}
@@ -33,9 +33,10 @@ public class AddGWNorm extends JuiceboxCLT {
 
     private String file;
     private int genomeWideResolution = -100;
+    private int numCPUThreads = 1;
 
     public AddGWNorm() {
-        super("addGWNorm <input_HiC_file> <min resolution>");
+        super("addGWNorm [-j threads] <input_HiC_file> <min resolution>");
     }
 
     @Override
@@ -51,12 +52,19 @@ public class AddGWNorm extends JuiceboxCLT {
         } catch (NumberFormatException error) {
             printUsageAndExit();
         }
+
+        int numThreads = parser.getNumThreads();
+        if (numThreads > 0) {
+            numCPUThreads = numThreads;
+        } else if (numThreads < 0) {
+            numCPUThreads = Runtime.getRuntime().availableProcessors();
+        }
     }
 
     @Override
     public void run() {
         try {
-            GenomeWideNormalizationVectorUpdater.addGWNorm(file, genomeWideResolution);
+            GenomeWideNormalizationVectorUpdater.addGWNorm(file, genomeWideResolution, numCPUThreads);
         } catch (Exception e) {
             e.printStackTrace();
         }
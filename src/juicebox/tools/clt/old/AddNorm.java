@@ -41,6 +41,8 @@ import java.util.Map;
 public class AddNorm extends JuiceboxCLT {
 
     private boolean noFragNorm = false;
+    private boolean useScaleWarmStart = false;
+    private boolean incrementalUpdate = false;
     private String inputVectorFile = null;
     private int genomeWideResolution = -100;
     private String file;
@@ -57,6 +59,8 @@ public class AddNorm extends JuiceboxCLT {
                 + "           : -k normalizations to include\n"
                 + "           : -r resolutions for respective normalizations to build to\n"
                 + "           : -j number of CPU threads to use\n"
+                + "           : --scale-warm-start initialize SCALE at each resolution from the next coarser one\n"
+                + "           : --incremental only build norms missing from the file, keeping existing vectors in place\n"
         );
     }
 
@@ -85,6 +89,8 @@ public class AddNorm extends JuiceboxCLT {
             printUsageAndExit();
         }
         noFragNorm = parser.getNoFragNormOption();
+        useScaleWarmStart = parser.getScaleWarmStartOption();
+        incrementalUpdate = parser.getIncrementalNormOption();
         genomeWideResolution = parser.getGenomeWideOption();
         normalizationTypes.addAll(parser.getAllNormalizationTypesOption());
         resolutionsToBuildTo = defaultHashMapForResToBuildTo(normalizationTypes);
@@ -126,11 +132,16 @@ public class AddNorm extends JuiceboxCLT {
                 CustomNormVectorFileHandler.updateHicFile(file, inputVectorFile);
             }
             else if (numCPUThreads==1){
-                (new NormalizationVectorUpdater()).updateHicFile(file, normalizationTypes, resolutionsToBuildTo, genomeWideResolution, noFragNorm);
+                NormalizationVectorUpdater updater = new NormalizationVectorUpdater();
+                updater.setUseScaleWarmStart(useScaleWarmStart);
+                updater.setIncrementalUpdate(incrementalUpdate);
+                updater.updateHicFile(file, normalizationTypes, resolutionsToBuildTo, genomeWideResolution, noFragNorm);
             }
             else {
                 MultithreadedNormalizationVectorUpdater updater = new MultithreadedNormalizationVectorUpdater();
                 updater.setNumCPUThreads(numCPUThreads);
+                updater.setUseScaleWarmStart(useScaleWarmStart);
+                updater.setIncrementalUpdate(incrementalUpdate);
                 updater.updateHicFile(file,normalizationTypes,resolutionsToBuildTo, genomeWideResolution, noFragNorm);
             }
         } catch (Exception e) {
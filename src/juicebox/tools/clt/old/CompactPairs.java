@@ -0,0 +1,72 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2020 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.tools.clt.old;
+
+import juicebox.data.ChromosomeHandler;
+import juicebox.data.HiCFileTools;
+import juicebox.tools.clt.CommandLineParser;
+import juicebox.tools.clt.JuiceboxCLT;
+import juicebox.tools.utils.original.CompactPairsFile;
+import juicebox.tools.utils.original.CompactPairsWriter;
+
+public class CompactPairs extends JuiceboxCLT {
+
+    private String ifile, ofile, genomeId;
+
+    public CompactPairs() {
+        super(getUsage());
+    }
+
+    public static String getUsage() {
+        return "compactPairs <input_pairs_file> <output_cpairs_file> <genomeID>";
+    }
+
+    @Override
+    public void readArguments(String[] args, CommandLineParser parser) {
+        if (args.length != 4) {
+            printUsageAndExit();
+        }
+        ifile = args[1];
+        ofile = args[2];
+        genomeId = args[3];
+        // pre recognizes compact pairs files by their extension; any other name would be read as a .bin file
+        if (!CompactPairsFile.isCompactPairsFile(ofile)) {
+            ofile = ofile + CompactPairsFile.EXTENSION;
+            System.out.println("Writing " + ofile);
+        }
+    }
+
+    @Override
+    public void run() {
+        ChromosomeHandler chromosomeHandler = HiCFileTools.loadChromosomes(genomeId);
+        try {
+            CompactPairsWriter.convert(ifile, ofile, genomeId, chromosomeHandler);
+        } catch (Exception e) {
+            System.err.println("Unable to convert " + ifile + " to compact pairs");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -24,6 +24,7 @@
 
 package juicebox.tools.clt.old;
 
+import htsjdk.samtools.util.BlockCompressedOutputStream;
 import htsjdk.tribble.util.LittleEndianOutputStream;
 import juicebox.HiC;
 import juicebox.HiCGlobals;
@@ -32,19 +33,24 @@ import juicebox.data.basics.Chromosome;
 import juicebox.data.basics.ListOfDoubleArrays;
 import juicebox.tools.clt.CommandLineParser;
 import juicebox.tools.clt.JuiceboxCLT;
+import juicebox.tools.utils.common.AsciiNumberWriter;
 import juicebox.tools.utils.common.MatrixTools;
+import juicebox.tools.utils.common.TaskRunner;
 import juicebox.tools.utils.norm.GenomeWideNormalizationVectorUpdater;
 import juicebox.tools.utils.norm.NormalizationCalculations;
 import juicebox.tools.utils.original.ExpectedValueCalculation;
 import juicebox.windowui.HiCZoom;
 import juicebox.windowui.MatrixType;
 import juicebox.windowui.NormalizationHandler;
+import juicebox.windowui.NormalizationType;
 import org.broad.igv.util.ParsingUtils;
 import org.broad.igv.util.ResourceLocator;
 
 import java.io.*;
-import java.util.Arrays;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
 
 public class Dump extends JuiceboxCLT {
     
@@ -57,12 +63,16 @@ public class Dump extends JuiceboxCLT {
     private int binSize = 0;
     private MatrixType matrixType = null;
     private PrintWriter pw = null;
+    private OutputStream textOutput = null;
     private LittleEndianOutputStream les = null;
     private HiCZoom zoom = null;
     private boolean includeIntra = false;
     private boolean dense = false;
     private String feature = null;
     private String ofile = null;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+    private List<RegionQuery> batchQueries = null;
+    private File batchOutputDirectory = null;
 
     public Dump() {
         super(getUsage());
@@ -71,7 +81,8 @@ public class Dump extends JuiceboxCLT {
     public static String getUsage(){
         return "dump <observed/oe> <NONE/VC/VC_SQRT/KR> <hicFile(s)> <chr1>[:x1:x2] <chr2>[:y1:y2] <BP/FRAG> <binsize> [outfile]\n" +
                 "\tdump <norm/expected> <NONE/VC/VC_SQRT/KR> <hicFile(s)> <chr> <BP/FRAG> <binsize> [outfile]\n" +
-                "\tdump <loops/domains> <hicFile URL> [outfile]";
+                "\tdump <loops/domains> <hicFile URL> [outfile]\n" +
+                "\tdump batch <observed/oe> <norm(s)> <hicFile(s)> <regions.bed/.bedpe> <BP/FRAG> <binsize(s)> [outfile/outdir]";
     }
 
     private void dumpGenomeWideData() {
@@ -226,6 +237,9 @@ public class Dump extends JuiceboxCLT {
 
     /**
      * Dumps the matrix.  Does more argument checking, thus this should not be called outside of this class.
+     * Output files ending in .npy get the dense region as float32, and .coo directories the sparse records
+     * as separate row, col and data .npy arrays; .bin files get little-endian (int binX, int binY, float value)
+     * records.
      *
      * @throws java.io.IOException   In case of problems writing out matrix
      */
@@ -258,7 +272,24 @@ public class Dump extends JuiceboxCLT {
         if (MatrixType.isExpectedValueType(matrixType)) {
             df = dataset.getExpectedValuesOrExit(zd.getZoom(), norm, chromosome1, true);
         }
-        zd.dump(pw, les, norm, matrixType, useRegionIndices, regionIndices, df, dense);
+        boolean isNumpy = ofile != null && ofile.endsWith(".npy");
+        boolean isCOO = ofile != null && ofile.endsWith(".coo");
+        // these dumps read each block once, so caching only costs memory; a dense text or binary dump
+        // reads every block twice (first for the matrix size, then for the values) and keeps the cache
+        if (isNumpy || isCOO || !dense) {
+            HiCGlobals.useCache = false;
+        }
+        if (isNumpy) {
+            zd.dumpDenseNumpy(new File(ofile), norm, matrixType, regionIndices, df, numThreads);
+        } else if (isCOO) {
+            File cooDirectory = new File(ofile);
+            if (!cooDirectory.isDirectory() && !cooDirectory.mkdirs()) {
+                throw new IOException("Unable to create " + cooDirectory);
+            }
+            zd.dumpSparseCOO(cooDirectory, norm, matrixType, useRegionIndices, regionIndices, df, numThreads);
+        } else {
+            zd.dump(textOutput, les, norm, matrixType, useRegionIndices, regionIndices, df, dense, numThreads);
+        }
 
     }
 
@@ -288,6 +319,10 @@ public class Dump extends JuiceboxCLT {
 
     @Override
     public void readArguments(String[] args, CommandLineParser parser) {
+        if (args.length > 1 && args[1].equalsIgnoreCase("batch")) {
+            readBatchArguments(args, parser);
+            return;
+        }
         String ofile = null;
 
         if (args.length == 3 || args.length == 4) {
@@ -308,6 +343,10 @@ public class Dump extends JuiceboxCLT {
             dense = parser.getDiagonalsOption();
             // -n in pre means no norm, in dump means includeIntra for the whole genome
             includeIntra = parser.getNoNormOption();
+            // threads reading blocks ahead of the writer
+            if (parser.getNumThreads() > 0) {
+                numThreads = parser.getNumThreads();
+            }
 
             if (args.length < 7) {
                 printUsageAndExit();
@@ -382,14 +421,16 @@ public class Dump extends JuiceboxCLT {
         try {
             if (ofile != null && ofile.length() > 0) {
                 if (ofile.endsWith(".bin")) {
-                    BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(args[6]));
+                    BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(ofile));
                     les = new LittleEndianOutputStream(bos);
-                } else if (ofile.endsWith(".npy")) {
+                } else if (ofile.endsWith(".npy") || ofile.endsWith(".coo")) {
                     this.ofile = ofile;
                 } else {
-                    pw = new PrintWriter(new FileOutputStream(ofile));
+                    textOutput = openTextOutput(ofile);
+                    pw = new PrintWriter(textOutput);
                 }
             } else {
+                textOutput = System.out;
                 pw = new PrintWriter(System.out);
             }
         }
@@ -401,6 +442,226 @@ public class Dump extends JuiceboxCLT {
 
     }
 
+    /**
+     * dump batch <observed/oe> <norm(s)> <hicFile(s)> <regions.bed/.bedpe> <BP/FRAG> <binsize(s)> [outfile/outdir]
+     * <p/>
+     * Every region of the BED (intra-chromosomal) or BEDPE file is dumped for each of the comma separated
+     * norms and bin sizes. Output goes to one stream, each query preceded by a "#" header line,
+     * or to one file per query if the output is a directory.
+     */
+    private void readBatchArguments(String[] args, CommandLineParser parser) {
+        if (args.length != 8 && args.length != 9) {
+            printUsageAndExit();
+        }
+        dense = parser.getDiagonalsOption();
+        if (parser.getNumThreads() > 0) {
+            numThreads = parser.getNumThreads();
+        }
+
+        matrixType = MatrixType.enumValueFromString(args[2].toLowerCase());
+        if (!MatrixType.isDumpMatrixType(matrixType)) {
+            System.err.println("Matrix must be one of \"observed\" or \"oe\".");
+            System.exit(15);
+        }
+
+        String[] normNames = args[3].split(",");
+        setDatasetAndNorm(args[4], normNames[0], false);
+        chromosomeHandler = dataset.getChromosomeHandler();
+        List<NormalizationType> norms = new ArrayList<>();
+        for (String normName : normNames) {
+            NormalizationType normType = dataset.getNormalizationHandler().getNormTypeFromString(normName);
+            if (normType == null) {
+                System.err.println("Normalization type " + normName + " unrecognized.");
+                System.exit(16);
+            }
+            norms.add(normType);
+        }
+
+        try {
+            unit = HiC.valueOfUnit(args[6]);
+        } catch (IllegalArgumentException error) {
+            System.err.println("Unit must be in BP or FRAG.");
+            System.exit(20);
+        }
+
+        List<Integer> binSizes = new ArrayList<>();
+        for (String binSizeSt : args[7].split(",")) {
+            try {
+                binSizes.add(Integer.parseInt(binSizeSt));
+            } catch (NumberFormatException e) {
+                System.err.println("Integer expected for bin size.  Found: " + binSizeSt + ".");
+                System.exit(21);
+            }
+        }
+
+        try {
+            batchQueries = readBatchQueries(args[5], norms, binSizes);
+        } catch (IOException error) {
+            System.err.println("Unable to read regions from " + args[5]);
+            System.exit(23);
+        }
+
+        try {
+            if (args.length == 9) {
+                File output = new File(args[8]);
+                if (output.isDirectory() || args[8].endsWith("/") || args[8].endsWith(File.separator)) {
+                    if (!output.isDirectory() && !output.mkdirs()) {
+                        throw new IOException("Unable to create " + output);
+                    }
+                    batchOutputDirectory = output;
+                } else {
+                    textOutput = openTextOutput(args[8]);
+                }
+            } else {
+                textOutput = System.out;
+            }
+        } catch (IOException error) {
+            System.err.println("Unable to open " + args[8] + " for writing.");
+            System.exit(22);
+        }
+    }
+
+    /**
+     * BED lines (chr start end) are intra-chromosomal regions, BEDPE lines (chr1 start1 end1 chr2 start2 end2)
+     * region pairs; further columns are ignored. Lines with unknown chromosomes are skipped.
+     */
+    private List<RegionQuery> readBatchQueries(String regionsFile, List<NormalizationType> norms,
+                                               List<Integer> binSizes) throws IOException {
+        List<RegionQuery> queries = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(ParsingUtils.openInputStream(regionsFile)))) {
+            String nextLine;
+            while ((nextLine = reader.readLine()) != null) {
+                nextLine = nextLine.trim();
+                if (nextLine.isEmpty() || nextLine.startsWith("#") || nextLine.startsWith("track")
+                        || nextLine.startsWith("browser")) {
+                    continue;
+                }
+                String[] tokens = nextLine.split("\\s+");
+                if (tokens.length < 3) {
+                    System.err.println("Skipping invalid region: " + nextLine);
+                    continue;
+                }
+                boolean isPair = tokens.length >= 6 && !chromosomeHandler.doesNotContainChromosome(tokens[3]);
+                String name1 = tokens[0];
+                String name2 = isPair ? tokens[3] : tokens[0];
+                if (chromosomeHandler.doesNotContainChromosome(name1) || chromosomeHandler.doesNotContainChromosome(name2)) {
+                    System.err.println("Skipping region with unknown chromosome: " + nextLine);
+                    continue;
+                }
+                long[] regionIndices;
+                try {
+                    regionIndices = new long[]{Long.parseLong(tokens[1]), Long.parseLong(tokens[2]),
+                            Long.parseLong(tokens[isPair ? 4 : 1]), Long.parseLong(tokens[isPair ? 5 : 2])};
+                } catch (NumberFormatException e) {
+                    System.err.println("Skipping region with invalid coordinates: " + nextLine);
+                    continue;
+                }
+                Chromosome chromosome1 = chromosomeHandler.getChromosomeFromName(name1);
+                Chromosome chromosome2 = chromosomeHandler.getChromosomeFromName(name2);
+                for (NormalizationType normType : norms) {
+                    for (int querySize : binSizes) {
+                        queries.add(new RegionQuery(chromosome1, chromosome2, regionIndices, normType, querySize));
+                    }
+                }
+            }
+        }
+        return queries;
+    }
+
+    /**
+     * Answers the queries concurrently on the shared task pool. The dataset (header, index, norm vectors) is read
+     * once, and blocks are cached per matrix so overlapping queries share them. In single stream mode, results
+     * are written in query order, with a bounded number of finished results held in memory.
+     */
+    private void dumpBatch() throws IOException {
+        HiCGlobals.useCache = true;
+        TaskRunner taskRunner = TaskRunner.getShared(numThreads);
+        AsciiNumberWriter writer = batchOutputDirectory == null ? new AsciiNumberWriter(textOutput) : null;
+        Deque<RegionQuery> queriesInFlight = new ArrayDeque<>();
+        Deque<Future<byte[]>> resultsInFlight = new ArrayDeque<>();
+        try {
+            for (final RegionQuery query : batchQueries) {
+                if (resultsInFlight.size() >= 2 * numThreads) {
+                    writeBatchResult(writer, queriesInFlight.poll(), resultsInFlight.poll());
+                }
+                queriesInFlight.add(query);
+                resultsInFlight.add(taskRunner.getPool().submit(() -> answerQuery(query)));
+            }
+            while (!resultsInFlight.isEmpty()) {
+                writeBatchResult(writer, queriesInFlight.poll(), resultsInFlight.poll());
+            }
+        } finally {
+            TaskRunner.cancelAll(resultsInFlight);
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * @return dumped records, or null if they were written to the query's own file
+     */
+    private byte[] answerQuery(RegionQuery query) throws IOException {
+        ByteArrayOutputStream records = batchOutputDirectory == null ? new ByteArrayOutputStream() : null;
+        try (OutputStream output = records != null ? records :
+                new FileOutputStream(new File(batchOutputDirectory, query.getFileName(unit)))) {
+            answerQuery(query, output);
+        }
+        return records == null ? null : records.toByteArray();
+    }
+
+    private void answerQuery(RegionQuery query, OutputStream output) throws IOException {
+        long[] queryRegion = query.regionIndices;
+        if (query.chromosome2.getIndex() < query.chromosome1.getIndex()) {
+            queryRegion = new long[]{queryRegion[2], queryRegion[3], queryRegion[0], queryRegion[1]};
+        }
+        HiCZoom queryZoom = new HiCZoom(unit, query.binSize);
+        MatrixZoomData zd = HiCFileTools.getMatrixZoomData(dataset, query.chromosome1, query.chromosome2, queryZoom);
+        ExpectedValueFunction df = null;
+        if (zd != null && MatrixType.isExpectedValueType(matrixType)) {
+            df = dataset.getExpectedValues(zd.getZoom(), query.norm);
+        }
+        if (zd == null) {
+            System.err.println("No reads for " + query + " at " + queryZoom);
+        } else if (df == null && MatrixType.isExpectedValueType(matrixType) && query.chromosome1 == query.chromosome2) {
+            System.err.println("O/E data not available for " + query + " at " + queryZoom);
+        } else {
+            // blocks are read on the calling pool thread; the queries themselves run in parallel
+            zd.dump(output, null, query.norm, matrixType, true, queryRegion, df, dense, 1);
+        }
+    }
+
+    private void writeBatchResult(AsciiNumberWriter writer, RegionQuery query, Future<byte[]> result) throws IOException {
+        byte[] records;
+        try {
+            records = result.get();
+        } catch (ExecutionException e) {
+            System.err.println("Unable to dump " + query + ": " + e.getCause());
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while dumping " + query);
+        }
+        if (writer != null) {
+            writer.printAscii("# " + query + " " + unit + " " + query.binSize).newLine();
+            writer.write(records);
+        }
+    }
+
+    /**
+     * Text output is gzipped for .gz files, and BGZF compressed (bgzip compatible) for .bgz files
+     */
+    private static OutputStream openTextOutput(String ofile) throws IOException {
+        if (ofile.endsWith(".bgz")) {
+            return new BlockCompressedOutputStream(ofile);
+        }
+        OutputStream os = new FileOutputStream(ofile);
+        if (ofile.endsWith(".gz")) {
+            return new GZIPOutputStream(os, 1 << 16);
+        }
+        return os;
+    }
+
     /**
      * Added for benchmark
      */
@@ -482,7 +743,10 @@ public class Dump extends JuiceboxCLT {
     public void run() {
         HiCGlobals.allowDynamicBlockIndex = false;
         try {
-            if (feature != null) {
+            if (batchQueries != null) {
+                dumpBatch();
+            }
+            else if (feature != null) {
                 dumpFeature();
             }
             else if ((matrixType == MatrixType.OBSERVED || matrixType == MatrixType.NORM)
@@ -501,6 +765,34 @@ public class Dump extends JuiceboxCLT {
         }
     }
 
+    private static class RegionQuery {
+        private final Chromosome chromosome1, chromosome2;
+        private final long[] regionIndices;
+        private final NormalizationType norm;
+        private final int binSize;
+
+        RegionQuery(Chromosome chromosome1, Chromosome chromosome2, long[] regionIndices, NormalizationType norm,
+                    int binSize) {
+            this.chromosome1 = chromosome1;
+            this.chromosome2 = chromosome2;
+            this.regionIndices = regionIndices;
+            this.norm = norm;
+            this.binSize = binSize;
+        }
+
+        String getFileName(HiC.Unit unit) {
+            return chromosome1.getName() + "_" + regionIndices[0] + "_" + regionIndices[1] + "_" +
+                    chromosome2.getName() + "_" + regionIndices[2] + "_" + regionIndices[3] + "_" +
+                    norm.getLabel() + "_" + unit + "_" + binSize + ".txt";
+        }
+
+        @Override
+        public String toString() {
+            return chromosome1.getName() + ":" + regionIndices[0] + ":" + regionIndices[1] + " " +
+                    chromosome2.getName() + ":" + regionIndices[2] + ":" + regionIndices[3] + " " + norm.getLabel();
+        }
+    }
+
     public ChromosomeHandler getChromosomeHandler() {
         return chromosomeHandler;
     }
@@ -49,13 +49,16 @@ public class Eigenvector extends JuiceboxCLT {
     private int binSize = 0;
     private Chromosome chromosome1;
     private PrintWriter pw;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+    private boolean isHighResolution = false;
 
     public Eigenvector() {
-        super(getUsage() + "\n\t-p, --pearsons_all_resolutions: calculate eigenvector at all resolutions");
+        super(getUsage() + "\n\t-p, --pearsons_all_resolutions: calculate eigenvector at all resolutions"
+                + "\n\t-j, --threads: threads computing the Pearson's and the eigenvector");
     }
 
     public static String getUsage(){
-        return "eigenvector -p <NONE/VC/VC_SQRT/KR> <hicFile(s)> <chr> <BP/FRAG> <binsize> [outfile]";
+        return "eigenvector -p [-j threads] <NONE/VC/VC_SQRT/KR> <hicFile(s)> <chr> <BP/FRAG> <binsize> [outfile]";
     }
 
     @Override
@@ -90,12 +93,17 @@ public class Eigenvector extends JuiceboxCLT {
             System.exit(21);
         }
 
+        if (parser.getNumThreads() > 0) {
+            numThreads = parser.getNumThreads();
+        }
+
         if ((unit == HiC.Unit.BP && binSize < HiCGlobals.MAX_PEARSON_ZOOM) ||
                 (unit == HiC.Unit.FRAG && binSize < HiCGlobals.MAX_PEARSON_ZOOM/1000)) {
           /*  System.out.println("Pearson's and Eigenvector are not calculated for high resolution datasets");
             System.out.println("To override this limitation, send in the \"-p\" flag.");
             System.exit(0);    */
             System.out.println("WARNING: Pearson's and eigenvector calculation at high resolution can take a long time");
+            isHighResolution = true; // otherwise the Pearson's would not be computed at this resolution
         }
 
 
@@ -130,7 +138,10 @@ public class Eigenvector extends JuiceboxCLT {
             System.exit(13);
         }
         ExpectedValueFunction df = dataset.getExpectedValuesOrExit(zd.getZoom(), norm, chromosome1, true);
-        double[] vector = dataset.getEigenvector(chromosome1, zoom, 0, norm);
+        double[] vector = dataset.getEigenvector(chromosome1, zoom, 0, norm, numThreads, isHighResolution);
+        if (vector.length == 0) {
+            System.err.println("Unable to compute the eigenvector of " + chromosome1.getName() + " at " + zoom);
+        }
 
         // mean center and print
         int count = 0;
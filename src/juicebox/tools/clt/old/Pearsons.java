@@ -38,11 +38,15 @@ import juicebox.matrix.DiskResidentBlockMatrix;
 import juicebox.matrix.InMemoryMatrix;
 import juicebox.tools.clt.CommandLineParser;
 import juicebox.tools.clt.JuiceboxCLT;
+import juicebox.tools.utils.common.TaskRunner;
+import juicebox.tools.utils.common.TiledPearsonsWriter;
 import juicebox.windowui.HiCZoom;
 import org.broad.igv.util.ParsingUtils;
 
 import java.io.*;
-import java.util.BitSet;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Class for calculating Pearsons (separated out from Dump)
@@ -51,18 +55,23 @@ import java.util.BitSet;
 public class Pearsons extends JuiceboxCLT {
 
     private static final int BLOCK_TILE = 500;
+    private static final int PEARSON_TILE = 64;
+    private static final int PEARSON_CHUNK = 2048;
     private String ofile = null;
     private HiC.Unit unit = null;
     private int binSize = 0;
     private Chromosome chromosome1;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
 
 
     public Pearsons() {
-        super(getBasicUsage() + "\n\t-p, --pearsons_all_resolutions: calculate Pearson's at all resolutions");
+        super(getBasicUsage() + "\n\t-p, --pearsons_all_resolutions: calculate Pearson's at all resolutions"
+                + "\n\t-j, --threads: threads reading blocks and computing tiles when writing a .bin file"
+                + "\n\tA .bin outfile is computed tile by tile without loading the matrix, at any resolution");
     }
 
     public static String getBasicUsage(){
-        return "pearsons [-p] <NONE/VC/VC_SQRT/KR> <hicFile(s)> <chr> <BP/FRAG> <binsize> [outfile]";
+        return "pearsons [-p] [-j threads] <NONE/VC/VC_SQRT/KR> <hicFile(s)> <chr> <BP/FRAG> <binsize> [outfile]";
     }
 
     public static BasicMatrix readPearsons(String path) throws IOException {
@@ -90,77 +99,113 @@ public class Pearsons extends JuiceboxCLT {
 
     }
 
-    private static double computePearsons(double[] scores1, double[] scores2) {
-
-//        double length = scores1.length;
-//        double sum_xsq = 0;
-//        double sum_ysq = 0;
-//        double sumx = 0;
-//        double sumy = 0;
-//        for (int i=0; i<length; i++) sum_xsq += scores1[i]*scores1[i];
-//        for (int i=0; i<length; i++) sum_ysq += scores2[i]*scores2[i];
-//        for (int i=0; i<length; i++) sumx += scores1[i];
-//        for (int i=0; i<length; i++) sumy += scores2[i];
-//        double denominator = (sum_xsq - (sumx*sumx/length))*(sum_ysq - (sumy*sumy/length));
-//        double numerator = 0;
-//        for (int i=0; i<length; i++) numerator += scores1[i]*scores2[i]; // dot product
-//        return (numerator - (sumx*sumy/length))/Math.sqrt(denominator);
-
-        double result;
-        double sum_sq_x = 0;
-        double sum_sq_y = 0;
-        double sum_coproduct = 0;
-        double mean_x = scores1[0];
-        double mean_y = scores2[0];
-        for (int i = 1; i < scores1.length; i++) {
-
-            double sweep = ((double) i) / (i + 1);
-            double delta_x = scores1[i] - mean_x;
-            double delta_y = scores2[i] - mean_y;
-
-            sum_sq_x += delta_x * delta_x * sweep;
-            sum_sq_y += delta_y * delta_y * sweep;
-            sum_coproduct += delta_x * delta_y * sweep;
-
-            mean_x += delta_x / (i + 1);
-            mean_y += delta_y / (i + 1);
+    /**
+     * Pearson's correlation of every pair of columns. Columns are centered and scaled to unit length once, so each
+     * correlation is a dot product; these are computed over square tiles of the upper triangle in parallel, and the
+     * dot products are accumulated over chunks of the vectors so that both tiles stay in cache. The standardized
+     * vectors are stored as floats, so values differ from the double computation by about 1e-8 (absolute).
+     *
+     * @param columns    the column vectors, null for empty columns
+     * @param dim        number of columns
+     * @param numThreads number of threads of the task runner
+     * @return Pearson's matrix, NaN for empty columns
+     */
+    public static BasicMatrix computePearsons(double[][] columns, int dim, int numThreads) {
+
+        final InMemoryMatrix pearsons = new InMemoryMatrix(dim);
+        TaskRunner taskRunner = TaskRunner.getShared(numThreads);
+
+        final List<float[]> standardized = taskRunner.map(Arrays.asList(columns).subList(0, dim), Pearsons::standardize);
+
+        int numTiles = (dim + PEARSON_TILE - 1) / PEARSON_TILE;
+        final int[] tileRows = new int[numTiles * (numTiles + 1) / 2];
+        final int[] tileColumns = new int[tileRows.length];
+        int numTilePairs = 0;
+        for (int rowTile = 0; rowTile < numTiles; rowTile++) {
+            for (int columnTile = rowTile; columnTile < numTiles; columnTile++) {
+                tileRows[numTilePairs] = rowTile;
+                tileColumns[numTilePairs] = columnTile;
+                numTilePairs++;
+            }
         }
-        double pop_sd_x = Math.sqrt(sum_sq_x / scores1.length);
-        double pop_sd_y = Math.sqrt(sum_sq_y / scores1.length);
-        double cov_x_y = sum_coproduct / scores1.length;
-        result = cov_x_y / (pop_sd_x * pop_sd_y);
-        return result;
-    }
 
-    public static BasicMatrix computePearsons(double[][] columns, int dim) {
-
-        BasicMatrix pearsons = new InMemoryMatrix(dim);
-        //pearsons.fill(Float.NaN);
+        final int totalTilePairs = numTilePairs;
+        final AtomicInteger nextTilePair = new AtomicInteger(0);
+        taskRunner.runWorkers("Pearson's", Math.min(numThreads, numTilePairs), () -> {
+            int t;
+            while ((t = nextTilePair.getAndIncrement()) < totalTilePairs) {
+                computePearsonsTile(standardized, pearsons, tileRows[t] * PEARSON_TILE, tileColumns[t] * PEARSON_TILE);
+            }
+        });
 
-        BitSet bitSet = new BitSet(dim);
+        // Set diagonal to 1, set centromere to NaN
+        int numColumns = 0;
         for (int i = 0; i < dim; i++) {
-            for (int j = 0; j < dim; j++) {
-                if (i == j) continue;
-
-                double[] v1 = columns[i];
-                double[] v2 = columns[j];
-                if (v1 == null || v2 == null) {
-                    pearsons.setEntry(i, j, Float.NaN);
-                } else {
-                    double corr = Pearsons.computePearsons(columns[i], columns[j]);
-                    pearsons.setEntry(i, j, (float) corr);
-                    bitSet.set(i);
-                }
-            }
+            if (columns[i] != null) numColumns++;
         }
-        // Set diagonal to 1, set centromere to NaN
         for (int i = 0; i < dim; i++) {
-            if (bitSet.get(i)) pearsons.setEntry(i, i, 1.0f);
+            if (columns[i] != null && numColumns > 1) pearsons.setEntry(i, i, 1.0f);
             else pearsons.setEntry(i, i, Float.NaN);
         }
         return pearsons;
     }
 
+    private static void computePearsonsTile(List<float[]> standardized, InMemoryMatrix pearsons, int rowStart, int columnStart) {
+        int dim = standardized.size();
+        int rowEnd = Math.min(dim, rowStart + PEARSON_TILE);
+        int columnEnd = Math.min(dim, columnStart + PEARSON_TILE);
+        double[][] sums = new double[rowEnd - rowStart][columnEnd - columnStart];
+
+        for (int kStart = 0; kStart < dim; kStart += PEARSON_CHUNK) {
+            int kEnd = Math.min(dim, kStart + PEARSON_CHUNK);
+            for (int i = rowStart; i < rowEnd; i++) {
+                float[] v1 = standardized.get(i);
+                if (v1 == null) continue;
+                double[] rowSums = sums[i - rowStart];
+                for (int j = Math.max(columnStart, i + 1); j < columnEnd; j++) {
+                    float[] v2 = standardized.get(j);
+                    if (v2 == null) continue;
+                    double sum = 0;
+                    for (int k = kStart; k < kEnd; k++) {
+                        sum += (double) v1[k] * v2[k];
+                    }
+                    rowSums[j - columnStart] += sum;
+                }
+            }
+        }
+
+        for (int i = rowStart; i < rowEnd; i++) {
+            for (int j = Math.max(columnStart, i + 1); j < columnEnd; j++) {
+                float corr = standardized.get(i) == null || standardized.get(j) == null ? Float.NaN
+                        : (float) sums[i - rowStart][j - columnStart];
+                pearsons.setEntry(i, j, corr);
+                pearsons.setEntry(j, i, corr);
+            }
+        }
+    }
+
+    /**
+     * @return the vector minus its mean, divided by its norm; NaN if the vector is constant, null if it is null
+     */
+    private static float[] standardize(double[] vector) {
+        if (vector == null) return null;
+        double mean = 0;
+        for (double value : vector) {
+            mean += value;
+        }
+        mean /= vector.length;
+        double sumSquares = 0;
+        for (double value : vector) {
+            sumSquares += (value - mean) * (value - mean);
+        }
+        double norm = Math.sqrt(sumSquares);
+        float[] result = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            result[i] = (float) ((vector[i] - mean) / norm);
+        }
+        return result;
+    }
+
     @Override
     public void readArguments(String[] args, CommandLineParser parser) {
         if (args.length != 7 && args.length != 6) {
@@ -193,17 +238,23 @@ public class Pearsons extends JuiceboxCLT {
             System.exit(21);
         }
 
-        if ((unit == HiC.Unit.BP && binSize < HiCGlobals.MAX_PEARSON_ZOOM) ||
-                (unit == HiC.Unit.FRAG && binSize < HiCGlobals.MAX_PEARSON_ZOOM / 1000)) {
+        if (args.length == 7) {
+            ofile = args[6];
+        }
+
+        if (parser.getNumThreads() > 0) {
+            numThreads = parser.getNumThreads();
+        }
+
+        // the block file is written out of core, so its size is not limited by memory
+        if (!isBlockFileOutput() && ((unit == HiC.Unit.BP && binSize < HiCGlobals.MAX_PEARSON_ZOOM) ||
+                (unit == HiC.Unit.FRAG && binSize < HiCGlobals.MAX_PEARSON_ZOOM / 1000))) {
             System.out.println("Pearson's and Eigenvector are not calculated for high resolution datasets");
             System.out.println("To override this limitation, send in the \"-p\" flag.");
+            System.out.println("Or write a .bin file, which is computed without loading the matrix.");
             System.exit(0);
         }
 
-        if (args.length == 7) {
-            ofile = args[6];
-        }
-
     }
 
     @Override
@@ -225,7 +276,12 @@ public class Pearsons extends JuiceboxCLT {
         }
         ExpectedValueFunction df = dataset.getExpectedValuesOrExit(zd.getZoom(), norm, chromosome1, true);
 
-        BasicMatrix pearsons = zd.getPearsons(df);
+        if (isBlockFileOutput()) {
+            writeBlockFile(zd, df);
+            return;
+        }
+
+        BasicMatrix pearsons = zd.getPearsons(df, numThreads, false);
         if (pearsons == null) {
             System.err.println("Pearson's not available at zoom " + zoom  + ". For high resolution, try again with -p");
             System.exit(15);
@@ -296,6 +352,45 @@ public class Pearsons extends JuiceboxCLT {
         }
     }
 
+    private boolean isBlockFileOutput() {
+        return ofile != null && ofile.endsWith(".bin");
+    }
+
+    /**
+     * Writes the .bin file with TiledPearsonsWriter, so only the statistics and one group of rows are in memory.
+     * The lower and upper values are only known at the end and are written into the header afterwards.
+     */
+    private void writeBlockFile(MatrixZoomData zd, ExpectedValueFunction df) {
+        // the blocks are read once per group of rows, and would otherwise fill the cache
+        HiCGlobals.useCache = false;
+        int dim = zd.getPearsonsDimension();
+        TiledPearsonsWriter writer = new TiledPearsonsWriter(dim, BLOCK_TILE,
+                Runtime.getRuntime().maxMemory() / 2, numThreads);
+        long boundsPosition;
+        try (LittleEndianOutputStream les = new LittleEndianOutputStream(
+                new BufferedOutputStream(new FileOutputStream(ofile)))) {
+            writeHeader(les, dim, Float.NaN, Float.NaN);
+            // lower and upper are followed by 3 ints
+            boundsPosition = les.getWrittenCount() - 20;
+            zd.writePearsons(writer, df, les, numThreads);
+        } catch (IOException error) {
+            System.err.println("Problem when writing Pearson's");
+            error.printStackTrace();
+            System.exit(1);
+            return;
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(ofile, "rw")) {
+            file.seek(boundsPosition);
+            file.writeInt(Integer.reverseBytes(Float.floatToIntBits(writer.getLowerValue())));
+            file.writeInt(Integer.reverseBytes(Float.floatToIntBits(writer.getUpperValue())));
+        } catch (IOException error) {
+            System.err.println("Problem when writing Pearson's");
+            error.printStackTrace();
+            System.exit(1);
+        }
+    }
+
     private void writeHeader(LittleEndianOutputStream les, int dim, float lower, float upper) throws IOException {
 
         // Magic number - 4 bytes
@@ -30,6 +30,7 @@ import juicebox.data.HiCFileTools;
 import juicebox.tools.clt.CommandLineParser;
 import juicebox.tools.clt.JuiceboxCLT;
 import juicebox.tools.utils.norm.NormalizationVectorUpdater;
+import juicebox.tools.utils.original.CompactPairsFile;
 import juicebox.tools.utils.original.MultithreadedPreprocessor;
 import juicebox.tools.utils.original.Preprocessor;
 import juicebox.windowui.NormalizationType;
@@ -47,6 +48,7 @@ public class PreProcessing extends JuiceboxCLT {
     private Preprocessor preprocessor;
     private boolean noNorm = false;
     private boolean noFragNorm = false;
+    private boolean useScaleWarmStart = false;
 	private int genomeWide;
 	private final List<NormalizationType> normalizationTypes = new ArrayList<>();
 	protected static int numCPUThreads = 1;
@@ -71,7 +73,12 @@ public class PreProcessing extends JuiceboxCLT {
                 + "           : -k normalizations to include\n"
                 + "           : -j number of CPU threads to use\n"
                 + "           : --threads <int> number of threads \n"
-                + "           : --mndindex <filepath> to mnd chr block indices"
+                + "           : --mndindex <filepath> to mnd chr block indices (not needed for .cpairs input)\n"
+                + "           : --scale-warm-start initialize SCALE at each resolution from the next coarser one\n"
+                + "           : --compute-statistics compute the statistics and graphs while parsing the pairs,\n"
+                + "             as the statistics command does (appended to the -s file if given, with its histograms);\n"
+                + "             not available for .cpairs input\n"
+                + "           : --ligation <junction> ligation junction for --compute-statistics"
         );
     }
 
@@ -94,6 +101,11 @@ public class PreProcessing extends JuiceboxCLT {
 
         inputFile = args[1];
         outputFile = args[2];
+        if (parser.getComputeStatisticsOption() && CompactPairsFile.isCompactPairsFile(inputFile)) {
+            // the read sequences needed for the ligation and dangling end counts are not kept in .cpairs files
+            System.err.println("--compute-statistics needs the original pairs file; it cannot be used with .cpairs input");
+            printUsageAndExit();
+        }
         String tmpDir = parser.getTmpdirOption();
         double hicFileScalingFactor = parser.getScalingOption();
 
@@ -115,6 +127,8 @@ public class PreProcessing extends JuiceboxCLT {
         preprocessor.setTmpdir(tmpDir);
         preprocessor.setStatisticsFile(parser.getStatsOption());
         preprocessor.setGraphFile(parser.getGraphOption());
+        preprocessor.setComputeStatistics(parser.getComputeStatisticsOption());
+        preprocessor.setLigationJunction(parser.getLigationOption());
         preprocessor.setGenome(parser.getGenomeOption());
         preprocessor.setResolutions(parser.getResolutionOption());
         preprocessor.setAlignmentFilter(parser.getAlignmentOption());
@@ -126,6 +140,7 @@ public class PreProcessing extends JuiceboxCLT {
         noNorm = parser.getNoNormOption();
         genomeWide = parser.getGenomeWideOption();
         noFragNorm = parser.getNoFragNormOption();
+        useScaleWarmStart = parser.getScaleWarmStartOption();
         normalizationTypes.addAll(parser.getAllNormalizationTypesOption());
     }
 
@@ -144,7 +159,9 @@ public class PreProcessing extends JuiceboxCLT {
             }
             if (!noNorm) {
                 Map<NormalizationType, Integer> resolutionsToBuildTo = AddNorm.defaultHashMapForResToBuildTo(normalizationTypes);
-                (new NormalizationVectorUpdater()).updateHicFile(outputFile, normalizationTypes, resolutionsToBuildTo, genomeWide, noFragNorm);
+                NormalizationVectorUpdater updater = new NormalizationVectorUpdater();
+                updater.setUseScaleWarmStart(useScaleWarmStart);
+                updater.updateHicFile(outputFile, normalizationTypes, resolutionsToBuildTo, genomeWide, noFragNorm);
             } else {
                 System.out.println("Done creating .hic file. Normalization not calculated due to -n flag.");
                 System.out.println("To run normalization, run: juicebox addNorm <hicfile>");
@@ -0,0 +1,428 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2020 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+
+package juicebox.tools.clt.old;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import htsjdk.tribble.util.LittleEndianOutputStream;
+import juicebox.HiC;
+import juicebox.HiCGlobals;
+import juicebox.data.*;
+import juicebox.data.basics.Chromosome;
+import juicebox.data.basics.ListOfDoubleArrays;
+import juicebox.tools.clt.CommandLineParser;
+import juicebox.tools.clt.JuiceboxCLT;
+import juicebox.tools.utils.common.LatencyRecorder;
+import juicebox.windowui.HiCZoom;
+import juicebox.windowui.MatrixType;
+import juicebox.windowui.NormalizationType;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps datasets open and answers queries over HTTP on the local machine, so clients do not pay for
+ * JVM startup and header/index parsing on every query. Blocks are shared through the block caches of the matrices.
+ * <p/>
+ * Queries are GET requests with parameters ds (dataset index, default 0), chr1/chr2 (or chr), start1/end1/start2/end2
+ * (bp, default whole chromosome), unit (default BP), res, norm (default NONE) and type (observed/oe).
+ * Binary responses are little-endian:
+ * /matrix returns records of (int32 binX, int32 binY, float32 value), as dump writes to .bin files;
+ * /expected and /norm return float32 values. /datasets and /metrics (request latencies per endpoint) are JSON.
+ */
+public class Serve extends JuiceboxCLT {
+
+    private static final int QUEUED_REQUESTS_PER_THREAD = 16;
+    private static final String BINARY_TYPE = "application/octet-stream";
+    private static final String JSON_TYPE = "application/json";
+
+    private final List<Dataset> datasets = new ArrayList<>();
+    private final List<String> datasetPaths = new ArrayList<>();
+    private final Map<String, LatencyRecorder> latencies = Collections.synchronizedMap(new LinkedHashMap<>());
+    private int port;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+
+    public Serve() {
+        super(getUsage());
+    }
+
+    public static String getUsage() {
+        return "serve [-j threads] <port> <hicFile(s)> [hicFile(s) ...]";
+    }
+
+    @Override
+    public void readArguments(String[] args, CommandLineParser parser) {
+        if (args.length < 3) {
+            printUsageAndExit();
+        }
+        try {
+            port = Integer.parseInt(args[1]);
+        } catch (NumberFormatException e) {
+            System.err.println("Integer expected for port.  Found: " + args[1] + ".");
+            System.exit(21);
+        }
+        if (parser.getNumThreads() > 0) {
+            numThreads = parser.getNumThreads();
+        }
+        for (int i = 2; i < args.length; i++) {
+            datasets.add(HiCFileTools.extractDatasetForCLT(Arrays.asList(args[i].split("\\+")), false));
+            datasetPaths.add(args[i]);
+        }
+    }
+
+    @Override
+    public void run() {
+        HiCGlobals.allowDynamicBlockIndex = false;
+        HiCGlobals.useCache = true;
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            addStreamingEndpoint(server, "/matrix", BINARY_TYPE, this::answerMatrixQuery);
+            addEndpoint(server, "/expected", BINARY_TYPE, this::answerExpectedQuery);
+            addEndpoint(server, "/norm", BINARY_TYPE, this::answerNormQuery);
+            addEndpoint(server, "/datasets", JSON_TYPE, params -> describeDatasets());
+            server.createContext("/metrics", exchange -> respond(exchange, 200, JSON_TYPE, describeMetrics()));
+
+            // bounded pool; when the queue is full, the accepting thread answers the request itself (back-pressure)
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(QUEUED_REQUESTS_PER_THREAD * numThreads),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+            server.setExecutor(executor);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop(0);
+                executor.shutdown();
+            }));
+            server.start();
+            System.out.println("Serving " + datasets.size() + " dataset(s) on http://" +
+                    server.getAddress().getHostString() + ":" + port + " with " + numThreads + " thread(s)");
+        } catch (IOException e) {
+            System.err.println("Unable to start server on port " + port + ": " + e.getMessage());
+            System.exit(22);
+        }
+    }
+
+    private void addEndpoint(HttpServer server, String path, String contentType, QueryHandler handler) {
+        final LatencyRecorder recorder = new LatencyRecorder();
+        latencies.put(path, recorder);
+        server.createContext(path, exchange -> {
+            long start = System.nanoTime();
+            int status = 200;
+            byte[] response;
+            try {
+                response = handler.answer(parseQuery(exchange.getRequestURI().getRawQuery()));
+            } catch (Exception e) {
+                status = getErrorStatus(e);
+                response = getErrorMessage(e);
+            }
+            try {
+                respond(exchange, status, status == 200 ? contentType : "text/plain", response);
+            } finally {
+                if (status == 200) {
+                    recorder.record(System.nanoTime() - start);
+                } else {
+                    recorder.recordError();
+                }
+            }
+        });
+    }
+
+    /**
+     * For responses too large to hold in memory: the query is checked first, so that errors still get a status,
+     * then the response is written as it is computed, in chunks of unknown total length
+     */
+    private void addStreamingEndpoint(HttpServer server, String path, String contentType, StreamingQueryHandler handler) {
+        final LatencyRecorder recorder = new LatencyRecorder();
+        latencies.put(path, recorder);
+        server.createContext(path, exchange -> {
+            long start = System.nanoTime();
+            ResponseWriter writer;
+            try {
+                writer = handler.answer(parseQuery(exchange.getRequestURI().getRawQuery()));
+            } catch (Exception e) {
+                recorder.recordError();
+                respond(exchange, getErrorStatus(e), "text/plain", getErrorMessage(e));
+                return;
+            }
+            boolean isComplete = false;
+            try {
+                exchange.getResponseHeaders().set("Content-Type", contentType);
+                exchange.sendResponseHeaders(200, 0);
+                writer.writeTo(exchange.getResponseBody());
+                isComplete = true;
+            } finally {
+                if (isComplete) {
+                    exchange.close();
+                    recorder.record(System.nanoTime() - start);
+                } else {
+                    // the status is already sent; the exception makes the server drop the connection
+                    // without ending the chunked response, so the client sees it is incomplete
+                    recorder.recordError();
+                }
+            }
+        });
+    }
+
+    private static int getErrorStatus(Exception e) {
+        return e instanceof QueryException ? ((QueryException) e).status : 500;
+    }
+
+    private static byte[] getErrorMessage(Exception e) {
+        if (e instanceof QueryException) {
+            return (e.getMessage() + "\n").getBytes(StandardCharsets.UTF_8);
+        }
+        if (HiCGlobals.printVerboseComments) {
+            e.printStackTrace();
+        }
+        return ("Error: " + e + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, byte[] response) throws IOException {
+        try {
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            // a length of 0 would mean a chunked response of unknown length
+            exchange.sendResponseHeaders(status, response.length == 0 ? -1 : response.length);
+            if (response.length > 0) {
+                exchange.getResponseBody().write(response);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null) return params;
+        for (String pair : rawQuery.split("&")) {
+            if (pair.isEmpty()) continue;
+            int split = pair.indexOf('=');
+            String key = split < 0 ? pair : pair.substring(0, split);
+            String value = split < 0 ? "" : pair.substring(split + 1);
+            params.put(URLDecoder.decode(key, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+        }
+        return params;
+    }
+
+    private ResponseWriter answerMatrixQuery(Map<String, String> params) throws IOException {
+        Dataset ds = getDataset(params);
+        Chromosome chromosome1 = getChromosome(ds, params, "chr1");
+        Chromosome chromosome2 = params.containsKey("chr2") ? getChromosome(ds, params, "chr2") : chromosome1;
+        HiCZoom zoom = getZoom(params);
+        NormalizationType normType = getNorm(ds, params);
+        MatrixType matrixType = MatrixType.enumValueFromString(params.getOrDefault("type", "observed").toLowerCase());
+        if (!MatrixType.isDumpMatrixType(matrixType)) {
+            throw new QueryException(400, "type must be observed or oe");
+        }
+
+        long[] regionIndices = {getLong(params, "start1", 0), getLong(params, "end1", chromosome1.getLength()),
+                getLong(params, "start2", 0), getLong(params, "end2", chromosome2.getLength())};
+        if (chromosome2.getIndex() < chromosome1.getIndex()) {
+            regionIndices = new long[]{regionIndices[2], regionIndices[3], regionIndices[0], regionIndices[1]};
+        }
+
+        MatrixZoomData zd = HiCFileTools.getMatrixZoomData(ds, chromosome1, chromosome2, zoom);
+        if (zd == null) {
+            throw new QueryException(404, "No data for " + chromosome1.getName() + " " + chromosome2.getName() + " at " + zoom);
+        }
+        ExpectedValueFunction df = null;
+        if (MatrixType.isExpectedValueType(matrixType)) {
+            df = ds.getExpectedValues(zd.getZoom(), normType);
+            if (df == null && chromosome1.getIndex() == chromosome2.getIndex()) {
+                throw new QueryException(404, "O/E data not available at " + zoom + " " + normType);
+            }
+        }
+
+        final long[] region = regionIndices;
+        final ExpectedValueFunction expected = df;
+        // a whole chromosome at fine resolution can be larger than a byte array, so the records are streamed
+        return out -> zd.dump(null, new LittleEndianOutputStream(new BufferedOutputStream(out)), normType, matrixType,
+                true, region, expected, false, 1);
+    }
+
+    private byte[] answerExpectedQuery(Map<String, String> params) throws IOException {
+        Dataset ds = getDataset(params);
+        HiCZoom zoom = getZoom(params);
+        NormalizationType normType = getNorm(ds, params);
+        ExpectedValueFunction df = ds.getExpectedValues(zoom, normType);
+        if (df == null) {
+            throw new QueryException(404, "Expected values not available at " + zoom + " " + normType);
+        }
+        if (params.containsKey("chr")) {
+            return toLittleEndianFloats(df.getExpectedValuesWithNormalization(getChromosome(ds, params, "chr").getIndex()));
+        }
+        return toLittleEndianFloats(df.getExpectedValuesNoNormalization());
+    }
+
+    private byte[] answerNormQuery(Map<String, String> params) throws IOException {
+        Dataset ds = getDataset(params);
+        Chromosome chromosome = getChromosome(ds, params, "chr");
+        HiCZoom zoom = getZoom(params);
+        NormalizationType normType = getNorm(ds, params);
+        NormalizationVector nv = ds.getNormalizationVector(chromosome.getIndex(), zoom, normType);
+        if (nv == null) {
+            throw new QueryException(404, normType + " vector not available for " + chromosome.getName() + " at " + zoom);
+        }
+        return toLittleEndianFloats(nv.getData());
+    }
+
+    private static byte[] toLittleEndianFloats(ListOfDoubleArrays values) {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (4 * values.getLength())).order(ByteOrder.LITTLE_ENDIAN);
+        for (double[] array : values.getValues()) {
+            for (double value : array) {
+                buffer.putFloat((float) value);
+            }
+        }
+        return buffer.array();
+    }
+
+    private byte[] describeDatasets() {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < datasets.size(); i++) {
+            Dataset ds = datasets.get(i);
+            if (i > 0) json.append(", ");
+            json.append("{\"id\": ").append(i).append(", \"path\": ").append(quote(datasetPaths.get(i)));
+            json.append(", \"chromosomes\": [");
+            Chromosome[] chromosomes = ds.getChromosomeHandler().getChromosomeArrayWithoutAllByAll();
+            for (int c = 0; c < chromosomes.length; c++) {
+                if (c > 0) json.append(", ");
+                json.append("{\"name\": ").append(quote(chromosomes[c].getName()))
+                        .append(", \"length\": ").append(chromosomes[c].getLength()).append("}");
+            }
+            for (HiC.Unit unit : HiC.Unit.values()) {
+                json.append("], \"").append(unit).append("_resolutions\": [");
+                for (int z = 0; z < ds.getNumberZooms(unit); z++) {
+                    if (z > 0) json.append(", ");
+                    json.append(ds.getZoom(unit, z).getBinSize());
+                }
+            }
+            json.append("], \"norms\": [");
+            List<NormalizationType> norms = ds.getNormalizationTypes();
+            for (int n = 0; n < norms.size(); n++) {
+                if (n > 0) json.append(", ");
+                json.append(quote(norms.get(n).getLabel()));
+            }
+            json.append("]}");
+        }
+        return json.append("]\n").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] describeMetrics() {
+        StringBuilder json = new StringBuilder("{");
+        synchronized (latencies) {
+            for (Map.Entry<String, LatencyRecorder> entry : latencies.entrySet()) {
+                if (json.length() > 1) json.append(", ");
+                json.append(quote(entry.getKey())).append(": ").append(entry.getValue().toJson());
+            }
+        }
+        return json.append("}\n").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String quote(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private Dataset getDataset(Map<String, String> params) throws QueryException {
+        int index = (int) getLong(params, "ds", 0);
+        if (index < 0 || index >= datasets.size()) {
+            throw new QueryException(404, "Unknown dataset " + index);
+        }
+        return datasets.get(index);
+    }
+
+    private static Chromosome getChromosome(Dataset ds, Map<String, String> params, String key) throws QueryException {
+        String name = params.get(key);
+        if (name == null) {
+            throw new QueryException(400, "Missing parameter " + key);
+        }
+        Chromosome chromosome = ds.getChromosomeHandler().getChromosomeFromName(name);
+        if (chromosome == null) {
+            throw new QueryException(404, "Unknown chromosome " + name);
+        }
+        return chromosome;
+    }
+
+    private static HiCZoom getZoom(Map<String, String> params) throws QueryException {
+        HiC.Unit unit = HiC.valueOfUnit(params.getOrDefault("unit", "BP"));
+        if (unit == null) {
+            throw new QueryException(400, "unit must be BP or FRAG");
+        }
+        if (!params.containsKey("res")) {
+            throw new QueryException(400, "Missing parameter res");
+        }
+        return new HiCZoom(unit, (int) getLong(params, "res", 0));
+    }
+
+    private static NormalizationType getNorm(Dataset ds, Map<String, String> params) throws QueryException {
+        String name = params.getOrDefault("norm", "NONE");
+        NormalizationType normType = ds.getNormalizationHandler().getNormTypeFromString(name);
+        if (normType == null) {
+            throw new QueryException(400, "Unknown normalization " + name);
+        }
+        return normType;
+    }
+
+    private static long getLong(Map<String, String> params, String key, long defaultValue) throws QueryException {
+        String value = params.get(key);
+        if (value == null) return defaultValue;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new QueryException(400, "Integer expected for " + key + ".  Found: " + value + ".");
+        }
+    }
+
+    private interface QueryHandler {
+        byte[] answer(Map<String, String> params) throws IOException;
+    }
+
+    private interface StreamingQueryHandler {
+        ResponseWriter answer(Map<String, String> params) throws IOException;
+    }
+
+    private interface ResponseWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private static class QueryException extends IOException {
+        private static final long serialVersionUID = -6907254181313927052L;
+        private final int status;
+
+        QueryException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+}
@@ -29,6 +29,7 @@ import juicebox.data.ChromosomeHandler;
 import juicebox.data.HiCFileTools;
 import juicebox.tools.clt.CommandLineParser;
 import juicebox.tools.clt.JuiceboxCLT;
+import juicebox.tools.utils.common.TaskRunner;
 import juicebox.tools.utils.original.FragmentCalculation;
 
 import java.io.BufferedReader;
@@ -39,8 +40,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class Statistics extends JuiceboxCLT {
@@ -201,15 +200,8 @@ public class Statistics extends JuiceboxCLT {
 
         } else {
             StatisticsContainer mergedContainer = new StatisticsContainer();
-            ExecutorService executor = Executors.newFixedThreadPool(numThreads);
-            for (int l = 0; l < numThreads; l++) {
-                Runnable worker = () -> runIndividualStatistics(mergedContainer);
-                executor.execute(worker);
-            }
-            executor.shutdown();
-            // Wait until all threads finish
-            while (!executor.isTerminated()) {
-            }
+            TaskRunner.getShared(numThreads).runWorkers("Statistics", numThreads,
+                    () -> runIndividualStatistics(mergedContainer));
             mergedContainer.outputStatsFile(statsFiles);
             mergedContainer.writeHistFile(statsFiles);
         }
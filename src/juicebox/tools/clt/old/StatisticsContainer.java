@@ -73,6 +73,10 @@ public class StatisticsContainer {
     
     private static final long[] bins = {10, 12, 15, 19, 23, 28, 35, 43, 53, 66, 81, 100, 123, 152, 187, 231, 285, 351, 433, 534, 658, 811, 1000, 1233, 1520, 1874, 2310, 2848, 3511, 4329, 5337, 6579, 8111, 10000, 12328, 15199, 18738, 23101, 28480, 35112, 43288, 53367, 65793, 81113, 100000, 123285, 151991, 187382, 231013, 284804, 351119, 432876, 533670, 657933, 811131, 1000000, 1232847, 1519911, 1873817, 2310130, 2848036, 3511192, 4328761, 5336699, 6579332, 8111308, 10000000, 12328467, 15199111, 18738174, 23101297, 28480359, 35111917, 43287613, 53366992, 65793322, 81113083, 100000000, 123284674, 151991108, 187381742, 231012970, 284803587, 351119173, 432876128, 533669923, 657933225, 811130831, 1000000000, 1232846739, 1519911083, 1873817423, 2310129700L, 2848035868L, 3511191734L, 4328761281L, 5336699231L, 6579332247L, 8111308308L, 10000000000L};
     
+    // bounds on the length of getStatsText and getHistText (counts have at most 19 digits, plus a separator)
+    public static final int MAX_STATS_TEXT_LENGTH = 4096;
+    public static final int MAX_HIST_TEXT_LENGTH = 20 * (2000 + 3 * 200 + 5 * bins.length) + 100;
+
     public StatisticsContainer() {
         for (int i = 0; i < 2; i++) {
             hindIII.add(new HashMap<>());
@@ -90,20 +94,14 @@ public class StatisticsContainer {
         unique += individualContainer.unique;
 
         for (int j=0; j<numberOfMapQValues; j++) {
-            for (int i = 1; i <= 2000; i++) {
-                hindIII.get(j).put(i, hindIII.get(j).getOrDefault(i, 0L) + individualContainer.hindIII.get(j).getOrDefault(i, 0L));
-            }
-            for (int i = 1; i <= 200; i++) {
-                mapQ.get(j).put(i, mapQ.get(j).getOrDefault(i, 0L) + individualContainer.mapQ.get(j).getOrDefault(i, 0L));
-                mapQInter.get(j).put(i, mapQInter.get(j).getOrDefault(i, 0L) + individualContainer.mapQInter.get(j).getOrDefault(i, 0L));
-                mapQIntra.get(j).put(i, mapQIntra.get(j).getOrDefault(i, 0L) + individualContainer.mapQIntra.get(j).getOrDefault(i, 0L));
-            }
-            for (int i = 1; i <= 100; i++) {
-                innerM.get(j).put(i, innerM.get(j).getOrDefault(i, 0L) + individualContainer.innerM.get(j).getOrDefault(i, 0L));
-                outerM.get(j).put(i, outerM.get(j).getOrDefault(i, 0L) + individualContainer.outerM.get(j).getOrDefault(i, 0L));
-                rightM.get(j).put(i, rightM.get(j).getOrDefault(i, 0L) + individualContainer.rightM.get(j).getOrDefault(i, 0L));
-                leftM.get(j).put(i, leftM.get(j).getOrDefault(i, 0L) + individualContainer.leftM.get(j).getOrDefault(i, 0L));
-            }
+            addHistogram(hindIII.get(j), individualContainer.hindIII.get(j));
+            addHistogram(mapQ.get(j), individualContainer.mapQ.get(j));
+            addHistogram(mapQInter.get(j), individualContainer.mapQInter.get(j));
+            addHistogram(mapQIntra.get(j), individualContainer.mapQIntra.get(j));
+            addHistogram(innerM.get(j), individualContainer.innerM.get(j));
+            addHistogram(outerM.get(j), individualContainer.outerM.get(j));
+            addHistogram(rightM.get(j), individualContainer.rightM.get(j));
+            addHistogram(leftM.get(j), individualContainer.leftM.get(j));
         }
 
         for(int i=0;i<numberOfMapQValues;i++) {
@@ -139,6 +137,12 @@ public class StatisticsContainer {
         }
     }
     
+    private static void addHistogram(Map<Integer, Long> histogram, Map<Integer, Long> individualHistogram) {
+        for (Map.Entry<Integer, Long> entry : individualHistogram.entrySet()) {
+            histogram.merge(entry.getKey(), entry.getValue(), Long::sum);
+        }
+    }
+
     private String commify(long value) {
         return NumberFormat.getNumberInstance(Locale.US).format(value);
     }
@@ -153,92 +157,24 @@ public class StatisticsContainer {
     
     public void outputStatsFile(List<String> statsFiles) {
         for (int i = 0; i < statsFiles.size(); i++) {
-            boolean sequencedReadsGiven = false;
-            long reads = 1L;
             File statFile = new File(statsFiles.get(i));
             //output statistics file for first mapq calculation
             if (statFile.exists()) {
+                StringBuilder previousStats = new StringBuilder();
                 try {
                     BufferedReader stats = new BufferedReader(new FileReader(statFile));
                     String statsData = stats.readLine();
                     while (statsData != null) {
-                        if (statsData.contains("Sequenced")) {
-                            sequencedReadsGiven = true;
-                            String[] tokens = statsData.split(":");
-                            reads = Long.parseLong(tokens[1].replaceAll("[, ]", ""));
-                        }
+                        previousStats.append(statsData).append("\n");
                         statsData = stats.readLine();
                     }
                     stats.close();
                 } catch (IOException error) {
                     error.printStackTrace();
                 }
-            }
-            if (statFile.exists()) {
                 try {
                     BufferedWriter statsOut = new BufferedWriter(new FileWriter(statFile, true));
-                    if (unique == 0) {
-                        unique++;
-                    }
-                    if(sequencedReadsGiven) {
-                        statsOut.write("Intra-fragment Reads: " + commify(intraFragment[i]) + " (" + percentify(intraFragment[i],reads) + " / " + percentify(intraFragment[i],unique) + ")\n");
-                        statsOut.write("Below MAPQ Threshold: " + commify(underMapQ[i]) + " (" + percentify(underMapQ[i],reads) + " / " + percentify(underMapQ[i],unique)  + ")\n");
-                        statsOut.write("Hi-C Contacts: " + commify(totalCurrent[i]) + " (" + percentify(totalCurrent[i],reads) + " / " + percentify(totalCurrent[i],unique)  + ")\n");
-                        statsOut.write(" Ligation Motif Present: " + commify(ligation[i]) + " (" + percentify(ligation[i],reads) + " / " + percentify(ligation[i],unique)  + ")\n");
-                        if ((fivePrimeEnd[i] + threePrimeEnd[i]) > 0) {
-                            statsOut.write(" 3' Bias (Long Range): " + wholePercentify(threePrimeEnd[i],threePrimeEnd[i]+fivePrimeEnd[i]));
-                            statsOut.write(" - " + wholePercentify(fivePrimeEnd[i],threePrimeEnd[i]+fivePrimeEnd[i]) + "\n");
-                        } else {
-                            statsOut.write(" 3' Bias (Long Range): 0\\% \\- 0\\%\n");
-                        }
-                        if (large[i] > 0) {
-                            statsOut.write(" Pair Type %(L-I-O-R): " + wholePercentify(left[i],large[i]));
-                            statsOut.write(" - " + wholePercentify(inner[i],large[i]));
-                            statsOut.write(" - " + wholePercentify(outer[i],large[i]));
-                            statsOut.write(" - " + wholePercentify(right[i],large[i])+ "\n");
-                        } else {
-                            statsOut.write(" Pair Type %(L-I-O-R): 0\\% - 0\\% - 0\\% - 0\\%\n");
-                        }
-                        statsOut.write("Inter-chromosomal: " + commify(inter[i]) + " (" + percentify(inter[i],reads) + " / " + percentify(inter[i],unique)  + ")\n");
-                        statsOut.write("Intra-chromosomal: " + commify(intra[i]) + " (" + percentify(intra[i],reads) + " / " + percentify(intra[i],unique)  + ")\n");
-                        statsOut.write("Short Range (<20Kb): \n");
-                        statsOut.write("  <10B: " + commify(verySmall[i]) + " (" + percentify(verySmall[i],reads) + " / " + percentify(verySmall[i],unique)  + ")\n");
-                        statsOut.write("  10B-1kB: " + commify(oneKBRes[i]) + " (" + percentify(oneKBRes[i],reads) + " / " + percentify(oneKBRes[i],unique)  + ")\n");
-                        statsOut.write("  1kB-2kB: " + commify(twoKBRes[i]) + " (" + percentify(twoKBRes[i],reads) + " / " + percentify(twoKBRes[i],unique)  + ")\n");
-                        statsOut.write("  2kB-5kB: " + commify(fiveKBRes[i]) + " (" + percentify(fiveKBRes[i],reads) + " / " + percentify(fiveKBRes[i],unique)  + ")\n");
-                        statsOut.write("  5kB-20kB: " + commify(small[i]) + " (" + percentify(small[i],reads) + " / " + percentify(small[i],unique)  + ")\n");
-                        statsOut.write("Long Range (>20Kb): " + commify(large[i]) + " (" + percentify(large[i],reads) + " / " + percentify(large[i],unique)  + ")\n");
-                    }
-                    else{
-                        statsOut.write("Intra-fragment Reads: " + commify(intraFragment[i]) + " ((" + percentify(intraFragment[i],unique) + ")\n");
-                        statsOut.write("Below MAPQ Threshold: " + commify(underMapQ[i]) + " ((" + percentify(underMapQ[i],unique) + ")\n");
-                        statsOut.write("Hi-C Contacts: " + commify(totalCurrent[i]) + " ((" + percentify(totalCurrent[i],unique) + ")\n");
-                        statsOut.write(" Ligation Motif Present: " + commify(ligation[i]) + " ((" + percentify(ligation[i],unique) + ")\n");
-                        if ((fivePrimeEnd[i] + threePrimeEnd[i]) > 0) {
-                            statsOut.write(" 3' Bias (Long Range): " + wholePercentify(threePrimeEnd[i],threePrimeEnd[i]+fivePrimeEnd[i]));
-                            statsOut.write(" - " + wholePercentify(fivePrimeEnd[i],threePrimeEnd[i]+fivePrimeEnd[i]) + "\n");
-                        } else {
-                            statsOut.write(" 3' Bias (Long Range): 0\\% \\- 0\\%\n");
-                        }
-                        if (large[i] > 0) {
-                            statsOut.write(" Pair Type %(L-I-O-R): " + wholePercentify(left[i],large[i]));
-                            statsOut.write(" - " + wholePercentify(inner[i],large[i]));
-                            statsOut.write(" - " + wholePercentify(outer[i],large[i]));
-                            statsOut.write(" - " + wholePercentify(right[i],large[i])+ "\n");
-                        } else {
-                            statsOut.write(" Pair Type %(L-I-O-R): 0\\% - 0\\% - 0\\% - 0\\%\n");
-                        }
-                        statsOut.write("Inter-chromosomal: " + commify(inter[i]) + " ((" + percentify(inter[i],unique) + ")\n");
-                        statsOut.write("Intra-chromosomal: " + commify(intra[i]) + " ((" + percentify(intra[i],unique) + ")\n");
-                        statsOut.write("Short Range (<20Kb): \n");
-                        statsOut.write("  <10B: " + commify(verySmall[i]) + " ((" + percentify(verySmall[i],unique) + ")\n");
-                        statsOut.write("  10B-1kB: " + commify(oneKBRes[i]) + " ((" + percentify(oneKBRes[i],unique) + ")\n");
-                        statsOut.write("  1kB-2kB: " + commify(twoKBRes[i]) + " ((" + percentify(twoKBRes[i],unique) + ")\n");
-                        statsOut.write("  2kB-5kB: " + commify(fiveKBRes[i]) + " ((" + percentify(fiveKBRes[i],unique) + ")\n");
-                        statsOut.write("  5kB-20kB: " + commify(small[i]) + " ((" + percentify(small[i],unique) + ")\n");
-                        statsOut.write("Long Range (>20Kb): " + commify(large[i]) + " ((" + percentify(large[i],unique) + ")\n");
-                    }
-
+                    statsOut.write(getStatsText(i, previousStats.toString()));
                     statsOut.close();
                 } catch (IOException error) {
                     error.printStackTrace();
@@ -247,6 +183,87 @@ public class StatisticsContainer {
         }
     }
 
+    /**
+     * @param i             index of the mapq threshold
+     * @param previousStats statistics already in the stats file; percentages are also given relative to
+     *                      its "Sequenced" read count, if there is one
+     * @return the statistics appended to the stats file
+     */
+    public String getStatsText(int i, String previousStats) {
+        boolean sequencedReadsGiven = false;
+        long reads = 1L;
+        for (String statsData : previousStats.split("\n")) {
+            if (statsData.contains("Sequenced")) {
+                sequencedReadsGiven = true;
+                String[] tokens = statsData.split(":");
+                reads = Long.parseLong(tokens[1].replaceAll("[, ]", ""));
+            }
+        }
+        if (unique == 0) {
+            unique++;
+        }
+        StringBuilder text = new StringBuilder();
+        if(sequencedReadsGiven) {
+            text.append("Intra-fragment Reads: " + commify(intraFragment[i]) + " (" + percentify(intraFragment[i],reads) + " / " + percentify(intraFragment[i],unique) + ")\n");
+            text.append("Below MAPQ Threshold: " + commify(underMapQ[i]) + " (" + percentify(underMapQ[i],reads) + " / " + percentify(underMapQ[i],unique)  + ")\n");
+            text.append("Hi-C Contacts: " + commify(totalCurrent[i]) + " (" + percentify(totalCurrent[i],reads) + " / " + percentify(totalCurrent[i],unique)  + ")\n");
+            text.append(" Ligation Motif Present: " + commify(ligation[i]) + " (" + percentify(ligation[i],reads) + " / " + percentify(ligation[i],unique)  + ")\n");
+            if ((fivePrimeEnd[i] + threePrimeEnd[i]) > 0) {
+                text.append(" 3' Bias (Long Range): " + wholePercentify(threePrimeEnd[i],threePrimeEnd[i]+fivePrimeEnd[i]));
+                text.append(" - " + wholePercentify(fivePrimeEnd[i],threePrimeEnd[i]+fivePrimeEnd[i]) + "\n");
+            } else {
+                text.append(" 3' Bias (Long Range): 0\\% \\- 0\\%\n");
+            }
+            if (large[i] > 0) {
+                text.append(" Pair Type %(L-I-O-R): " + wholePercentify(left[i],large[i]));
+                text.append(" - " + wholePercentify(inner[i],large[i]));
+                text.append(" - " + wholePercentify(outer[i],large[i]));
+                text.append(" - " + wholePercentify(right[i],large[i])+ "\n");
+            } else {
+                text.append(" Pair Type %(L-I-O-R): 0\\% - 0\\% - 0\\% - 0\\%\n");
+            }
+            text.append("Inter-chromosomal: " + commify(inter[i]) + " (" + percentify(inter[i],reads) + " / " + percentify(inter[i],unique)  + ")\n");
+            text.append("Intra-chromosomal: " + commify(intra[i]) + " (" + percentify(intra[i],reads) + " / " + percentify(intra[i],unique)  + ")\n");
+            text.append("Short Range (<20Kb): \n");
+            text.append("  <10B: " + commify(verySmall[i]) + " (" + percentify(verySmall[i],reads) + " / " + percentify(verySmall[i],unique)  + ")\n");
+            text.append("  10B-1kB: " + commify(oneKBRes[i]) + " (" + percentify(oneKBRes[i],reads) + " / " + percentify(oneKBRes[i],unique)  + ")\n");
+            text.append("  1kB-2kB: " + commify(twoKBRes[i]) + " (" + percentify(twoKBRes[i],reads) + " / " + percentify(twoKBRes[i],unique)  + ")\n");
+            text.append("  2kB-5kB: " + commify(fiveKBRes[i]) + " (" + percentify(fiveKBRes[i],reads) + " / " + percentify(fiveKBRes[i],unique)  + ")\n");
+            text.append("  5kB-20kB: " + commify(small[i]) + " (" + percentify(small[i],reads) + " / " + percentify(small[i],unique)  + ")\n");
+            text.append("Long Range (>20Kb): " + commify(large[i]) + " (" + percentify(large[i],reads) + " / " + percentify(large[i],unique)  + ")\n");
+        }
+        else{
+            text.append("Intra-fragment Reads: " + commify(intraFragment[i]) + " ((" + percentify(intraFragment[i],unique) + ")\n");
+            text.append("Below MAPQ Threshold: " + commify(underMapQ[i]) + " ((" + percentify(underMapQ[i],unique) + ")\n");
+            text.append("Hi-C Contacts: " + commify(totalCurrent[i]) + " ((" + percentify(totalCurrent[i],unique) + ")\n");
+            text.append(" Ligation Motif Present: " + commify(ligation[i]) + " ((" + percentify(ligation[i],unique) + ")\n");
+            if ((fivePrimeEnd[i] + threePrimeEnd[i]) > 0) {
+                text.append(" 3' Bias (Long Range): " + wholePercentify(threePrimeEnd[i],threePrimeEnd[i]+fivePrimeEnd[i]));
+                text.append(" - " + wholePercentify(fivePrimeEnd[i],threePrimeEnd[i]+fivePrimeEnd[i]) + "\n");
+            } else {
+                text.append(" 3' Bias (Long Range): 0\\% \\- 0\\%\n");
+            }
+            if (large[i] > 0) {
+                text.append(" Pair Type %(L-I-O-R): " + wholePercentify(left[i],large[i]));
+                text.append(" - " + wholePercentify(inner[i],large[i]));
+                text.append(" - " + wholePercentify(outer[i],large[i]));
+                text.append(" - " + wholePercentify(right[i],large[i])+ "\n");
+            } else {
+                text.append(" Pair Type %(L-I-O-R): 0\\% - 0\\% - 0\\% - 0\\%\n");
+            }
+            text.append("Inter-chromosomal: " + commify(inter[i]) + " ((" + percentify(inter[i],unique) + ")\n");
+            text.append("Intra-chromosomal: " + commify(intra[i]) + " ((" + percentify(intra[i],unique) + ")\n");
+            text.append("Short Range (<20Kb): \n");
+            text.append("  <10B: " + commify(verySmall[i]) + " ((" + percentify(verySmall[i],unique) + ")\n");
+            text.append("  10B-1kB: " + commify(oneKBRes[i]) + " ((" + percentify(oneKBRes[i],unique) + ")\n");
+            text.append("  1kB-2kB: " + commify(twoKBRes[i]) + " ((" + percentify(twoKBRes[i],unique) + ")\n");
+            text.append("  2kB-5kB: " + commify(fiveKBRes[i]) + " ((" + percentify(fiveKBRes[i],unique) + ")\n");
+            text.append("  5kB-20kB: " + commify(small[i]) + " ((" + percentify(small[i],unique) + ")\n");
+            text.append("Long Range (>20Kb): " + commify(large[i]) + " ((" + percentify(large[i],unique) + ")\n");
+        }
+        return text.toString();
+    }
+
     public void writeHistFile(List<String> statsFiles) {
         //write for mapq if file exists
         for (int j = 0; j < statsFiles.size(); j++) {
@@ -258,37 +275,7 @@ public class StatisticsContainer {
                 String histsFile = statsFilePath + statsFileName + "_hists.m";
                 try {
                     BufferedWriter hist = new BufferedWriter(new FileWriter(histsFile, false));
-                    hist.write("A = [\n");
-                    for (int i = 1; i <= 2000; i++) {
-                        long tmp = hindIII.get(j).getOrDefault(i, 0L);
-                        hist.write(tmp + " ");
-                    }
-                    hist.write("\n];\n");
-
-                    hist.write("B = [\n");
-                    for (int i = 1; i <= 200; i++) {
-                        long tmp = mapQ.get(j).getOrDefault(i, 0L);
-                        long tmp2 = mapQIntra.get(j).getOrDefault(i, 0L);
-                        long tmp3 = mapQInter.get(j).getOrDefault(i, 0L);
-                        hist.write(tmp + " " + tmp2 + " " + tmp3 + "\n");
-                    }
-                    hist.write("\n];\n");
-
-                    hist.write("D = [\n");
-                    for (int i = 0; i < bins.length; i++) {
-                        long tmp = innerM.get(j).getOrDefault(i, 0L);
-                        long tmp2 = outerM.get(j).getOrDefault(i, 0L);
-                        long tmp3 = rightM.get(j).getOrDefault(i, 0L);
-                        long tmp4 = leftM.get(j).getOrDefault(i, 0L);
-                        hist.write(tmp + " " + tmp2 + " " + tmp3 + " " + tmp4 + "\n");
-                    }
-                    hist.write("\n];");
-
-                    hist.write("x = [\n");
-                    for (long bin : bins) {
-                        hist.write(bin + " ");
-                    }
-                    hist.write("\n];\n");
+                    hist.write(getHistText(j));
                     hist.close();
                 } catch (IOException error) {
                     error.printStackTrace();
@@ -296,4 +283,44 @@ public class StatisticsContainer {
             }
         }
     }
+
+    /**
+     * @param j index of the mapq threshold
+     * @return the histograms written to the _hists.m file, at most MAX_HIST_TEXT_LENGTH characters long
+     */
+    public String getHistText(int j) {
+        StringBuilder hist = new StringBuilder();
+        hist.append("A = [\n");
+        for (int i = 1; i <= 2000; i++) {
+            long tmp = hindIII.get(j).getOrDefault(i, 0L);
+            hist.append(tmp + " ");
+        }
+        hist.append("\n];\n");
+
+        hist.append("B = [\n");
+        for (int i = 1; i <= 200; i++) {
+            long tmp = mapQ.get(j).getOrDefault(i, 0L);
+            long tmp2 = mapQIntra.get(j).getOrDefault(i, 0L);
+            long tmp3 = mapQInter.get(j).getOrDefault(i, 0L);
+            hist.append(tmp + " " + tmp2 + " " + tmp3 + "\n");
+        }
+        hist.append("\n];\n");
+
+        hist.append("D = [\n");
+        for (int i = 0; i < bins.length; i++) {
+            long tmp = innerM.get(j).getOrDefault(i, 0L);
+            long tmp2 = outerM.get(j).getOrDefault(i, 0L);
+            long tmp3 = rightM.get(j).getOrDefault(i, 0L);
+            long tmp4 = leftM.get(j).getOrDefault(i, 0L);
+            hist.append(tmp + " " + tmp2 + " " + tmp3 + " " + tmp4 + "\n");
+        }
+        hist.append("\n];");
+
+        hist.append("x = [\n");
+        for (long bin : bins) {
+            hist.append(bin + " ");
+        }
+        hist.append("\n];\n");
+        return hist.toString();
+    }
 }
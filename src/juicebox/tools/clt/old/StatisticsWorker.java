@@ -113,7 +113,15 @@ public class StatisticsWorker {
             e.printStackTrace();
         }
     }
-    
+
+    /**
+     * Adds a single pair to the statistics, as infileStatistics does for every pair of the input file;
+     * lets pre compute the statistics while it parses the pairs
+     */
+    public void processPair(AlignmentPair pair) {
+        processSingleEntry(pair, "", false);
+    }
+
     private boolean processSingleEntry(AlignmentPair pair, String blockKey, boolean multithread) {
         int chr1, chr2, pos1, pos2, frag1, frag2, mapq1, mapq2;
         boolean str1, str2;
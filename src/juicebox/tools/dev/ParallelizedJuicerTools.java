@@ -24,8 +24,7 @@
 
 package juicebox.tools.dev;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import juicebox.tools.utils.common.TaskRunner;
 
 public class ParallelizedJuicerTools {
 
@@ -34,20 +33,6 @@ public class ParallelizedJuicerTools {
     }
 
     public static void launchParallelizedCode(int numCPUThreads, Runnable runnable) {
-        ExecutorService executor = Executors.newFixedThreadPool(numCPUThreads);
-        for (int l = 0; l < numCPUThreads; l++) {
-            Runnable worker = new Runnable() {
-                @Override
-                public void run() {
-                    runnable.run();
-                }
-            };
-            executor.execute(worker);
-        }
-        executor.shutdown();
-
-        // Wait until all threads finish
-        while (!executor.isTerminated()) {
-        }
+        TaskRunner.getShared(numCPUThreads).runWorkers("Parallelized code", numCPUThreads, runnable);
     }
 }
@@ -22,112 +22,353 @@
  *  THE SOFTWARE.
  */
 
+
 package juicebox.tools.utils;
 
-import juicebox.data.ChromosomeHandler;
+import juicebox.HiC;
+import juicebox.HiCGlobals;
+import juicebox.data.*;
 import juicebox.data.basics.Chromosome;
 import juicebox.tools.clt.CommandLineParser;
 import juicebox.tools.clt.JuiceboxCLT;
-import juicebox.tools.clt.old.Dump;
+import juicebox.tools.utils.common.LatencyRecorder;
+import juicebox.tools.utils.common.TaskRunner;
+import juicebox.track.feature.Feature2D;
+import juicebox.track.feature.Feature2DList;
+import juicebox.track.feature.Feature2DParser;
+import juicebox.track.feature.FeatureFunction;
+import juicebox.windowui.HiCZoom;
+import juicebox.windowui.MatrixType;
+import juicebox.windowui.NormalizationType;
 import org.broad.igv.Globals;
 
-import java.util.Random;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by Neva Durand on 8/4/16 for benchmark testing for DCIC.
+ * <p/>
+ * Runs seeded query workloads against a .hic file and writes the results as JSON, so runs of different
+ * versions can be compared. Each workload is first run against a freshly opened dataset (cold, nothing
+ * cached in Juicebox; the OS page cache is not dropped) and then repeated on the same dataset (warm).
+ * Queries are dumped as they would be by the dump command, with the output discarded.
  */
 
 public class Benchmark extends JuiceboxCLT {
 
-    private final int NUM_QUERIES = 1000;
-    // Query 10,000 times at 256x256 and 2048x2048
-    private int QUERY_SIZE = 256;
-    private Dump dump;
-    
+    private static final int NUM_QUERIES = 1000;
+    private static final int TILE_SIZE = 500; // bins per tile, as in the heatmap
+    private static final int APA_WINDOW = 10;
+    private static final int APA_RESOLUTION = 10000;
+    private String files, normName, outputPath = null, loopListPath = null;
+    private long seed;
+    private int concurrency = 1;
+
     public Benchmark() {
         super(getUsage());
     }
 
     private static String getUsage() {
-        return "benchmark <hicFile> <norm>";
+        return "benchmark [-j concurrency] [--random-seed seed] <hicFile> <norm> [output.json] [loopList]";
     }
 
     @Override
     public void readArguments(String[] argv, CommandLineParser parser) {
         Globals.setHeadless(true);
 
-
-        if (argv.length != 3) {
+        if (argv.length < 3 || argv.length > 5) {
             printUsageAndExit();
         }
 
-        dump = new Dump();
+        files = argv[1];
+        normName = argv[2];
+        if (argv.length > 3) {
+            outputPath = argv[3];
+        }
+        if (argv.length > 4) {
+            loopListPath = argv[4];
+        }
 
-        // dump will read in the index of the .hic file and output the observed matrix with no normalization
-        // change "NONE" to "KR" or "VC" for different normalizations
-        // change outputfile if needed
-        // the other values are dummy and will be reset
-        String[] args = {"dump", "observed", argv[2], argv[1], "X", "X", "BP", "1000000", "/Users/nchernia/Downloads/output2.txt"};
-        dump.readArguments(args, parser);
+        int numThreads = parser.getNumThreads();
+        if (numThreads > 0) {
+            concurrency = numThreads;
+        }
+        if (parser.hasRandomSeedOption()) {
+            seed = parser.getRandomPositionSeedOption();
+        } else {
+            seed = System.currentTimeMillis();
+        }
 
+        setDatasetAndNorm(files, normName, false);
     }
 
-
     @Override
     public void run() {
+        HiCGlobals.useCache = true;
+        // the seed is also in the JSON output; printed here so a run can be repeated with --random-seed
+        System.err.println("Benchmark seed: " + seed);
+        List<Workload> workloads = createWorkloads(new Random(seed));
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"file\": \"").append(files.replace("\\", "\\\\").replace("\"", "\\\"")).append("\",\n");
+        json.append("  \"norm\": \"").append(norm.getLabel()).append("\",\n");
+        json.append("  \"seed\": ").append(seed).append(",\n");
+        json.append("  \"concurrency\": ").append(concurrency).append(",\n");
+        json.append("  \"workloads\": [");
+        for (int i = 0; i < workloads.size(); i++) {
+            Workload workload = workloads.get(i);
+            Dataset freshDataset = HiCFileTools.extractDatasetForCLT(Arrays.asList(files.split("\\+")), false);
+            NormalizationType normType = freshDataset.getNormalizationHandler().getNormTypeFromString(normName);
+
+            String cold = runWorkload(freshDataset, normType, workload);
+            String warm = runWorkload(freshDataset, normType, workload);
+
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append("    {\"name\": \"").append(workload.name).append("\", \"queries\": ")
+                    .append(workload.queries.size()).append(",\n");
+            json.append("      \"cold\": ").append(cold).append(",\n");
+            json.append("      \"warm\": ").append(warm).append("}");
+        }
+        json.append("\n  ]\n}\n");
+
+        if (outputPath == null) {
+            System.out.print(json);
+        } else {
+            try (Writer writer = new BufferedWriter(new FileWriter(outputPath))) {
+                writer.write(json.toString());
+            } catch (IOException e) {
+                System.err.println("Unable to write benchmark results to " + outputPath);
+                e.printStackTrace();
+                System.exit(48);
+            }
+        }
+    }
+
+    private String runWorkload(final Dataset ds, final NormalizationType normType, final Workload workload) {
+        final LatencyRecorder latencies = new LatencyRecorder(workload.queries.size());
+        final AtomicLong outputBytes = new AtomicLong();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (final Query query : workload.queries) {
+            tasks.add(() -> {
+                long start = System.nanoTime();
+                try {
+                    outputBytes.addAndGet(runQuery(ds, normType, query));
+                    latencies.record(System.nanoTime() - start);
+                } catch (Exception e) {
+                    latencies.recordError();
+                    throw e;
+                }
+                return null;
+            });
+        }
+
+        long bytesRead = DatasetReaderV2.getTotalBlockBytesRead();
+        long blocksDecompressed = DatasetReaderV2.getTotalBlocksDecompressed();
+        long start = System.nanoTime();
+        TaskRunner.getShared(concurrency).invokeAll("Benchmark " + workload.name, tasks, false);
+        double wallSeconds = (System.nanoTime() - start) / 1e9;
+        bytesRead = DatasetReaderV2.getTotalBlockBytesRead() - bytesRead;
+        blocksDecompressed = DatasetReaderV2.getTotalBlocksDecompressed() - blocksDecompressed;
+
+        if (HiCGlobals.printVerboseComments) {
+            System.out.println(workload.name + ": " + latencies.toJson());
+        }
+        return String.format(Locale.US, "{\"wall_ms\": %.3f, \"throughput_qps\": %.3f, \"bytes_read\": %d, " +
+                        "\"blocks_decompressed\": %d, \"output_bytes\": %d, \"latency\": %s}", wallSeconds * 1000,
+                wallSeconds > 0 ? latencies.getCount() / wallSeconds : 0, bytesRead, blocksDecompressed,
+                outputBytes.get(), latencies.toJson());
+    }
+
+    private static long runQuery(Dataset ds, NormalizationType normType, Query query) throws IOException {
+        ChromosomeHandler handler = ds.getChromosomeHandler();
+        Chromosome chromosome1 = handler.getChromosomeFromName(query.chr1);
+        Chromosome chromosome2 = handler.getChromosomeFromName(query.chr2);
+        long[] regionIndices = query.regionIndices;
+        if (chromosome2.getIndex() < chromosome1.getIndex()) {
+            Chromosome temp = chromosome1;
+            chromosome1 = chromosome2;
+            chromosome2 = temp;
+            regionIndices = new long[]{regionIndices[2], regionIndices[3], regionIndices[0], regionIndices[1]};
+        }
+
+        MatrixZoomData zd = HiCFileTools.getMatrixZoomData(ds, chromosome1, chromosome2,
+                new HiCZoom(HiC.Unit.BP, query.binSize));
+        if (zd == null) return 0;
+
+        CountingOutputStream sink = new CountingOutputStream();
+        // queries already run in parallel, so blocks are read on the query's own thread
+        zd.dump(sink, null, normType, MatrixType.OBSERVED, true, regionIndices, null, false, 1);
+        return sink.count;
+    }
+
+    /**
+     * All random choices are made here, up front, so the same seed always gives the same queries
+     */
+    private List<Workload> createWorkloads(Random random) {
+        Chromosome[] chromosomes = dataset.getChromosomeHandler().getChromosomeArrayWithoutAllByAll();
+        List<HiCZoom> zooms = dataset.getBpZooms();
+        int[] binSizes = new int[zooms.size()];
+        for (int i = 0; i < binSizes.length; i++) {
+            binSizes[i] = zooms.get(i).getBinSize();
+        }
+
+        List<Workload> workloads = new ArrayList<>();
+        workloads.add(createRandomWindows(random, chromosomes, binSizes, 256));
+        workloads.add(createRandomWindows(random, chromosomes, binSizes, 2048));
+        workloads.add(createViewportTiles(random, chromosomes, binSizes));
+        workloads.add(createSlices(random, chromosomes, binSizes));
+        if (loopListPath != null) {
+            workloads.add(createAPAWindows(random, binSizes));
+        }
+        return workloads;
+    }
+
+    /**
+     * Square windows of querySize bins on the diagonal, at a random chromosome, resolution and position
+     */
+    private Workload createRandomWindows(Random random, Chromosome[] chromosomes, int[] binSizes, int querySize) {
+        Workload workload = new Workload("random_" + querySize);
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            Chromosome chromosome = chromosomes[random.nextInt(chromosomes.length)];
+            int binSize = binSizes[random.nextInt(binSizes.length)];
+
+            long end = nextPosition(random, chromosome);
+            long start = Math.max(0, end - (long) binSize * querySize);
+            workload.add(chromosome, chromosome, binSize, start, end, start, end);
+        }
+        return workload;
+    }
+
+    /**
+     * 2x2 tiles of the heatmap, on or just off the diagonal, as loaded when panning in the viewer
+     */
+    private Workload createViewportTiles(Random random, Chromosome[] chromosomes, int[] binSizes) {
+        Workload workload = new Workload("viewport_tiles");
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            Chromosome chromosome = chromosomes[random.nextInt(chromosomes.length)];
+            int binSize = binSizes[random.nextInt(binSizes.length)];
+
+            long tileSpan = (long) TILE_SIZE * binSize;
+            long row = nextPosition(random, chromosome) / tileSpan;
+            long col = row + random.nextInt(2);
+            workload.add(chromosome, chromosome, binSize, row * tileSpan, (row + 2) * tileSpan - 1,
+                    col * tileSpan, (col + 2) * tileSpan - 1);
+        }
+        return workload;
+    }
+
+    /**
+     * A single bin against its whole chromosome, as for virtual 4C tracks
+     */
+    private Workload createSlices(Random random, Chromosome[] chromosomes, int[] binSizes) {
+        Workload workload = new Workload("slices");
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            Chromosome chromosome = chromosomes[random.nextInt(chromosomes.length)];
+            int binSize = binSizes[random.nextInt(binSizes.length)];
+
+            long position = nextPosition(random, chromosome) / binSize * binSize;
+            workload.add(chromosome, chromosome, binSize, position, position + binSize - 1,
+                    0, chromosome.getLength());
+        }
+        return workload;
+    }
+
+    /**
+     * Windows of +/- APA_WINDOW bins around randomly chosen loops, at the resolution closest to 10kb
+     */
+    private Workload createAPAWindows(Random random, int[] binSizes) {
+        final ChromosomeHandler handler = dataset.getChromosomeHandler();
+        Feature2DList loopList = Feature2DParser.loadFeatures(loopListPath, handler, false, null, false);
+        final List<Feature2D> loops = new ArrayList<>();
+        loopList.processLists(new FeatureFunction() {
+            @Override
+            public void process(String chr, List<Feature2D> feature2DList) {
+                loops.addAll(feature2DList);
+            }
+        });
+        // processLists iterates over a hash map; sort so the seed alone decides the queries
+        Collections.sort(loops, new Comparator<Feature2D>() {
+            @Override
+            public int compare(Feature2D o1, Feature2D o2) {
+                int comparison = o1.getChr1().compareTo(o2.getChr1());
+                if (comparison == 0) comparison = o1.getChr2().compareTo(o2.getChr2());
+                if (comparison == 0) comparison = Long.compare(o1.getStart1(), o2.getStart1());
+                if (comparison == 0) comparison = Long.compare(o1.getStart2(), o2.getStart2());
+                return comparison;
+            }
+        });
+
+        int binSize = binSizes[0];
+        for (int size : binSizes) {
+            if (Math.abs(size - APA_RESOLUTION) < Math.abs(binSize - APA_RESOLUTION)) {
+                binSize = size;
+            }
+        }
+
+        Workload workload = new Workload("apa_windows");
+        if (loops.isEmpty()) {
+            System.err.println("No loops loaded from " + loopListPath);
+            return workload;
+        }
+        long halfWidth = (long) APA_WINDOW * binSize;
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            Feature2D loop = loops.get(random.nextInt(loops.size()));
+            Chromosome chromosome1 = handler.getChromosomeFromName(loop.getChr1());
+            Chromosome chromosome2 = handler.getChromosomeFromName(loop.getChr2());
+            long mid1 = loop.getMidPt1(), mid2 = loop.getMidPt2();
+            workload.add(chromosome1, chromosome2, binSize, Math.max(0, mid1 - halfWidth), mid1 + halfWidth,
+                    Math.max(0, mid2 - halfWidth), mid2 + halfWidth);
+        }
+        return workload;
+    }
 
-        // will use to make sure we're not off the end of the chromosome
-        ChromosomeHandler handler = dump.getChromosomeHandler();
-
-        Random random = new Random();
-
-        // chromosomes in this dataset, so we query them
-        String[] chrs = new String[handler.size() - 1];
-        int ind=0;
-
-        for (Chromosome chr : handler.getChromosomeArray()) {
-            if (!chr.getName().equalsIgnoreCase("All")) chrs[ind++] = chr.getName();
-        }
-
-        // BP bin sizes in this dataset
-        int[] bpBinSizes = dump.getBpBinSizes();
-
-
-        long sum=0;
-        for (int i=0; i<NUM_QUERIES; i++) {
-            // Randomly choose chromosome and resolution to query
-            String chr1 = chrs[random.nextInt(chrs.length)];
-            int binSize = bpBinSizes[random.nextInt(bpBinSizes.length)];
-    
-            long end1 = random.nextInt((int) handler.getChromosomeFromName(chr1).getLength()); // endpoint between 0 and end of chromosome
-            long start1 = end1 - binSize * QUERY_SIZE; // QUERY_SIZE number of bins earlier
-            if (start1 < 0) start1 = 0;
-    
-            dump.setQuery(chr1 + ":" + start1 + ":" + end1, chr1 + ":" + start1 + ":" + end1, binSize);
-            long currentTime = System.currentTimeMillis();
-            dump.run();
-            long totalTime = System.currentTimeMillis() - currentTime;
-            sum += totalTime;
-        }
-        System.err.println("Average time to query " + QUERY_SIZE + "x" + QUERY_SIZE +": " + sum/NUM_QUERIES + " milliseconds");
-
-        QUERY_SIZE=2048;
-        sum=0;
-        for (int i=0; i<NUM_QUERIES; i++) {
-            // Randomly choose chromosome and resolution to query
-            String chr1 = chrs[random.nextInt(chrs.length)];
-            int binSize = bpBinSizes[random.nextInt(bpBinSizes.length)];
-    
-            long end1 = random.nextInt((int) handler.getChromosomeFromName(chr1).getLength()); // endpoint between 0 and end of chromosome
-            long start1 = end1 - binSize * QUERY_SIZE; // QUERY_SIZE number of bins earlier
-            if (start1 < 0) start1 = 0;
-    
-            dump.setQuery(chr1 + ":" + start1 + ":" + end1, chr1 + ":" + start1 + ":" + end1, binSize);
-            long currentTime = System.currentTimeMillis();
-            dump.run();
-            long totalTime = System.currentTimeMillis() - currentTime;
-            sum += totalTime;
-        }
-        System.err.println("Average time to query " + QUERY_SIZE + "x" + QUERY_SIZE +": " + sum/NUM_QUERIES + " milliseconds");
+    private static long nextPosition(Random random, Chromosome chromosome) {
+        return (long) (random.nextDouble() * chromosome.getLength());
+    }
+
+    private static class Workload {
+        private final String name;
+        private final List<Query> queries = new ArrayList<>();
+
+        Workload(String name) {
+            this.name = name;
+        }
+
+        void add(Chromosome chromosome1, Chromosome chromosome2, int binSize, long x1, long x2, long y1, long y2) {
+            queries.add(new Query(chromosome1.getName(), chromosome2.getName(), binSize, new long[]{x1, x2, y1, y2}));
+        }
+    }
+
+    private static class Query {
+        private final String chr1, chr2;
+        private final int binSize;
+        private final long[] regionIndices;
+
+        Query(String chr1, String chr2, int binSize, long[] regionIndices) {
+            this.chr1 = chr1;
+            this.chr2 = chr2;
+            this.binSize = binSize;
+            this.regionIndices = regionIndices;
+        }
+    }
+
+    /**
+     * Discards the dumped output, keeping only its size
+     */
+    private static class CountingOutputStream extends OutputStream {
+        private long count = 0;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
     }
 }
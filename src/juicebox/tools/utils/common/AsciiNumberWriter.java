@@ -0,0 +1,150 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2020 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+
+package juicebox.tools.utils.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes numbers and delimiters as ASCII text into a large reusable byte buffer, without creating strings
+ * for integers or for integral float values (the common case for raw counts).
+ * Floats are written exactly as Float.toString / string concatenation would write them.
+ */
+public class AsciiNumberWriter {
+
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+    // Float.toString switches to computerized scientific notation at 10^7
+    private static final float PLAIN_FLOAT_LIMIT = 1e7f;
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private final byte[] digits = new byte[20];
+    private int position = 0;
+
+    public AsciiNumberWriter(OutputStream out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    public AsciiNumberWriter(OutputStream out, int bufferSize) {
+        this.out = out;
+        this.buffer = new byte[Math.max(bufferSize, 64)];
+    }
+
+    public AsciiNumberWriter print(long value) throws IOException {
+        ensureSpace(digits.length);
+        if (value < 0) {
+            buffer[position++] = '-';
+            if (value == Long.MIN_VALUE) {
+                return printAscii(Long.toString(value).substring(1));
+            }
+            value = -value;
+        }
+        int numDigits = 0;
+        do {
+            digits[numDigits++] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value > 0);
+        while (numDigits > 0) {
+            buffer[position++] = digits[--numDigits];
+        }
+        return this;
+    }
+
+    public AsciiNumberWriter print(float value) throws IOException {
+        if (value == (int) value && Math.abs(value) < PLAIN_FLOAT_LIMIT
+                && (value != 0 || Float.floatToRawIntBits(value) == 0)) {
+            print((long) value);
+            ensureSpace(2);
+            buffer[position++] = '.';
+            buffer[position++] = '0';
+            return this;
+        }
+        return printAscii(Float.toString(value));
+    }
+
+    public AsciiNumberWriter print(char c) throws IOException {
+        ensureSpace(1);
+        buffer[position++] = (byte) c;
+        return this;
+    }
+
+    public AsciiNumberWriter tab() throws IOException {
+        return print('\t');
+    }
+
+    public AsciiNumberWriter newLine() throws IOException {
+        return print('\n');
+    }
+
+    /**
+     * @param s must only contain ASCII characters
+     */
+    public AsciiNumberWriter printAscii(String s) throws IOException {
+        ensureSpace(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buffer[position++] = (byte) s.charAt(i);
+        }
+        return this;
+    }
+
+    public void write(byte[] bytes) throws IOException {
+        if (position + bytes.length > buffer.length) {
+            flushBuffer();
+            if (bytes.length > buffer.length) {
+                out.write(bytes);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void ensureSpace(int numBytes) throws IOException {
+        if (position + numBytes > buffer.length) {
+            flushBuffer();
+            if (numBytes > buffer.length) {
+                throw new IOException("Entry of " + numBytes + " bytes does not fit in output buffer");
+            }
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    public void close() throws IOException {
+        flushBuffer();
+        out.close();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2020 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+
+package juicebox.tools.utils.common;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Thread-safe record of operation latencies. Count, errors, mean and max cover all operations;
+ * percentiles are taken over the most recent operations (a fixed-size window, so memory does not grow).
+ */
+public class LatencyRecorder {
+
+    private static final int DEFAULT_WINDOW_SIZE = 10000;
+
+    private final long[] recentNanos;
+    private long count = 0, errors = 0;
+    private long totalNanos = 0, maxNanos = 0;
+
+    public LatencyRecorder() {
+        this(DEFAULT_WINDOW_SIZE);
+    }
+
+    public LatencyRecorder(int windowSize) {
+        recentNanos = new long[Math.max(1, windowSize)];
+    }
+
+    public synchronized void record(long nanos) {
+        recentNanos[(int) (count % recentNanos.length)] = nanos;
+        count++;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+    }
+
+    public synchronized void recordError() {
+        errors++;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getErrors() {
+        return errors;
+    }
+
+    public synchronized double getMeanMillis() {
+        return count == 0 ? 0 : totalNanos / 1e6 / count;
+    }
+
+    public synchronized double getMaxMillis() {
+        return maxNanos / 1e6;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return latency of the recent operations at the given percentile (nearest rank)
+     */
+    public synchronized double getPercentileMillis(double percentile) {
+        int n = (int) Math.min(count, recentNanos.length);
+        if (n == 0) return 0;
+        long[] sorted = Arrays.copyOf(recentNanos, n);
+        Arrays.sort(sorted);
+        return getPercentileOfSorted(sorted, percentile) / 1e6;
+    }
+
+    /**
+     * Nearest rank percentile of sorted values
+     */
+    public static long getPercentileOfSorted(long[] sorted, double percentile) {
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.min(sorted.length - 1, Math.max(0, rank - 1))];
+    }
+
+    public synchronized String toJson() {
+        return String.format(Locale.US, "{\"count\": %d, \"errors\": %d, \"mean_ms\": %.3f, \"p50_ms\": %.3f, \"p95_ms\": %.3f, " +
+                        "\"p99_ms\": %.3f, \"max_ms\": %.3f}", count, errors, getMeanMillis(),
+                getPercentileMillis(50), getPercentileMillis(95), getPercentileMillis(99), getMaxMillis());
+    }
+}
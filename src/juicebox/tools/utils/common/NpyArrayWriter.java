@@ -0,0 +1,114 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2020 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+
+package juicebox.tools.utils.common;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streams a one-dimensional little-endian .npy array whose length is not known in advance.
+ * The header is written with room for any length and rewritten with the actual length on close,
+ * so the file can be read with np.load or np.memmap without parsing.
+ */
+public class NpyArrayWriter implements Closeable {
+
+    public static final String INT32 = "<i4";
+    public static final String FLOAT32 = "<f4";
+    private static final byte[] MAGIC = {(byte) 0x93, 'N', 'U', 'M', 'P', 'Y', 1, 0};
+
+    private final File file;
+    private final String descr;
+    private final int headerLength;
+    private final OutputStream out;
+    private final ByteBuffer buffer = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+    private long length = 0;
+
+    /**
+     * @param descr numpy type of the values (INT32 or FLOAT32)
+     */
+    public NpyArrayWriter(File file, String descr) throws IOException {
+        this.file = file;
+        this.descr = descr;
+        headerLength = createHeader(descr, new long[]{Long.MAX_VALUE}, 0).length;
+        out = new FileOutputStream(file);
+        out.write(createHeader(descr, new long[]{0}, headerLength));
+    }
+
+    public void writeInt(int value) throws IOException {
+        if (buffer.remaining() < 4) flushBuffer();
+        buffer.putInt(value);
+        length++;
+    }
+
+    public void writeFloat(float value) throws IOException {
+        if (buffer.remaining() < 4) flushBuffer();
+        buffer.putFloat(value);
+        length++;
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer.array(), 0, buffer.position());
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flushBuffer();
+        out.close();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.write(createHeader(descr, new long[]{length}, headerLength));
+        }
+    }
+
+    /**
+     * Version 1.0 header for a C-order array, padded with spaces so that the data starts at a multiple
+     * of 64 bytes and the header is at least minLength bytes long
+     */
+    static byte[] createHeader(String descr, long[] shape, int minLength) {
+        StringBuilder dict = new StringBuilder("{'descr': '").append(descr).append("', 'fortran_order': False, 'shape': (");
+        for (int i = 0; i < shape.length; i++) {
+            if (i > 0) dict.append(", ");
+            dict.append(shape[i]);
+        }
+        if (shape.length == 1) dict.append(',');
+        dict.append("), }");
+
+        int totalLength = Math.max(minLength, MAGIC.length + 2 + dict.length() + 1);
+        totalLength = (totalLength + 63) / 64 * 64;
+        while (dict.length() < totalLength - MAGIC.length - 2 - 1) {
+            dict.append(' ');
+        }
+        dict.append('\n');
+
+        ByteBuffer header = ByteBuffer.allocate(totalLength).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC);
+        header.putShort((short) dict.length());
+        header.put(dict.toString().getBytes(StandardCharsets.US_ASCII));
+        return header.array();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2020 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+
+package juicebox.tools.utils.common;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Dense float32 .npy matrix (C order, initialized to 0) whose entries are set in any order through
+ * a memory-mapped file, so the matrix is never held on the java heap.
+ */
+public class NpyFloatMatrixFile implements Closeable {
+
+    private static final long MAX_CHUNK_BYTES = 1L << 30;
+
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer[] chunks;
+    private final int numCols, rowsPerChunk;
+
+    public NpyFloatMatrixFile(File file, int numRows, int numCols) throws IOException {
+        this.numCols = numCols;
+        byte[] header = NpyArrayWriter.createHeader(NpyArrayWriter.FLOAT32, new long[]{numRows, numCols}, 0);
+        long rowBytes = 4L * Math.max(numCols, 1);
+        rowsPerChunk = (int) Math.max(1, MAX_CHUNK_BYTES / rowBytes);
+
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        raf.write(header);
+        raf.setLength(header.length + rowBytes * numRows);
+
+        FileChannel channel = raf.getChannel();
+        chunks = new MappedByteBuffer[(numRows + rowsPerChunk - 1) / rowsPerChunk];
+        for (int c = 0; c < chunks.length; c++) {
+            int chunkRows = Math.min(rowsPerChunk, numRows - c * rowsPerChunk);
+            chunks[c] = channel.map(FileChannel.MapMode.READ_WRITE, header.length + c * rowsPerChunk * rowBytes,
+                    chunkRows * rowBytes);
+            chunks[c].order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    public void set(int row, int col, float value) {
+        chunks[row / rowsPerChunk].putFloat(4 * ((row % rowsPerChunk) * numCols + col), value);
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+        raf.close();
+    }
+}
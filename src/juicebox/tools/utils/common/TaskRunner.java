@@ -0,0 +1,193 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2020 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+
+package juicebox.tools.utils.common;
+
+import juicebox.HiCGlobals;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Work-stealing pool shared by the command line tools, sized by the --threads option.
+ * <p/>
+ * Callers wait on the futures of their tasks instead of spinning on an executor. Work which is split further
+ * from inside a task (HiCCUPS kernel strips, Arrowhead windows, parallel streams in the balancing code)
+ * runs on the same pool, so nested parallelism does not start more threads than requested.
+ * Tasks are timed per name; a summary is printed in verbose mode once a batch has finished.
+ */
+public class TaskRunner {
+
+    private static final Map<Integer, TaskRunner> sharedRunners = new ConcurrentHashMap<>();
+
+    private final ForkJoinPool pool;
+    private final Map<String, TaskTiming> timings = new ConcurrentHashMap<>();
+
+    public TaskRunner(int numThreads) {
+        pool = new ForkJoinPool(Math.max(1, numThreads));
+    }
+
+    /**
+     * @return shared runner with the given number of threads. There is one runner per size and none is ever
+     * shut down, since other callers may still hold it (e.g. a dump from the GUI during a tool run);
+     * the idle workers of an unused runner time out, so it costs no threads.
+     */
+    public static TaskRunner getShared(int numThreads) {
+        return sharedRunners.computeIfAbsent(Math.max(1, numThreads), TaskRunner::new);
+    }
+
+    /**
+     * @return true if called from a fork-join worker; blocking work started there should run on the calling
+     * thread (or be forked onto the same pool) rather than be handed to another executor
+     */
+    public static boolean isRunningOnPool() {
+        return ForkJoinTask.inForkJoinPool();
+    }
+
+    public int getNumThreads() {
+        return pool.getParallelism();
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public <T> Future<T> submit(final String name, final Callable<T> task) {
+        return pool.submit(() -> {
+            long start = System.nanoTime();
+            try {
+                return task.call();
+            } finally {
+                timings.computeIfAbsent(name, k -> new TaskTiming()).add(System.nanoTime() - start);
+            }
+        });
+    }
+
+    public Future<Object> submit(String name, Runnable task) {
+        return submit(name, Executors.callable(task));
+    }
+
+    /**
+     * Runs numWorkers copies of the worker (which typically take items from a shared counter until none are left)
+     * and waits for all of them. A failing worker is reported and does not stop the others.
+     */
+    public void runWorkers(String name, int numWorkers, Runnable worker) {
+        List<Future<Object>> futures = new ArrayList<>(numWorkers);
+        for (int i = 0; i < numWorkers; i++) {
+            futures.add(submit(name, worker));
+        }
+        waitForAll(name, futures);
+    }
+
+    /**
+     * Runs the tasks and waits for all of them; results are returned in task order (null for failed tasks).
+     * With printProgress, the percentage of finished tasks is printed as they complete.
+     */
+    public <T> List<T> invokeAll(String name, List<? extends Callable<T>> tasks, final boolean printProgress) {
+        final AtomicInteger numFinished = new AtomicInteger(0);
+        final double numTasks = tasks.size();
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        for (final Callable<T> task : tasks) {
+            futures.add(submit(name, () -> {
+                try {
+                    return task.call();
+                } finally {
+                    if (printProgress) {
+                        System.out.print(((int) Math.floor((100.0 * numFinished.incrementAndGet()) / numTasks)) + "% ");
+                    }
+                }
+            }));
+        }
+        return waitForAll(name, futures);
+    }
+
+    /**
+     * Applies the function to the items in parallel and returns the results in item order. Called from a task,
+     * the work runs on the pool of that task; otherwise it runs on this runner's pool (never on the common pool).
+     */
+    public <S, T> List<T> map(final List<S> items, final Function<? super S, ? extends T> function) {
+        if (isRunningOnPool()) {
+            return items.parallelStream().map(function).collect(Collectors.<T>toList());
+        }
+        return pool.submit(() -> items.parallelStream().map(function).collect(Collectors.<T>toList())).join();
+    }
+
+    private <T> List<T> waitForAll(String name, List<Future<T>> futures) {
+        List<T> results = new ArrayList<>(futures.size());
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                System.err.println("Error in " + name + ": " + e.getCause());
+                e.getCause().printStackTrace();
+                results.add(null);
+            } catch (InterruptedException e) {
+                cancelAll(futures);
+                Thread.currentThread().interrupt();
+                throw new CancellationException(name + " was interrupted");
+            }
+        }
+        TaskTiming timing = timings.remove(name);
+        if (HiCGlobals.printVerboseComments && timing != null) {
+            System.out.println(name + ": " + timing);
+        }
+        return results;
+    }
+
+    public static void cancelAll(Collection<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Queued tasks still run; the worker threads are daemons, so an unused pool does not keep the JVM alive.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private static class TaskTiming {
+        private int numTasks = 0;
+        private long totalNanos = 0, maxNanos = 0;
+
+        synchronized void add(long nanos) {
+            numTasks++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        @Override
+        public synchronized String toString() {
+            return numTasks + " task(s), total " + totalNanos / 1000000 + "ms, longest " + maxNanos / 1000000 + "ms";
+        }
+    }
+}
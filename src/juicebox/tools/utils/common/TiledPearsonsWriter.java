@@ -0,0 +1,333 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2020 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.tools.utils.common;
+
+import htsjdk.tribble.util.LittleEndianOutputStream;
+import org.apache.commons.math.stat.StatUtils;
+import org.broad.igv.util.collections.DownsampledDoubleArrayList;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes the Pearson's matrix of a symmetric sparse O/E matrix in the block layout read by DiskResidentBlockMatrix,
+ * without holding either matrix in memory. The O/E records are streamed several times:
+ * the first pass computes the row and column means, and each later pass accumulates the cross products
+ * of one group of rows with all columns, while collecting the O/E values of the next group of rows
+ * (the first of these passes also accumulates the column variances). All sums are taken over centered values,
+ * as in a two-pass computation, so that they do not cancel when the means are large.
+ * The Pearson's of a group of rows are then written as a row of blocks. The number of rows per group
+ * follows from the memory budget (about 16 bytes per row and column), so the number of passes
+ * grows as the budget shrinks.
+ * <p/>
+ * The values are those of Pearsons.computePearsons on the O/E vectors with the row means subtracted,
+ * up to float rounding.
+ */
+public class TiledPearsonsWriter {
+
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private final int dim;
+    private final int blockSize;
+    private final int rowsPerGroup;
+    private final int numThreads;
+
+    private final boolean[] isNonNull;
+    private final double[] rowSums;
+    private double[] rowMeans;     // m_i
+    private double[] columnMeans;  // mu_j, the mean over i of oe(i, j) - m_i
+    private int numNonNull = 0;
+
+    // with c_j(i) = m_i + mu_j: sum over the records of column j of (oe(i, j) - c_j(i))^2 and of c_j(i)^2,
+    // and sum over all i of c_j(i)^2, from the spread of the row means around their mean
+    private final double[] recordSquares;
+    private final double[] recordCenterSquares;
+    private double meanOfMeans = 0, rowMeanSquares = 0;
+
+    // cross products of the current group of rows, by column, and the group's centered O/E values, transposed;
+    // for each row a of the group, the sums over i of y_a(i) * m_i and of y_a(i)
+    private double[][] crossProducts;
+    private float[][] groupValues, nextGroupValues;
+    private double[] groupMeanProducts, groupSums;
+    private int groupStart = -1, nextGroupStart = 0;
+    private boolean isFirstCrossProductPass = false;
+
+    private final int[] chunkX = new int[CHUNK_SIZE];
+    private final int[] chunkY = new int[CHUNK_SIZE];
+    private final float[] chunkValues = new float[CHUNK_SIZE];
+    private int chunkLength = 0;
+
+    private final DownsampledDoubleArrayList sampledValues = new DownsampledDoubleArrayList(10000, 10000);
+    private float lowerValue = Float.NaN, upperValue = Float.NaN;
+
+    public interface RecordSource {
+        /**
+         * Passes every record of the upper (or lower) triangle once to the consumer
+         */
+        void processRecords(RecordConsumer consumer) throws IOException;
+    }
+
+    public interface RecordConsumer {
+        void accept(int binX, int binY, float value);
+    }
+
+    /**
+     * @param dim          number of rows and columns
+     * @param blockSize    side of the blocks of the output file
+     * @param memoryBudget bytes to use for the cross products and O/E values of a group of rows
+     * @param numThreads   threads for the cross products
+     */
+    public TiledPearsonsWriter(int dim, int blockSize, long memoryBudget, int numThreads) {
+        this.dim = dim;
+        this.blockSize = blockSize;
+        this.numThreads = Math.max(1, numThreads);
+        long blocksPerGroup = memoryBudget / (16L * Math.max(1, dim) * blockSize);
+        this.rowsPerGroup = (int) Math.min(dim, Math.max(1, blocksPerGroup) * blockSize);
+        isNonNull = new boolean[dim];
+        rowSums = new double[dim];
+        recordSquares = new double[dim];
+        recordCenterSquares = new double[dim];
+    }
+
+    public int getRowsPerGroup() {
+        return rowsPerGroup;
+    }
+
+    public float getLowerValue() {
+        return lowerValue;
+    }
+
+    public float getUpperValue() {
+        return upperValue;
+    }
+
+    /**
+     * Writes the blocks (without a header); the lower and upper values are available afterwards
+     */
+    public void write(RecordSource source, LittleEndianOutputStream les) throws IOException {
+        nextGroupValues = new float[dim][];
+        source.processRecords(this::addStatistics);
+        computeMeans();
+
+        isFirstCrossProductPass = true;
+        for (int start = 0; start < dim; start += rowsPerGroup) {
+            groupStart = start;
+            groupValues = nextGroupValues;
+            centerGroupValues();
+            nextGroupStart = start + rowsPerGroup;
+            nextGroupValues = nextGroupStart < dim ? new float[dim][] : null;
+            crossProducts = new double[dim][rowsPerGroup];
+
+            source.processRecords(this::addCrossProducts);
+            processChunk();
+            isFirstCrossProductPass = false;
+
+            writeGroup(les);
+        }
+        crossProducts = null;
+        groupValues = null;
+        groupMeanProducts = null;
+        groupSums = null;
+
+        double[] sample = sampledValues.toArray();
+        if (sample.length > 0) {
+            lowerValue = (float) StatUtils.percentile(sample, 5);
+            upperValue = (float) StatUtils.percentile(sample, 95);
+        }
+    }
+
+    private void addStatistics(int x, int y, float value) {
+        if (x >= dim || y >= dim || Float.isNaN(value)) return;
+        isNonNull[x] = true;
+        isNonNull[y] = true;
+        rowSums[x] += value;
+        if (x != y) {
+            rowSums[y] += value;
+        }
+        collectNextGroupValue(x, y, value);
+    }
+
+    private void computeMeans() {
+        rowMeans = new double[dim];
+        for (int i = 0; i < dim; i++) {
+            if (isNonNull[i]) {
+                numNonNull++;
+                rowMeans[i] = rowSums[i] / dim;
+            }
+            meanOfMeans += rowMeans[i];
+        }
+        meanOfMeans /= dim;
+        for (int i = 0; i < dim; i++) {
+            rowMeanSquares += (rowMeans[i] - meanOfMeans) * (rowMeans[i] - meanOfMeans);
+        }
+        // the row sums are also the column sums of the symmetric matrix
+        columnMeans = new double[dim];
+        for (int j = 0; j < dim; j++) {
+            columnMeans[j] = rowMeans[j] - meanOfMeans;
+        }
+    }
+
+    /**
+     * Replaces the O/E values of the group by y_a(i) = oe(i, a) - m_i - mu_a, for every row i
+     */
+    private void centerGroupValues() {
+        int groupLength = Math.min(dim, groupStart + rowsPerGroup) - groupStart;
+        groupMeanProducts = new double[rowsPerGroup];
+        groupSums = new double[rowsPerGroup];
+        for (int i = 0; i < dim; i++) {
+            float[] values = getOrCreate(groupValues, i);
+            for (int a = 0; a < groupLength; a++) {
+                values[a] = (float) (values[a] - rowMeans[i] - columnMeans[groupStart + a]);
+                groupMeanProducts[a] += values[a] * rowMeans[i];
+                groupSums[a] += values[a];
+            }
+        }
+    }
+
+    private void collectNextGroupValue(int x, int y, float value) {
+        if (nextGroupValues == null) return;
+        int nextGroupEnd = Math.min(dim, nextGroupStart + rowsPerGroup);
+        if (x >= nextGroupStart && x < nextGroupEnd) {
+            getOrCreate(nextGroupValues, y)[x - nextGroupStart] = value;
+        }
+        if (y >= nextGroupStart && y < nextGroupEnd) {
+            getOrCreate(nextGroupValues, x)[y - nextGroupStart] = value;
+        }
+    }
+
+    private float[] getOrCreate(float[][] values, int i) {
+        if (values[i] == null) {
+            values[i] = new float[rowsPerGroup];
+        }
+        return values[i];
+    }
+
+    private void addCrossProducts(int x, int y, float value) {
+        if (x >= dim || y >= dim || Float.isNaN(value)) return;
+        if (isFirstCrossProductPass) {
+            addSquares(x, y, value);
+            if (x != y) {
+                addSquares(y, x, value);
+            }
+        }
+        collectNextGroupValue(x, y, value);
+
+        // entry (x, y) is also (y, x), so it contributes to the cross products of both columns
+        chunkX[chunkLength] = x;
+        chunkY[chunkLength] = y;
+        chunkValues[chunkLength] = value;
+        chunkLength++;
+        if (chunkLength == CHUNK_SIZE) {
+            processChunk();
+        }
+    }
+
+    private void addSquares(int row, int column, float value) {
+        double center = rowMeans[row] + columnMeans[column];
+        recordSquares[column] += (value - center) * (value - center);
+        recordCenterSquares[column] += center * center;
+    }
+
+    /**
+     * Adds the buffered records to the cross products, each thread taking a slice of the rows of the group
+     */
+    private void processChunk() {
+        final int length = chunkLength;
+        final int sliceLength = (rowsPerGroup + numThreads - 1) / numThreads;
+        final AtomicInteger nextSlice = new AtomicInteger(0);
+        TaskRunner.getShared(numThreads).runWorkers("Pearson's cross products", numThreads, () -> {
+            int slice;
+            while ((slice = nextSlice.getAndIncrement()) < numThreads) {
+                int sliceStart = slice * sliceLength;
+                int sliceEnd = Math.min(rowsPerGroup, sliceStart + sliceLength);
+                for (int r = 0; r < length; r++) {
+                    int x = chunkX[r], y = chunkY[r];
+                    double value = chunkValues[r];
+                    addScaled(crossProducts[y], groupValues[x], value, sliceStart, sliceEnd);
+                    if (x != y) {
+                        addScaled(crossProducts[x], groupValues[y], value, sliceStart, sliceEnd);
+                    }
+                }
+            }
+        });
+        chunkLength = 0;
+    }
+
+    private static void addScaled(double[] sums, float[] values, double factor, int start, int end) {
+        for (int a = start; a < end; a++) {
+            sums[a] += values[a] * factor;
+        }
+    }
+
+    private void writeGroup(LittleEndianOutputStream les) throws IOException {
+        int groupEnd = Math.min(dim, groupStart + rowsPerGroup);
+        float[] row = new float[blockSize];
+        for (int blockRowStart = groupStart; blockRowStart < groupEnd; blockRowStart += blockSize) {
+            int blockRowEnd = Math.min(groupEnd, blockRowStart + blockSize);
+            for (int blockColumnStart = 0; blockColumnStart < dim; blockColumnStart += blockSize) {
+                int blockColumnEnd = Math.min(dim, blockColumnStart + blockSize);
+                for (int a = blockRowStart; a < blockRowEnd; a++) {
+                    Arrays.fill(row, Float.NaN);
+                    for (int b = blockColumnStart; b < blockColumnEnd; b++) {
+                        float corr = getPearsonsValue(a, b);
+                        row[b - blockColumnStart] = corr;
+                        if (!Float.isNaN(corr)) {
+                            sampledValues.add(corr);
+                        }
+                    }
+                    for (int k = 0; k < blockColumnEnd - blockColumnStart; k++) {
+                        les.writeFloat(row[k]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * With y_a(i) = oe(i, a) - m_i - mu_a, the covariance of columns a and b is the sum over i of y_a(i) * y_b(i),
+     * i.e. the cross product of y_a with the O/E values of b, minus the sums of y_a(i) * (m_i + mu_b)
+     */
+    private float getPearsonsValue(int a, int b) {
+        if (!isNonNull[a] || !isNonNull[b]) return Float.NaN;
+        if (a == b) return numNonNull > 1 ? 1.0f : Float.NaN;
+
+        int groupRow = a - groupStart;
+        double covariance = crossProducts[b][groupRow] - groupMeanProducts[groupRow]
+                - columnMeans[b] * groupSums[groupRow];
+        double varianceA = getVariance(a);
+        double varianceB = getVariance(b);
+        if (varianceA <= 0 || varianceB <= 0) return Float.NaN;
+        return (float) (covariance / Math.sqrt(varianceA * varianceB));
+    }
+
+    /**
+     * Sum over i of y_j(i)^2: the records of column j, plus c_j(i)^2 for the rows without a record
+     */
+    private double getVariance(int j) {
+        double centerSquares = rowMeanSquares + dim * (meanOfMeans + columnMeans[j]) * (meanOfMeans + columnMeans[j]);
+        return recordSquares[j] + Math.max(0, centerSquares - recordCenterSquares[j]);
+    }
+}
@@ -27,7 +27,10 @@ package juicebox.tools.utils.juicer.apa;
 import juicebox.HiCGlobals;
 import juicebox.data.HiCFileTools;
 import juicebox.tools.utils.common.MatrixTools;
+import juicebox.tools.utils.common.StatPercentile;
+import org.apache.commons.math.linear.Array2DRowRealMatrix;
 import org.apache.commons.math.linear.RealMatrix;
+import org.apache.commons.math.stat.StatUtils;
 
 import java.io.File;
 import java.text.SimpleDateFormat;
@@ -52,12 +55,13 @@ public class APADataStack {
     private static int[] axesRange;
     private static File dataDirectory;
 
-    // chr variables
+    // chr variables (flattened in row major order)
+    private final int n;
     private final List<Double> enhancement;
-    private RealMatrix APAMatrix;
-    private RealMatrix normedAPAMatrix;
-    private RealMatrix centerNormedAPAMatrix;
-    private RealMatrix rankAPAMatrix;
+    private final double[] APAMatrix;
+    private final double[] normedAPAMatrix;
+    private final double[] centerNormedAPAMatrix;
+    private final double[] rankAPAMatrix;
 
     /**
      * class for saving data from chromosme wide run of APA, keeps static class to store genomide data
@@ -67,10 +71,11 @@ public class APADataStack {
      * @param customPrefix     optional file/folder prefix
      */
     public APADataStack(int n, File outputFolder, String customPrefix) {
-        APAMatrix = MatrixTools.cleanArray2DMatrix(n, n);
-        normedAPAMatrix = MatrixTools.cleanArray2DMatrix(n, n);
-        centerNormedAPAMatrix = MatrixTools.cleanArray2DMatrix(n, n);
-        rankAPAMatrix = MatrixTools.cleanArray2DMatrix(n, n);
+        this.n = n;
+        APAMatrix = new double[n * n];
+        normedAPAMatrix = new double[n * n];
+        centerNormedAPAMatrix = new double[n * n];
+        rankAPAMatrix = new double[n * n];
         enhancement = new ArrayList<>();
 
         initializeGenomeWideVariables(n);
@@ -167,37 +172,86 @@ public class APADataStack {
     }
 
     public void addData(RealMatrix newData) {
-        MatrixTools.cleanUpNaNs(newData);
-        APAMatrix = APAMatrix.add(newData);
-        normedAPAMatrix = normedAPAMatrix.add(APAUtils.standardNormalization(newData));
-        centerNormedAPAMatrix = centerNormedAPAMatrix.add(APAUtils.centerNormalization(newData));
-        rankAPAMatrix = rankAPAMatrix.add(APAUtils.rankPercentile(newData));
-        enhancement.add(APAUtils.peakEnhancement(newData));
+        addData(MatrixTools.flattenedRowMajorOrderMatrix(newData));
+    }
+
+    /**
+     * Same as addData(RealMatrix), for a window flattened in row major order (see APALoopExtractor).
+     * The normalized versions are accumulated directly, without building a matrix for each of them.
+     * NaNs in newData are set to 0.
+     */
+    public void addData(double[] newData) {
+        double sum = 0;
+        double minimumPositive = Double.MAX_VALUE;
+        for (int i = 0; i < newData.length; i++) {
+            if (Double.isNaN(newData[i])) {
+                newData[i] = 0;
+            }
+            double val = newData[i];
+            sum += val;
+            if (val > 0 && val < minimumPositive) {
+                minimumPositive = val;
+            }
+        }
+
+        int center = n / 2;
+        double centerVal = newData[center * n + center];
+        double normedScale = 1. / Math.max(1., StatUtils.mean(newData));
+        double centerScale = 1.;
+        if (centerVal != 0) {
+            centerScale = 1. / centerVal;
+        } else if (minimumPositive < Double.MAX_VALUE) {
+            centerScale = 1. / minimumPositive;
+        }
+        StatPercentile percentile = new StatPercentile(newData);
+
+        for (int i = 0; i < newData.length; i++) {
+            double val = newData[i];
+            APAMatrix[i] += val;
+            normedAPAMatrix[i] += val * normedScale;
+            centerNormedAPAMatrix[i] += val * centerScale;
+            if (val != 0) {
+                rankAPAMatrix[i] += percentile.evaluate(val);
+            }
+        }
+        enhancement.add(centerVal / ((sum - centerVal) / (n * n - 1)));
     }
 
     public synchronized void updateGenomeWideData() {
         synchronized(gwAPAMatrix) {
-            gwAPAMatrix = gwAPAMatrix.add(APAMatrix);
-            gwNormedAPAMatrix = gwNormedAPAMatrix.add(normedAPAMatrix);
-            gwCenterNormedAPAMatrix = gwCenterNormedAPAMatrix.add(centerNormedAPAMatrix);
-            gwRankAPAMatrix = gwRankAPAMatrix.add(rankAPAMatrix);
+            gwAPAMatrix = gwAPAMatrix.add(toMatrix(APAMatrix, 1));
+            gwNormedAPAMatrix = gwNormedAPAMatrix.add(toMatrix(normedAPAMatrix, 1));
+            gwCenterNormedAPAMatrix = gwCenterNormedAPAMatrix.add(toMatrix(centerNormedAPAMatrix, 1));
+            gwRankAPAMatrix = gwRankAPAMatrix.add(toMatrix(rankAPAMatrix, 1));
             gwEnhancement.addAll(enhancement);
         }
     }
 
+    private RealMatrix toMatrix(double[] flatData, double scale) {
+        double[][] data = new double[n][n];
+        for (int r = 0; r < n; r++) {
+            for (int c = 0; c < n; c++) {
+                data[r][c] = flatData[r * n + c] * scale;
+            }
+        }
+        return new Array2DRowRealMatrix(data, false);
+    }
+
     public void exportDataSet(String subFolderName, Integer[] peakNumbers, int currentRegionWidth, boolean saveAllData, boolean dontIncludePlots) {
         double nPeaksUsedInv = 1. / peakNumbers[0];
-        normedAPAMatrix = normedAPAMatrix.scalarMultiply(nPeaksUsedInv);
-        centerNormedAPAMatrix = centerNormedAPAMatrix.scalarMultiply(nPeaksUsedInv);
-        rankAPAMatrix = rankAPAMatrix.scalarMultiply(nPeaksUsedInv);
 
-        RealMatrix[] matrices = {APAMatrix, normedAPAMatrix, centerNormedAPAMatrix, rankAPAMatrix};
+        RealMatrix[] matrices = {toMatrix(APAMatrix, 1), toMatrix(normedAPAMatrix, nPeaksUsedInv),
+                toMatrix(centerNormedAPAMatrix, nPeaksUsedInv), toMatrix(rankAPAMatrix, nPeaksUsedInv)};
         String[] titles = {"APA", "normedAPA", "centerNormedAPA", "rankAPA", "enhancement", "measures"};
 
         saveDataSet(subFolderName, matrices, titles, enhancement, peakNumbers, currentRegionWidth, saveAllData, dontIncludePlots);
     }
 
     public void thresholdPlots(int val) {
-        MatrixTools.thresholdValues(APAMatrix, val);
+        for (int i = 0; i < APAMatrix.length; i++) {
+            if (APAMatrix[i] > val) {
+                APAMatrix[i] = val;
+            }
+        }
     }
 }
@@ -0,0 +1,192 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2020 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+
+package juicebox.tools.utils.juicer.apa;
+
+import juicebox.data.Block;
+import juicebox.data.ContactRecord;
+import juicebox.data.MatrixZoomData;
+import juicebox.track.feature.Feature2D;
+import juicebox.windowui.NormalizationType;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Extracts the L x L windows around the loops of one chromosome pair (as APAUtils.extractLocalizedData does),
+ * but loads each block only once: the loops are grouped by the blocks their windows overlap, and the records
+ * of every block are scattered into all the windows containing them.
+ * <p/>
+ * Windows are flat float arrays in row major order. Loops are handled in batches of consecutive loops,
+ * so memory is bounded and the windows are returned in the order of the given list.
+ * A loop whose window cannot be extracted (e.g. one of its blocks fails to load) is reported to the consumer
+ * and skipped; the other loops are still extracted.
+ */
+public class APALoopExtractor {
+
+    private static final int DEFAULT_BATCH_SIZE = 10000;
+
+    private final MatrixZoomData zd;
+    private final NormalizationType norm;
+    private final int window, L, resolution;
+    private final int batchSize;
+
+    public APALoopExtractor(MatrixZoomData zd, NormalizationType norm, int window, int resolution) {
+        this(zd, norm, window, resolution, DEFAULT_BATCH_SIZE);
+    }
+
+    public APALoopExtractor(MatrixZoomData zd, NormalizationType norm, int window, int resolution, int batchSize) {
+        this.zd = zd;
+        this.norm = norm;
+        this.window = window;
+        this.L = 2 * window + 1;
+        this.resolution = resolution;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Calls the consumer with the window of every loop (or with the error for that loop), in the order of the list.
+     * The array passed to the consumer is reused once the consumer returns.
+     */
+    public void extract(List<Feature2D> loops, LoopWindowConsumer consumer) {
+        for (int batchStart = 0; batchStart < loops.size(); batchStart += batchSize) {
+            List<Feature2D> batch = loops.subList(batchStart, Math.min(loops.size(), batchStart + batchSize));
+            Exception[] errors = new Exception[batch.size()];
+            float[][] windows = extractBatch(batch, errors);
+            double[] data = new double[L * L];
+            for (int i = 0; i < batch.size(); i++) {
+                if (errors[i] != null) {
+                    consumer.failed(batch.get(i), errors[i]);
+                    continue;
+                }
+                for (int k = 0; k < data.length; k++) {
+                    data[k] = windows[i][k];
+                }
+                try {
+                    consumer.accept(batch.get(i), data);
+                } catch (Exception e) {
+                    consumer.failed(batch.get(i), e);
+                }
+                windows[i] = null;
+            }
+        }
+    }
+
+    /**
+     * @param errors set to the first error of each loop whose window could not be extracted
+     */
+    private float[][] extractBatch(List<Feature2D> batch, Exception[] errors) {
+        int numLoops = batch.size();
+        int[] binXStarts = new int[numLoops];
+        int[] binYStarts = new int[numLoops];
+        Map<Integer, List<Integer>> loopsForBlock = new HashMap<>();
+        for (int i = 0; i < numLoops; i++) {
+            try {
+                Feature2D loop = batch.get(i);
+                int loopX = (int) (loop.getMidPt1() / resolution);
+                int loopY = (int) (loop.getMidPt2() / resolution);
+                binXStarts[i] = loopX - window;
+                binYStarts[i] = loopY - window;
+                for (int blockNumber : zd.getBlockNumbersOverlapping(binXStarts[i], binYStarts[i],
+                        loopX + window + 1, loopY + window + 1)) {
+                    loopsForBlock.computeIfAbsent(blockNumber, k -> new ArrayList<>()).add(i);
+                }
+            } catch (Exception e) {
+                errors[i] = e;
+            }
+        }
+
+        float[][] windows = new float[numLoops][L * L];
+        List<Integer> blockNumbers = new ArrayList<>(loopsForBlock.keySet());
+        Collections.sort(blockNumbers);
+        for (int blockNumber : blockNumbers) {
+            List<Integer> loopIndices = loopsForBlock.get(blockNumber);
+            try {
+                addBlockToWindows(blockNumber, loopIndices, binXStarts, binYStarts, windows);
+            } catch (Exception e) {
+                // only the loops overlapping this block are lost
+                for (int i : loopIndices) {
+                    if (errors[i] == null) {
+                        errors[i] = e;
+                    }
+                }
+            }
+        }
+        return windows;
+    }
+
+    private void addBlockToWindows(int blockNumber, List<Integer> loopIndices, int[] binXStarts, int[] binYStarts,
+                                   float[][] windows) throws IOException {
+        Block b = zd.getNormalizedBlock(blockNumber, norm);
+        if (b == null) return;
+
+        // loops overlapping this block, sorted by the first row of their window
+        loopIndices.sort(Comparator.comparingInt(i -> binXStarts[i]));
+        int numBlockLoops = loopIndices.size();
+        int[] xStarts = new int[numBlockLoops];
+        int[] yStarts = new int[numBlockLoops];
+        float[][] blockWindows = new float[numBlockLoops][];
+        for (int j = 0; j < numBlockLoops; j++) {
+            int i = loopIndices.get(j);
+            xStarts[j] = binXStarts[i];
+            yStarts[j] = binYStarts[i];
+            blockWindows[j] = windows[i];
+        }
+
+        for (ContactRecord rec : b.getContactRecords()) {
+            int x = rec.getBinX();
+            int y = rec.getBinY();
+            // first window whose rows can contain x
+            for (int j = firstIndexAtLeast(xStarts, x - L + 1); j < numBlockLoops && xStarts[j] <= x; j++) {
+                int relativeY = y - yStarts[j];
+                if (relativeY >= 0 && relativeY < L) {
+                    blockWindows[j][(x - xStarts[j]) * L + relativeY] += rec.getCounts();
+                }
+            }
+        }
+    }
+
+    private static int firstIndexAtLeast(int[] sortedValues, int value) {
+        int low = 0, high = sortedValues.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortedValues[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public interface LoopWindowConsumer {
+        void accept(Feature2D loop, double[] data);
+
+        default void failed(Feature2D loop, Exception e) {
+            System.err.println(e);
+            System.err.println("Unable to find data for loop: " + loop);
+        }
+    }
+}
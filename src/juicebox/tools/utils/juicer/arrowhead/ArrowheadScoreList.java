@@ -25,12 +25,11 @@
 package juicebox.tools.utils.juicer.arrowhead;
 
 import juicebox.data.basics.Chromosome;
-import juicebox.tools.utils.common.MatrixTools;
 import juicebox.track.feature.Feature2D;
 import juicebox.track.feature.Feature2DList;
-import org.apache.commons.math.linear.RealMatrix;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -62,16 +61,38 @@ public class ArrowheadScoreList {
         return copy;
     }
 
-    public ArrowheadScoreList updateActiveIndexScores(RealMatrix blockScore, int limStart, int limEnd) {
-
-        setActiveListElements(limStart, limEnd);
+    /**
+     * Scores of the list elements fully contained in a window; the list itself is not changed,
+     * so windows can be scored concurrently (and applied in order with updateScores)
+     *
+     * @param blockScore flat n x n block score matrix in row major order
+     */
+    public WindowScores calculateWindowScores(double[] blockScore, int n, int limStart, int limEnd) {
+        WindowScores windowScores = new WindowScores(arrowheadScores.size());
+        for (int k = 0; k < arrowheadScores.size(); k++) {
+            ArrowheadScore score = arrowheadScores.get(k);
+            if (score.isWithin(limStart, limEnd, resolution)) {
+                int[] transformedIndices = scaleAndTranslateIndices(score.indices, resolution, limStart);
+                windowScores.isActive[k] = true;
+                windowScores.scores[k] = calculateMaxOfSubMatrix(blockScore, n, transformedIndices);
+            }
+        }
+        return windowScores;
+    }
 
+    /**
+     * Update the list elements with the scores of a window
+     *
+     * @return copies of the elements within the window
+     */
+    public ArrowheadScoreList updateScores(WindowScores windowScores) {
         ArrowheadScoreList scoredList = new ArrowheadScoreList(resolution);
 
-        for (ArrowheadScore score : arrowheadScores) {
+        for (int k = 0; k < arrowheadScores.size(); k++) {
+            ArrowheadScore score = arrowheadScores.get(k);
+            score.isActive = windowScores.isActive[k];
             if (score.isActive) {
-                int[] transformedIndices = scaleAndTranslateIndices(score.indices, resolution, limStart);
-                score.updateScore(MatrixTools.calculateMax(MatrixTools.getSubMatrix(blockScore, transformedIndices)));
+                score.updateScore(windowScores.scores[k]);
                 scoredList.arrowheadScores.add(new ArrowheadScore(score));
             }
         }
@@ -79,6 +100,27 @@ public class ArrowheadScoreList {
         return scoredList;
     }
 
+    /**
+     * @param indices start row, end row, start column, end column (inclusive)
+     * @return max element in the sub matrix
+     */
+    private static double calculateMaxOfSubMatrix(double[] matrix, int n, int[] indices) {
+        if (indices[0] < 0 || indices[1] >= n || indices[0] > indices[1]
+                || indices[2] < 0 || indices[3] >= n || indices[2] > indices[3]) {
+            throw new IndexOutOfBoundsException("Invalid sub matrix " + Arrays.toString(indices) + " of " + n + "x" + n);
+        }
+        double max = matrix[indices[0] * n + indices[2]];
+        for (int i = indices[0]; i <= indices[1]; i++) {
+            for (int j = indices[2]; j <= indices[3]; j++) {
+                double val = matrix[i * n + j];
+                if (max < val) {
+                    max = val;
+                }
+            }
+        }
+        return max;
+    }
+
     private int[] scaleAndTranslateIndices(long[] indices, int resolution, int limStart) {
 		int[] transformedIndices = new int[indices.length];
 		for (int i = 0; i < indices.length; i++) {
@@ -88,18 +130,6 @@ public class ArrowheadScoreList {
 		return transformedIndices;
 	}
 
-    private void setActiveListElements(int limStart, int limEnd) {
-        for (ArrowheadScore score : arrowheadScores) {
-            score.isActive = false;
-        }
-
-        for (ArrowheadScore score : arrowheadScores) {
-            if (score.isWithin(limStart, limEnd, resolution)) {
-                score.isActive = true;
-            }
-        }
-    }
-
     public void addAll(ArrowheadScoreList arrowheadScoreList) {
         arrowheadScores.addAll(arrowheadScoreList.arrowheadScores);
     }
@@ -131,6 +161,14 @@ public class ArrowheadScoreList {
         }
         return feature2DList;
     }
-}
 
+    static class WindowScores {
+        private final boolean[] isActive;
+        private final double[] scores;
 
+        WindowScores(int size) {
+            isActive = new boolean[size];
+            scores = new double[size];
+        }
+    }
+}
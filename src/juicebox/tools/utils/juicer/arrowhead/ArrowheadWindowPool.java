@@ -0,0 +1,84 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2020 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+
+package juicebox.tools.utils.juicer.arrowhead;
+
+import juicebox.tools.utils.common.TaskRunner;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Windows of all chromosomes are scored on the shared task pool (on which the chromosomes themselves run),
+ * with a limit on the number of windows in flight (submitted but not yet merged) across all chromosomes,
+ * which bounds the memory used by window data.
+ * Scoring buffers are kept per pool thread (see BlockBuster).
+ */
+public class ArrowheadWindowPool {
+
+    private final ForkJoinPool pool;
+    private final Semaphore windowPermits;
+
+    public ArrowheadWindowPool(TaskRunner taskRunner) {
+        this(taskRunner, 2 * taskRunner.getNumThreads());
+    }
+
+    public ArrowheadWindowPool(TaskRunner taskRunner, int maxWindowsInFlight) {
+        pool = taskRunner.getPool();
+        windowPermits = new Semaphore(Math.max(1, maxWindowsInFlight));
+    }
+
+    ForkJoinPool getPool() {
+        return pool;
+    }
+
+    Semaphore getWindowPermits() {
+        return windowPermits;
+    }
+
+    /**
+     * Blocking wait for a permit; the pool may start a spare thread meanwhile, since the tasks
+     * holding the permits could be queued behind the waiting thread
+     */
+    void acquireWindowPermit() throws InterruptedException {
+        ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+            private boolean acquired = false;
+
+            @Override
+            public boolean block() throws InterruptedException {
+                if (!acquired) {
+                    windowPermits.acquire();
+                    acquired = true;
+                }
+                return true;
+            }
+
+            @Override
+            public boolean isReleasable() {
+                return acquired || (acquired = windowPermits.tryAcquire());
+            }
+        });
+    }
+}
@@ -24,6 +24,7 @@
 
 package juicebox.tools.utils.juicer.arrowhead;
 
+import com.google.common.primitives.Doubles;
 import juicebox.HiCGlobals;
 import juicebox.data.HiCFileTools;
 import juicebox.data.MatrixZoomData;
@@ -36,6 +37,11 @@ import org.apache.commons.math.linear.RealMatrix;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
 
 /**
  * Created by muhammadsaadshamim on 6/3/15.
@@ -52,12 +58,13 @@ public class BlockBuster {
     /**
      * Actual Arrowhead algorithm - should be called separately for each chromosome
      *
+     * @param windowPool windows of the chromosome are scored concurrently on the pool (sequentially if null)
      * @return contact domain list and scores for given list/control
      */
     public static void run(Chromosome chrom, int resolution, int matrixWidth, MatrixZoomData zd,
                            NormalizationType norm, ArrowheadScoreList list, ArrowheadScoreList control,
                            Feature2DList contactDomainsGenomeWide, Feature2DList contactDomainListScoresGenomeWide,
-                           Feature2DList contactDomainControlScoresGenomeWide) {
+                           Feature2DList contactDomainControlScoresGenomeWide, ArrowheadWindowPool windowPool) {
 
         int chrIndex = chrom.getIndex();
         String chrName = chrom.getName();
@@ -67,20 +74,32 @@ public class BlockBuster {
         int maxDataLengthAtResolution = (int) Math.ceil(((double) chrLength) / resolution);
 
         try {
-            // get large number of blocks (lower confidence)
-            CumulativeBlockResults results = null;
+            // all thresholds are evaluated on each window, so the windows are only read and scored once
+            List<Double> varThresholds = new ArrayList<>();
+            List<Double> signThresholds = new ArrayList<>();
             for (double signThreshold = maxLowSignThreshold; signThreshold >= minLowSignThreshold; signThreshold -= decrementLowSignThreshold) {
-                results = callSubBlockbuster(zd, maxDataLengthAtResolution, Double.NaN, signThreshold, matrixWidth,
-                        increment, list, control, norm, resolution);
+                varThresholds.add(Double.NaN);
+                signThresholds.add(signThreshold);
+            }
+            int numLowConfidenceThresholds = signThresholds.size();
+            varThresholds.add(varThreshold);
+            signThresholds.add(highSignThreshold);
+
+            CumulativeBlockResults[] thresholdResults = callSubBlockbuster(zd, maxDataLengthAtResolution,
+                    Doubles.toArray(varThresholds), Doubles.toArray(signThresholds), matrixWidth, increment,
+                    list, control, norm, resolution, windowPool);
+
+            // get large number of blocks (lower confidence), from the highest sign threshold with any blocks
+            CumulativeBlockResults results = null;
+            for (int k = 0; k < numLowConfidenceThresholds; k++) {
+                results = thresholdResults[k];
                 if (results.getCumulativeResults().size() > 0) {
                     break;
                 }
             }
 
             // high variance threshold, fewer blocks, high confidence
-            CumulativeBlockResults highConfidenceResults = callSubBlockbuster(zd, maxDataLengthAtResolution,
-                    varThreshold, highSignThreshold, matrixWidth, increment, new ArrowheadScoreList(resolution),
-                    new ArrowheadScoreList(resolution), norm, resolution);
+            CumulativeBlockResults highConfidenceResults = thresholdResults[numLowConfidenceThresholds];
 
             List<HighScore> uniqueBlocks = orderedSetDifference(results.getCumulativeResults(),
                     highConfidenceResults.getCumulativeResults());
@@ -128,67 +147,149 @@ public class BlockBuster {
     }
 
     /**
-     * Runs blockbuster for a sliding window along the diagonal of the matrix
+     * Runs blockbuster for a sliding window along the diagonal of the matrix.
+     * Each window is read and scored once, then the blocks are called for every pair of thresholds.
+     * The list and control scores do not depend on the thresholds, so all the results share them.
+     * Windows may be scored concurrently, but are always merged into the results in window order.
      *
-     * @param zd            - zoomData from hic file
+     * @param zd             - zoomData from hic file
      * @param chrLength
-     * @param varThreshold
-     * @param signThreshold
+     * @param varThresholds
+     * @param signThresholds
      * @param matrixWidth
      * @param increment
      * @param list
      * @param control
-     * @return contact domain results for given thresholds and parameters
+     * @return contact domain results for each pair of thresholds
      */
-    private static CumulativeBlockResults callSubBlockbuster(MatrixZoomData zd, int chrLength, double varThreshold,
-                                                             double signThreshold, int matrixWidth, int increment,
-                                                             ArrowheadScoreList list, ArrowheadScoreList control,
-                                                             NormalizationType norm, int resolution) throws IOException {
-
-        // container for results
-        CumulativeBlockResults cumulativeBlockResults = new CumulativeBlockResults(resolution);
+    private static CumulativeBlockResults[] callSubBlockbuster(MatrixZoomData zd, int chrLength, double[] varThresholds,
+                                                               double[] signThresholds, int matrixWidth, int increment,
+                                                               ArrowheadScoreList list, ArrowheadScoreList control,
+                                                               NormalizationType norm, int resolution,
+                                                               ArrowheadWindowPool windowPool) throws IOException {
+
+        // containers for results
+        CumulativeBlockResults[] cumulativeBlockResults = new CumulativeBlockResults[varThresholds.length];
+        for (int k = 0; k < cumulativeBlockResults.length; k++) {
+            cumulativeBlockResults[k] = new CumulativeBlockResults(resolution);
+        }
         if (HiCGlobals.printVerboseComments) {
             System.out.println("Loading incr " + increment + " chrLength " + chrLength);
         }
 
-        // slide across chromosome diagonal
-        for (int limStart = 0; limStart < chrLength; limStart += increment) {
-            // appropriate boundaries of window
-            int adjustedLimStart = limStart;
-            int limEnd = Math.min(limStart + matrixWidth, chrLength);
-            if (limEnd == chrLength) {
-                if (chrLength > increment) {
-                    adjustedLimStart = limEnd - matrixWidth;
+        // scoring buffers, reused by the windows of this chromosome and freed with it
+        // (at most one set per window scored at the same time)
+        Queue<MatrixTriangles> buffers = new ConcurrentLinkedQueue<>();
+        Deque<ForkJoinTask<BlockResults>> windowsInFlight = new ArrayDeque<>();
+        try {
+            // slide across chromosome diagonal
+            for (int limStart = 0; limStart < chrLength; limStart += increment) {
+                // appropriate boundaries of window
+                int adjustedLimStart = limStart;
+                int limEnd = Math.min(limStart + matrixWidth, chrLength);
+                if (limEnd == chrLength) {
+                    if (chrLength > increment) {
+                        adjustedLimStart = limEnd - matrixWidth;
+                    }
                 }
+                final int finalLimStart = limStart, finalAdjustedLimStart = adjustedLimStart, finalLimEnd = limEnd;
+                Callable<BlockResults> window = () -> scoreWindow(zd, finalLimStart, finalAdjustedLimStart, finalLimEnd,
+                        varThresholds, signThresholds, list, control, norm, buffers);
+
+                if (windowPool == null) {
+                    mergeWindow(window.call(), cumulativeBlockResults, list, control);
+                } else {
+                    Semaphore windowPermits = windowPool.getWindowPermits();
+                    while (!windowPermits.tryAcquire()) {
+                        if (windowsInFlight.isEmpty()) {
+                            windowPool.acquireWindowPermit();
+                            break;
+                        }
+                        mergeWindow(waitForWindow(windowsInFlight.poll(), windowPermits), cumulativeBlockResults, list, control);
+                    }
+                    windowsInFlight.add(windowPool.getPool().submit(window));
+                }
+            }
+            while (!windowsInFlight.isEmpty()) {
+                mergeWindow(waitForWindow(windowsInFlight.poll(), windowPool.getWindowPermits()), cumulativeBlockResults, list, control);
             }
-            if (HiCGlobals.printVerboseComments) {
-                System.out.println("Reading " + limStart + ":" + limEnd);
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        } finally {
+            for (ForkJoinTask<BlockResults> task : windowsInFlight) {
+                task.cancel(true);
+                windowPool.getWindowPermits().release();
             }
+        }
+        if (HiCGlobals.printVerboseComments) {
+            System.out.println(".");
+        }
+        return cumulativeBlockResults;
+    }
+
+    /**
+     * Extract and score one window, with a set of buffers taken from (and returned to) the given queue
+     */
+    private static BlockResults scoreWindow(MatrixZoomData zd, int limStart, int adjustedLimStart, int limEnd,
+                                            double[] varThresholds, double[] signThresholds,
+                                            ArrowheadScoreList list, ArrowheadScoreList control,
+                                            NormalizationType norm, Queue<MatrixTriangles> buffers) throws IOException {
+        if (HiCGlobals.printVerboseComments) {
+            System.out.println("Reading " + limStart + ":" + limEnd);
+        }
 
-            // get data for window from hic file
-            int n = limEnd - adjustedLimStart + 1;
-            RealMatrix observed = HiCFileTools.extractLocalBoundedRegion(zd, limStart, limEnd, n, norm, false);
-            observed = MatrixTools.fillLowerLeftTriangle(observed);
+        // get data for window from hic file
+        int n = limEnd - adjustedLimStart + 1;
+        RealMatrix observed = HiCFileTools.extractLocalBoundedRegion(zd, limStart, limEnd, n, norm, false);
+        observed = MatrixTools.fillLowerLeftTriangle(observed);
 
-            // get contact domains in window
-            BlockResults results = new BlockResults(observed, varThreshold, signThreshold, list, control,
-                    adjustedLimStart, limEnd);
+        // get contact domains in window for each pair of thresholds
+        MatrixTriangles triangles = buffers.poll();
+        if (triangles == null) {
+            triangles = new MatrixTriangles();
+        }
+        BlockResults results;
+        try {
+            results = new BlockResults(observed, varThresholds, signThresholds, list, control,
+                    adjustedLimStart, limEnd, limStart, triangles); // +1? because genome index should start at 1 not 0?
+        } finally {
+            buffers.add(triangles);
+        }
 
-            if (HiCGlobals.printVerboseComments) {
-                System.out.println("Found " + results.getResults().size() + " blocks");
-            }
+        if (HiCGlobals.printVerboseComments) {
+            System.out.println("Found " + results.getResults(0).size() + " blocks");
+        }
+        return results;
+    }
 
-            // accumulate results across the windows
-            results.offsetResultsIndex(limStart); // +1? because genome index should start at 1 not 0?
-            cumulativeBlockResults.add(results);
-            if (HiCGlobals.printVerboseComments) {
-                System.out.print(".");
-            }
+    /**
+     * accumulate results across the windows (in window order, since the list and control scores are updated)
+     */
+    private static void mergeWindow(BlockResults results, CumulativeBlockResults[] cumulativeBlockResults,
+                                    ArrowheadScoreList list, ArrowheadScoreList control) {
+        ArrowheadScoreList internalList = list.updateScores(results.getListScores());
+        ArrowheadScoreList internalControl = control.updateScores(results.getControlScores());
+        for (int k = 0; k < cumulativeBlockResults.length; k++) {
+            cumulativeBlockResults[k].add(results.getResults(k), internalList, internalControl);
         }
         if (HiCGlobals.printVerboseComments) {
-            System.out.println(".");
+            System.out.print(".");
+        }
+    }
+
+    private static BlockResults waitForWindow(ForkJoinTask<BlockResults> window, Semaphore windowPermits) throws Exception {
+        try {
+            return window.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        } finally {
+            windowPermits.release();
         }
-        return cumulativeBlockResults;
     }
 
     /**
@@ -24,14 +24,10 @@
 
 package juicebox.tools.utils.juicer.arrowhead;
 
-import com.google.common.collect.Lists;
-import com.google.common.primitives.Doubles;
-import juicebox.tools.utils.common.MatrixTools;
 import org.apache.commons.math.linear.RealMatrix;
 
 import java.awt.*;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 
@@ -40,28 +36,44 @@ import java.util.Set;
  */
 class BlockResults {
 
-    private final ArrowheadScoreList internalList;
-    private final ArrowheadScoreList internalControl;
-    private List<HighScore> results = new ArrayList<>();
+    private final ArrowheadScoreList.WindowScores listScores;
+    private final ArrowheadScoreList.WindowScores controlScores;
+    private final List<List<HighScore>> resultsForThresholds = new ArrayList<>();
 
-    public BlockResults(RealMatrix observed, double varThreshold, double signThreshold,
-                        ArrowheadScoreList list, ArrowheadScoreList control, int limStart, int limEnd) {
+    /**
+     * Blocks of a window for each pair of thresholds, and the scores of the list and control in the window.
+     * Neither the list nor the control is changed, so windows can be processed concurrently.
+     *
+     * @param offset    added to the indices of the blocks
+     * @param triangles buffers, which can be reused once this returns
+     */
+    public BlockResults(RealMatrix observed, double[] varThresholds, double[] signThresholds,
+                        ArrowheadScoreList list, ArrowheadScoreList control, int limStart, int limEnd, int offset,
+                        MatrixTriangles triangles) {
 
         int n = Math.min(observed.getRowDimension(), observed.getColumnDimension());
         int gap = 7;
 
-        RealMatrix dUpstream = calculateDirectionalityIndexUpstream(observed, n, gap);
-        MatrixTriangles triangles = new MatrixTriangles(dUpstream);
+        double[] dUpstream = triangles.getInputBuffer(n);
+        calculateDirectionalityIndexUpstream(observed, n, gap, dUpstream);
+        triangles.generateInitialMatrices(dUpstream, n);
 
         triangles.generateBlockScoreCalculations();
-        internalList = triangles.updateScoresUsingList(list, limStart, limEnd);
-        internalControl = triangles.updateScoresUsingList(control, limStart, limEnd);
-        triangles.thresholdScoreValues(varThreshold, signThreshold);
+        listScores = triangles.calculateWindowScores(list, limStart, limEnd);
+        controlScores = triangles.calculateWindowScores(control, limStart, limEnd);
+
+        for (int k = 0; k < varThresholds.length; k++) {
+            triangles.thresholdScoreValues(varThresholds[k], signThresholds[k]);
 
-        List<Set<Point>> connectedComponents = triangles.extractConnectedComponents();
-        //System.out.println("CC "+connectedComponents.size());
+            List<Set<Point>> connectedComponents = triangles.extractConnectedComponents();
+            //System.out.println("CC "+connectedComponents.size());
 
-        results = triangles.calculateResults(connectedComponents);
+            List<HighScore> results = triangles.calculateResults(connectedComponents);
+            for (HighScore score : results) {
+                score.offsetIndex(offset);
+            }
+            resultsForThresholds.add(results);
+        }
         // TODO plotArrowheadFigures();
     }
 
@@ -71,11 +83,9 @@ class BlockResults {
      * @param observed
      * @param n
      * @param gap
-     * @return dUpstream
+     * @param dUpstream flat n x n buffer (row major) filled with zeros
      */
-    private RealMatrix calculateDirectionalityIndexUpstream(RealMatrix observed, int n, int gap) {
-
-        RealMatrix dUpstream = MatrixTools.cleanArray2DMatrix(n);
+    private void calculateDirectionalityIndexUpstream(RealMatrix observed, int n, int gap, double[] dUpstream) {
 
         for (int i = 0; i < n; i++) {
             // choose smaller window of two: from 0 to (i-gap) or from (i+gap) to n
@@ -85,43 +95,28 @@ class BlockResults {
             if (window >= gap) {
                 double[] row = observed.getRow(i);
 
-                // in MATLAB second index inclusive, but for java need +1
-                double[] A = Doubles.toArray(Lists.reverse(Doubles.asList(Arrays.copyOfRange(row, i - window, i - gap + 1))));
-                double[] B = Arrays.copyOfRange(row, i + gap, i + window + 1);
-
-                double[] preference = new double[A.length];
-                for (int j = 0; j < A.length; j++) {
-                    preference[j] = (A[j] - B[j]) / (A[j] + B[j]);
-                }
-
-                int index = 0;
-                for (int j = i + gap; j < i + window + 1; j++) {
-                    dUpstream.setEntry(i, j, preference[index]);
-                    index++;
+                // A runs upstream from i-gap to i-window, B downstream from i+gap to i+window
+                for (int j = 0; j <= window - gap; j++) {
+                    double a = row[i - gap - j];
+                    double b = row[i + gap + j];
+                    dUpstream[i * n + i + gap + j] = (a - b) / (a + b);
                 }
             }
         }
-        return dUpstream;
     }
 
     /**
-     * @return block results
+     * @return blocks for the k-th pair of thresholds
      */
-    public List<HighScore> getResults() {
-        return results;
+    public List<HighScore> getResults(int k) {
+        return resultsForThresholds.get(k);
     }
 
-    public ArrowheadScoreList getInternalList() {
-        return internalList;
+    public ArrowheadScoreList.WindowScores getListScores() {
+        return listScores;
     }
 
-    public ArrowheadScoreList getInternalControl() {
-        return internalControl;
-    }
-
-    public void offsetResultsIndex(int offset) {
-        for (HighScore score : results) {
-            score.offsetIndex(offset);
-        }
+    public ArrowheadScoreList.WindowScores getControlScores() {
+        return controlScores;
     }
 }
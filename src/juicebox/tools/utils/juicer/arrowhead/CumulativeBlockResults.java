@@ -42,10 +42,10 @@ class CumulativeBlockResults {
     }
 
 
-    public void add(BlockResults blockResults) {
-        cumulativeResults.addAll(blockResults.getResults());
-        cumulativeInternalControl.addAll(blockResults.getInternalControl());
-        cumulativeInternalList.addAll(blockResults.getInternalList());
+    public void add(List<HighScore> results, ArrowheadScoreList internalList, ArrowheadScoreList internalControl) {
+        cumulativeResults.addAll(results);
+        cumulativeInternalControl.addAll(internalControl);
+        cumulativeInternalList.addAll(internalList);
     }
 
     public ArrowheadScoreList getCumulativeInternalControl() {
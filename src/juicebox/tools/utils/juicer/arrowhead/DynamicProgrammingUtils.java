@@ -65,51 +65,76 @@ class DynamicProgrammingUtils {
     }
 
     /**
-     * Dynamic programming to calculate "right" matrix
+     * Dynamic programming to calculate "right" matrices of the values, their signs and their squares
+     * (fused into one pass over flat n x n row major buffers).
      * Initialize by setting the diagonal to the diagonal of original
-     * Iterate to the right and up.
+     * Iterate up, each row from the one below it. Only the upper triangle (with the diagonal) is written.
      *
-     * @param matrix
-     * @param maxSize
-     * @return rightMatrix
+     * @param matrix   flattened in row major order
+     * @param rSum     sums of matrix
+     * @param rSign    sums of signs of matrix
+     * @param rSquared sums of squares of matrix
      */
-    public static RealMatrix right(RealMatrix matrix, int maxSize) {
-
-        RealMatrix rightMatrix = MatrixTools.extractDiagonal(matrix);
-        int n = rightMatrix.getRowDimension();
+    public static void right(double[] matrix, int n, double[] rSum, double[] rSign, double[] rSquared) {
+        for (int i = 0; i < n; i++) {
+            int index = i * n + i;
+            double val = matrix[index];
+            rSum[index] = val;
+            rSign[index] = sign(val);
+            rSquared[index] = val * val;
+        }
 
-        // j is column, i is row
-        for (int j = 1; j < n; j++) {
-            int endPoint = Math.max(j - 1 - maxSize, 0);
-            for (int i = j - 1; i >= endPoint; i--) {
-                rightMatrix.setEntry(i, j, matrix.getEntry(i, j) + rightMatrix.getEntry(i + 1, j));
+        // i is row, j is column
+        for (int i = n - 2; i >= 0; i--) {
+            int row = i * n;
+            int rowBelow = row + n;
+            for (int j = i + 1; j < n; j++) {
+                double val = matrix[row + j];
+                rSum[row + j] = val + rSum[rowBelow + j];
+                rSign[row + j] = sign(val) + rSign[rowBelow + j];
+                rSquared[row + j] = val * val + rSquared[rowBelow + j];
             }
         }
-        return rightMatrix;
     }
 
     /**
-     * Dynamic programming to calculate "upper" matrix
+     * Dynamic programming to calculate "upper" matrices of the values, their signs and their squares
+     * (fused into one pass over flat n x n row major buffers).
      * Initialize by setting the diagonal to the diagonal of original
-     * Iterate down (for each row) and to the left.
+     * Iterate down (for each row) and to the left. Only the upper triangle (with the diagonal) is written.
      *
-     * @param matrix
-     * @param maxSize
-     * @return upperMatrix
+     * @param matrix   flattened in row major order
+     * @param uSum     sums of matrix
+     * @param uSign    sums of signs of matrix
+     * @param uSquared sums of squares of matrix
      */
-    public static RealMatrix upper(RealMatrix matrix, int maxSize) {
-
-        RealMatrix upperMatrix = MatrixTools.extractDiagonal(matrix);
-        int n = upperMatrix.getRowDimension();
-
-        // j is column, i is row
+    public static void upper(double[] matrix, int n, double[] uSum, double[] uSign, double[] uSquared) {
+        // i is row, j is column
         for (int i = 0; i < n; i++) {
-            int endPoint = Math.min(i + 1 + maxSize, n - 1);
-            for (int j = i + 1; j <= endPoint; j++) {
-                upperMatrix.setEntry(i, j, matrix.getEntry(i, j) + upperMatrix.getEntry(i, j - 1));
+            int row = i * n;
+            double val = matrix[row + i];
+            double sum = val, signSum = sign(val), squaredSum = val * val;
+            uSum[row + i] = sum;
+            uSign[row + i] = signSum;
+            uSquared[row + i] = squaredSum;
+            for (int j = i + 1; j < n; j++) {
+                val = matrix[row + j];
+                sum = val + sum;
+                signSum = sign(val) + signSum;
+                squaredSum = val * val + squaredSum;
+                uSum[row + j] = sum;
+                uSign[row + j] = signSum;
+                uSquared[row + j] = squaredSum;
             }
         }
-        return upperMatrix;
     }
 
+    private static double sign(double val) {
+        if (val > 0) {
+            return 1;
+        } else if (val < 0) {
+            return -1;
+        }
+        return 0;
+    }
 }
@@ -24,17 +24,21 @@
 
 package juicebox.tools.utils.juicer.arrowhead;
 
-import juicebox.tools.utils.common.MatrixTools;
 import juicebox.tools.utils.juicer.arrowhead.connectedcomponents.BinaryConnectedComponents;
-import org.apache.commons.math.linear.RealMatrix;
 
 import java.awt.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 
 /**
  * Created by muhammadsaadshamim on 6/5/15.
+ * <p/>
+ * All matrices are flat n x n buffers in row major order. The buffers are kept and reused
+ * for the next window (they only grow), so one instance should be used for all the windows of a scan
+ * (not concurrently). The block scores are kept before thresholding, so several thresholds can be
+ * evaluated on the same window.
  */
 class MatrixTriangles {
 
@@ -42,41 +46,32 @@ class MatrixTriangles {
     private boolean blockScoresNotCalculated = true;
     private boolean blockScoresNotThresholded = true;
 
+    private int n = 0;
+    private double[] input;
 
-    private RealMatrix up;
-    private RealMatrix upSign;
-    private RealMatrix upSquared;
-    private RealMatrix lo;
-    private RealMatrix loSign;
-    private RealMatrix loSquared;
+    // dynamic programming lookups
+    private double[] rSum, rSign, rSquared;
+    private double[] uSum, uSign, uSquared;
 
-    private RealMatrix upVar;
-    private RealMatrix loVar;
-    private RealMatrix blockScore;
+    private double[] up, upSign, upVar;
+    private double[] lo, loSign, loVar;
+    private double[] blockScore, thresholdedBlockScore;
 
     /**
      * calculate Bnew, the block score matrix. it's a combination of 3 matrices
      *
-     * @param matrix
+     * @param matrix flattened in row major order; NaNs are set to 0
+     * @param n      width of matrix
      */
-    public MatrixTriangles(RealMatrix matrix) {
-        int n = Math.min(matrix.getRowDimension(), matrix.getColumnDimension());
-        up = MatrixTools.cleanArray2DMatrix(n);
-        upSign = MatrixTools.cleanArray2DMatrix(n);
-        upSquared = MatrixTools.cleanArray2DMatrix(n);
-        lo = MatrixTools.cleanArray2DMatrix(n);
-        loSign = MatrixTools.cleanArray2DMatrix(n);
-        loSquared = MatrixTools.cleanArray2DMatrix(n);
+    public void generateInitialMatrices(double[] matrix, int n) {
+        ensureCapacity(n);
+        this.n = n;
 
-        MatrixTools.setNaNs(matrix, 0);
-
-        //int window= matrix.getRowDimension(); // TODO What? -> "not using this because it messed things up"
-        RealMatrix matrixElementwiseSquared = MatrixTools.elementBasedMultiplication(matrix, matrix);
-        RealMatrix signMatrix = MatrixTools.sign(matrix);
-        RealMatrix onesMatrix = MatrixTools.ones(n);
-
-        //System.out.println("msign "+ matrix.getNorm());
-        //System.out.println("sign " + signMatrix.getNorm());
+        for (int k = 0; k < n * n; k++) {
+            if (Double.isNaN(matrix[k])) {
+                matrix[k] = 0;
+            }
+        }
 
         // Matrices used as dynamic programming lookups.
         // "R" matrices are sums of the columns up to that point: R(1,5) is sum of
@@ -84,57 +79,103 @@ class MatrixTriangles {
         // "U" matrices are sums of the rows up to the point: U(1,5) is sum of row 5
         // from diagonal (col 1) up to col 5
         // We want mean, mean of sign, and variance, so we are doing the sum then
-        // dividing by counts
-        RealMatrix rSum = DynamicProgrammingUtils.right(matrix, n);
-        RealMatrix rSign = DynamicProgrammingUtils.right(signMatrix, n);
-        RealMatrix rSquared = DynamicProgrammingUtils.right(matrixElementwiseSquared, n);
-        RealMatrix rCount = DynamicProgrammingUtils.right(onesMatrix, n);
-
-        RealMatrix uSum = DynamicProgrammingUtils.upper(matrix, n);
-        RealMatrix uSign = DynamicProgrammingUtils.upper(signMatrix, n);
-        RealMatrix uSquared = DynamicProgrammingUtils.upper(matrixElementwiseSquared, n);
-        RealMatrix uCount = DynamicProgrammingUtils.upper(onesMatrix, n);
-
-        RealMatrix upCount = MatrixTools.cleanArray2DMatrix(n);
-        RealMatrix loCount = MatrixTools.cleanArray2DMatrix(n);
+        // dividing by counts (the counts are the number of entries summed, so they are computed directly)
+        DynamicProgrammingUtils.right(matrix, n, rSum, rSign, rSquared);
+        DynamicProgrammingUtils.upper(matrix, n, uSum, uSign, uSquared);
 
         // Upper triangle
         for (int i = 0; i < n; i++) {
+            int row = i * n;
+            for (int j = 0; j <= i; j++) {
+                up[row + j] = 0;
+                upSign[row + j] = 0;
+                upVar[row + j] = 0;
+            }
+            double sum = 0, signSum = 0, squaredSum = 0;
+            long count = 0;
             for (int j = i + 1; j < n; j++) {
-                int bottom = (int) Math.floor((j - i + 1) / 2);
+                int bottom = (j - i + 1) / 2;
+                int index = row + j;
+                int bottomIndex = (i + bottom) * n + j;
                 // add half of column
-                up.setEntry(i, j, up.getEntry(i, j - 1) + rSum.getEntry(i, j) - rSum.getEntry(i + bottom, j));
-                upSign.setEntry(i, j, upSign.getEntry(i, j - 1) + rSign.getEntry(i, j) - rSign.getEntry(i + bottom, j));
-                upSquared.setEntry(i, j, upSquared.getEntry(i, j - 1) + rSquared.getEntry(i, j) - rSquared.getEntry(i + bottom, j));
-                upCount.setEntry(i, j, upCount.getEntry(i, j - 1) + rCount.getEntry(i, j) - rCount.getEntry(i + bottom, j));
+                sum = sum + rSum[index] - rSum[bottomIndex];
+                signSum = signSum + rSign[index] - rSign[bottomIndex];
+                squaredSum = squaredSum + rSquared[index] - rSquared[bottomIndex];
+                count += bottom;
+
+                // normalize
+                double divisor = count == 0 ? 1 : count;
+                double mean = sum / divisor;
+                up[index] = mean;
+                upSign[index] = signSum / divisor;
+                upVar[index] = squaredSum / divisor - mean * mean;
             }
         }
 
-        // Normalize
-        MatrixTools.replaceValue(upCount, 0, 1);
-        up = MatrixTools.elementBasedDivision(up, upCount);
-        upSign = MatrixTools.elementBasedDivision(upSign, upCount);
-        upSquared = MatrixTools.elementBasedDivision(upSquared, upCount);
-
         // Lower triangle
         for (int a = 0; a < n; a++) {
+            int row = a * n;
+            for (int b = 0; b <= a; b++) {
+                lo[row + b] = 0;
+                loSign[row + b] = 0;
+                loVar[row + b] = 0;
+            }
+            double sum = 0, signSum = 0, squaredSum = 0;
+            long count = 0;
             for (int b = a + 1; b < n; b++) {
-                int val = (int) Math.floor((b - a + 1) / 2);
+                int val = (b - a + 1) / 2;
                 int endpt = Math.min(2 * b - a, n - 1);
-                loCount.setEntry(a, b, loCount.getEntry(a, b - 1) + uCount.getEntry(b, endpt) - rCount.getEntry(a + val, b));
-                lo.setEntry(a, b, lo.getEntry(a, b - 1) + uSum.getEntry(b, endpt) - rSum.getEntry(a + val, b));
-                loSign.setEntry(a, b, loSign.getEntry(a, b - 1) + uSign.getEntry(b, endpt) - rSign.getEntry(a + val, b));
-                loSquared.setEntry(a, b, loSquared.getEntry(a, b - 1) + uSquared.getEntry(b, endpt) - rSquared.getEntry(a + val, b));
+                int upperIndex = b * n + endpt;
+                int rightIndex = (a + val) * n + b;
+                count += (endpt - b + 1) - (b - (a + val) + 1);
+                sum = sum + uSum[upperIndex] - rSum[rightIndex];
+                signSum = signSum + uSign[upperIndex] - rSign[rightIndex];
+                squaredSum = squaredSum + uSquared[upperIndex] - rSquared[rightIndex];
+
+                // normalize
+                double divisor = count == 0 ? 1 : count;
+                double mean = sum / divisor;
+                lo[row + b] = mean;
+                loSign[row + b] = signSum / divisor;
+                loVar[row + b] = squaredSum / divisor - mean * mean;
             }
         }
 
-        // Normalize
-        MatrixTools.replaceValue(loCount, 0, 1);
-        lo = MatrixTools.elementBasedDivision(lo, loCount);
-        loSign = MatrixTools.elementBasedDivision(loSign, loCount);
-        loSquared = MatrixTools.elementBasedDivision(loSquared, loCount);
-
         initialMatricesNotGenerated = false;
+        blockScoresNotCalculated = true;
+        blockScoresNotThresholded = true;
+    }
+
+    /**
+     * @return buffer of at least n x n zeros for the input matrix (reused, so not valid after the next call)
+     */
+    public double[] getInputBuffer(int n) {
+        if (input == null || input.length < n * n) {
+            input = new double[n * n];
+        } else {
+            Arrays.fill(input, 0, n * n, 0);
+        }
+        return input;
+    }
+
+    private void ensureCapacity(int n) {
+        int size = n * n;
+        if (up == null || up.length < size) {
+            rSum = new double[size];
+            rSign = new double[size];
+            rSquared = new double[size];
+            uSum = new double[size];
+            uSign = new double[size];
+            uSquared = new double[size];
+            up = new double[size];
+            upSign = new double[size];
+            upVar = new double[size];
+            lo = new double[size];
+            loSign = new double[size];
+            loVar = new double[size];
+            blockScore = new double[size];
+            thresholdedBlockScore = new double[size];
+        }
     }
 
     /**
@@ -146,18 +187,34 @@ class MatrixTriangles {
             System.exit(45);
         }
 
-        upVar = upSquared.subtract(MatrixTools.elementBasedMultiplication(up, up));
-        loVar = loSquared.subtract(MatrixTools.elementBasedMultiplication(lo, lo));
-        RealMatrix diff = MatrixTools.normalizeByMax(lo.subtract(up));
-        RealMatrix diffSign = MatrixTools.normalizeByMax(loSign.subtract(upSign));
-        RealMatrix diffSquared = MatrixTools.normalizeByMax((upVar).add(loVar));
-        blockScore = (diff.add(diffSign)).subtract(diffSquared);
+        // the differences are each normalized by their max (as in MatrixTools.calculateMax)
+        int size = n * n;
+        double maxDiff = lo[0] - up[0];
+        double maxDiffSign = loSign[0] - upSign[0];
+        double maxDiffSquared = upVar[0] + loVar[0];
+        for (int k = 0; k < size; k++) {
+            double diff = lo[k] - up[k];
+            double diffSign = loSign[k] - upSign[k];
+            double diffSquared = upVar[k] + loVar[k];
+            if (maxDiff < diff) maxDiff = diff;
+            if (maxDiffSign < diffSign) maxDiffSign = diffSign;
+            if (maxDiffSquared < diffSquared) maxDiffSquared = diffSquared;
+        }
+
+        double scaleDiff = 1 / maxDiff;
+        double scaleDiffSign = 1 / maxDiffSign;
+        double scaleDiffSquared = 1 / maxDiffSquared;
+        for (int k = 0; k < size; k++) {
+            blockScore[k] = ((lo[k] - up[k]) * scaleDiff + (loSign[k] - upSign[k]) * scaleDiffSign)
+                    - (upVar[k] + loVar[k]) * scaleDiffSquared;
+        }
 
         blockScoresNotCalculated = false;
     }
 
     /**
-     * Use give thresholds to eliminate extremes
+     * Use give thresholds to eliminate extremes, i.e. set them to zero in a copy of the block score matrix
+     * (replacing the previous thresholded copy)
      *
      * @param varThreshold
      * @param signThreshold
@@ -168,48 +225,16 @@ class MatrixTriangles {
             System.exit(46);
         }
 
-        signThresholdInternalValues(blockScore, upSign, loSign, signThreshold);
-
-        if (!Double.isNaN(varThreshold)) {
-            varThresholdInternalValues(blockScore, upVar.add(loVar), varThreshold);
-        }
-        blockScoresNotThresholded = false;
-    }
-
-    /**
-     * Threshold values in block score matrix, set extremes to zero
-     *
-     * @param matrix
-     * @param thresholdSums
-     * @param threshold
-     */
-    private void varThresholdInternalValues(RealMatrix matrix, RealMatrix thresholdSums, double threshold) {
-        for (int i = 0; i < matrix.getRowDimension(); i++) {
-            for (int j = 0; j < matrix.getColumnDimension(); j++) {
-                if (thresholdSums.getEntry(i, j) > threshold) {
-                    matrix.setEntry(i, j, 0);
-                }
-            }
-        }
-    }
-
-    /**
-     * Threshold sign values in block score matrix, set extremes at either end to zero
-     *
-     * @param matrix
-     * @param upSign
-     * @param loSign
-     * @param threshold
-     */
-    private void signThresholdInternalValues(RealMatrix matrix, RealMatrix upSign, RealMatrix loSign, double threshold) {
-        for (int i = 0; i < matrix.getRowDimension(); i++) {
-            for (int j = 0; j < matrix.getColumnDimension(); j++) {
-                //System.out.println(upSign.getEntry(i, j)+" "+loSign.getEntry(i, j)+" "+threshold);
-                if ((-upSign.getEntry(i, j)) < threshold || loSign.getEntry(i, j) < threshold) {
-                    matrix.setEntry(i, j, 0);
-                }
+        boolean useVarThreshold = !Double.isNaN(varThreshold);
+        for (int k = 0; k < n * n; k++) {
+            if ((-upSign[k]) < signThreshold || loSign[k] < signThreshold
+                    || (useVarThreshold && upVar[k] + loVar[k] > varThreshold)) {
+                thresholdedBlockScore[k] = 0;
+            } else {
+                thresholdedBlockScore[k] = blockScore[k];
             }
         }
+        blockScoresNotThresholded = false;
     }
 
     /**
@@ -217,13 +242,13 @@ class MatrixTriangles {
      *
      * @return
      */
-    public ArrowheadScoreList updateScoresUsingList(ArrowheadScoreList scoreList, int limStart, int limEnd) {
+    public ArrowheadScoreList.WindowScores calculateWindowScores(ArrowheadScoreList scoreList, int limStart, int limEnd) {
         if (blockScoresNotCalculated) {
             System.out.println("Block scores not calculated");
             System.exit(47);
         }
 
-        return scoreList.updateActiveIndexScores(blockScore, limStart, limEnd);
+        return scoreList.calculateWindowScores(blockScore, n, limStart, limEnd);
     }
 
     public List<Set<Point>> extractConnectedComponents() {
@@ -232,19 +257,16 @@ class MatrixTriangles {
             System.exit(48);
         }
 
-        //System.out.println("Norm "+blockScore.getNorm());
-
-        return BinaryConnectedComponents.detection(blockScore.getData(), 0);
+        return BinaryConnectedComponents.detection(thresholdedBlockScore, n, n, 0);
     }
 
     public List<HighScore> calculateResults(List<Set<Point>> connectedComponents) {
         /*  for each connected component, get result for highest scoring point  */
         ArrayList<HighScore> results = new ArrayList<>();
         for (Set<Point> connectedComponent : connectedComponents) {
-            Point score = getHighestScoringPoint(blockScore, connectedComponent);
-            int i = score.x, j = score.y;
-            results.add(new HighScore(i, j, blockScore.getEntry(i, j), upVar.getEntry(i, j), loVar.getEntry(i, j),
-                    -upSign.getEntry(i, j), loSign.getEntry(i, j)));
+            Point score = getHighestScoringPoint(connectedComponent);
+            int k = score.x * n + score.y;
+            results.add(new HighScore(score.x, score.y, thresholdedBlockScore[k], upVar[k], loVar[k], -upSign[k], loSign[k]));
         }
         return results;
     }
@@ -252,16 +274,15 @@ class MatrixTriangles {
     /**
      * Find the point within the connected component with the highest block score
      *
-     * @param blockScore
      * @param component
      * @return scorePoint
      */
-    private Point getHighestScoringPoint(RealMatrix blockScore, Set<Point> component) {
+    private Point getHighestScoringPoint(Set<Point> component) {
         Point scorePoint = component.iterator().next();
-        double highestScore = blockScore.getEntry(scorePoint.x, scorePoint.y);
+        double highestScore = thresholdedBlockScore[scorePoint.x * n + scorePoint.y];
 
         for (Point point : component) {
-            double score = blockScore.getEntry(point.x, point.y);
+            double score = thresholdedBlockScore[point.x * n + point.y];
             if (score > highestScore) {
                 highestScore = score;
                 scorePoint = new Point(point);
@@ -270,6 +291,3 @@ class MatrixTriangles {
         return new Point(scorePoint);
     }
 }
-
-
-
@@ -0,0 +1,385 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2020 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.tools.utils.juicer.hiccups;
+
+import juicebox.tools.clt.juicer.HiCCUPS;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * CPU version of the BasicPeakCallingKernel in HiCCUPSKernel.cu
+ * <p/>
+ * Rather than looping over the window around every pixel, the region is summarized once in summed-area tables
+ * (2D prefix sums) of the observed counts and of the distance expected, and every box, donut or cross-hair sum
+ * of the kernel is then a constant-time rectangle query. The masks of the CUDA kernel are kept:
+ * the bottom left and donut sums only use non-NaN pixels above the diagonal, the cross-hairs removed from the
+ * donut only skip NaNs, and the horizontal and vertical sums use every pixel (so a NaN makes them NaN).
+ * Sums are accumulated in double, so values can differ from the GPU in the last float digits.
+ * Boxes reaching past the edge of the region only cover the part inside the region.
+ * <p/>
+ * The region and the outputs are flat row-major buffers. The tables are built and the pixels evaluated in strips
+ * of rows (columns for the vertical pass of the tables) on a fork-join pool; the inner loops that fill the
+ * tables are branch-free elementwise passes so the JIT can vectorize them.
+ */
+class CPUPeakCallingKernel {
+
+    private static final float LOG_NORM = (float) Math.log(Math.pow(2.0, .33));
+    private static final int STRIP_SIZE = 32;
+
+    private final int window;
+    private final int matrixSize;
+    private final int peakWidth;
+    private final ForkJoinPool pool;
+
+    CPUPeakCallingKernel(int window, int matrixSize, int peakWidth) {
+        this(window, matrixSize, peakWidth, ForkJoinPool.commonPool());
+    }
+
+    CPUPeakCallingKernel(int window, int matrixSize, int peakWidth, ForkJoinPool pool) {
+        this.window = window;
+        this.matrixSize = matrixSize;
+        this.peakWidth = peakWidth;
+        this.pool = pool;
+    }
+
+    /**
+     * @param c    observed (normalized) region, matrixSize x matrixSize
+     * @param d    distance expected vector
+     * @param diff row start - column start of the region (in bins)
+     * @return outputs for rows [x1, x2) and columns [y1, y2) of the region
+     */
+    GPUOutputContainer run(double[][] c, float[] d, float[] kr1, float[] kr2, int diff,
+                           float[] thresholdBL, float[] thresholdDonut, float[] thresholdH, float[] thresholdV,
+                           int x1, int x2, int y1, int y2) {
+        float[] region = new float[matrixSize * matrixSize];
+        for (int i = 0; i < matrixSize; i++) {
+            int offset = i * matrixSize;
+            for (int j = 0; j < matrixSize; j++) {
+                region[offset + j] = (float) c[i][j];
+            }
+        }
+        return run(region, d, kr1, kr2, diff, thresholdBL, thresholdDonut, thresholdH, thresholdV, x1, x2, y1, y2);
+    }
+
+    /**
+     * @param region observed (normalized) region, matrixSize x matrixSize in row-major order
+     */
+    GPUOutputContainer run(float[] region, float[] d, float[] kr1, float[] kr2, int diff,
+                           float[] thresholdBL, float[] thresholdDonut, float[] thresholdH, float[] thresholdV,
+                           int x1, int x2, int y1, int y2) {
+
+        final SummedAreaTables tables = new SummedAreaTables(matrixSize);
+        pool.invoke(new StripTask(0, matrixSize, (start, end) -> tables.fillRows(region, d, diff, start, end)));
+        pool.invoke(new StripTask(1, tables.stride, tables::accumulateColumns));
+
+        final Outputs outputs = new Outputs(x2 - x1, y2 - y1);
+        final int bufferWidth = HiCCUPS.regionMargin;
+        final int maxIndex = matrixSize - bufferWidth;
+        int rowStart = Math.max(x1, bufferWidth);
+        int rowEnd = Math.max(rowStart, Math.min(x2, maxIndex));
+        int columnStart = Math.max(y1, bufferWidth);
+        int columnEnd = Math.min(y2, maxIndex);
+
+        pool.invoke(new StripTask(rowStart, rowEnd, (start, end) -> {
+            for (int t_row = start; t_row < end; t_row++) {
+                for (int t_col = columnStart; t_col < columnEnd; t_col++) {
+                    evaluatePixel(tables, outputs, region, d, kr1, kr2, diff,
+                            thresholdBL, thresholdDonut, thresholdH, thresholdV,
+                            t_row, t_col, (t_row - x1) * outputs.numColumns + t_col - y1);
+                }
+            }
+        }));
+
+        return outputs.toContainer();
+    }
+
+    private void evaluatePixel(SummedAreaTables tables, Outputs outputs, float[] region, float[] d,
+                               float[] kr1, float[] kr2, int diff,
+                               float[] thresholdBL, float[] thresholdDonut, float[] thresholdH, float[] thresholdV,
+                               int t_row, int t_col, int index) {
+
+        final int bufferWidth = HiCCUPS.regionMargin;
+        final int stride = tables.stride;
+        final double[] upperObserved = tables.upperObserved;
+        final double[] upperExpected = tables.upperExpected;
+        final double[] observed = tables.observed;
+        final double[] observedExpected = tables.observedExpected;
+        final double[] nanCount = tables.nanCount;
+        final double[] allExpected = tables.allExpected;
+
+        int diagDist = Math.abs(t_row + diff - t_col);
+        int wsize = Math.min(window, (diagDist - 1) / 2);
+        if (wsize <= peakWidth) {
+            wsize = peakWidth + 1;
+        }
+        wsize = Math.min(wsize, bufferWidth);
+
+        // bottom left box, minus the peak
+        double peakBL = rectangleSum(upperObserved, stride, t_row + 1, t_row + peakWidth, t_col - peakWidth, t_col - 1);
+        double peakBLDist = rectangleSum(upperExpected, stride, t_row + 1, t_row + peakWidth, t_col - peakWidth, t_col - 1);
+        float evalueBL = (float) (rectangleSum(upperObserved, stride, t_row + 1, t_row + wsize, t_col - wsize, t_col - 1) - peakBL);
+        float edistBL = (float) (rectangleSum(upperExpected, stride, t_row + 1, t_row + wsize, t_col - wsize, t_col - 1) - peakBLDist);
+
+        // fix box dimensions
+        while (evalueBL < 16) {
+            wsize += 1;
+            evalueBL = (float) (rectangleSum(upperObserved, stride, t_row + 1, t_row + wsize, t_col - wsize, t_col - 1) - peakBL);
+            edistBL = (float) (rectangleSum(upperExpected, stride, t_row + 1, t_row + wsize, t_col - wsize, t_col - 1) - peakBLDist);
+            if (wsize >= bufferWidth) {
+                break;
+            }
+            if (2 * wsize >= diagDist) {
+                break;
+            }
+        }
+
+        // donut: square minus the peak, minus the cross hairs
+        double donut = rectangleSum(upperObserved, stride, t_row - wsize, t_row + wsize, t_col - wsize, t_col + wsize)
+                - rectangleSum(upperObserved, stride, t_row - peakWidth, t_row + peakWidth, t_col - peakWidth, t_col + peakWidth)
+                - rectangleSum(observed, stride, t_row - wsize, t_row - peakWidth - 1, t_col, t_col)
+                - rectangleSum(observed, stride, t_row + peakWidth + 1, t_row + wsize, t_col, t_col)
+                - rectangleSum(observed, stride, t_row, t_row, t_col - wsize, t_col - peakWidth - 1)
+                - rectangleSum(observed, stride, t_row, t_row, t_col + peakWidth + 1, t_col + wsize);
+        double donutDist = rectangleSum(upperExpected, stride, t_row - wsize, t_row + wsize, t_col - wsize, t_col + wsize)
+                - rectangleSum(upperExpected, stride, t_row - peakWidth, t_row + peakWidth, t_col - peakWidth, t_col + peakWidth)
+                - rectangleSum(observedExpected, stride, t_row - wsize, t_row - peakWidth - 1, t_col, t_col)
+                - rectangleSum(observedExpected, stride, t_row + peakWidth + 1, t_row + wsize, t_col, t_col)
+                - rectangleSum(observedExpected, stride, t_row, t_row, t_col - wsize, t_col - peakWidth - 1)
+                - rectangleSum(observedExpected, stride, t_row, t_row, t_col + peakWidth + 1, t_col + wsize);
+
+        // vertical: three columns above and below the peak
+        double vertical = rectangleSum(observed, stride, t_row - wsize, t_row - peakWidth - 1, t_col - 1, t_col + 1)
+                + rectangleSum(observed, stride, t_row + peakWidth + 1, t_row + wsize, t_col - 1, t_col + 1);
+        double verticalNaNs = rectangleSum(nanCount, stride, t_row - wsize, t_row - peakWidth - 1, t_col - 1, t_col + 1)
+                + rectangleSum(nanCount, stride, t_row + peakWidth + 1, t_row + wsize, t_col - 1, t_col + 1);
+        double verticalDist = rectangleSum(allExpected, stride, t_row - wsize, t_row - peakWidth - 1, t_col - 1, t_col + 1)
+                + rectangleSum(allExpected, stride, t_row + peakWidth + 1, t_row + wsize, t_col - 1, t_col + 1);
+
+        // horizontal: three rows left and right of the peak
+        double horizontal = rectangleSum(observed, stride, t_row - 1, t_row + 1, t_col - wsize, t_col - peakWidth - 1)
+                + rectangleSum(observed, stride, t_row - 1, t_row + 1, t_col + peakWidth + 1, t_col + wsize);
+        double horizontalNaNs = rectangleSum(nanCount, stride, t_row - 1, t_row + 1, t_col - wsize, t_col - peakWidth - 1)
+                + rectangleSum(nanCount, stride, t_row - 1, t_row + 1, t_col + peakWidth + 1, t_col + wsize);
+        double horizontalDist = rectangleSum(allExpected, stride, t_row - 1, t_row + 1, t_col - wsize, t_col - peakWidth - 1)
+                + rectangleSum(allExpected, stride, t_row - 1, t_row + 1, t_col + peakWidth + 1, t_col + wsize);
+
+        float evalueDonut = (float) donut;
+        float edistDonut = (float) donutDist;
+        float evalueV = verticalNaNs > 0 ? Float.NaN : (float) vertical;
+        float edistV = (float) verticalDist;
+        float evalueH = horizontalNaNs > 0 ? Float.NaN : (float) horizontal;
+        float edistH = (float) horizontalDist;
+
+        float e_bl = ((evalueBL * d[diagDist]) / edistBL) * kr1[t_row] * kr2[t_col];
+        float e_donut = ((evalueDonut * d[diagDist]) / edistDonut) * kr1[t_row] * kr2[t_col];
+        float e_h = ((evalueH * d[diagDist]) / edistH) * kr1[t_row] * kr2[t_col];
+        float e_v = ((evalueV * d[diagDist]) / edistV) * kr1[t_row] * kr2[t_col];
+
+        float bvalue_bl = getBin(e_bl);
+        float bvalue_donut = getBin(e_donut);
+        float bvalue_h = getBin(e_h);
+        float bvalue_v = getBin(e_v);
+
+        float o = Math.round(region[t_row * matrixSize + t_col] * kr1[t_row] * kr2[t_col]);
+        outputs.expectedBL[index] = e_bl;
+        outputs.expectedDonut[index] = e_donut;
+        outputs.expectedH[index] = e_h;
+        outputs.expectedV[index] = e_v;
+        outputs.observed[index] = o;
+        outputs.binBL[index] = bvalue_bl;
+        outputs.binDonut[index] = bvalue_donut;
+        outputs.binH[index] = bvalue_h;
+        outputs.binV[index] = bvalue_v;
+
+        float sbtrkt = Math.max(thresholdBL[(int) bvalue_bl], thresholdDonut[(int) bvalue_donut]);
+        sbtrkt = Math.max(sbtrkt, thresholdH[(int) bvalue_h]);
+        sbtrkt = Math.max(sbtrkt, thresholdV[(int) bvalue_v]);
+        outputs.peak[index] = o - sbtrkt;
+    }
+
+    private static float getBin(float expected) {
+        float bvalue = 0;
+        if (!Float.isNaN(expected) && !Float.isInfinite(expected) && expected > 1) {
+            bvalue = (float) Math.floor(Math.log(expected) / LOG_NORM);
+        }
+        return Math.min(bvalue, HiCCUPS.w1 - 1);
+    }
+
+    /**
+     * Sum over rows [r1, r2] and columns [c1, c2] (inclusive), clipped to the table
+     */
+    private static double rectangleSum(double[] table, int stride, int r1, int r2, int c1, int c2) {
+        int n = stride - 1;
+        r1 = Math.max(r1, 0);
+        c1 = Math.max(c1, 0);
+        r2 = Math.min(r2, n - 1);
+        c2 = Math.min(c2, n - 1);
+        if (r1 > r2 || c1 > c2) return 0;
+        return table[(r2 + 1) * stride + c2 + 1] - table[r1 * stride + c2 + 1]
+                - table[(r2 + 1) * stride + c1] + table[r1 * stride + c1];
+    }
+
+    /**
+     * Flat (n+1) x (n+1) tables; entry (i+1, j+1) holds the sum over rows <= i and columns <= j
+     */
+    private static class SummedAreaTables {
+        private final int n;
+        private final int stride;
+        private final double[] upperObserved;   // non-NaN and above the diagonal
+        private final double[] upperExpected;
+        private final double[] observed;        // non-NaN
+        private final double[] observedExpected;
+        private final double[] nanCount;
+        private final double[] allExpected;     // every pixel
+
+        SummedAreaTables(int n) {
+            this.n = n;
+            stride = n + 1;
+            upperObserved = new double[stride * stride];
+            upperExpected = new double[stride * stride];
+            observed = new double[stride * stride];
+            observedExpected = new double[stride * stride];
+            nanCount = new double[stride * stride];
+            allExpected = new double[stride * stride];
+        }
+
+        /**
+         * masked values of rows [start, end), then prefix sums along each of those rows
+         */
+        void fillRows(float[] region, float[] d, int diff, int start, int end) {
+            for (int i = start; i < end; i++) {
+                int in = i * n;
+                int out = (i + 1) * stride + 1;
+                int firstUpper = Math.max(0, Math.min(n, i + diff + 1)); // columns j > i + diff are above the diagonal
+                for (int j = 0; j < n; j++) {
+                    float value = region[in + j];
+                    int dist = Math.abs(i + diff - j);
+                    double expected = dist < d.length ? d[dist] : 0; // padding past the chromosome end
+                    boolean valid = value == value;
+                    observed[out + j] = valid ? value : 0;
+                    observedExpected[out + j] = valid ? expected : 0;
+                    nanCount[out + j] = valid ? 0 : 1;
+                    allExpected[out + j] = expected;
+                }
+                for (int j = firstUpper; j < n; j++) {
+                    upperObserved[out + j] = observed[out + j];
+                    upperExpected[out + j] = observedExpected[out + j];
+                }
+                for (int j = 1; j < n; j++) {
+                    upperObserved[out + j] += upperObserved[out + j - 1];
+                    upperExpected[out + j] += upperExpected[out + j - 1];
+                    observed[out + j] += observed[out + j - 1];
+                    observedExpected[out + j] += observedExpected[out + j - 1];
+                    nanCount[out + j] += nanCount[out + j - 1];
+                    allExpected[out + j] += allExpected[out + j - 1];
+                }
+            }
+        }
+
+        /**
+         * prefix sums down columns [start, end); each row adds the row above it, which vectorizes across columns
+         */
+        void accumulateColumns(int start, int end) {
+            for (int i = 2; i <= n; i++) {
+                int curr = i * stride;
+                int prev = curr - stride;
+                for (int j = start; j < end; j++) {
+                    upperObserved[curr + j] += upperObserved[prev + j];
+                    upperExpected[curr + j] += upperExpected[prev + j];
+                    observed[curr + j] += observed[prev + j];
+                    observedExpected[curr + j] += observedExpected[prev + j];
+                    nanCount[curr + j] += nanCount[prev + j];
+                    allExpected[curr + j] += allExpected[prev + j];
+                }
+            }
+        }
+    }
+
+    private static class Outputs {
+        private final int numRows, numColumns;
+        private final float[] observed, peak, binBL, binDonut, binH, binV;
+        private final float[] expectedBL, expectedDonut, expectedH, expectedV;
+
+        Outputs(int numRows, int numColumns) {
+            this.numRows = numRows;
+            this.numColumns = numColumns;
+            int size = numRows * numColumns;
+            observed = new float[size];
+            peak = new float[size];
+            binBL = new float[size];
+            binDonut = new float[size];
+            binH = new float[size];
+            binV = new float[size];
+            expectedBL = new float[size];
+            expectedDonut = new float[size];
+            expectedH = new float[size];
+            expectedV = new float[size];
+        }
+
+        GPUOutputContainer toContainer() {
+            return new GPUOutputContainer(toMatrix(observed), toMatrix(peak),
+                    toMatrix(binBL), toMatrix(binDonut), toMatrix(binH), toMatrix(binV),
+                    toMatrix(expectedBL), toMatrix(expectedDonut), toMatrix(expectedH), toMatrix(expectedV));
+        }
+
+        private float[][] toMatrix(float[] flat) {
+            float[][] matrix = new float[numRows][numColumns];
+            for (int i = 0; i < numRows; i++) {
+                System.arraycopy(flat, i * numColumns, matrix[i], 0, numColumns);
+            }
+            return matrix;
+        }
+    }
+
+    private interface StripOperation {
+        void apply(int start, int end);
+    }
+
+    /**
+     * Splits [start, end) in halves until the pieces are at most STRIP_SIZE long
+     */
+    private static class StripTask extends RecursiveAction {
+        private static final long serialVersionUID = 3482713395046321734L;
+        private final int start, end;
+        private final StripOperation operation;
+
+        StripTask(int start, int end, StripOperation operation) {
+            this.start = start;
+            this.end = end;
+            this.operation = operation;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= STRIP_SIZE) {
+                operation.apply(start, end);
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new StripTask(start, middle, operation), new StripTask(middle, end, operation));
+            }
+        }
+    }
+}
@@ -45,6 +45,7 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 import static jcuda.driver.JCudaDriver.cuMemcpyDtoH;
 
@@ -53,12 +54,21 @@ public class GPUController {
     private static final int blockSize = 16;  //number of threads in block
 
     private final KernelLauncher kernelLauncher;
+    private final CPUPeakCallingKernel cpuKernel;
     private final boolean useCPUVersionHiCCUPS;
     private final int windowCPU;
     private final int matrixSizeCPU;
     private final int peakWidthCPU;
 
     public GPUController(int window, int matrixSize, int peakWidth, boolean useCPUVersionHiCCUPS) {
+        this(window, matrixSize, peakWidth, useCPUVersionHiCCUPS, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param cpuKernelPool pool on which the CPU version splits each region into strips
+     */
+    public GPUController(int window, int matrixSize, int peakWidth, boolean useCPUVersionHiCCUPS,
+                         ForkJoinPool cpuKernelPool) {
 
         windowCPU = window;
         matrixSizeCPU = matrixSize;
@@ -67,7 +77,9 @@ public class GPUController {
 
         if (useCPUVersionHiCCUPS) {
             kernelLauncher = null;
+            cpuKernel = new CPUPeakCallingKernel(window, matrixSize, peakWidth, cpuKernelPool);
         } else {
+            cpuKernel = null;
             String kernelCode = readCuFile("HiCCUPSKernel.cu", window, matrixSize, peakWidth);
             kernelLauncher = KernelLauncher.compile(kernelCode, "BasicPeakCallingKernel");
             //KernelLauncher.create()
@@ -138,9 +150,11 @@ public class GPUController {
         boundColumnIndex[0] = columnBounds[0];
 
         if (useCPUVersionHiCCUPS) {
-            return runCPUVersion(localizedRegionData.getData(), distanceExpectedKRVector, kr1CPU, kr2CPU,
-                    boundRowIndex, boundColumnIndex, thresholdBL, thresholdDonut, thresholdH, thresholdV,
-                    rowBounds, columnBounds);
+            int x1 = rowBounds[2];
+            int y1 = columnBounds[2];
+            return cpuKernel.run(localizedRegionData.getData(), distanceExpectedKRVector, kr1CPU, kr2CPU,
+                    rowBounds[0] - columnBounds[0], thresholdBL, thresholdDonut, thresholdH, thresholdV,
+                    x1, x1 + rowBounds[5] - rowBounds[4], y1, y1 + columnBounds[5] - columnBounds[4]);
         }
 
         // transfer host (CPU) memory to device (GPU) memory
@@ -249,14 +263,14 @@ public class GPUController {
 
     /**
      * just a direct implementation from the CUDA kernel
-     * todo clean up and optimize after debugging and testing
+     * kept as the reference for CPUPeakCallingKernel, which computes the same sums with summed-area tables
      */
-    private GPUOutputContainer runCPUVersion(double[][] c, float[] d,
-                                             float[] kr1, float[] kr2,
-                                             float[] bound1, float[] bound3,
-                                             float[] thresholdBL, float[] thresholdDonut,
-                                             float[] thresholdH, float[] thresholdV,
-                                             int[] rowBounds, int[] columnBounds) {
+    GPUOutputContainer runCPUVersion(double[][] c, float[] d,
+                                     float[] kr1, float[] kr2,
+                                     float[] bound1, float[] bound3,
+                                     float[] thresholdBL, float[] thresholdDonut,
+                                     float[] thresholdH, float[] thresholdV,
+                                     int[] rowBounds, int[] columnBounds) {
 
         float[][] observedDenseCPU = new float[matrixSizeCPU][matrixSizeCPU];
         float[][] peakDenseCPU = new float[matrixSizeCPU][matrixSizeCPU];
@@ -29,6 +29,7 @@ import juicebox.tools.utils.common.ArrayTools;
 import juicebox.track.feature.Feature2D;
 import juicebox.track.feature.Feature2DList;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
 /**
@@ -69,6 +70,91 @@ public class GPUOutputContainer {
         this.expectedV = ArrayTools.deepCopy(expectedV);
     }
 
+    private GPUOutputContainer(int numRows, int numColumns) {
+        this.numRows = numRows;
+        this.numColumns = numColumns;
+        observed = new float[numRows][numColumns];
+        peak = new float[numRows][numColumns];
+        binBL = new float[numRows][numColumns];
+        binDonut = new float[numRows][numColumns];
+        binH = new float[numRows][numColumns];
+        binV = new float[numRows][numColumns];
+        expectedBL = new float[numRows][numColumns];
+        expectedDonut = new float[numRows][numColumns];
+        expectedH = new float[numRows][numColumns];
+        expectedV = new float[numRows][numColumns];
+    }
+
+    /**
+     * Size of the compact form written by writeTo: observed and expected values as floats, bins as bytes.
+     * The peak values are not stored since they depend on the thresholds.
+     */
+    public int getCompactSize() {
+        return 8 + numRows * numColumns * (5 * 4 + 4);
+    }
+
+    /**
+     * Write the outputs (before any clean up) in compact form
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(numRows);
+        buffer.putInt(numColumns);
+        for (float[][] matrix : new float[][][]{observed, expectedBL, expectedDonut, expectedH, expectedV}) {
+            for (float[] row : matrix) {
+                for (float val : row) {
+                    buffer.putFloat(val);
+                }
+            }
+        }
+        for (float[][] matrix : new float[][][]{binBL, binDonut, binH, binV}) {
+            for (float[] row : matrix) {
+                for (float val : row) {
+                    buffer.put(Float.isNaN(val) ? -1 : (byte) val);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read outputs written by writeTo; the peak values are recalculated from the given thresholds
+     * the same way as in the kernel
+     */
+    public static GPUOutputContainer readFrom(ByteBuffer buffer, float[] thresholdBL, float[] thresholdDonut,
+                                              float[] thresholdH, float[] thresholdV) {
+        GPUOutputContainer container = new GPUOutputContainer(buffer.getInt(), buffer.getInt());
+        for (float[][] matrix : new float[][][]{container.observed, container.expectedBL, container.expectedDonut,
+                container.expectedH, container.expectedV}) {
+            for (float[] row : matrix) {
+                for (int j = 0; j < row.length; j++) {
+                    row[j] = buffer.getFloat();
+                }
+            }
+        }
+        for (float[][] matrix : new float[][][]{container.binBL, container.binDonut, container.binH, container.binV}) {
+            for (float[] row : matrix) {
+                for (int j = 0; j < row.length; j++) {
+                    byte val = buffer.get();
+                    row[j] = val < 0 ? Float.NaN : val;
+                }
+            }
+        }
+
+        for (int i = 0; i < container.numRows; i++) {
+            for (int j = 0; j < container.numColumns; j++) {
+                float sbtrkt = Math.max(getThreshold(thresholdBL, container.binBL[i][j]),
+                        getThreshold(thresholdDonut, container.binDonut[i][j]));
+                sbtrkt = Math.max(sbtrkt, getThreshold(thresholdH, container.binH[i][j]));
+                sbtrkt = Math.max(sbtrkt, getThreshold(thresholdV, container.binV[i][j]));
+                container.peak[i][j] = container.observed[i][j] - sbtrkt;
+            }
+        }
+        return container;
+    }
+
+    private static float getThreshold(float[] thresholds, float bin) {
+        return Float.isNaN(bin) ? Float.NaN : thresholds[(int) bin];
+    }
+
     /**
      * Ensure NaN entries are uniform across the various arrays
      */
@@ -0,0 +1,163 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2020 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+
+package juicebox.tools.utils.juicer.hiccups;
+
+import juicebox.HiCGlobals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the outputs of the first HiCCUPS pass for every region, so the second pass only has to apply the
+ * thresholds instead of extracting the region and running the kernel again.
+ * <p/>
+ * Outputs are stored in compact form (see GPUOutputContainer.writeTo). They are kept in memory up to the budget;
+ * beyond that they are appended to a scratch file, which is memory mapped when read back.
+ * Regions which are missing (e.g. no data) return null, and are processed again.
+ */
+public class HiCCUPSRegionOutputCache {
+
+    private final long memoryBudget;
+    private final File scratchDirectory;
+    private final AtomicLong memoryUsed = new AtomicLong(0);
+    private final Map<Integer, ByteBuffer> inMemory = new ConcurrentHashMap<>();
+    private final Map<Integer, long[]> onDisk = new ConcurrentHashMap<>(); // offset, length
+    private File scratchFile = null;
+    private RandomAccessFile scratch = null;
+    private long scratchLength = 0;
+
+    /**
+     * @param memoryBudget     bytes of outputs to keep on the heap
+     * @param scratchDirectory where to put the scratch file (null for the default temp directory)
+     */
+    public HiCCUPSRegionOutputCache(long memoryBudget, File scratchDirectory) {
+        this.memoryBudget = memoryBudget;
+        this.scratchDirectory = scratchDirectory;
+    }
+
+    /**
+     * Budget of a quarter of the heap which is not in use
+     */
+    public static long getDefaultMemoryBudget() {
+        Runtime runtime = Runtime.getRuntime();
+        long available = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        return Math.max(available / 4, 0);
+    }
+
+    public void put(int regionIndex, GPUOutputContainer outputs) {
+        int size = outputs.getCompactSize();
+        if (memoryUsed.addAndGet(size) <= memoryBudget) {
+            ByteBuffer buffer = ByteBuffer.allocate(size);
+            outputs.writeTo(buffer);
+            buffer.flip();
+            inMemory.put(regionIndex, buffer);
+            return;
+        }
+        memoryUsed.addAndGet(-size);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        outputs.writeTo(buffer);
+        buffer.flip();
+        try {
+            onDisk.put(regionIndex, new long[]{writeToScratch(buffer), size});
+        } catch (IOException e) {
+            System.err.println("Unable to cache HiCCUPS region " + regionIndex + "; it will be processed again: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return outputs of the region with peaks for the given thresholds, or null if the region was not cached
+     */
+    public GPUOutputContainer get(int regionIndex, float[] thresholdBL, float[] thresholdDonut,
+                                  float[] thresholdH, float[] thresholdV) {
+        ByteBuffer buffer = inMemory.get(regionIndex);
+        if (buffer != null) {
+            return GPUOutputContainer.readFrom(buffer.duplicate(), thresholdBL, thresholdDonut, thresholdH, thresholdV);
+        }
+
+        long[] location = onDisk.get(regionIndex);
+        if (location != null) {
+            try {
+                ByteBuffer mapped = mapFromScratch(location[0], (int) location[1]);
+                return GPUOutputContainer.readFrom(mapped, thresholdBL, thresholdDonut, thresholdH, thresholdV);
+            } catch (IOException e) {
+                System.err.println("Unable to read cached HiCCUPS region " + regionIndex + "; it will be processed again: " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    private synchronized long writeToScratch(ByteBuffer buffer) throws IOException {
+        if (scratch == null) {
+            scratchFile = scratchDirectory == null ? File.createTempFile("hiccups_regions", ".bin")
+                    : File.createTempFile("hiccups_regions", ".bin", scratchDirectory);
+            scratchFile.deleteOnExit();
+            scratch = new RandomAccessFile(scratchFile, "rw");
+            if (HiCGlobals.printVerboseComments) {
+                System.out.println("HiCCUPS region outputs exceed " + memoryBudget + " bytes; using " + scratchFile.getAbsolutePath());
+            }
+        }
+        long offset = scratchLength;
+        FileChannel channel = scratch.getChannel();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, scratchLength);
+            scratchLength = offset + buffer.position();
+        }
+        return offset;
+    }
+
+    private synchronized ByteBuffer mapFromScratch(long offset, int length) throws IOException {
+        return scratch.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, length);
+    }
+
+    /**
+     * Release the cached outputs and delete the scratch file
+     */
+    public synchronized void close() {
+        inMemory.clear();
+        onDisk.clear();
+        memoryUsed.set(0);
+        if (scratch != null) {
+            try {
+                scratch.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            if (!scratchFile.delete()) {
+                System.err.println("Unable to delete " + scratchFile.getAbsolutePath());
+            }
+            scratch = null;
+            scratchFile = null;
+            scratchLength = 0;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2020 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.tools.utils.norm;
+
+import juicebox.data.ContactRecord;
+import juicebox.data.basics.ListOfDoubleArrays;
+import juicebox.data.basics.ListOfFloatArrays;
+import juicebox.tools.utils.common.TaskRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Splits the record lists of a sparse matrix into contiguous partitions with similar numbers of records,
+ * so the sparse matrix-vector products used by the balancing algorithms (KR, SCALE) can be run in parallel.
+ * The partial products are always summed in partition order, so the result does not depend on thread timing.
+ * With a single partition the multiply function is just applied to the original lists.
+ */
+public class ContactRecordPartitions {
+
+    private final List<List<List<ContactRecord>>> partitions = new ArrayList<>();
+    private final int numThreads;
+
+    public ContactRecordPartitions(List<List<ContactRecord>> listOfLists, int numThreads) {
+        this.numThreads = numThreads;
+        long totalRecords = 0;
+        for (List<ContactRecord> records : listOfLists) {
+            totalRecords += records.size();
+        }
+
+        if (numThreads < 2 || listOfLists.size() < 2) {
+            partitions.add(listOfLists);
+            return;
+        }
+
+        long recordsPerPartition = totalRecords / numThreads + 1;
+        List<List<ContactRecord>> currentPartition = new ArrayList<>();
+        long currentCount = 0;
+        for (List<ContactRecord> records : listOfLists) {
+            currentPartition.add(records);
+            currentCount += records.size();
+            if (currentCount >= recordsPerPartition) {
+                partitions.add(currentPartition);
+                currentPartition = new ArrayList<>();
+                currentCount = 0;
+            }
+        }
+        if (currentPartition.size() > 0) {
+            partitions.add(currentPartition);
+        }
+    }
+
+    public int getNumPartitions() {
+        return partitions.size();
+    }
+
+    public ListOfFloatArrays sumFloatProducts(Function<List<List<ContactRecord>>, ListOfFloatArrays> multiply) {
+        List<ListOfFloatArrays> partialProducts = mapPartitions(multiply);
+        ListOfFloatArrays result = partialProducts.get(0);
+        for (int i = 1; i < partialProducts.size(); i++) {
+            result.addValuesFrom(partialProducts.get(i));
+        }
+        return result;
+    }
+
+    public ListOfDoubleArrays sumDoubleProducts(Function<List<List<ContactRecord>>, ListOfDoubleArrays> multiply) {
+        List<ListOfDoubleArrays> partialProducts = mapPartitions(multiply);
+        ListOfDoubleArrays result = partialProducts.get(0);
+        for (int i = 1; i < partialProducts.size(); i++) {
+            result.addValuesFrom(partialProducts.get(i));
+        }
+        return result;
+    }
+
+    private <T> List<T> mapPartitions(Function<List<List<ContactRecord>>, T> multiply) {
+        if (partitions.size() == 1) {
+            List<T> result = new ArrayList<>(1);
+            result.add(multiply.apply(partitions.get(0)));
+            return result;
+        }
+        // results are in partition order, so the summation order is fixed
+        return TaskRunner.getShared(numThreads).map(partitions, multiply);
+    }
+}
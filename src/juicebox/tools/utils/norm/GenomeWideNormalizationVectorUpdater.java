@@ -30,6 +30,7 @@ import juicebox.data.*;
 import juicebox.data.basics.Chromosome;
 import juicebox.data.basics.ListOfDoubleArrays;
 import juicebox.data.basics.ListOfFloatArrays;
+import juicebox.tools.utils.common.TaskRunner;
 import juicebox.tools.utils.original.ExpectedValueCalculation;
 import juicebox.windowui.HiCZoom;
 import juicebox.windowui.NormalizationHandler;
@@ -39,9 +40,24 @@ import org.broad.igv.util.Pair;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
 
 public class GenomeWideNormalizationVectorUpdater extends NormVectorUpdater {
+
+    // approximate heap use per contact record while a genome-wide matrix is assembled: the record cached
+    // in its MatrixZoomData plus the shifted whole-genome copy, each with its list reference
+    private static final long BYTES_PER_RECORD = 64;
+
     public static void addGWNorm(String path, int genomeWideResolution) throws IOException {
+        addGWNorm(path, genomeWideResolution, 1);
+    }
+
+    /**
+     * @param numThreads threads used to assemble the genome-wide matrices and for the balancing multiplies;
+     *                   independent resolutions are also computed concurrently as far as memory allows
+     */
+    public static void addGWNorm(String path, int genomeWideResolution, int numThreads) throws IOException {
         DatasetReaderV2 reader = new DatasetReaderV2(path);
         Dataset ds = reader.read();
         HiCGlobals.verifySupportedHiCFileVersion(reader.getVersion());
@@ -61,25 +77,31 @@ public class GenomeWideNormalizationVectorUpdater extends NormVectorUpdater {
             }
         }
 
+        List<HiCZoom> genomeWideResolutions = new ArrayList<>();
+        for (HiCZoom zoom : resolutions) {
+            if (genomeWideResolution >= 10000 && zoom.getUnit() == HiC.Unit.BP && zoom.getBinSize() >= genomeWideResolution) {
+                genomeWideResolutions.add(zoom);
+            }
+        }
+        Map<HiCZoom, Map<NormalizationType, Pair<Map<Chromosome, NormalizationVector>, ExpectedValueCalculation>>> gwVectorsAtZoom =
+                getWGVectorsForResolutions(ds, genomeWideResolutions, Arrays.asList(NormalizationHandler.getAllGWNormTypes(false)), numThreads);
+
         // Loop through resolutions
         for (HiCZoom zoom : resolutions) {
 
-            // compute genome-wide normalization
-            // TODO make this dependent on memory, do as much as possible
-            if (genomeWideResolution >= 10000 && zoom.getUnit() == HiC.Unit.BP && zoom.getBinSize() >= genomeWideResolution) {
-                for (NormalizationType normType : NormalizationHandler.getAllGWNormTypes(false)) {
-
-                    Pair<Map<Chromosome, NormalizationVector>, ExpectedValueCalculation> wgVectors = getWGVectors(ds, zoom, normType);
-
-                    if (wgVectors != null) {
-                        Map<Chromosome, NormalizationVector> nvMap = wgVectors.getFirst();
-                        for (Chromosome chromosome : nvMap.keySet()) {
-                            updateNormVectorIndexWithVector(normVectorIndex, normVectorBuffers, nvMap.get(chromosome).getData().convertToFloats(), chromosome.getIndex(), normType, zoom);
-                        }
-                        ExpectedValueCalculation calculation = wgVectors.getSecond();
-                        String key = ExpectedValueFunctionImpl.getKey(zoom, normType);
-                        expectedValueFunctionMap.put(key, calculation.getExpectedValueFunction());
+            // genome-wide normalization, already computed above
+            if (gwVectorsAtZoom.containsKey(zoom)) {
+                for (Map.Entry<NormalizationType, Pair<Map<Chromosome, NormalizationVector>, ExpectedValueCalculation>> entry : gwVectorsAtZoom.get(zoom).entrySet()) {
+                    NormalizationType normType = entry.getKey();
+                    Pair<Map<Chromosome, NormalizationVector>, ExpectedValueCalculation> wgVectors = entry.getValue();
+
+                    Map<Chromosome, NormalizationVector> nvMap = wgVectors.getFirst();
+                    for (Chromosome chromosome : nvMap.keySet()) {
+                        updateNormVectorIndexWithVector(normVectorIndex, normVectorBuffers, nvMap.get(chromosome).getData().convertToFloats(), chromosome.getIndex(), normType, zoom);
                     }
+                    ExpectedValueCalculation calculation = wgVectors.getSecond();
+                    String key = ExpectedValueFunctionImpl.getKey(zoom, normType);
+                    expectedValueFunctionMap.put(key, calculation.getExpectedValueFunction());
                 }
             }
             System.out.println();
@@ -107,38 +129,188 @@ public class GenomeWideNormalizationVectorUpdater extends NormVectorUpdater {
 
         int version = reader.getVersion();
         long filePosition = reader.getNormFilePosition();
+        long nviHeaderPosition = reader.getNviHeaderPosition();
         reader.close();
         System.out.println();
-        NormalizationVectorUpdater.update(path, version, filePosition, expectedValueFunctionMap, normVectorIndex,
+        NormalizationVectorUpdater.update(path, version, filePosition, nviHeaderPosition, expectedValueFunctionMap, normVectorIndex,
                 normVectorBuffers);
         System.out.println("Finished normalization");
     }
 
-
     public static void updateHicFileForGWfromPreAddNormOnly(Dataset ds, HiCZoom zoom, List<NormalizationType> normalizationsToBuild,
                                                             Map<NormalizationType, Integer> resolutionsToBuildTo, List<NormalizationVectorIndexEntry> normVectorIndices,
                                                             List<BufferedByteWriter> normVectorBuffers, List<ExpectedValueCalculation> expectedValueCalculations) throws IOException {
+        updateHicFileForGWfromPreAddNormOnly(ds, zoom, normalizationsToBuild, resolutionsToBuildTo, normVectorIndices,
+                normVectorBuffers, expectedValueCalculations, 1);
+    }
+
+    public static void updateHicFileForGWfromPreAddNormOnly(Dataset ds, HiCZoom zoom, List<NormalizationType> normalizationsToBuild,
+                                                            Map<NormalizationType, Integer> resolutionsToBuildTo, List<NormalizationVectorIndexEntry> normVectorIndices,
+                                                            List<BufferedByteWriter> normVectorBuffers, List<ExpectedValueCalculation> expectedValueCalculations,
+                                                            int numThreads) throws IOException {
+        List<NormalizationType> gwNormsToBuild = new ArrayList<>();
         for (NormalizationType normType : normalizationsToBuild) {
             if (NormalizationHandler.isGenomeWideNorm(normType)) {
                 if (zoom.getBinSize() >= resolutionsToBuildTo.get(normType)) {
+                    gwNormsToBuild.add(normType);
+                }
+            }
+        }
+        if (gwNormsToBuild.isEmpty()) return;
+
+        Map<NormalizationType, Pair<Map<Chromosome, NormalizationVector>, ExpectedValueCalculation>> wgVectorsMap =
+                getWGVectors(ds, zoom, gwNormsToBuild, numThreads);
+
+        for (NormalizationType normType : wgVectorsMap.keySet()) {
+            Pair<Map<Chromosome, NormalizationVector>, ExpectedValueCalculation> wgVectors = wgVectorsMap.get(normType);
+            Map<Chromosome, NormalizationVector> nvMap = wgVectors.getFirst();
+            for (Chromosome chromosome : nvMap.keySet()) {
+                updateNormVectorIndexWithVector(normVectorIndices, normVectorBuffers, nvMap.get(chromosome).getData().convertToFloats(), chromosome.getIndex(), normType, zoom);
+            }
+
+            expectedValueCalculations.add(wgVectors.getSecond());
+        }
+    }
 
-                    long currentTime = System.currentTimeMillis();
-                    Pair<Map<Chromosome, NormalizationVector>, ExpectedValueCalculation> wgVectors = getWGVectors(ds, zoom, normType);
+    /**
+     * Compute the genome-wide norms for several resolutions. Resolutions are independent, so up to numThreads of
+     * them are computed at once; each one first reserves its estimated memory (from the record counts in the zoom
+     * headers) out of a budget based on the free heap. Resolutions whose size is unknown or too large run alone.
+     */
+    private static Map<HiCZoom, Map<NormalizationType, Pair<Map<Chromosome, NormalizationVector>, ExpectedValueCalculation>>> getWGVectorsForResolutions(
+            final Dataset dataset, List<HiCZoom> zooms, final List<NormalizationType> norms, final int numThreads) {
+
+        final Map<HiCZoom, Map<NormalizationType, Pair<Map<Chromosome, NormalizationVector>, ExpectedValueCalculation>>> results = new HashMap<>();
+        final ChromosomeHandler handler = dataset.getChromosomeHandler();
+
+        if (numThreads < 2 || zooms.size() < 2) {
+            for (HiCZoom zoom : zooms) {
+                List<OffsetMatrixZoomData> matrices = getWholeGenomeMatrices(dataset, handler, zoom, true);
+                results.put(zoom, getWGVectors(dataset, zoom, norms, numThreads, matrices));
+                clearContactRecordCaches(matrices);
+            }
+            return results;
+        }
+
+        // load all matrix headers up front; the Dataset's matrix map is not safe for concurrent loading,
+        // so the tasks below only read records through these preloaded matrices
+        final Map<HiCZoom, List<OffsetMatrixZoomData>> matricesAtZoom = new HashMap<>();
+        for (HiCZoom zoom : zooms) {
+            matricesAtZoom.put(zoom, getWholeGenomeMatrices(dataset, handler, zoom, true));
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        long availableBytes = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        final int budgetInMB = (int) Math.max(1, Math.min(Integer.MAX_VALUE, (availableBytes * 3 / 4) >> 20));
+        final Semaphore memoryBudget = new Semaphore(budgetInMB, true);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, zooms.size()));
+        Map<HiCZoom, Future<Map<NormalizationType, Pair<Map<Chromosome, NormalizationVector>, ExpectedValueCalculation>>>> futures = new LinkedHashMap<>();
+        for (final HiCZoom zoom : zooms) {
+            final int neededMB = estimateMemoryInMB(matricesAtZoom.get(zoom), budgetInMB);
+            futures.put(zoom, executor.submit(() -> {
+                memoryBudget.acquire(neededMB);
+                try {
                     if (HiCGlobals.printVerboseComments) {
-                        System.out.println("\n" + normType.getLabel() + " normalization genome wide at " + zoom + " took " + (System.currentTimeMillis() - currentTime) + " milliseconds");
+                        System.out.println("Genome wide norms at " + zoom + " reserved " + neededMB + " of " + budgetInMB + " MB");
                     }
+                    return getWGVectors(dataset, zoom, norms, numThreads, matricesAtZoom.get(zoom));
+                } finally {
+                    clearContactRecordCaches(matricesAtZoom.get(zoom));
+                    memoryBudget.release(neededMB);
+                }
+            }));
+        }
+        executor.shutdown();
 
-                    if (wgVectors != null) {
-                        Map<Chromosome, NormalizationVector> nvMap = wgVectors.getFirst();
-                        for (Chromosome chromosome : nvMap.keySet()) {
-                            updateNormVectorIndexWithVector(normVectorIndices, normVectorBuffers, nvMap.get(chromosome).getData().convertToFloats(), chromosome.getIndex(), normType, zoom);
-                        }
+        try {
+            for (HiCZoom zoom : futures.keySet()) {
+                results.put(zoom, futures.get(zoom).get());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            executor.shutdownNow();
+            throw new RuntimeException("Genome wide normalization failed: " + e.getMessage(), e);
+        }
+        return results;
+    }
 
-                        expectedValueCalculations.add(wgVectors.getSecond());
-                    }
+    private static int estimateMemoryInMB(List<OffsetMatrixZoomData> matrices, int budgetInMB) {
+        long numRecords = 0;
+        for (OffsetMatrixZoomData matrix : matrices) {
+            long count = matrix.zd.getOccupiedCellCount();
+            if (count < 0) return budgetInMB;
+            numRecords += count;
+        }
+        long neededMB = (numRecords * BYTES_PER_RECORD) >> 20;
+        return (int) Math.max(1, Math.min(budgetInMB, neededMB));
+    }
+
+    private static void clearContactRecordCaches(List<OffsetMatrixZoomData> matrices) {
+        for (OffsetMatrixZoomData matrix : matrices) {
+            matrix.zd.clearContactRecordCache();
+        }
+    }
+
+    /**
+     * Compute the whole-genome normalization and expected value vectors for the given norms at one resolution.
+     * The whole-genome records are assembled once for all the intra-inclusive (GW_*) norms and once
+     * for all the inter-only (INTER_*) norms. Norms which fail to converge are left out.
+     *
+     * @return map of norm to pair (normalization vectors first), in the order of the given norms
+     */
+    private static Map<NormalizationType, Pair<Map<Chromosome, NormalizationVector>, ExpectedValueCalculation>> getWGVectors(
+            Dataset dataset, HiCZoom zoom, List<NormalizationType> norms, int numThreads) {
+        return getWGVectors(dataset, zoom, norms, numThreads,
+                getWholeGenomeMatrices(dataset, dataset.getChromosomeHandler(), zoom, true));
+    }
+
+    /**
+     * Same as above, but built only from the given chromosome-pair matrices (intra and inter) of this zoom;
+     * no matrices are looked up from the dataset.
+     */
+    private static Map<NormalizationType, Pair<Map<Chromosome, NormalizationVector>, ExpectedValueCalculation>> getWGVectors(
+            Dataset dataset, HiCZoom zoom, List<NormalizationType> norms, int numThreads,
+            List<OffsetMatrixZoomData> matrices) {
+        final ChromosomeHandler chromosomeHandler = dataset.getChromosomeHandler();
+
+        Map<NormalizationType, Pair<Map<Chromosome, NormalizationVector>, ExpectedValueCalculation>> computed = new HashMap<>();
+        for (boolean includeIntraData : new boolean[]{true, false}) {
+            List<NormalizationType> normsOfThisKind = new ArrayList<>();
+            for (NormalizationType norm : norms) {
+                if (NormalizationHandler.isGenomeWideNormIntra(norm) == includeIntraData) { // default INTER type
+                    normsOfThisKind.add(norm);
+                }
+            }
+            if (normsOfThisKind.isEmpty()) continue;
+
+            List<OffsetMatrixZoomData> matricesOfThisKind = new ArrayList<>();
+            for (OffsetMatrixZoomData matrix : matrices) {
+                if (includeIntraData || matrix.zd.getChr1Idx() != matrix.zd.getChr2Idx()) {
+                    matricesOfThisKind.add(matrix);
+                }
+            }
+            final List<List<ContactRecord>> recordArrayList = createWholeGenomeRecords(chromosomeHandler, zoom,
+                    matricesOfThisKind, numThreads);
+            for (NormalizationType norm : normsOfThisKind) {
+                long currentTime = System.currentTimeMillis();
+                Pair<Map<Chromosome, NormalizationVector>, ExpectedValueCalculation> wgVectors = getWGVectors(dataset, zoom,
+                        norm, recordArrayList, matrices, numThreads);
+                if (HiCGlobals.printVerboseComments) {
+                    System.out.println("\n" + norm.getLabel() + " normalization genome wide at " + zoom + " took " + (System.currentTimeMillis() - currentTime) + " milliseconds");
+                }
+                if (wgVectors != null) {
+                    computed.put(norm, wgVectors);
                 }
             }
         }
+
+        Map<NormalizationType, Pair<Map<Chromosome, NormalizationVector>, ExpectedValueCalculation>> results = new LinkedHashMap<>();
+        for (NormalizationType norm : norms) {
+            if (computed.containsKey(norm)) {
+                results.put(norm, computed.get(norm));
+            }
+        }
+        return results;
     }
 
     /**
@@ -147,11 +319,12 @@ public class GenomeWideNormalizationVectorUpdater extends NormVectorUpdater {
 
     private static Pair<Map<Chromosome, NormalizationVector>, ExpectedValueCalculation> getWGVectors(Dataset dataset,
                                                                                                      HiCZoom zoom,
-                                                                                                     NormalizationType norm) {
-        boolean includeIntraData = NormalizationHandler.isGenomeWideNormIntra(norm); // default INTER type
+                                                                                                     NormalizationType norm,
+                                                                                                     List<List<ContactRecord>> recordArrayList,
+                                                                                                     List<OffsetMatrixZoomData> matrices,
+                                                                                                     int numThreads) {
         final ChromosomeHandler chromosomeHandler = dataset.getChromosomeHandler();
         final int resolution = zoom.getBinSize();
-        final List<List<ContactRecord>> recordArrayList = createWholeGenomeRecords(dataset, chromosomeHandler, zoom, includeIntraData);
 
         int totalSize = 0;
         for (Chromosome c1 : chromosomeHandler.getChromosomeArrayWithoutAllByAll()) {
@@ -159,19 +332,27 @@ public class GenomeWideNormalizationVectorUpdater extends NormVectorUpdater {
         }
     
         NormalizationCalculations calculations = new NormalizationCalculations(recordArrayList, totalSize);
+        calculations.setNumThreads(numThreads);
         ListOfFloatArrays vector = calculations.getNorm(norm);
 
         if (vector == null) {
             return null;
         }
 
+        Map<Integer, MatrixZoomData> intraMatrices = new HashMap<>();
+        for (OffsetMatrixZoomData matrix : matrices) {
+            if (matrix.zd.getChr1Idx() == matrix.zd.getChr2Idx()) {
+                intraMatrices.put(matrix.zd.getChr1Idx(), matrix.zd);
+            }
+        }
+
         ExpectedValueCalculation expectedValueCalculation = new ExpectedValueCalculation(chromosomeHandler, resolution, null, norm);
         int addY = 0;
         // Loop through chromosomes
         for (Chromosome chr : chromosomeHandler.getChromosomeArrayWithoutAllByAll()) {
             final int chrIdx = chr.getIndex();
 
-            MatrixZoomData zd = HiCFileTools.getMatrixZoomData(dataset, chr, chr, zoom);
+            MatrixZoomData zd = intraMatrices.get(chrIdx);
             if (zd == null) continue;
 
             for (List<ContactRecord> crList : zd.getContactRecordList()) {
@@ -208,9 +389,23 @@ public class GenomeWideNormalizationVectorUpdater extends NormVectorUpdater {
 
     public static List<List<ContactRecord>> createWholeGenomeRecords(Dataset dataset, ChromosomeHandler handler,
                                                                      HiCZoom zoom, boolean includeIntra) {
-        List<List<ContactRecord>> recordArrayList = new ArrayList<>();
-        int addX = 0;
-        int addY = 0;
+        return createWholeGenomeRecords(dataset, handler, zoom, includeIntra, 1);
+    }
+
+    /**
+     * Assemble the whole-genome matrix from all chromosome-pair matrices, with bins shifted by the chromosome offsets.
+     * The chromosome pairs are read and shifted in parallel; the record lists are returned in chromosome-pair order
+     * regardless of the number of threads.
+     */
+    public static List<List<ContactRecord>> createWholeGenomeRecords(Dataset dataset, ChromosomeHandler handler,
+                                                                     HiCZoom zoom, boolean includeIntra, int numThreads) {
+        return createWholeGenomeRecords(handler, zoom, getWholeGenomeMatrices(dataset, handler, zoom, includeIntra),
+                numThreads);
+    }
+
+    private static List<List<ContactRecord>> createWholeGenomeRecords(ChromosomeHandler handler, HiCZoom zoom,
+                                                                      List<OffsetMatrixZoomData> matrices,
+                                                                      int numThreads) {
         long maxPos = 0;
         for (Chromosome c1 : handler.getChromosomeArrayWithoutAllByAll()) {
             maxPos += c1.getLength() / zoom.getBinSize() + 1;
@@ -219,20 +414,34 @@ public class GenomeWideNormalizationVectorUpdater extends NormVectorUpdater {
             System.err.println("Max int size exceeded for genome wide normalization at " + zoom);
         }
 
+        List<List<List<ContactRecord>>> shiftedRecords;
+        if (numThreads > 1) {
+            shiftedRecords = TaskRunner.getShared(numThreads).map(matrices, OffsetMatrixZoomData::getShiftedRecords);
+        } else {
+            shiftedRecords = matrices.stream().map(OffsetMatrixZoomData::getShiftedRecords).collect(Collectors.toList());
+        }
+
+        List<List<ContactRecord>> recordArrayList = new ArrayList<>();
+        for (List<List<ContactRecord>> recordLists : shiftedRecords) {
+            recordArrayList.addAll(recordLists);
+        }
+        return recordArrayList;
+    }
+
+    /**
+     * @return the chromosome-pair matrices (upper triangle) at this zoom with their offsets in the whole-genome matrix
+     */
+    private static List<OffsetMatrixZoomData> getWholeGenomeMatrices(Dataset dataset, ChromosomeHandler handler,
+                                                                     HiCZoom zoom, boolean includeIntra) {
+        List<OffsetMatrixZoomData> matrices = new ArrayList<>();
+        int addX = 0;
+        int addY = 0;
         for (Chromosome c1 : handler.getChromosomeArrayWithoutAllByAll()) {
             for (Chromosome c2 : handler.getChromosomeArrayWithoutAllByAll()) {
                 if (c1.getIndex() < c2.getIndex() || (c1.equals(c2) && includeIntra)) {
                     MatrixZoomData zd = HiCFileTools.getMatrixZoomData(dataset, c1, c2, zoom);
                     if (zd != null) {
-                        for (List<ContactRecord> recordList : zd.getContactRecordList()) {
-                            List<ContactRecord> localList = new ArrayList<>();
-                            for (ContactRecord cr : recordList) {
-                                int binX = cr.getBinX() + addX;
-                                int binY = cr.getBinY() + addY;
-                                localList.add(new ContactRecord(binX, binY, cr.getCounts()));
-                            }
-                            recordArrayList.add(localList);
-                        }
+                        matrices.add(new OffsetMatrixZoomData(zd, addX, addY));
                     }
                 }
                 addY += c2.getLength() / zoom.getBinSize() + 1;
@@ -240,6 +449,31 @@ public class GenomeWideNormalizationVectorUpdater extends NormVectorUpdater {
             addX += c1.getLength() / zoom.getBinSize() + 1;
             addY = 0;
         }
-        return recordArrayList;
+        return matrices;
+    }
+
+    private static class OffsetMatrixZoomData {
+        private final MatrixZoomData zd;
+        private final int addX, addY;
+
+        OffsetMatrixZoomData(MatrixZoomData zd, int addX, int addY) {
+            this.zd = zd;
+            this.addX = addX;
+            this.addY = addY;
+        }
+
+        List<List<ContactRecord>> getShiftedRecords() {
+            List<List<ContactRecord>> shiftedLists = new ArrayList<>();
+            for (List<ContactRecord> recordList : zd.getContactRecordList()) {
+                List<ContactRecord> localList = new ArrayList<>(recordList.size());
+                for (ContactRecord cr : recordList) {
+                    int binX = cr.getBinX() + addX;
+                    int binY = cr.getBinY() + addY;
+                    localList.add(new ContactRecord(binX, binY, cr.getCounts()));
+                }
+                shiftedLists.add(localList);
+            }
+            return shiftedLists;
+        }
     }
 }
@@ -29,6 +29,7 @@ import juicebox.HiCGlobals;
 import juicebox.data.*;
 import juicebox.data.basics.Chromosome;
 import juicebox.data.basics.ListOfFloatArrays;
+import juicebox.tools.utils.common.TaskRunner;
 import juicebox.tools.utils.original.ExpectedValueCalculation;
 import juicebox.windowui.HiCZoom;
 import juicebox.windowui.NormalizationHandler;
@@ -38,8 +39,6 @@ import org.broad.igv.tdf.BufferedByteWriter;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class MultithreadedNormalizationVectorUpdater extends NormalizationVectorUpdater {
@@ -75,6 +74,7 @@ public class MultithreadedNormalizationVectorUpdater extends NormalizationVector
         DatasetReaderV2 reader = new DatasetReaderV2(path);
         Dataset ds = reader.read();
         HiCGlobals.verifySupportedHiCFileVersion(reader.getVersion());
+        checkIncrementalUpdate(reader);
 
         ChromosomeHandler chromosomeHandler = ds.getChromosomeHandler();
         Map<String, Integer> fragCountMap = ds.getFragmentCounts();
@@ -90,10 +90,21 @@ public class MultithreadedNormalizationVectorUpdater extends NormalizationVector
             }
             if (noFrag && zoom.getUnit() == HiC.Unit.FRAG) continue;
 
+            boolean buildVC = shouldBuildNormAtZoom(ds, weShouldBuildVC, NormalizationHandler.VC, zoom, resolutionsToBuildTo);
+            boolean buildVCSqrt = shouldBuildNormAtZoom(ds, weShouldBuildVCSqrt, NormalizationHandler.VC_SQRT, zoom, resolutionsToBuildTo);
+            boolean buildKR = shouldBuildNormAtZoom(ds, weShouldBuildKR, NormalizationHandler.KR, zoom, resolutionsToBuildTo);
+            boolean buildScale = shouldBuildNormAtZoom(ds, weShouldBuildScale, NormalizationHandler.SCALE, zoom, resolutionsToBuildTo);
+
             // compute genome-wide normalizations
             if (zoom.getUnit() == HiC.Unit.BP && zoom.getBinSize() >= genomeWideLowestResolutionAllowed) {
-                GenomeWideNormalizationVectorUpdater.updateHicFileForGWfromPreAddNormOnly(ds, zoom, normalizationsToBuild, resolutionsToBuildTo,
-                        normVectorIndices, normVectorBuffers, expectedValueCalculations);
+                GenomeWideNormalizationVectorUpdater.updateHicFileForGWfromPreAddNormOnly(ds, zoom,
+                        getNormsMissingAtZoom(ds, normalizationsToBuild, zoom), resolutionsToBuildTo,
+                        normVectorIndices, normVectorBuffers, expectedValueCalculations, numCPUThreads);
+            }
+
+            if (!(buildVC || buildVCSqrt || buildKR || buildScale)) {
+                System.out.println("\nAll requested norms already present for zoom " + zoom);
+                continue;
             }
 
             System.out.println();
@@ -124,57 +135,51 @@ public class MultithreadedNormalizationVectorUpdater extends NormalizationVector
 
             Map<Integer, MatrixZoomData> allChrZoomData = new ConcurrentHashMap<>();
 
-            ExecutorService executor = Executors.newFixedThreadPool(numCPUThreads);
-            for (int l = 0; l < numCPUThreads; l++) {
-                final int threadNum = l;
-
-                Runnable worker = new Runnable() {
-                    @Override
-                    public void run() {
-                        try {
-                            DatasetReaderV2 localReader;
-                            Dataset localds;
-                            ChromosomeHandler localChromosomeHandler;
-                            synchronized(this){
-                                localReader = new DatasetReaderV2(path);
-                                localds = localReader.read();
-                                localChromosomeHandler = localds.getChromosomeHandler();
-                            }
-                            runIndividualChromosomeCode(chromosomeIndex, localds, localChromosomeHandler, zoom, resolutionsToBuildTo,
-                                    withinZoomVCSumFactors, withinZoomVCSQRTSumFactors, withinZoomKRSumFactors, withinZoomSCALESumFactors,
-                                    withinZoomVCVectors, withinZoomVCSQRTVectors, withinZoomKRVectors, withinZoomSCALEVectors,
-                                    withinZoomSynckrBPFailedChromosomes, withinZoomSynckrFragFailedChromosomes, withinZoomSyncmmbaBPFailedChromosomes,
-                                    withinZoomSyncmmbaFragFailedChromosomes, allChrZoomData, threadNum);
-                        } catch (IOException e) {
-                            System.err.println("Error: " + e);
-                        }
-                    }
-                    //}
-                };
-                executor.execute(worker);
+            if (scaleWarmStart != null) {
+                scaleWarmStart.startZoom(zoom);
             }
 
-            executor.shutdown();
+            final AtomicInteger workerIndex = new AtomicInteger(0);
+            Runnable worker = new Runnable() {
+                @Override
+                public void run() {
+                    final int threadNum = workerIndex.getAndIncrement();
+                    try {
+                        // each worker opens its own reader, which shares no state with the others
+                        DatasetReaderV2 localReader = new DatasetReaderV2(path);
+                        Dataset localds = localReader.read();
+                        ChromosomeHandler localChromosomeHandler = localds.getChromosomeHandler();
+                        runIndividualChromosomeCode(chromosomeIndex, localds, localChromosomeHandler, zoom, resolutionsToBuildTo,
+                                withinZoomVCSumFactors, withinZoomVCSQRTSumFactors, withinZoomKRSumFactors, withinZoomSCALESumFactors,
+                                withinZoomVCVectors, withinZoomVCSQRTVectors, withinZoomKRVectors, withinZoomSCALEVectors,
+                                withinZoomSynckrBPFailedChromosomes, withinZoomSynckrFragFailedChromosomes, withinZoomSyncmmbaBPFailedChromosomes,
+                                withinZoomSyncmmbaFragFailedChromosomes, allChrZoomData, threadNum);
+                    } catch (IOException e) {
+                        System.err.println("Error: " + e);
+                    }
+                }
+            };
+            TaskRunner.getShared(numCPUThreads).runWorkers("Normalization vectors", numCPUThreads, worker);
 
-            // Wait until all threads finish
-            while (!executor.isTerminated()) {
+            if (scaleWarmStart != null) {
+                scaleWarmStart.finishZoom();
             }
 
-
             // Loop through chromosomes
             for (Chromosome chr : chromosomeHandler.getChromosomeArrayWithoutAllByAll()) {
 
                 if (allChrZoomData.get(chr.getIndex()) == null) continue;
 
 
-                if (weShouldBuildVC && zoom.getBinSize() >= resolutionsToBuildTo.get(NormalizationHandler.VC)) {
+                MatrixZoomData chrZoomData = allChrZoomData.get(chr.getIndex());
+                if (buildVC && !reuseExistingVector(ds, NormalizationHandler.VC, chr, zoom, chrZoomData, evVC)) {
                     if (withinZoomVCSumFactors.get(chr.getIndex())!=null&&withinZoomVCVectors.get(chr.getIndex())!=null) {
                         updateExpectedValueCalculationForChr(chr.getIndex(), withinZoomVCSumFactors.get(chr.getIndex()),
                                 withinZoomVCVectors.get(chr.getIndex()), NormalizationHandler.VC,
                                 zoom, allChrZoomData.get(chr.getIndex()), evVC, normVectorBuffers, normVectorIndices);
                     }
                 }
-                if (weShouldBuildVCSqrt && zoom.getBinSize() >= resolutionsToBuildTo.get(NormalizationHandler.VC_SQRT)) {
+                if (buildVCSqrt && !reuseExistingVector(ds, NormalizationHandler.VC_SQRT, chr, zoom, chrZoomData, evVCSqrt)) {
                     if (withinZoomVCSQRTSumFactors.get(chr.getIndex())!=null&&withinZoomVCSQRTVectors.get(chr.getIndex())!=null) {
                         updateExpectedValueCalculationForChr(chr.getIndex(), withinZoomVCSQRTSumFactors.get(chr.getIndex()),
                                 withinZoomVCSQRTVectors.get(chr.getIndex()), NormalizationHandler.VC_SQRT,
@@ -183,7 +188,7 @@ public class MultithreadedNormalizationVectorUpdater extends NormalizationVector
                 }
 
                 // KR normalization
-                if (weShouldBuildKR && zoom.getBinSize() >= resolutionsToBuildTo.get(NormalizationHandler.KR)) {
+                if (buildKR && !reuseExistingVector(ds, NormalizationHandler.KR, chr, zoom, chrZoomData, evKR)) {
                     Set<Chromosome> withinZoomFailureSetKR = zoom.getUnit() == HiC.Unit.FRAG ? withinZoomSynckrFragFailedChromosomes : withinZoomSynckrBPFailedChromosomes;
                     if (!withinZoomFailureSetKR.contains(chr)&&withinZoomKRSumFactors.get(chr.getIndex())!=null&&withinZoomKRVectors.get(chr.getIndex())!=null) {
                         updateExpectedValueCalculationForChr(chr.getIndex(), withinZoomKRSumFactors.get(chr.getIndex()),
@@ -193,7 +198,7 @@ public class MultithreadedNormalizationVectorUpdater extends NormalizationVector
                 }
 
                 // Fast scaling normalization
-                if (weShouldBuildScale && zoom.getBinSize() >= resolutionsToBuildTo.get(NormalizationHandler.SCALE)) {
+                if (buildScale && !reuseExistingVector(ds, NormalizationHandler.SCALE, chr, zoom, chrZoomData, evSCALE)) {
                     Set<Chromosome> withinZoomFailureSetMMBA = zoom.getUnit() == HiC.Unit.FRAG ? withinZoomSyncmmbaFragFailedChromosomes : withinZoomSyncmmbaBPFailedChromosomes;
                     if (!withinZoomFailureSetMMBA.contains(chr)&&withinZoomSCALESumFactors.get(chr.getIndex())!=null&&withinZoomSCALEVectors.get(chr.getIndex())!=null) {
                         updateExpectedValueCalculationForChr(chr.getIndex(), withinZoomSCALESumFactors.get(chr.getIndex()),
@@ -203,23 +208,22 @@ public class MultithreadedNormalizationVectorUpdater extends NormalizationVector
                 }
             }
 
-            if (weShouldBuildVC && evVC.hasData() && zoom.getBinSize() >= resolutionsToBuildTo.get(NormalizationHandler.VC)) {
+            if (buildVC && evVC.hasData()) {
                 expectedValueCalculations.add(evVC);
             }
-            if (weShouldBuildVCSqrt && evVCSqrt.hasData() && zoom.getBinSize() >= resolutionsToBuildTo.get(NormalizationHandler.VC_SQRT)) {
+            if (buildVCSqrt && evVCSqrt.hasData()) {
                 expectedValueCalculations.add(evVCSqrt);
             }
-            if (weShouldBuildKR && evKR.hasData() && zoom.getBinSize() >= resolutionsToBuildTo.get(NormalizationHandler.KR)) {
+            if (buildKR && evKR.hasData()) {
                 expectedValueCalculations.add(evKR);
             }
-            if (weShouldBuildScale && evSCALE.hasData() && zoom.getBinSize() >= resolutionsToBuildTo.get(NormalizationHandler.SCALE)) {
+            if (buildScale && evSCALE.hasData()) {
                 expectedValueCalculations.add(evSCALE);
             }
 
 
         }
-        writeNormsToUpdateFile(reader, path, true, expectedValueCalculations, null, normVectorIndices,
-                normVectorBuffers, "Finished writing norms");
+        writeNorms(reader, ds, path);
 
     }
 
@@ -250,17 +254,21 @@ public class MultithreadedNormalizationVectorUpdater extends NormalizationVector
             }
             allChrZoomData.put(chr.getIndex(), zd);
 
-            if (weShouldBuildVC || weShouldBuildVCSqrt) {
-
-                buildVCOrVCSQRT(weShouldBuildVC && zoom.getBinSize() >= resolutionsToBuildTo.get(NormalizationHandler.VC),
-                        weShouldBuildVCSqrt && zoom.getBinSize() >= resolutionsToBuildTo.get(NormalizationHandler.VC_SQRT),
+            boolean buildVC = shouldBuildNormAtZoom(ds, weShouldBuildVC, NormalizationHandler.VC, zoom, resolutionsToBuildTo)
+                    && !normVectorExists(NormalizationHandler.VC, chr.getIndex(), zoom);
+            boolean buildVCSqrt = shouldBuildNormAtZoom(ds, weShouldBuildVCSqrt, NormalizationHandler.VC_SQRT, zoom, resolutionsToBuildTo)
+                    && !normVectorExists(NormalizationHandler.VC_SQRT, chr.getIndex(), zoom);
+            if (buildVC || buildVCSqrt) {
+                buildVCOrVCSQRT(buildVC, buildVCSqrt,
                         chr, nc, zoom, withinZoomVCSumFactors, withinZoomVCVectors, withinZoomVCSQRTSumFactors, withinZoomVCSQRTVectors);
             }
-            if (weShouldBuildKR && zoom.getBinSize() >= resolutionsToBuildTo.get(NormalizationHandler.KR)) {
+            if (shouldBuildNormAtZoom(ds, weShouldBuildKR, NormalizationHandler.KR, zoom, resolutionsToBuildTo)
+                    && !normVectorExists(NormalizationHandler.KR, chr.getIndex(), zoom)) {
                 buildKR(chr, nc, zoom, withinZoomKRSumFactors, withinZoomKRVectors, withinZoomSynckrBPFailedChromosomes,
                             withinZoomSynckrFragFailedChromosomes);
             }
-            if (weShouldBuildScale && zoom.getBinSize() >= resolutionsToBuildTo.get(NormalizationHandler.SCALE)) {
+            if (shouldBuildNormAtZoom(ds, weShouldBuildScale, NormalizationHandler.SCALE, zoom, resolutionsToBuildTo)
+                    && !normVectorExists(NormalizationHandler.SCALE, chr.getIndex(), zoom)) {
                     buildScale(chr, nc, zoom, withinZoomSCALESumFactors, withinZoomSCALEVectors, withinZoomSyncmmbaBPFailedChromosomes,
                             withinZoomSyncmmbaFragFailedChromosomes);
             }
@@ -328,7 +336,7 @@ public class MultithreadedNormalizationVectorUpdater extends NormalizationVector
         long currentTime = System.currentTimeMillis();
 
         if (!failureSetMMBA.contains(chr)) {
-            ListOfFloatArrays mmba = nc.computeMMBA();
+            ListOfFloatArrays mmba = nc.computeMMBA(scaleWarmStart, chrIdx);
             if (mmba == null) {
                 failureSetMMBA.add(chr);
                 withinZoomFailureSetMMBA.add(chr);
@@ -25,20 +25,21 @@
 package juicebox.tools.utils.norm;
 
 import juicebox.HiC;
+import juicebox.data.Dataset;
 import juicebox.data.DatasetReaderV2;
 import juicebox.data.ExpectedValueFunction;
 import juicebox.data.ExpectedValueFunctionImpl;
 import juicebox.data.basics.ListOfFloatArrays;
 import juicebox.tools.utils.original.ExpectedValueCalculation;
+import juicebox.tools.utils.original.LargeIndexEntry;
 import juicebox.windowui.HiCZoom;
+import juicebox.windowui.NormalizationHandler;
 import juicebox.windowui.NormalizationType;
 import org.broad.igv.tdf.BufferedByteWriter;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 public class NormVectorUpdater {
 
@@ -169,21 +170,149 @@ public class NormVectorUpdater {
                                        List<BufferedByteWriter> normVectorBuffers, String message) throws IOException {
         int version = reader.getVersion();
         long filePosition = reader.getNormFilePosition();
+        long nviHeaderPosition = reader.getNviHeaderPosition();
         reader.close();
         System.out.println();
         if (useCalcNotFunc) {
-            update(path, version, filePosition, expectedValueCalculations, normVectorIndices,
+            update(path, version, filePosition, nviHeaderPosition, expectedValueCalculations, normVectorIndices,
                     normVectorBuffers);
         } else {
-            update(path, version, filePosition, expectedValueFunctionMap, normVectorIndices,
+            update(path, version, filePosition, nviHeaderPosition, expectedValueFunctionMap, normVectorIndices,
                     normVectorBuffers);
         }
 
         System.out.println(message);
     }
 
+    /**
+     * Incremental alternative to writeNormsToUpdateFile, for v9 files with an existing normalization section.
+     * <p/>
+     * Existing normalization vectors stay where they are. New vectors are appended at the end of the file,
+     * and the normalized expected values and the normalization vector index are rewritten in place, with
+     * new entries replacing existing entries of the same key. Existing vectors that would be overwritten by
+     * the (now larger) expected values and index are first moved to the end of the file. The NVI position
+     * and length fields in the header are updated to point at the new index.
+     */
+    static void appendNormsToUpdateFile(DatasetReaderV2 reader, Dataset ds, String path,
+                                        List<ExpectedValueCalculation> expectedValueCalculations,
+                                        List<NormalizationVectorIndexEntry> normVectorIndices,
+                                        List<BufferedByteWriter> normVectorBuffers, String message) throws IOException {
+        long filePosition = reader.getNormFilePosition();
+        long nviHeaderPosition = reader.getNviHeaderPosition();
+        Map<String, LargeIndexEntry> existingIndex = reader.getNormVectorIndex();
+        reader.close();
+        System.out.println();
+
+        // normalized expected values: existing ones, replaced or extended by the new calculations
+        Map<String, ExpectedValueFunction> expectedValueFunctionMap = new LinkedHashMap<>();
+        for (Map.Entry<String, ExpectedValueFunction> entry : ds.getExpectedValueFunctionMap().entrySet()) {
+            if (!entry.getValue().getNormalizationType().equals(NormalizationHandler.NONE)) {
+                expectedValueFunctionMap.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (ExpectedValueCalculation ev : expectedValueCalculations) {
+            HiCZoom zoom = new HiCZoom(ev.isFrag ? HiC.Unit.FRAG : HiC.Unit.BP, ev.getGridSize());
+            expectedValueFunctionMap.put(ExpectedValueFunctionImpl.getKey(zoom, ev.getType()), ev.getExpectedValueFunction());
+        }
+
+        // existing index entries not replaced by a new vector; these keep their absolute file positions
+        Set<String> newKeys = new HashSet<>();
+        for (NormalizationVectorIndexEntry entry : normVectorIndices) {
+            newKeys.add(entry.getKey());
+        }
+        List<NormalizationVectorIndexEntry> existingEntries = new ArrayList<>();
+        if (existingIndex != null) {
+            for (Map.Entry<String, LargeIndexEntry> entry : existingIndex.entrySet()) {
+                if (!newKeys.contains(entry.getKey())) {
+                    existingEntries.add(NormalizationVectorIndexEntry.fromKey(entry.getKey(),
+                            entry.getValue().position, entry.getValue().size));
+                }
+            }
+        }
+
+        List<BufferedByteWriter> expectedBuffers = new ArrayList<>();
+        expectedBuffers.add(new BufferedByteWriter());
+        writeExpectedValues(expectedBuffers, expectedValueFunctionMap);
+        long expectedSizeInBytes = 0;
+        for (BufferedByteWriter buffer : expectedBuffers) {
+            expectedSizeInBytes += buffer.bytesWritten();
+        }
+
+        List<NormalizationVectorIndexEntry> allEntries = new ArrayList<>(existingEntries);
+        allEntries.addAll(normVectorIndices);
+        BufferedByteWriter indexBuffer = new BufferedByteWriter();
+        writeNormIndex(indexBuffer, allEntries);
+        final long nviPosition = filePosition + expectedSizeInBytes;
+        final long nviLength = indexBuffer.bytesWritten();
+        final long sectionEnd = nviPosition + nviLength;
+
+        try (RandomAccessFile raf = new RandomAccessFile(path, "rw")) {
+            long appendPosition = raf.length();
+
+            // relocate existing vectors that lie within the region about to be rewritten
+            int numMoved = 0;
+            for (NormalizationVectorIndexEntry entry : existingEntries) {
+                if (entry.position < sectionEnd) {
+                    copyBytes(raf, entry.position, appendPosition, entry.sizeInBytes);
+                    entry.position = appendPosition;
+                    appendPosition += entry.sizeInBytes;
+                    numMoved++;
+                }
+            }
+
+            // append the new vectors
+            raf.getChannel().position(appendPosition);
+            for (NormalizationVectorIndexEntry entry : normVectorIndices) {
+                entry.position += appendPosition;
+            }
+            for (BufferedByteWriter buffer : normVectorBuffers) {
+                raf.write(buffer.getBytes());
+            }
+
+            // rewrite expected values and index in place
+            writeExpectedToBuffer(raf, expectedBuffers, filePosition);
+            indexBuffer = new BufferedByteWriter();
+            writeNormIndex(indexBuffer, allEntries);
+            raf.write(indexBuffer.getBytes());
+
+            writeNviHeaderInfo(raf, nviHeaderPosition, nviPosition, nviLength);
+
+            System.out.println("Added " + normVectorIndices.size() + " normalization vectors to the existing "
+                    + existingEntries.size() + " (" + numMoved + " relocated)");
+        }
+
+        System.out.println(message);
+    }
+
+    private static void copyBytes(RandomAccessFile raf, long sourcePosition, long targetPosition, long numBytes) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(numBytes, 8 * 1024 * 1024)];
+        long copied = 0;
+        while (copied < numBytes) {
+            int length = (int) Math.min(buffer.length, numBytes - copied);
+            raf.seek(sourcePosition + copied);
+            raf.readFully(buffer, 0, length);
+            raf.seek(targetPosition + copied);
+            raf.write(buffer, 0, length);
+            copied += length;
+        }
+    }
+
+    /**
+     * Set the NVI position and length fields of the v9 header; no-op for older files
+     */
+    private static void writeNviHeaderInfo(RandomAccessFile raf, long nviHeaderPosition, long nviPosition, long nviLength) throws IOException {
+        if (nviHeaderPosition < 0) return;
+        long currentPosition = raf.getChannel().position();
+        raf.getChannel().position(nviHeaderPosition);
+        BufferedByteWriter buffer = new BufferedByteWriter();
+        buffer.putLong(nviPosition);
+        buffer.putLong(nviLength);
+        raf.write(buffer.getBytes());
+        raf.getChannel().position(currentPosition);
+    }
 
-    private static void update(String hicfile, int version, final long filePosition, List<ExpectedValueCalculation> expectedValueCalculations,
+    private static void update(String hicfile, int version, final long filePosition, long nviHeaderPosition,
+                               List<ExpectedValueCalculation> expectedValueCalculations,
                                List<NormalizationVectorIndexEntry> normVectorIndex, List<BufferedByteWriter> normVectorBuffers) throws IOException {
 
         try (RandomAccessFile raf = new RandomAccessFile(hicfile, "rw")) {
@@ -192,11 +321,12 @@ public class NormVectorUpdater {
             expectedBuffers.add(new BufferedByteWriter());
             writeExpectedValues(expectedBuffers, expectedValueCalculations);
             writeExpectedToBuffer(raf, expectedBuffers, filePosition);
-            writeNormsToBuffer(raf, normVectorIndex, normVectorBuffers);
+            writeNormsToBuffer(raf, nviHeaderPosition, normVectorIndex, normVectorBuffers);
         }
     }
 
-    static void update(String hicfile, int version, final long filePosition, Map<String, ExpectedValueFunction> expectedValueFunctionMap,
+    static void update(String hicfile, int version, final long filePosition, long nviHeaderPosition,
+                       Map<String, ExpectedValueFunction> expectedValueFunctionMap,
                        List<NormalizationVectorIndexEntry> normVectorIndex, List<BufferedByteWriter> normVectorBuffers) throws IOException {
         try (RandomAccessFile raf = new RandomAccessFile(hicfile, "rw")) {
             handleVersionSix(raf, version);
@@ -204,7 +334,7 @@ public class NormVectorUpdater {
             expectedBuffers.add(new BufferedByteWriter());
             writeExpectedValues(expectedBuffers, expectedValueFunctionMap);
             writeExpectedToBuffer(raf, expectedBuffers, filePosition);
-            writeNormsToBuffer(raf, normVectorIndex, normVectorBuffers);
+            writeNormsToBuffer(raf, nviHeaderPosition, normVectorIndex, normVectorBuffers);
         }
     }
 
@@ -307,11 +437,14 @@ public class NormVectorUpdater {
         }
     }
 
-    private static void writeNormsToBuffer(RandomAccessFile raf, List<NormalizationVectorIndexEntry> normVectorIndex, List<BufferedByteWriter> normVectorBuffers) throws IOException {
+    private static void writeNormsToBuffer(RandomAccessFile raf, long nviHeaderPosition, List<NormalizationVectorIndexEntry> normVectorIndex,
+                                           List<BufferedByteWriter> normVectorBuffers) throws IOException {
         // Get the size of the index in bytes, to compute an offset for the actual entries.
         BufferedByteWriter buffer = new BufferedByteWriter();
         writeNormIndex(buffer, normVectorIndex);
-        long normVectorStartPosition = raf.getChannel().position() + buffer.bytesWritten();
+        long nviPosition = raf.getChannel().position();
+        long normVectorStartPosition = nviPosition + buffer.bytesWritten();
+        writeNviHeaderInfo(raf, nviHeaderPosition, nviPosition, buffer.bytesWritten());
 
         // Update index entries
         for (NormalizationVectorIndexEntry entry : normVectorIndex) {
@@ -29,6 +29,7 @@ import juicebox.data.MatrixZoomData;
 import juicebox.data.basics.ListOfDoubleArrays;
 import juicebox.data.basics.ListOfFloatArrays;
 import juicebox.data.basics.ListOfIntArrays;
+import juicebox.tools.utils.norm.final2.ScaleWarmStart;
 import juicebox.windowui.NormalizationHandler;
 import juicebox.windowui.NormalizationType;
 import org.apache.commons.math.stat.StatUtils;
@@ -38,6 +39,7 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -54,6 +56,7 @@ public class NormalizationCalculations {
     private List<List<ContactRecord>> contactRecords;
     private long totSize;
     private boolean isEnoughMemory = false;
+    private int numThreads = 1;
 
     /**
      * Initializing from a single MatrixZoomData object
@@ -86,6 +89,14 @@ public class NormalizationCalculations {
         this.totSize = totSize;
     }
 
+    /**
+     * Number of partitions used for the sparse matrix-vector products of KR and SCALE;
+     * worthwhile for the large genome-wide matrices
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
     public static void calcKR(String path) throws IOException {
 
         BufferedReader reader = org.broad.igv.util.ParsingUtils.openBufferedReader(path);
@@ -141,7 +152,7 @@ public class NormalizationCalculations {
         if nargin < 3, x0 = e; end
         if nargin < 2, tol = 1e-6; end
     */
-    private static ListOfDoubleArrays computeKRNormVector(ListOfIntArrays offset, List<List<ContactRecord>> listOfLists, double tol, ListOfDoubleArrays x0, double delta) {
+    private static ListOfDoubleArrays computeKRNormVector(ListOfIntArrays offset, ContactRecordPartitions partitions, double tol, ListOfDoubleArrays x0, double delta) {
     
         long n = x0.getLength();
         ListOfDoubleArrays e = new ListOfDoubleArrays(n, 1);
@@ -152,7 +163,7 @@ public class NormalizationCalculations {
     
         double rt = Math.pow(tol, 2);
     
-        ListOfDoubleArrays v = sparseMultiplyFromContactRecords(offset, listOfLists, x0);
+        ListOfDoubleArrays v = sparseMultiplyFromContactRecords(offset, partitions, x0);
         ListOfDoubleArrays rk = new ListOfDoubleArrays(v.getLength());
         for (long i = 0; i < v.getLength(); i++) {
             v.multiplyBy(i, x0.get(i));
@@ -207,7 +218,7 @@ public class NormalizationCalculations {
                 for (long i = 0; i < tmp.getLength(); i++) {
                     tmp.set(i, x0.get(i) * p.get(i));
                 }
-                tmp = sparseMultiplyFromContactRecords(offset, listOfLists, tmp);
+                tmp = sparseMultiplyFromContactRecords(offset, partitions, tmp);
                 alpha = 0;
                 // Update search direction efficiently.
                 for (long i = 0; i < tmp.getLength(); i++) {
@@ -257,7 +268,7 @@ public class NormalizationCalculations {
             for (long i = 0; i < x0.getLength(); i++) {
                 x0.multiplyBy(i, y.get(i));
             }
-            v = sparseMultiplyFromContactRecords(offset, listOfLists, x0);
+            v = sparseMultiplyFromContactRecords(offset, partitions, x0);
             rho_km1 = 0;
             for (long i = 0; i < v.getLength(); i++) {
                 v.multiplyBy(i, x0.get(i));
@@ -288,6 +299,10 @@ public class NormalizationCalculations {
         return x0;
     }
     
+    private static ListOfDoubleArrays sparseMultiplyFromContactRecords(ListOfIntArrays offset, ContactRecordPartitions partitions, ListOfDoubleArrays vector) {
+        return partitions.sumDoubleProducts(records -> sparseMultiplyFromContactRecords(offset, records, vector));
+    }
+    
     private static ListOfDoubleArrays sparseMultiplyFromContactRecords(ListOfIntArrays offset, List<List<ContactRecord>> listOfLists, ListOfDoubleArrays vector) {
         ListOfDoubleArrays result = new ListOfDoubleArrays(vector.getLength());
         
@@ -426,6 +441,7 @@ public class NormalizationCalculations {
         
         boolean recalculate = true;
         ListOfIntArrays offset = getOffset(0);
+        ContactRecordPartitions partitions = new ContactRecordPartitions(contactRecords, numThreads);
         ListOfFloatArrays kr = null;
         int iteration = 1;
         
@@ -442,7 +458,7 @@ public class NormalizationCalculations {
             // initialize x0 for call the compute KR norm
             ListOfDoubleArrays x0 = new ListOfDoubleArrays(newSize, 1);
             
-            x0 = computeKRNormVector(offset, contactRecords, 0.000001, x0, 0.1);
+            x0 = computeKRNormVector(offset, partitions, 0.000001, x0, 0.1);
             
             // assume all went well and we don't need to recalculate
             recalculate = false;
@@ -556,6 +572,32 @@ public class NormalizationCalculations {
         
         ListOfFloatArrays tempTargetVector = new ListOfFloatArrays(totSize, 1);
         
-        return ZeroScale.mmbaScaleToVector(contactRecords, tempTargetVector);
+        return ZeroScale.mmbaScaleToVector(contactRecords, tempTargetVector, numThreads);
+    }
+    
+    /**
+     * SCALE normalization started from the expanded vector of the previous (coarser) zoom, if available
+     *
+     * @param warmStart tracks scaling vectors across zooms; computeMMBA() is used if null
+     */
+    public ListOfFloatArrays computeMMBA(ScaleWarmStart warmStart, int chrIdx) {
+        if (warmStart == null) {
+            return computeMMBA();
+        }
+        
+        ListOfFloatArrays tempTargetVector = new ListOfFloatArrays(totSize, 1);
+        ListOfFloatArrays initialScalingVector = warmStart.getInitialScalingVector(chrIdx, totSize);
+        AtomicInteger iterations = new AtomicInteger(0);
+        long currentTime = System.currentTimeMillis();
+        
+        ListOfFloatArrays scalingVector = ZeroScale.scale(contactRecords, tempTargetVector, initialScalingVector,
+                iterations, numThreads, "mmsa_scale");
+        warmStart.record(chrIdx, scalingVector, initialScalingVector != null, iterations.get(),
+                System.currentTimeMillis() - currentTime);
+        
+        if (scalingVector == null) {
+            return null;
+        }
+        return ZeroScale.normalizeVectorByScaleFactor(scalingVector.deepClone(), contactRecords);
     }
 }
@@ -41,6 +41,24 @@ class NormalizationVectorIndexEntry {
         this.sizeInBytes = sizeInBytes;
     }
 
+    /**
+     * @param key as given by NormalizationVector.getKey, i.e. type_chrIdx_unit_resolution
+     */
+    static NormalizationVectorIndexEntry fromKey(String key, long position, long sizeInBytes) {
+        // the type may itself contain underscores (e.g. VC_SQRT), so parse from the end
+        int resolutionStart = key.lastIndexOf('_');
+        int unitStart = key.lastIndexOf('_', resolutionStart - 1);
+        int chrStart = key.lastIndexOf('_', unitStart - 1);
+        return new NormalizationVectorIndexEntry(key.substring(0, chrStart),
+                Integer.parseInt(key.substring(chrStart + 1, unitStart)),
+                key.substring(unitStart + 1, resolutionStart),
+                Integer.parseInt(key.substring(resolutionStart + 1)), position, sizeInBytes);
+    }
+
+    String getKey() {
+        return type + "_" + chrIdx + "_" + unit + "_" + resolution;
+    }
+
     @Override
     public String toString() {
         return type + " " + chrIdx + " " + unit + " " + resolution + " " + position + " " + sizeInBytes;
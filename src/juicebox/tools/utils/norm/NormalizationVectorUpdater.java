@@ -29,7 +29,9 @@ import juicebox.HiCGlobals;
 import juicebox.data.*;
 import juicebox.data.basics.Chromosome;
 import juicebox.data.basics.ListOfFloatArrays;
+import juicebox.tools.utils.norm.final2.ScaleWarmStart;
 import juicebox.tools.utils.original.ExpectedValueCalculation;
+import juicebox.tools.utils.original.LargeIndexEntry;
 import juicebox.windowui.HiCZoom;
 import juicebox.windowui.NormalizationHandler;
 import juicebox.windowui.NormalizationType;
@@ -63,12 +65,27 @@ public class NormalizationVectorUpdater extends NormVectorUpdater {
     protected boolean weShouldBuildKR = true;
     protected boolean weShouldBuildScale = true;
 
+    // SCALE vectors from coarser zooms used to initialize finer zooms; null if not enabled
+    protected ScaleWarmStart scaleWarmStart = null;
+
+    // only build norms missing from the file; see NormVectorUpdater.appendNormsToUpdateFile
+    protected boolean incrementalUpdate = false;
+    protected Map<String, LargeIndexEntry> existingNormVectorIndex = null;
+
     protected static void printNormTiming(String norm, Chromosome chr, HiCZoom zoom, long currentTime) {
         if (HiCGlobals.printVerboseComments) {
             System.out.println(norm + " normalization of " + chr + " at " + zoom + " took " + (System.currentTimeMillis() - currentTime) + " milliseconds");
         }
     }
 
+    public void setUseScaleWarmStart(boolean useScaleWarmStart) {
+        scaleWarmStart = useScaleWarmStart ? new ScaleWarmStart() : null;
+    }
+
+    public void setIncrementalUpdate(boolean incrementalUpdate) {
+        this.incrementalUpdate = incrementalUpdate;
+    }
+
     public void updateHicFile(String path, List<NormalizationType> normalizationsToBuild,
                               Map<NormalizationType, Integer> resolutionsToBuildTo, int genomeWideLowestResolutionAllowed, boolean noFrag) throws IOException {
 
@@ -83,6 +100,7 @@ public class NormalizationVectorUpdater extends NormVectorUpdater {
         DatasetReaderV2 reader = new DatasetReaderV2(path);
         Dataset ds = reader.read();
         HiCGlobals.verifySupportedHiCFileVersion(reader.getVersion());
+        checkIncrementalUpdate(reader);
 
         ChromosomeHandler chromosomeHandler = ds.getChromosomeHandler();
         Map<String, Integer> fragCountMap = ds.getFragmentCounts();
@@ -98,14 +116,25 @@ public class NormalizationVectorUpdater extends NormVectorUpdater {
             }
             if (noFrag && zoom.getUnit() == HiC.Unit.FRAG) continue;
 
+            boolean buildVC = shouldBuildNormAtZoom(ds, weShouldBuildVC, NormalizationHandler.VC, zoom, resolutionsToBuildTo);
+            boolean buildVCSqrt = shouldBuildNormAtZoom(ds, weShouldBuildVCSqrt, NormalizationHandler.VC_SQRT, zoom, resolutionsToBuildTo);
+            boolean buildKR = shouldBuildNormAtZoom(ds, weShouldBuildKR, NormalizationHandler.KR, zoom, resolutionsToBuildTo);
+            boolean buildScale = shouldBuildNormAtZoom(ds, weShouldBuildScale, NormalizationHandler.SCALE, zoom, resolutionsToBuildTo);
+
             Instant A = Instant.now();
 
             // compute genome-wide normalizations
             if (zoom.getUnit() == HiC.Unit.BP && zoom.getBinSize() >= genomeWideLowestResolutionAllowed) {
-                GenomeWideNormalizationVectorUpdater.updateHicFileForGWfromPreAddNormOnly(ds, zoom, normalizationsToBuild, resolutionsToBuildTo,
+                GenomeWideNormalizationVectorUpdater.updateHicFileForGWfromPreAddNormOnly(ds, zoom,
+                        getNormsMissingAtZoom(ds, normalizationsToBuild, zoom), resolutionsToBuildTo,
                         normVectorIndices, normVectorBuffers, expectedValueCalculations);
             }
 
+            if (!(buildVC || buildVCSqrt || buildKR || buildScale)) {
+                System.out.println("\nAll requested norms already present for zoom " + zoom);
+                continue;
+            }
+
             Instant B = Instant.now();
             //System.out.println("genomewide normalization: " + Duration.between(A,B).toMillis());
             System.out.println();
@@ -122,6 +151,10 @@ public class NormalizationVectorUpdater extends NormVectorUpdater {
             B = Instant.now();
             //System.out.println("expected value calc initialization: " + Duration.between(A,B).toMillis());
 
+            if (scaleWarmStart != null) {
+                scaleWarmStart.startZoom(zoom);
+            }
+
             // Loop through chromosomes
             for (Chromosome chr : chromosomeHandler.getChromosomeArrayWithoutAllByAll()) {
 
@@ -134,38 +167,107 @@ public class NormalizationVectorUpdater extends NormVectorUpdater {
                     continue;
                 }
 
-                if (weShouldBuildVC || weShouldBuildVCSqrt) {
-                    buildVCOrVCSQRT(weShouldBuildVC && zoom.getBinSize() >= resolutionsToBuildTo.get(NormalizationHandler.VC),
-                            weShouldBuildVCSqrt && zoom.getBinSize() >= resolutionsToBuildTo.get(NormalizationHandler.VC_SQRT),
-                            chr, nc, zoom, zd, evVC, evVCSqrt);
+                if (buildVC || buildVCSqrt) {
+                    boolean computeVC = buildVC && !reuseExistingVector(ds, NormalizationHandler.VC, chr, zoom, zd, evVC);
+                    boolean computeVCSqrt = buildVCSqrt && !reuseExistingVector(ds, NormalizationHandler.VC_SQRT, chr, zoom, zd, evVCSqrt);
+                    if (computeVC || computeVCSqrt) {
+                        buildVCOrVCSQRT(computeVC, computeVCSqrt, chr, nc, zoom, zd, evVC, evVCSqrt);
+                    }
                 }
 
                 // KR normalization
-                if (weShouldBuildKR && zoom.getBinSize() >= resolutionsToBuildTo.get(NormalizationHandler.KR)) {
+                if (buildKR && !reuseExistingVector(ds, NormalizationHandler.KR, chr, zoom, zd, evKR)) {
                     buildKR(chr, nc, zoom, zd, evKR);
                 }
 
                 // Fast scaling normalization
-                if (weShouldBuildScale && zoom.getBinSize() >= resolutionsToBuildTo.get(NormalizationHandler.SCALE)) {
+                if (buildScale && !reuseExistingVector(ds, NormalizationHandler.SCALE, chr, zoom, zd, evSCALE)) {
                     buildScale(chr, nc, zoom, zd, evSCALE);
                 }
             }
 
-            if (weShouldBuildVC && evVC.hasData() && zoom.getBinSize() >= resolutionsToBuildTo.get(NormalizationHandler.VC)) {
+            if (scaleWarmStart != null) {
+                scaleWarmStart.finishZoom();
+            }
+
+            if (buildVC && evVC.hasData()) {
                 expectedValueCalculations.add(evVC);
             }
-            if (weShouldBuildVCSqrt && evVCSqrt.hasData() && zoom.getBinSize() >= resolutionsToBuildTo.get(NormalizationHandler.VC_SQRT)) {
+            if (buildVCSqrt && evVCSqrt.hasData()) {
                 expectedValueCalculations.add(evVCSqrt);
             }
-            if (weShouldBuildKR && evKR.hasData() && zoom.getBinSize() >= resolutionsToBuildTo.get(NormalizationHandler.KR)) {
+            if (buildKR && evKR.hasData()) {
                 expectedValueCalculations.add(evKR);
             }
-            if (weShouldBuildScale && evSCALE.hasData() && zoom.getBinSize() >= resolutionsToBuildTo.get(NormalizationHandler.SCALE)) {
+            if (buildScale && evSCALE.hasData()) {
                 expectedValueCalculations.add(evSCALE);
             }
         }
-        writeNormsToUpdateFile(reader, path, true, expectedValueCalculations, null, normVectorIndices,
-                normVectorBuffers, "Finished writing norms");
+        writeNorms(reader, ds, path);
+    }
+
+    protected void writeNorms(DatasetReaderV2 reader, Dataset ds, String path) throws IOException {
+        if (existingNormVectorIndex != null) {
+            appendNormsToUpdateFile(reader, ds, path, expectedValueCalculations, normVectorIndices,
+                    normVectorBuffers, "Finished writing norms");
+        } else {
+            writeNormsToUpdateFile(reader, path, true, expectedValueCalculations, null, normVectorIndices,
+                    normVectorBuffers, "Finished writing norms");
+        }
+    }
+
+    /**
+     * Incremental updates need the v9 layout; otherwise fall back to recomputing everything
+     */
+    protected void checkIncrementalUpdate(DatasetReaderV2 reader) {
+        existingNormVectorIndex = null;
+        if (!incrementalUpdate) return;
+        if (reader.getVersion() > 8) {
+            existingNormVectorIndex = reader.getNormVectorIndex() == null ? new HashMap<>() : reader.getNormVectorIndex();
+        } else {
+            System.err.println("Incremental normalization requires a v9 file; recomputing all normalizations");
+        }
+    }
+
+    /**
+     * A norm is built at a zoom if it was requested for that resolution and, for incremental updates,
+     * the file does not already contain its normalized expected vector at that zoom.
+     */
+    protected boolean shouldBuildNormAtZoom(Dataset ds, boolean weShouldBuild, NormalizationType type, HiCZoom zoom,
+                                            Map<NormalizationType, Integer> resolutionsToBuildTo) {
+        if (!weShouldBuild || zoom.getBinSize() < resolutionsToBuildTo.get(type)) return false;
+        return existingNormVectorIndex == null || ds.getExpectedValues(zoom, type) == null;
+    }
+
+    protected List<NormalizationType> getNormsMissingAtZoom(Dataset ds, List<NormalizationType> normalizationsToBuild, HiCZoom zoom) {
+        if (existingNormVectorIndex == null) return normalizationsToBuild;
+        List<NormalizationType> missingNorms = new ArrayList<>();
+        for (NormalizationType type : normalizationsToBuild) {
+            if (ds.getExpectedValues(zoom, type) == null) {
+                missingNorms.add(type);
+            }
+        }
+        return missingNorms;
+    }
+
+    protected boolean normVectorExists(NormalizationType type, int chrIdx, HiCZoom zoom) {
+        return existingNormVectorIndex != null && existingNormVectorIndex.containsKey(
+                NormalizationVector.getKey(type, chrIdx, zoom.getUnit().toString(), zoom.getBinSize()));
+    }
+
+    /**
+     * For incremental updates, a vector already in the file is not recomputed; it is only added to the
+     * expected value calculation being rebuilt for this zoom.
+     *
+     * @return true if the existing vector was used
+     */
+    protected boolean reuseExistingVector(Dataset ds, NormalizationType type, Chromosome chr, HiCZoom zoom,
+                                          MatrixZoomData zd, ExpectedValueCalculation ev) {
+        if (!normVectorExists(type, chr.getIndex(), zoom)) return false;
+        NormalizationVector existingVector = ds.getNormalizationVector(chr.getIndex(), zoom, type);
+        if (existingVector == null) return false;
+        ev.addDistancesFromIterator(chr.getIndex(), zd.getContactRecordList(), existingVector.getData().convertToFloats());
+        return true;
     }
 
     protected void reEvaluateWhichIntraNormsToBuild(List<NormalizationType> normalizationsToBuild) {
@@ -229,7 +331,7 @@ public class NormalizationVectorUpdater extends NormVectorUpdater {
         long currentTime = System.currentTimeMillis();
         
         if (!failureSetMMBA.contains(chr)) {
-            ListOfFloatArrays mmba = nc.computeMMBA();
+            ListOfFloatArrays mmba = nc.computeMMBA(scaleWarmStart, chrIdx);
             
             if (mmba == null) {
                 failureSetMMBA.add(chr);
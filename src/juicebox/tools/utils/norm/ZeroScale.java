@@ -30,10 +30,23 @@ import juicebox.data.basics.ListOfFloatArrays;
 import juicebox.tools.utils.norm.final2.FinalScale;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ZeroScale {
     public static ListOfFloatArrays scale(List<List<ContactRecord>> contactRecordsListOfLists, ListOfFloatArrays targetVectorInitial, String key) {
-        ListOfFloatArrays newVector = FinalScale.scaleToTargetVector(contactRecordsListOfLists, targetVectorInitial);
+        return scale(contactRecordsListOfLists, targetVectorInitial, null, null, key);
+    }
+    
+    public static ListOfFloatArrays scale(List<List<ContactRecord>> contactRecordsListOfLists, ListOfFloatArrays targetVectorInitial,
+                                          ListOfFloatArrays initialScalingVector, AtomicInteger iterationCounter, String key) {
+        return scale(contactRecordsListOfLists, targetVectorInitial, initialScalingVector, iterationCounter, 1, key);
+    }
+    
+    public static ListOfFloatArrays scale(List<List<ContactRecord>> contactRecordsListOfLists, ListOfFloatArrays targetVectorInitial,
+                                          ListOfFloatArrays initialScalingVector, AtomicInteger iterationCounter,
+                                          int numThreads, String key) {
+        ListOfFloatArrays newVector = FinalScale.scaleToTargetVector(contactRecordsListOfLists, targetVectorInitial,
+                initialScalingVector, iterationCounter, numThreads);
         
         if (newVector == null && HiCGlobals.printVerboseComments) {
             System.err.println("Scaling result still null for " + key + "; vector did not converge");
@@ -82,8 +95,13 @@ public class ZeroScale {
     }
     
     public static ListOfFloatArrays mmbaScaleToVector(List<List<ContactRecord>> contactRecords, ListOfFloatArrays tempTargetVector) {
+        return mmbaScaleToVector(contactRecords, tempTargetVector, 1);
+    }
+    
+    public static ListOfFloatArrays mmbaScaleToVector(List<List<ContactRecord>> contactRecords, ListOfFloatArrays tempTargetVector,
+                                                      int numThreads) {
         
-        ListOfFloatArrays newNormVector = scale(contactRecords, tempTargetVector, "mmsa_scale");
+        ListOfFloatArrays newNormVector = scale(contactRecords, tempTargetVector, null, null, numThreads, "mmsa_scale");
         if (newNormVector != null) {
             newNormVector = normalizeVectorByScaleFactor(newNormVector, contactRecords);
         }
@@ -28,9 +28,11 @@ import juicebox.HiCGlobals;
 import juicebox.data.ContactRecord;
 import juicebox.data.basics.ListOfFloatArrays;
 import juicebox.data.basics.ListOfIntArrays;
+import juicebox.tools.utils.norm.ContactRecordPartitions;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class FinalScale {
 
@@ -48,6 +50,27 @@ public class FinalScale {
     private static final float OFFSET = .5f;
     
     public static ListOfFloatArrays scaleToTargetVector(List<List<ContactRecord>> contactRecordsListOfLists, ListOfFloatArrays targetVectorInitial) {
+        return scaleToTargetVector(contactRecordsListOfLists, targetVectorInitial, null, null);
+    }
+    
+    /**
+     * @param initialScalingVector starting point for the scaling vector (e.g. expanded from a coarser resolution);
+     *                             null starts from a vector of ones
+     * @param iterationCounter     if not null, set to the total number of iterations used
+     */
+    public static ListOfFloatArrays scaleToTargetVector(List<List<ContactRecord>> contactRecordsListOfLists, ListOfFloatArrays targetVectorInitial,
+                                                        ListOfFloatArrays initialScalingVector, AtomicInteger iterationCounter) {
+        return scaleToTargetVector(contactRecordsListOfLists, targetVectorInitial, initialScalingVector, iterationCounter, 1);
+    }
+    
+    /**
+     * @param numThreads number of partitions for the sparse matrix-vector products (genome-wide matrices)
+     */
+    public static ListOfFloatArrays scaleToTargetVector(List<List<ContactRecord>> contactRecordsListOfLists, ListOfFloatArrays targetVectorInitial,
+                                                        ListOfFloatArrays initialScalingVector, AtomicInteger iterationCounter,
+                                                        int numThreads) {
+        
+        final ContactRecordPartitions partitions = new ContactRecordPartitions(contactRecordsListOfLists, numThreads);
         
         double low, zHigh, zLow;
         int rlind, zlind, zhind;
@@ -58,7 +81,7 @@ public class FinalScale {
         long k = targetVectorInitial.getLength();
         
         ListOfFloatArrays current = new ListOfFloatArrays(k);
-        ListOfFloatArrays row, col;
+        ListOfFloatArrays row = null, col;
         ListOfFloatArrays rowBackup = new ListOfFloatArrays(k);
         ListOfFloatArrays dr = new ListOfFloatArrays(k);
         ListOfFloatArrays dc = new ListOfFloatArrays(k);
@@ -158,15 +181,25 @@ public class FinalScale {
             }
         }
         
-        row = sparseMultiplyGetRowSums(contactRecordsListOfLists, one, k);
-        rowBackup = row.deepClone();
+        ListOfFloatArrays startVector = getStartVector(initialScalingVector, k);
+        if (startVector == null) {
+            row = sparseMultiplyGetRowSums(partitions, one, k);
+        }
         
         for (long p = 0; p < k; p++) {
             dr.set(p, 1 - bad.get(p));
         }
-        dc = dr.deepClone();
         one = dr.deepClone();
         
+        if (startVector != null) {
+            // warm start: row sums have to be consistent with the initial scaling
+            for (long p = 0; p < k; p++) dr.multiplyBy(p, startVector.get(p));
+            row = sparseMultiplyGetRowSums(partitions, dr, k);
+            for (long p = 0; p < k; p++) row.multiplyBy(p, dr.get(p));
+        }
+        rowBackup = row.deepClone();
+        dc = dr.deepClone();
+        
         // treat separately rows for which z[p] = 0
         for (long p = 0; p < k; p++) {
             if (zTargetVector.get(p) == 0) {
@@ -207,14 +240,14 @@ public class FinalScale {
             }
     
             // find column sums and update rows scaling vector
-            col = sparseMultiplyGetRowSums(contactRecordsListOfLists, dr, k);
+            col = sparseMultiplyGetRowSums(partitions, dr, k);
             for (long p = 0; p < k; p++) col.multiplyBy(p, dc.get(p));
             for (long p = 0; p < k; p++) if (bad1.get(p) == 1) col.set(p, 1.0f);
             for (long p = 0; p < k; p++) s.set(p, zTargetVector.get(p) / col.get(p));
             for (long p = 0; p < k; p++) dc.multiplyBy(p, s.get(p));
     
             // find row sums and update columns scaling vector
-            row = sparseMultiplyGetRowSums(contactRecordsListOfLists, dc, k);
+            row = sparseMultiplyGetRowSums(partitions, dc, k);
             for (long p = 0; p < k; p++) row.multiplyBy(p, dr.get(p));
     
             // calculate current scaling vector
@@ -238,7 +271,7 @@ public class FinalScale {
             //	since calculating the error in row sums requires matrix-vector multiplication we are are doing this every 10
             //	iterations
             if (iter % 10 == 0) {
-                col = sparseMultiplyGetRowSums(contactRecordsListOfLists, calculatedVectorB, k);
+                col = sparseMultiplyGetRowSums(partitions, calculatedVectorB, k);
                 err = 0;
                 for (long p = 0; p < k; p++) {
                     if (bad1.get(p) == 1) continue;
@@ -306,8 +339,11 @@ public class FinalScale {
                         for (long p = 0; p < k; p++) {
                             dr.set(p, 1 - bad.get(p));
                         }
-                        dc = dr.deepClone();
                         one = dr.deepClone();
+                        if (startVector != null) {
+                            for (long p = 0; p < k; p++) dr.multiplyBy(p, startVector.get(p));
+                        }
+                        dc = dr.deepClone();
                         current = dr.deepClone();
                         row = rowBackup.deepClone();
                     } else {
@@ -326,7 +362,7 @@ public class FinalScale {
 
         //	find the final error in row sums
         if (iter % 10 == 0) {
-            col = sparseMultiplyGetRowSums(contactRecordsListOfLists, calculatedVectorB, k);
+            col = sparseMultiplyGetRowSums(partitions, calculatedVectorB, k);
             err = 0;
             for (int p = 0; p < k; p++) {
                 if (bad1.get(p) == 1) continue;
@@ -345,6 +381,10 @@ public class FinalScale {
             }
         }
         
+        if (iterationCounter != null) {
+            iterationCounter.set(allItersI);
+        }
+        
         if (HiCGlobals.printVerboseComments) {
             System.out.println(allItersI);
             System.out.println(localPercentLowRowSumExcluded);
@@ -355,6 +395,22 @@ public class FinalScale {
         return calculatedVectorB;
     }
     
+    /**
+     * @return copy of the initial scaling vector with unusable (NaN or non-positive) entries set to 1,
+     * or null if there is no initial scaling vector
+     */
+    private static ListOfFloatArrays getStartVector(ListOfFloatArrays initialScalingVector, long k) {
+        if (initialScalingVector == null) return null;
+        ListOfFloatArrays startVector = new ListOfFloatArrays(k, 1);
+        for (long p = 0; p < k && p < initialScalingVector.getLength(); p++) {
+            float val = initialScalingVector.get(p);
+            if (val > 0) {
+                startVector.set(p, val);
+            }
+        }
+        return startVector;
+    }
+    
     private static double[] dealWithSorting(double[] vector, int length) {
         double[] realVector = new double[length];
         System.arraycopy(vector, 0, realVector, 0, length);
@@ -362,6 +418,11 @@ public class FinalScale {
         return realVector;
     }
     
+    private static ListOfFloatArrays sparseMultiplyGetRowSums(ContactRecordPartitions partitions,
+                                                               ListOfFloatArrays vector, long vectorLength) {
+        return partitions.sumFloatProducts(records -> sparseMultiplyGetRowSums(records, vector, vectorLength));
+    }
+    
     private static ListOfFloatArrays sparseMultiplyGetRowSums(List<List<ContactRecord>> contactRecordsListOfLists,
                                                                ListOfFloatArrays vector, long vectorLength) {
         ListOfFloatArrays sumVector = new ListOfFloatArrays(vectorLength);
@@ -0,0 +1,132 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2020 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.tools.utils.norm.final2;
+
+import juicebox.data.basics.ListOfFloatArrays;
+import juicebox.windowui.HiCZoom;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Multi-resolution warm start for SCALE balancing.
+ * <p/>
+ * Zooms are expected to be processed from coarsest to finest. The raw scaling vector of each chromosome
+ * at the previous (coarser) zoom is expanded into its child bins and used as the starting point for
+ * FinalScale at the current zoom. Convergence criteria are unchanged; only the number of iterations drops.
+ */
+public class ScaleWarmStart {
+
+    private Map<Integer, ListOfFloatArrays> previousVectors = new ConcurrentHashMap<>();
+    private Map<Integer, ListOfFloatArrays> currentVectors = new ConcurrentHashMap<>();
+    private HiCZoom previousZoom = null;
+    private HiCZoom currentZoom = null;
+
+    private final AtomicInteger numChromosomes = new AtomicInteger(0);
+    private final AtomicInteger numWarmStarted = new AtomicInteger(0);
+    private final AtomicLong totalIterations = new AtomicLong(0);
+    private final AtomicLong totalTime = new AtomicLong(0);
+
+    /**
+     * Expand a coarse scaling vector to a finer resolution; each fine bin takes the factor of the coarse bin
+     * containing it. Factors are multiplied by sqrt(coarseBinSize / fineBinSize) since a fine bin carries
+     * roughly that fraction of the coarse bin's row sum.
+     */
+    public static ListOfFloatArrays expandToFinerResolution(ListOfFloatArrays coarseVector, int coarseBinSize,
+                                                            int fineBinSize, long fineLength) {
+        ListOfFloatArrays fineVector = new ListOfFloatArrays(fineLength, 1);
+        float rescale = (float) Math.sqrt((double) coarseBinSize / fineBinSize);
+        for (long i = 0; i < fineLength; i++) {
+            long coarseIndex = (i * fineBinSize) / coarseBinSize;
+            if (coarseIndex >= coarseVector.getLength()) break;
+            float val = coarseVector.get(coarseIndex);
+            if (val > 0) {
+                fineVector.set(i, val * rescale);
+            }
+        }
+        return fineVector;
+    }
+
+    public synchronized void startZoom(HiCZoom zoom) {
+        if (currentZoom != null) {
+            finishZoom();
+        }
+        currentZoom = zoom;
+        currentVectors = new ConcurrentHashMap<>();
+        numChromosomes.set(0);
+        numWarmStarted.set(0);
+        totalIterations.set(0);
+        totalTime.set(0);
+    }
+
+    /**
+     * @return initial scaling vector for the chromosome at the current zoom, or null if there is
+     * no coarser vector of the same unit to start from
+     */
+    public ListOfFloatArrays getInitialScalingVector(int chrIdx, long length) {
+        if (!canWarmStart()) return null;
+        ListOfFloatArrays coarseVector = previousVectors.get(chrIdx);
+        if (coarseVector == null) return null;
+        return expandToFinerResolution(coarseVector, previousZoom.getBinSize(), currentZoom.getBinSize(), length);
+    }
+
+    private boolean canWarmStart() {
+        return previousZoom != null && currentZoom != null
+                && previousZoom.getUnit() == currentZoom.getUnit()
+                && previousZoom.getBinSize() > currentZoom.getBinSize();
+    }
+
+    /**
+     * @param scalingVector raw FinalScale output (before inversion and sum normalization); null if it failed
+     */
+    public void record(int chrIdx, ListOfFloatArrays scalingVector, boolean wasWarmStarted, int iterations, long timeInMillis) {
+        if (scalingVector != null) {
+            currentVectors.put(chrIdx, scalingVector);
+        }
+        numChromosomes.incrementAndGet();
+        if (wasWarmStarted) numWarmStarted.incrementAndGet();
+        totalIterations.addAndGet(iterations);
+        totalTime.addAndGet(timeInMillis);
+    }
+
+    /**
+     * Print the iteration/time report for the current zoom and keep its vectors for the next (finer) zoom.
+     */
+    public synchronized void finishZoom() {
+        if (currentZoom == null) return;
+        if (numChromosomes.get() > 0) {
+            String source = canWarmStart() ? "warm start from " + previousZoom : "cold start";
+            System.out.println("\nSCALE at " + currentZoom + " (" + source + "): " + numWarmStarted.get() + "/"
+                    + numChromosomes.get() + " chromosomes warm started, " + totalIterations.get()
+                    + " iterations, " + totalTime.get() + " milliseconds");
+            previousZoom = currentZoom;
+            previousVectors = currentVectors;
+        }
+        currentZoom = null;
+        currentVectors = new ConcurrentHashMap<>();
+    }
+}
@@ -34,16 +34,16 @@ package juicebox.tools.utils.original;
  */
 public class AlignmentPair {
 
-    private final boolean strand1;  // true if forward strand
-    private final boolean strand2;
-    private final int frag1;
-    private final int frag2;
-    private final int chr1;
-    private final int pos1;
-    private final int chr2;
-    private final int pos2;
-    private final int mapq1;
-    private final int mapq2;
+    private boolean strand1;  // true if forward strand
+    private boolean strand2;
+    private int frag1;
+    private int frag2;
+    private int chr1;
+    private int pos1;
+    private int chr2;
+    private int pos2;
+    private int mapq1;
+    private int mapq2;
     private float score = 1.0f;  // The score (or count)
     private boolean isContigPair = false;
     private boolean isHeaderLine = false;
@@ -76,6 +76,34 @@ public class AlignmentPair {
     }
 
 
+    /**
+     * Reuses this pair for the next record of an iterator, instead of allocating one per record
+     */
+    void set(boolean strand1, int chr1, int pos1, int frag1, int mapq1, boolean strand2, int chr2, int pos2, int frag2,
+             int mapq2, float score) {
+        this.strand1 = strand1;
+        this.chr1 = chr1;
+        this.pos1 = pos1;
+        this.frag1 = frag1;
+        this.mapq1 = mapq1;
+        this.strand2 = strand2;
+        this.chr2 = chr2;
+        this.pos2 = pos2;
+        this.frag2 = frag2;
+        this.mapq2 = mapq2;
+        this.score = score;
+        this.isContigPair = false;
+        this.isHeaderLine = false;
+    }
+
+    /**
+     * Reuses this pair as a contig pair, with the same dummy values as the default constructor
+     */
+    void setContigPair() {
+        set(false, -1, -1, -1, -1, false, -1, -1, -1, -1, 1.0f);
+        this.isContigPair = true;
+    }
+
     public int getChr1() {
         return chr1;
     }
@@ -143,4 +171,8 @@ public class AlignmentPair {
         return this.isContigPair;
     }
 
+    public boolean isHeaderLine() {
+        return this.isHeaderLine;
+    }
+
 }
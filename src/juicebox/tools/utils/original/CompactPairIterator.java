@@ -0,0 +1,209 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2020 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.tools.utils.original;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Iterates over the pairs of a compact pairs file, one block at a time. The block buffers and
+ * the returned pair are reused, so nothing is allocated per pair: the pair returned by next()
+ * is only valid until the following call.
+ */
+public class CompactPairIterator implements PairIterator {
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final List<CompactPairsFile.BlockEntry> blocks;
+    private final int[] chromosomeMap;
+    private final Inflater decompressor = new Inflater();
+    private final AlignmentPair pair = new AlignmentPair();
+
+    private ByteBuffer compressed = ByteBuffer.allocate(0);
+    private byte[] raw = new byte[0];
+    private final byte[] strands = new byte[CompactPairsFile.PAIRS_PER_BLOCK];
+    private final int[] pos1 = new int[CompactPairsFile.PAIRS_PER_BLOCK];
+    private final int[] pos2 = new int[CompactPairsFile.PAIRS_PER_BLOCK];
+    private final int[] frag1 = new int[CompactPairsFile.PAIRS_PER_BLOCK];
+    private final int[] frag2 = new int[CompactPairsFile.PAIRS_PER_BLOCK];
+    private final int[] mapq1 = new int[CompactPairsFile.PAIRS_PER_BLOCK];
+    private final int[] mapq2 = new int[CompactPairsFile.PAIRS_PER_BLOCK];
+    private final float[] scores = new float[CompactPairsFile.PAIRS_PER_BLOCK];
+
+    private int nextBlockIndex = 0;
+    private int blockChr1, blockChr2;
+    private boolean isContigBlock, hasScores;
+    private int blockSize = 0;
+    private int nextPairIndex = 0;
+    private int rawPosition;
+
+    CompactPairIterator(String path, List<CompactPairsFile.BlockEntry> blocks, int[] chromosomeMap) throws IOException {
+        this.file = new RandomAccessFile(path, "r");
+        this.channel = file.getChannel();
+        this.blocks = blocks;
+        this.chromosomeMap = chromosomeMap;
+    }
+
+    /**
+     * @throws UncheckedIOException if a block cannot be read, so that pre stops instead of writing a file
+     *                              with the pairs of the block missing
+     */
+    public boolean hasNext() {
+        while (nextPairIndex >= blockSize && nextBlockIndex < blocks.size()) {
+            try {
+                readBlock(blocks.get(nextBlockIndex++));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return nextPairIndex < blockSize;
+    }
+
+    public AlignmentPair next() {
+        if (!hasNext()) {
+            return null;
+        }
+        int i = nextPairIndex++;
+        if (isContigBlock) {
+            pair.setContigPair();
+        } else {
+            int strand = strands[i];
+            pair.set((strand & 1) != 0, blockChr1, pos1[i], frag1[i], mapq1[i],
+                    (strand & 2) != 0, blockChr2, pos2[i], frag2[i], mapq2[i], hasScores ? scores[i] : 1.0f);
+        }
+        return pair;
+    }
+
+    public void remove() {
+    }
+
+    public void close() {
+        decompressor.end();
+        try {
+            file.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void readBlock(CompactPairsFile.BlockEntry block) throws IOException {
+        if (compressed.capacity() < block.compressedLength) {
+            compressed = ByteBuffer.allocate(block.compressedLength);
+        }
+        compressed.clear();
+        compressed.limit(block.compressedLength);
+        long position = block.position;
+        while (compressed.hasRemaining()) {
+            int n = channel.read(compressed, position);
+            if (n < 0) throw new IOException("Unexpected end of compact pairs file");
+            position += n;
+        }
+
+        if (raw.length < block.rawLength) {
+            raw = new byte[block.rawLength];
+        }
+        decompressor.reset();
+        decompressor.setInput(compressed.array(), 0, block.compressedLength);
+        try {
+            int length = 0;
+            while (length < block.rawLength && !decompressor.finished()) {
+                int n = decompressor.inflate(raw, length, block.rawLength - length);
+                if (n == 0 && (decompressor.needsInput() || decompressor.needsDictionary())) {
+                    throw new IOException("Truncated block in compact pairs file");
+                }
+                length += n;
+            }
+            if (length < block.rawLength) {
+                throw new IOException("Truncated block in compact pairs file");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block in compact pairs file", e);
+        }
+
+        blockSize = block.numPairs;
+        nextPairIndex = 0;
+        isContigBlock = block.chr1 < 0 || block.chr2 < 0 ||
+                chromosomeMap[block.chr1] < 0 || chromosomeMap[block.chr2] < 0;
+        if (isContigBlock) {
+            return;
+        }
+        blockChr1 = chromosomeMap[block.chr1];
+        blockChr2 = chromosomeMap[block.chr2];
+        decodeColumns(block.numPairs);
+    }
+
+    private void decodeColumns(int n) {
+        rawPosition = 0;
+        int flags = raw[rawPosition++];
+        hasScores = (flags & CompactPairsFile.HAS_SCORES) != 0;
+        System.arraycopy(raw, rawPosition, strands, 0, n);
+        rawPosition += n;
+
+        int previous = 0;
+        for (int i = 0; i < n; i++) {
+            previous += readZigZag();
+            pos1[i] = previous;
+        }
+        for (int i = 0; i < n; i++) {
+            pos2[i] = pos1[i] + readZigZag();
+        }
+        previous = 0;
+        for (int i = 0; i < n; i++) {
+            previous += readZigZag();
+            frag1[i] = previous;
+        }
+        for (int i = 0; i < n; i++) {
+            frag2[i] = frag1[i] + readZigZag();
+        }
+        for (int i = 0; i < n; i++) {
+            mapq1[i] = readZigZag();
+        }
+        for (int i = 0; i < n; i++) {
+            mapq2[i] = readZigZag();
+        }
+        if (hasScores) {
+            ByteBuffer.wrap(raw, rawPosition, 4 * n).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(scores, 0, n);
+        }
+    }
+
+    private int readZigZag() {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = raw[rawPosition++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
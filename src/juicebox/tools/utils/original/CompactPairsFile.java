@@ -0,0 +1,166 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2020 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.tools.utils.original;
+
+import htsjdk.tribble.util.LittleEndianInputStream;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary pairs file, for running pre repeatedly on the same pairs without parsing text.
+ * <p/>
+ * Pairs are stored in blocks of up to PAIRS_PER_BLOCK pairs of a single chromosome pair, in the order of the input.
+ * Each block is stored by columns (strands, positions, fragments, mapqs and optional scores), with positions and
+ * fragments delta coded as zigzag varints, and then deflated. The index at the end of the file lists
+ * the chromosome pair, position and size of every block, so the pairs of one chromosome pair can be read
+ * without reading the rest of the file (which replaces the merged_nodups index of multithreaded pre).
+ * <p/>
+ * Layout: "CPAIRS" magic string, version, index position, genome ID, chromosome names; blocks; index.
+ * Read names and sequences of the long format are not kept, so the ligation and dangling end counts of
+ * pre --compute-statistics cannot be made from this format. See CompactPairsWriter and CompactPairIterator.
+ */
+public class CompactPairsFile {
+
+    static final String MAGIC = "CPAIRS";
+    static final int VERSION = 1;
+    static final int PAIRS_PER_BLOCK = 1 << 16;
+    public static final String EXTENSION = ".cpairs";
+
+    // column flags of a block
+    static final int HAS_SCORES = 1;
+
+    private final String path;
+    private final String genomeId;
+    private final String[] chromosomeNames;
+    private final List<BlockEntry> blocks;
+
+    static class BlockEntry {
+        final int chr1, chr2;  // as in the chromosome names of the file, -1 for contig pairs
+        final int numPairs;
+        final long position;
+        final int compressedLength;
+        final int rawLength;
+
+        BlockEntry(int chr1, int chr2, int numPairs, long position, int compressedLength, int rawLength) {
+            this.chr1 = chr1;
+            this.chr2 = chr2;
+            this.numPairs = numPairs;
+            this.position = position;
+            this.compressedLength = compressedLength;
+            this.rawLength = rawLength;
+        }
+    }
+
+    public CompactPairsFile(String path) throws IOException {
+        this.path = path;
+        long indexPosition;
+        try (LittleEndianInputStream is = new LittleEndianInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            String magic = is.readString();
+            if (!MAGIC.equals(magic)) {
+                throw new IOException(path + " is not a compact pairs file");
+            }
+            int version = is.readInt();
+            if (version > VERSION) {
+                throw new IOException("Unsupported compact pairs version " + version + " in " + path);
+            }
+            indexPosition = is.readLong();
+            genomeId = is.readString();
+            chromosomeNames = new String[is.readInt()];
+            for (int i = 0; i < chromosomeNames.length; i++) {
+                chromosomeNames[i] = is.readString();
+            }
+        }
+
+        try (FileInputStream fis = new FileInputStream(path)) {
+            fis.getChannel().position(indexPosition);
+            LittleEndianInputStream is = new LittleEndianInputStream(new BufferedInputStream(fis));
+            int numBlocks = is.readInt();
+            List<BlockEntry> blockList = new ArrayList<>(numBlocks);
+            for (int i = 0; i < numBlocks; i++) {
+                blockList.add(new BlockEntry(is.readInt(), is.readInt(), is.readInt(), is.readLong(), is.readInt(),
+                        is.readInt()));
+            }
+            blocks = Collections.unmodifiableList(blockList);
+        }
+    }
+
+    public static boolean isCompactPairsFile(String path) {
+        return path.endsWith(EXTENSION);
+    }
+
+    public String getGenomeId() {
+        return genomeId;
+    }
+
+    public long getNumPairs() {
+        long numPairs = 0;
+        for (BlockEntry block : blocks) {
+            numPairs += block.numPairs;
+        }
+        return numPairs;
+    }
+
+    /**
+     * @param chromosomeIndexes index of each chromosome name in the chromosome handler; pairs on
+     *                          other chromosomes are returned as contig pairs
+     * @return iterator over all pairs, in the order they were written
+     */
+    public CompactPairIterator iterator(Map<String, Integer> chromosomeIndexes) throws IOException {
+        return new CompactPairIterator(path, blocks, getChromosomeMap(chromosomeIndexes));
+    }
+
+    /**
+     * @return iterator over the pairs between chromosomes chr1 and chr2 (indexes of the chromosome handler),
+     * in either order, reading only their blocks; chr1 = chr2 = -1 gives the contig pairs
+     */
+    public CompactPairIterator iterator(Map<String, Integer> chromosomeIndexes, int chr1, int chr2) throws IOException {
+        int[] chromosomeMap = getChromosomeMap(chromosomeIndexes);
+        List<BlockEntry> pairBlocks = new ArrayList<>();
+        for (BlockEntry block : blocks) {
+            int blockChr1 = -1, blockChr2 = -1;
+            if (block.chr1 >= 0 && block.chr2 >= 0 && chromosomeMap[block.chr1] >= 0 && chromosomeMap[block.chr2] >= 0) {
+                blockChr1 = chromosomeMap[block.chr1];
+                blockChr2 = chromosomeMap[block.chr2];
+            }
+            if ((blockChr1 == chr1 && blockChr2 == chr2) || (blockChr1 == chr2 && blockChr2 == chr1)) {
+                pairBlocks.add(block);
+            }
+        }
+        return new CompactPairIterator(path, pairBlocks, chromosomeMap);
+    }
+
+    private int[] getChromosomeMap(Map<String, Integer> chromosomeIndexes) {
+        int[] chromosomeMap = new int[chromosomeNames.length];
+        for (int i = 0; i < chromosomeNames.length; i++) {
+            Integer index = chromosomeIndexes.get(chromosomeNames[i]);
+            chromosomeMap[i] = index == null ? -1 : index;
+        }
+        return chromosomeMap;
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2020 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.tools.utils.original;
+
+import htsjdk.tribble.util.LittleEndianOutputStream;
+import juicebox.data.ChromosomeHandler;
+import juicebox.data.basics.Chromosome;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a compact pairs file (see CompactPairsFile). Pairs are buffered by columns until the block is full or the
+ * chromosome pair changes, so pairs sorted by chromosome pair, like merged_nodups, give the fewest and best compressed
+ * blocks; unsorted pairs are still written correctly.
+ */
+public class CompactPairsWriter implements Closeable {
+
+    private static final int INDEX_POSITION_OFFSET = CompactPairsFile.MAGIC.length() + 1 + 4;
+    private static final int MAX_RAW_LENGTH = 1 + CompactPairsFile.PAIRS_PER_BLOCK * (1 + 6 * 5 + 4);
+
+    private final String path;
+    private final LittleEndianOutputStream les;
+    private final Deflater compressor = new Deflater();
+    private final List<CompactPairsFile.BlockEntry> blocks = new ArrayList<>();
+
+    private final byte[] strands = new byte[CompactPairsFile.PAIRS_PER_BLOCK];
+    private final int[] pos1 = new int[CompactPairsFile.PAIRS_PER_BLOCK];
+    private final int[] pos2 = new int[CompactPairsFile.PAIRS_PER_BLOCK];
+    private final int[] frag1 = new int[CompactPairsFile.PAIRS_PER_BLOCK];
+    private final int[] frag2 = new int[CompactPairsFile.PAIRS_PER_BLOCK];
+    private final int[] mapq1 = new int[CompactPairsFile.PAIRS_PER_BLOCK];
+    private final int[] mapq2 = new int[CompactPairsFile.PAIRS_PER_BLOCK];
+    private final float[] scores = new float[CompactPairsFile.PAIRS_PER_BLOCK];
+    private final byte[] raw = new byte[MAX_RAW_LENGTH];
+    private byte[] compressed = new byte[MAX_RAW_LENGTH / 4];
+    private int rawLength;
+
+    private int blockChr1 = -1, blockChr2 = -1;
+    private int blockSize = 0;
+    private boolean hasScores = false;
+
+    /**
+     * @param chromosomeHandler chromosomes of the genome; pairs passed to add() use their indexes
+     */
+    public CompactPairsWriter(String path, String genomeId, ChromosomeHandler chromosomeHandler) throws IOException {
+        this.path = path;
+        Chromosome[] chromosomes = chromosomeHandler.getChromosomeArray();
+        int numNames = 0;
+        for (Chromosome c : chromosomes) {
+            numNames = Math.max(numNames, c.getIndex() + 1);
+        }
+        String[] chromosomeNames = new String[numNames];
+        for (Chromosome c : chromosomes) {
+            chromosomeNames[c.getIndex()] = c.getName();
+        }
+
+        les = new LittleEndianOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+        les.writeString(CompactPairsFile.MAGIC);
+        les.writeInt(CompactPairsFile.VERSION);
+        les.writeLong(0L);  // index position, filled in by close()
+        les.writeString(genomeId);
+        les.writeInt(numNames);
+        for (String name : chromosomeNames) {
+            les.writeString(name == null ? "" : name);
+        }
+    }
+
+    /**
+     * Converts a text pairs file (any format read by AsciiPairIterator) to a compact pairs file
+     */
+    public static void convert(String inputPath, String outputPath, String genomeId,
+                               ChromosomeHandler chromosomeHandler) throws IOException {
+        Map<String, Integer> chromosomeIndexes = new HashMap<>();
+        for (Chromosome c : chromosomeHandler.getChromosomeArray()) {
+            chromosomeIndexes.put(c.getName(), c.getIndex());
+        }
+
+        AsciiPairIterator iter = null;
+        CompactPairsWriter writer = null;
+        try {
+            iter = new AsciiPairIterator(inputPath, chromosomeIndexes, chromosomeHandler);
+            writer = new CompactPairsWriter(outputPath, genomeId, chromosomeHandler);
+            while (iter.hasNext()) {
+                writer.add(iter.next());
+            }
+        } finally {
+            if (iter != null) iter.close();
+            if (writer != null) writer.close();
+        }
+    }
+
+    public void add(AlignmentPair pair) throws IOException {
+        if (pair.isHeaderLine()) {
+            return;
+        }
+        int chr1 = pair.isContigPair() ? -1 : pair.getChr1();
+        int chr2 = pair.isContigPair() ? -1 : pair.getChr2();
+        if (blockSize == CompactPairsFile.PAIRS_PER_BLOCK || (blockSize > 0 && (chr1 != blockChr1 || chr2 != blockChr2))) {
+            writeBlock();
+        }
+        blockChr1 = chr1;
+        blockChr2 = chr2;
+        if (chr1 >= 0) {
+            int i = blockSize;
+            strands[i] = (byte) ((pair.getStrand1() ? 1 : 0) | (pair.getStrand2() ? 2 : 0));
+            pos1[i] = pair.getPos1();
+            pos2[i] = pair.getPos2();
+            frag1[i] = pair.getFrag1();
+            frag2[i] = pair.getFrag2();
+            mapq1[i] = pair.getMapq1();
+            mapq2[i] = pair.getMapq2();
+            scores[i] = pair.getScore();
+            hasScores |= pair.getScore() != 1.0f;
+        }
+        blockSize++;
+    }
+
+    public void close() throws IOException {
+        try {
+            if (blockSize > 0) {
+                writeBlock();
+            }
+            long indexPosition = les.getWrittenCount();
+            les.writeInt(blocks.size());
+            for (CompactPairsFile.BlockEntry block : blocks) {
+                les.writeInt(block.chr1);
+                les.writeInt(block.chr2);
+                les.writeInt(block.numPairs);
+                les.writeLong(block.position);
+                les.writeInt(block.compressedLength);
+                les.writeInt(block.rawLength);
+            }
+            les.close();
+
+            try (RandomAccessFile raf = new RandomAccessFile(path, "rw")) {
+                raf.seek(INDEX_POSITION_OFFSET);
+                raf.writeLong(Long.reverseBytes(indexPosition));
+            }
+        } finally {
+            compressor.end();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        // contig blocks only keep the count
+        rawLength = 0;
+        if (blockChr1 >= 0) {
+            encodeColumns();
+        }
+
+        compressor.reset();
+        compressor.setInput(raw, 0, rawLength);
+        compressor.finish();
+        int compressedLength = 0;
+        while (!compressor.finished()) {
+            if (compressedLength == compressed.length) {
+                byte[] larger = new byte[2 * compressed.length];
+                System.arraycopy(compressed, 0, larger, 0, compressedLength);
+                compressed = larger;
+            }
+            compressedLength += compressor.deflate(compressed, compressedLength, compressed.length - compressedLength);
+        }
+
+        blocks.add(new CompactPairsFile.BlockEntry(blockChr1, blockChr2, blockSize, les.getWrittenCount(),
+                compressedLength, rawLength));
+        les.write(compressed, 0, compressedLength);
+        blockSize = 0;
+        hasScores = false;
+    }
+
+    private void encodeColumns() {
+        int n = blockSize;
+        raw[rawLength++] = (byte) (hasScores ? CompactPairsFile.HAS_SCORES : 0);
+        System.arraycopy(strands, 0, raw, rawLength, n);
+        rawLength += n;
+
+        int previous = 0;
+        for (int i = 0; i < n; i++) {
+            writeZigZag(pos1[i] - previous);
+            previous = pos1[i];
+        }
+        for (int i = 0; i < n; i++) {
+            writeZigZag(pos2[i] - pos1[i]);
+        }
+        previous = 0;
+        for (int i = 0; i < n; i++) {
+            writeZigZag(frag1[i] - previous);
+            previous = frag1[i];
+        }
+        for (int i = 0; i < n; i++) {
+            writeZigZag(frag2[i] - frag1[i]);
+        }
+        for (int i = 0; i < n; i++) {
+            writeZigZag(mapq1[i]);
+        }
+        for (int i = 0; i < n; i++) {
+            writeZigZag(mapq2[i]);
+        }
+        if (hasScores) {
+            for (int i = 0; i < n; i++) {
+                int bits = Float.floatToIntBits(scores[i]);
+                raw[rawLength++] = (byte) bits;
+                raw[rawLength++] = (byte) (bits >>> 8);
+                raw[rawLength++] = (byte) (bits >>> 16);
+                raw[rawLength++] = (byte) (bits >>> 24);
+            }
+        }
+    }
+
+    private void writeZigZag(int value) {
+        int zigZag = (value << 1) ^ (value >> 31);
+        while ((zigZag & ~0x7F) != 0) {
+            raw[rawLength++] = (byte) ((zigZag & 0x7F) | 0x80);
+            zigZag >>>= 7;
+        }
+        raw[rawLength++] = (byte) zigZag;
+    }
+}
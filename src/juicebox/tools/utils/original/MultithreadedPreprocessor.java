@@ -27,15 +27,17 @@ package juicebox.tools.utils.original;
 import htsjdk.tribble.util.LittleEndianOutputStream;
 import juicebox.HiCGlobals;
 import juicebox.data.ChromosomeHandler;
+import juicebox.tools.clt.old.StatisticsContainer;
+import juicebox.tools.clt.old.StatisticsWorker;
+import juicebox.tools.utils.common.TaskRunner;
 import juicebox.windowui.NormalizationHandler;
 import org.broad.igv.util.Pair;
 
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.Deflater;
 
 
@@ -52,7 +54,10 @@ public class MultithreadedPreprocessor extends Preprocessor {
     private final Map<Integer, Map<Long, List<IndexEntry>>> chromosomePairBlockIndexes;
     protected static int numCPUThreads = 1;
     private final Map<Integer, Map<String, ExpectedValueCalculation>> allLocalExpectedValueCalculations;
+    private final Map<Integer, StatisticsContainer> allLocalStatistics = new ConcurrentHashMap<>();
     protected static Map<Integer, Long> mndIndex = null;
+    private CompactPairsFile compactPairsFile = null;
+    private final AtomicReference<IOException> readFailure = new AtomicReference<>();
 
     public MultithreadedPreprocessor(File outputFile, String genomeId, ChromosomeHandler chromosomeHandler, double hicFileScalingFactor) {
         super(outputFile, genomeId, chromosomeHandler, hicFileScalingFactor);
@@ -168,12 +173,18 @@ public class MultithreadedPreprocessor extends Preprocessor {
 
     private void writeBodySingleChromosomePair(String inputFile, String splitInputFile, int givenChromosomePairIndex, Set<String> syncWrittenMatrices, ChromosomeHandler
             localChromosomeHandler, Map<String, ExpectedValueCalculation>
-            localExpectedValueCalculations, Long mndIndexPosition) throws IOException {
+            localExpectedValueCalculations, Long mndIndexPosition, StatisticsWorker statistics) throws IOException {
 
         MatrixPP wholeGenomeMatrix = getInitialGenomeWideMatrixPP(localChromosomeHandler);
+        // pairs of other chromosome pairs are read before a block ends, and are counted by their own worker;
+        // contig pairs are only read by the worker of the block before them, so they are counted here
+        int givenChr1 = chromosomePairIndex1.get(givenChromosomePairIndex);
+        int givenChr2 = chromosomePairIndex2.get(givenChromosomePairIndex);
 
         PairIterator iter;
-        if (mndIndex == null) {
+        if (compactPairsFile != null) {
+            iter = compactPairsFile.iterator(chromosomeIndexes, givenChr1, givenChr2);
+        } else if (mndIndex == null) {
             iter = (inputFile.endsWith(".bin")) ?
                     new BinPairIterator(splitInputFile) :
                     new AsciiPairIterator(splitInputFile, chromosomeIndexes, chromosomeHandler);
@@ -192,6 +203,10 @@ public class MultithreadedPreprocessor extends Preprocessor {
 
         while (iter.hasNext()) {
             AlignmentPair pair = iter.next();
+            if (statistics != null && (pair.isContigPair() ||
+                    (Math.min(pair.getChr1(), pair.getChr2()) == givenChr1 && Math.max(pair.getChr1(), pair.getChr2()) == givenChr2))) {
+                statistics.processPair(pair);
+            }
             // skip pairs that mapped to contigs
             if (!pair.isContigPair()) {
                 if (shouldSkipContact(pair)) continue;
@@ -301,23 +316,29 @@ public class MultithreadedPreprocessor extends Preprocessor {
     @Override
     protected void writeBody(String inputFile, Map<Integer, Long> mndIndex) throws IOException {
 
+        // the block index of a compact pairs file takes the place of the merged_nodups index
+        if (CompactPairsFile.isCompactPairsFile(inputFile)) {
+            compactPairsFile = new CompactPairsFile(inputFile);
+        }
+
+        if (computeStatistics && compactPairsFile == null && mndIndex == null) {
+            System.err.println("Warning: pairs mapped to contigs are not in the per chromosome pair files; " +
+                    "they are not counted in the statistics (use --mndindex or a single thread to count them)");
+        }
+
         Set<String> syncWrittenMatrices = Collections.synchronizedSet(new HashSet<>());
         final AtomicInteger chromosomePair = new AtomicInteger(1);
 
-        ExecutorService executor = Executors.newFixedThreadPool(numCPUThreads);
-        for (int l = 0; l < numCPUThreads; l++) {
-            final int threadNum = l;
-            Runnable worker = new Runnable() {
-                @Override
-                public void run() {
-                    runIndividualMatrixCode(chromosomePair, inputFile, syncWrittenMatrices, threadNum, mndIndex);
-                }
-            };
-            executor.execute(worker);
-        }
-        executor.shutdown();
-        // Wait until all threads finish
-        while (!executor.isTerminated()) {
+        final AtomicInteger workerIndex = new AtomicInteger(0);
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                runIndividualMatrixCode(chromosomePair, inputFile, syncWrittenMatrices, workerIndex.getAndIncrement(), mndIndex);
+            }
+        };
+        TaskRunner.getShared(numCPUThreads).runWorkers("Preprocessing", numCPUThreads, worker);
+        if (readFailure.get() != null) {
+            throw new IOException("Unable to read " + inputFile, readFailure.get());
         }
 
         MatrixPP wholeGenomeMatrix = getInitialGenomeWideMatrixPP(chromosomeHandler);
@@ -361,6 +382,31 @@ public class MultithreadedPreprocessor extends Preprocessor {
                 }
             }
         }
+
+        if (computeStatistics) {
+            statisticsContainer = new StatisticsContainer();
+            for (StatisticsContainer localStatistics : allLocalStatistics.values()) {
+                statisticsContainer.add(localStatistics, 1);
+            }
+        }
+    }
+
+    /**
+     * Adds the contig pairs before the first indexed block of the merged_nodups file to the statistics; those
+     * after a block are read, and counted, by the worker of that block
+     */
+    private void countLeadingContigPairs(String inputFile, Map<Integer, Long> mndIndex, StatisticsWorker statistics) throws IOException {
+        if (mndIndex.isEmpty() || Collections.min(mndIndex.values()) == 0) return;
+        PairIterator iter = new AsciiPairIterator(inputFile, chromosomeIndexes, 0, chromosomeHandler);
+        try {
+            while (iter.hasNext()) {
+                AlignmentPair pair = iter.next();
+                if (!pair.isContigPair() && !pair.isHeaderLine()) break;
+                statistics.processPair(pair);
+            }
+        } finally {
+            iter.close();
+        }
     }
 
     void runIndividualMatrixCode(AtomicInteger chromosomePair, String inputFile, Set<String> syncWrittenMatrices, int threadNum,
@@ -394,10 +440,29 @@ public class MultithreadedPreprocessor extends Preprocessor {
 
             }
         }
+        StatisticsWorker localStatistics = createStatisticsWorker(inputFile);
+        if (localStatistics != null && mndIndex != null && threadNum == 0) {
+            try {
+                countLeadingContigPairs(inputFile, mndIndex, localStatistics);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
         while (i < localChromosomePairCounter) {
             //long A = System.currentTimeMillis();
             Long mndIndexPosition = (long) 0;
-            if (mndIndex != null) {
+            if (compactPairsFile != null) {
+                try {
+                    writeBodySingleChromosomePair(inputFile, null, i, syncWrittenMatrices, chromosomeHandler, localExpectedValueCalculations, mndIndexPosition, localStatistics);
+                } catch (UncheckedIOException e) {
+                    // a damaged block would leave pairs out of the file; stop all workers and fail in writeBody
+                    readFailure.compareAndSet(null, e.getCause());
+                    chromosomePair.set(localChromosomePairCounter);
+                    return;
+                } catch (Exception e2) {
+                    e2.printStackTrace();
+                }
+            } else if (mndIndex != null) {
                 if (!mndIndex.containsKey(i)) {
                     System.out.println("No index position for " + chromosomePairIndexes.get(i));
                     i = chromosomePair.getAndIncrement();
@@ -405,7 +470,7 @@ public class MultithreadedPreprocessor extends Preprocessor {
                 } else {
                     mndIndexPosition = mndIndex.get(i);
                     try {
-                        writeBodySingleChromosomePair(inputFile, null, i, syncWrittenMatrices, chromosomeHandler, localExpectedValueCalculations, mndIndexPosition);
+                        writeBodySingleChromosomePair(inputFile, null, i, syncWrittenMatrices, chromosomeHandler, localExpectedValueCalculations, mndIndexPosition, localStatistics);
                     } catch (Exception e2) {
                         e2.printStackTrace();
                     }
@@ -423,10 +488,10 @@ public class MultithreadedPreprocessor extends Preprocessor {
                 }
 
                 try {
-                    writeBodySingleChromosomePair(inputFile, chrInputFile, i, syncWrittenMatrices, chromosomeHandler, localExpectedValueCalculations, mndIndexPosition);
+                    writeBodySingleChromosomePair(inputFile, chrInputFile, i, syncWrittenMatrices, chromosomeHandler, localExpectedValueCalculations, mndIndexPosition, localStatistics);
                 } catch (Exception e) {
                     try {
-                        writeBodySingleChromosomePair(inputFile, chrInputFile2, i, syncWrittenMatrices, chromosomeHandler, localExpectedValueCalculations, mndIndexPosition);
+                        writeBodySingleChromosomePair(inputFile, chrInputFile2, i, syncWrittenMatrices, chromosomeHandler, localExpectedValueCalculations, mndIndexPosition, localStatistics);
                     } catch (Exception e2) {
                         System.err.println("Unable to open " + inputFile + "_" + chromosomePairIndexes.get(i));
                     }
@@ -448,6 +513,9 @@ public class MultithreadedPreprocessor extends Preprocessor {
             i = chromosomePair.getAndIncrement();
         }
         allLocalExpectedValueCalculations.put(threadNum, localExpectedValueCalculations);
+        if (localStatistics != null) {
+            allLocalStatistics.put(threadNum, localStatistics.getResultsContainer());
+        }
     }
     @Override
     // MatrixPP matrix, LittleEndianOutputStream los, Deflater compressor
@@ -33,11 +33,14 @@ import juicebox.data.ChromosomeHandler;
 import juicebox.data.basics.Chromosome;
 import juicebox.data.basics.ListOfDoubleArrays;
 import juicebox.tools.clt.CommandLineParser.Alignment;
+import juicebox.tools.clt.old.StatisticsContainer;
+import juicebox.tools.clt.old.StatisticsWorker;
 import juicebox.windowui.NormalizationHandler;
 import org.broad.igv.tdf.BufferedByteWriter;
 import org.broad.igv.util.Pair;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.Deflater;
@@ -73,6 +76,12 @@ public class Preprocessor {
     protected String fragmentFileName = null;
     protected String statsFileName = null;
     protected String graphFileName = null;
+    protected boolean computeStatistics = false;
+    protected String ligationJunction = null;
+    protected StatisticsContainer statisticsContainer = null;
+    private String previousStatistics = "";
+    private long statisticsPosition, graphsPosition;
+    private int statisticsLength, graphsLength;
     protected String expectedVectorFile = null;
     protected Set<String> randomizeFragMapFiles = null;
     protected FragmentCalculation fragmentCalculation = null;
@@ -157,6 +166,18 @@ public class Preprocessor {
         this.graphFileName = graphFileName;
     }
 
+    /**
+     * Compute the statistics and graphs of the statistics command while parsing the pairs,
+     * instead of reading them from the statistics and graphs files
+     */
+    public void setComputeStatistics(boolean computeStatistics) {
+        this.computeStatistics = computeStatistics;
+    }
+
+    public void setLigationJunction(String ligationJunction) {
+        this.ligationJunction = ligationJunction;
+    }
+
     public void setGenome(String genome) {
         if (genome != null) {
             this.genomeId = genome;
@@ -376,6 +397,18 @@ public class Preprocessor {
                 }
             }
 
+            if (computeStatistics) {
+                // the statistics are only known after the body is written; reserve room for them in the header
+                previousStatistics = stats == null ? "" : stats.toString();
+                stats = new StringBuilder(previousStatistics);
+                appendPadding(stats, StatisticsContainer.MAX_STATS_TEXT_LENGTH);
+                if (graphs != null) {
+                    System.out.println("Replacing " + graphFileName + " with the computed graphs");
+                }
+                graphs = new StringBuilder();
+                appendPadding(graphs, StatisticsContainer.MAX_HIST_TEXT_LENGTH);
+            }
+
             if (expectedVectorFile == null) {
                 expectedValueCalculations = Collections.synchronizedMap(new LinkedHashMap<>());
                 for (int bBinSize : bpBinSizes) {
@@ -441,6 +474,9 @@ public class Preprocessor {
         }
 
         updateMasterIndex(headerFile);
+        if (computeStatistics) {
+            updateStatistics(headerFile);
+        }
         System.out.println("\nFinished preprocess");
     }
 
@@ -485,11 +521,15 @@ public class Preprocessor {
         los.writeString("Juicer Tools Version " + HiCGlobals.versionNum);
         if (stats != null) {
             los.writeString(STATISTICS);
+            statisticsPosition = los.getWrittenCount();
             los.writeString(stats.toString());
+            statisticsLength = (int) (los.getWrittenCount() - statisticsPosition - 1);  // bytes, without the 0
         }
         if (graphs != null) {
             los.writeString(GRAPHS);
+            graphsPosition = los.getWrittenCount();
             los.writeString(graphs.toString());
+            graphsLength = (int) (los.getWrittenCount() - graphsPosition - 1);
         }
         if (hicFileScaling != null) {
             los.writeString(HIC_FILE_SCALING);
@@ -555,6 +595,7 @@ public class Preprocessor {
         MatrixPP matrix = getInitialGenomeWideMatrixPP(chromosomeHandler);
 
         PairIterator iter = null;
+        StatisticsWorker statistics = createStatisticsWorker(file);
 
         //int belowMapq = 0;
         //int intraFrag = 0;
@@ -564,13 +605,14 @@ public class Preprocessor {
 
         // Create an index the first time through
         try {
-            iter = (file.endsWith(".bin")) ?
-                    new BinPairIterator(file) :
-                    new AsciiPairIterator(file, chromosomeIndexes, chromosomeHandler);
+            iter = getPairIterator(file);
 
             while (iter.hasNext()) {
                 totalRead++;
                 AlignmentPair pair = iter.next();
+                if (statistics != null) {
+                    statistics.processPair(pair);
+                }
                 if (pair.isContigPair()) {
                     contig++;
                 } else {
@@ -590,6 +632,9 @@ public class Preprocessor {
         } finally {
             if (iter != null) iter.close();
         }
+        if (statistics != null) {
+            statisticsContainer = statistics.getResultsContainer();
+        }
 
         /*
             Intra-fragment Reads: 2,321 (0.19% / 0.79%)
@@ -655,14 +700,25 @@ public class Preprocessor {
         }
     }
 
+    /**
+     * @return iterator over the pairs of a compact pairs (.cpairs), legacy binary (.bin) or text pairs file
+     */
+    protected PairIterator getPairIterator(String file) throws IOException {
+        if (CompactPairsFile.isCompactPairsFile(file)) {
+            return new CompactPairsFile(file).iterator(chromosomeIndexes);
+        } else if (file.endsWith(".bin")) {
+            return new BinPairIterator(file);
+        } else {
+            return new AsciiPairIterator(file, chromosomeIndexes, chromosomeHandler);
+        }
+    }
+
     protected void writeBody(String inputFile, Map<Integer, Long> mndIndex) throws IOException {
 
         MatrixPP wholeGenomeMatrix = computeWholeGenomeMatrix(inputFile);
         writeMatrix(wholeGenomeMatrix, losArray, compressor, matrixPositions, -1, false);
 
-        PairIterator iter = (inputFile.endsWith(".bin")) ?
-                new BinPairIterator(inputFile) :
-                new AsciiPairIterator(inputFile, chromosomeIndexes, chromosomeHandler);
+        PairIterator iter = getPairIterator(inputFile);
 
         Set<String> writtenMatrices = Collections.synchronizedSet(new HashSet<>());
 
@@ -838,6 +894,69 @@ public class Preprocessor {
         }
     }
 
+    /**
+     * Replaces the reserved statistics and graphs in the header with the computed ones, padded with spaces.
+     * As the statistics command does, the statistics are also appended to the statistics file and the graphs
+     * written next to it, if one was given
+     */
+    protected void updateStatistics(String headerFile) throws IOException {
+        if (statisticsContainer == null) {
+            statisticsContainer = new StatisticsContainer();
+        }
+        String stats = previousStatistics + statisticsContainer.getStatsText(0, previousStatistics);
+        String graphs = statisticsContainer.getHistText(0);
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(headerFile, "rw");
+            writePadded(raf, statisticsPosition, stats, statisticsLength);
+            writePadded(raf, graphsPosition, graphs, graphsLength);
+        } finally {
+            if (raf != null) raf.close();
+        }
+
+        if (statsFileName != null) {
+            List<String> statsFiles = Collections.singletonList(statsFileName);
+            statisticsContainer.outputStatsFile(statsFiles);
+            statisticsContainer.writeHistFile(statsFiles);
+        }
+    }
+
+    private static void appendPadding(StringBuilder text, int length) {
+        for (int i = 0; i < length; i++) {
+            text.append(' ');
+        }
+    }
+
+    /**
+     * Overwrites the length bytes at the position with the text, as written by LittleEndianOutputStream.writeString
+     * (one byte per character), truncated or padded with spaces to exactly length bytes
+     */
+    private static void writePadded(RandomAccessFile raf, long position, String text, int length) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+        if (bytes.length > length) {
+            System.err.println("Warning: statistics truncated to " + length + " bytes");
+        }
+        byte[] padded = Arrays.copyOf(bytes, length);
+        Arrays.fill(padded, Math.min(bytes.length, length), length, (byte) ' ');
+        raf.getChannel().position(position);
+        raf.write(padded);
+    }
+
+    /**
+     * @return a worker accumulating the statistics of the pairs it is given, or null if they are not computed
+     */
+    protected StatisticsWorker createStatisticsWorker(String inputFile) {
+        if (!computeStatistics) return null;
+        // as the statistics command, with the mapq threshold of this map; juicer uses XXXX when there is no enzyme
+        boolean hasSites = fragmentCalculation != null;
+        return new StatisticsWorker(hasSites ? fragmentFileName : "none",
+                Collections.singletonList(statsFileName != null ? statsFileName : STATISTICS),
+                Collections.singletonList(Math.max(mapqThreshold, 1)),
+                ligationJunction != null ? ligationJunction : "XXXX",
+                inputFile, chromosomeHandler, fragmentCalculation);
+    }
+
     private void updateNormVectorIndexInfo() throws IOException {
         RandomAccessFile raf = null;
         try {
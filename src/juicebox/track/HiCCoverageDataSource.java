@@ -148,8 +148,6 @@ public class HiCCoverageDataSource implements HiCDataSource {
 
         NormalizationVector nv = dataset.getNormalizationVector(chr.getIndex(), zoom, normalizationType);
         if (nv == null) return null;
-    
-        double[] data = nv.getData().getValues().get(0);
 
         CoverageDataPoint[] dataPoints = new CoverageDataPoint[endBin - startBin + 1];
 
@@ -157,7 +155,7 @@ public class HiCCoverageDataSource implements HiCDataSource {
             long gStart = gridAxis.getGenomicStart(b);
             long gEnd = gridAxis.getGenomicEnd(b);
             int idx = b - startBin;
-            double value = b < data.length ? data[b] : 0;
+            double value = b < nv.getLength() ? nv.getValue(b) : 0;
             dataPoints[idx] = new CoverageDataPoint(b, gStart, gEnd, value);
         }
 
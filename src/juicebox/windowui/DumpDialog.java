@@ -34,6 +34,7 @@ import juicebox.data.NormalizationVector;
 
 import javax.swing.*;
 import java.awt.*;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 
@@ -71,7 +72,7 @@ public class DumpDialog extends JFileChooser {
                             return;
                         }
                     }
-                    zd.dump(new PrintWriter(getSelectedFile()), null, hic.getObsNormalizationType(), matrixType,
+                    zd.dump(new FileOutputStream(getSelectedFile()), null, hic.getObsNormalizationType(), matrixType,
                             true, hic.getCurrentRegionWindowGenomicPositions(), df, false);
 
                 } else if (box.getSelectedItem().equals("Norm vector")) {